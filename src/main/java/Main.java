@@ -45,11 +45,12 @@ public class Main {
         } catch (Exception e) {
             System.err.println("Failed to validate arguments!");
             System.err.println("Reason: " + e.getMessage());
-            System.err.println("Expected Usage: java Main <db loc> <page size> <buffer size> <index>");
+            System.err.println("Expected Usage: java Main <db loc> <page size> <buffer size> <index> [-mmap]");
             System.err.println("\t<db loc>:         Path to the database root");
             System.err.println("\t<page size>:      Size of page ( in bytes )");
             System.err.println("\t<buffer size>:    Size of page buffer ( page capacity )");
             System.err.println("\t<index>:          optional param, if true initialize database using indexes");
+            System.err.println("\t-mmap:            optional flag, access table and index files through memory maps");
             System.exit(1);
         }
 
@@ -60,7 +61,8 @@ public class Main {
         Catalog catalog = new Catalog(
                 pageSize, bufferSize,
                 args[0],
-                List.of("true", "false").contains(args[3]) && Boolean.parseBoolean(args[3])    // if index param present, convert to bool
+                List.of("true", "false").contains(args[3]) && Boolean.parseBoolean(args[3]),    // if index param present, convert to bool
+                List.of(args).contains("-mmap")     // the OS page cache holds the files, suits read-mostly workloads
         );
 
         CLI cli = new CLI(
@@ -1,6 +1,7 @@
 package catalog;
 
 import dataTypes.AttributeType;
+import dataTypes.DataType;
 
 public class Attribute implements IAttribute {
     private final String Name;
@@ -9,6 +10,9 @@ public class Attribute implements IAttribute {
     private final boolean Unique;
     private final boolean Nullable;
     private final boolean PrimaryKey;
+    private DataType Default;       // value of records stored before the attribute was added, null for null
+    private int AddedIn = 0;        // schema version the attribute was added in
+    private int DroppedIn = -1;     // schema version the attribute was dropped in, -1 if it is still in the table
 
     private Attribute(String name, AttributeType type, boolean unique, boolean nullable, boolean primaryKey) {
         Name = name;
@@ -100,4 +104,44 @@ public class Attribute implements IAttribute {
     public boolean isPrimaryKey() {
         return PrimaryKey;
     }
+
+    /**
+     * @return Value of the attribute in records stored before it was added
+     */
+    public DataType getDefault() {
+        if (Default == null)
+            Default = ColumnStatistics.parseValue(this, null);
+        return Default;
+    }
+
+    /**
+     * @param defaultValue Value of the attribute in records stored before it was added, null for null
+     */
+    public void setDefault(DataType defaultValue) {
+        Default = defaultValue;
+    }
+
+    int getAddedIn() {
+        return AddedIn;
+    }
+
+    void setAddedIn(int version) {
+        AddedIn = version;
+    }
+
+    int getDroppedIn() {
+        return DroppedIn;
+    }
+
+    void setDroppedIn(int version) {
+        DroppedIn = version;
+    }
+
+    /**
+     * @param version Schema version of a page
+     * @return true if records written at the version store this attribute
+     */
+    boolean isStoredIn(int version) {
+        return AddedIn <= version && (DroppedIn < 0 || version < DroppedIn);
+    }
 }
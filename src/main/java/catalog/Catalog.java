@@ -1,12 +1,12 @@
 package catalog;
 
+import cli.cmd.PlanCache;
 import cli.cmd.exception.ExecutionFailure;
 import util.Console;
 import dataTypes.*;
 import sm.StorageManager;
 
-import java.io.IOException;
-import java.io.RandomAccessFile;
+import java.io.*;
 import java.nio.file.*;
 import java.util.*;
 
@@ -16,13 +16,15 @@ public class Catalog implements ICatalog {
     private static final String CRIT_DELETE_ERROR_STR = "A critical error occurred while deleting the table from the catalog.";
 
     private static final String PAGE_SIZE_PATH = "ps";
+    private static final String SNAPSHOT_PATH = "catalog.snap";
+    private static final int SNAPSHOT_FORMAT = 1;     // bump when the layout of the snapshot changes
     private static final int TABLE_DATA_NUM = Integer.MIN_VALUE;
     private static final List<Attribute> TABLE_SCHEMA = List.of(
             new Attribute("id", AttributeType.INTEGER),
             new Attribute("name", AttributeType.VARCHAR, 255, true, false)
     );
     private static final int ATTR_DATA_NUM = Integer.MIN_VALUE + 1;
-    private static final List<Attribute> ATTR_SCHEMA = List.of(
+    private static final Schema ATTR_SCHEMA = new Schema(List.of(
             new Attribute("id", AttributeType.INTEGER),
             new Attribute("table_id", AttributeType.INTEGER, false, false),
             new Attribute("name", AttributeType.VARCHAR, 255, true, false),
@@ -32,7 +34,34 @@ public class Catalog implements ICatalog {
             new Attribute("unique", AttributeType.BOOLEAN, false, false),
             new Attribute("nullable", AttributeType.BOOLEAN, false, false),
             new Attribute("primarykey", AttributeType.BOOLEAN, false, false)
+    ));
+    static {
+        // added with alter table, attribute rows saved before then read them as null
+        ATTR_SCHEMA.addAttribute(new Attribute("added_in", AttributeType.INTEGER, false, true));
+        ATTR_SCHEMA.addAttribute(new Attribute("dropped_in", AttributeType.INTEGER, false, true));
+        ATTR_SCHEMA.addAttribute(new Attribute("default", AttributeType.VARCHAR, 255, false, true));
+    }
+    private static final int DROPPED_IN_INDEX = 10;
+
+    private static final int STATS_DATA_NUM = Integer.MIN_VALUE + 2;
+    private static final List<Attribute> STATS_SCHEMA = List.of(
+            new Attribute("table_id", AttributeType.INTEGER),
+            new Attribute("row_count", AttributeType.INTEGER, false, false),
+            new Attribute("page_count", AttributeType.INTEGER, false, false),
+            new Attribute("record_bytes", AttributeType.DOUBLE, false, false)
+    );
+
+    private static final int COLUMN_STATS_DATA_NUM = Integer.MIN_VALUE + 3;
+    private static final List<Attribute> COLUMN_STATS_SCHEMA = List.of(
+            new Attribute("id", AttributeType.INTEGER),
+            new Attribute("table_id", AttributeType.INTEGER, false, false),
+            new Attribute("attr_name", AttributeType.VARCHAR, 255, false, false),
+            new Attribute("distinct_count", AttributeType.INTEGER, false, false),
+            new Attribute("null_fraction", AttributeType.DOUBLE, false, false),
+            new Attribute("bound_index", AttributeType.INTEGER, false, false),
+            new Attribute("bound", AttributeType.VARCHAR, 255, false, true)
     );
+    private static final int MAX_BOUND_LENGTH = 255;
 
     private static final int ORDER_INDEX = 5;
 
@@ -40,15 +69,24 @@ public class Catalog implements ICatalog {
     private final int BufferSize;
     private final String DBPath;
     private boolean IsIndexed;
+    private final boolean MemoryMapped;
     private final Map<String, Table> Tables = new HashMap<>();
     private int NextNum = 1;
+    private int NextAttrId = 1;
+    private final Map<Attribute, Integer> AttrIds = new HashMap<>();     // id of the attribute data row of each attribute
+    private final PlanCache PlanCache = new PlanCache();
     public StorageManager StorageManager;
 
     public Catalog(int pageSize, int bufferSize, String DBPath, boolean isIndexed) {
+        this(pageSize, bufferSize, DBPath, isIndexed, false);
+    }
+
+    public Catalog(int pageSize, int bufferSize, String DBPath, boolean isIndexed, boolean memoryMapped) {
         this.PageSize = pageSize;
         this.BufferSize = bufferSize;
         this.DBPath = DBPath;
         this.IsIndexed = isIndexed;
+        this.MemoryMapped = memoryMapped;
         initStorageManager();
     }
 
@@ -83,7 +121,7 @@ public class Catalog implements ICatalog {
             Console.err("The db location is unusable.");
             System.exit(-2);
         }
-        this.StorageManager = new StorageManager(this.BufferSize, this.PageSize, this.DBPath, this.IsIndexed);
+        this.StorageManager = new StorageManager(this.BufferSize, this.PageSize, this.DBPath, this.IsIndexed, this.MemoryMapped);
     }
 
     private void loadOldDB(Path pageSizePath) throws ExecutionFailure {
@@ -104,9 +142,30 @@ public class Catalog implements ICatalog {
             Console.err("The db has become corrupt.");
             System.exit(-1);
         }
-        this.StorageManager = new StorageManager(this.BufferSize, this.PageSize, this.DBPath , this.IsIndexed);
+        this.StorageManager = new StorageManager(this.BufferSize, this.PageSize, this.DBPath , this.IsIndexed, this.MemoryMapped);
+        try {
+            int recovered = StorageManager.recover();
+            if (recovered > 0)
+                Console.out("Recovered %d pages from the write-ahead log.".formatted(recovered));
+        } catch (IOException ioe) {
+            throw new ExecutionFailure("Failed to recover from the write-ahead log: " + ioe.getMessage());
+        }
 
-        HashMap<Integer, Table> tableObjects = new HashMap<>();
+        Map<Integer, Table> tableObjects = loadSnapshot();
+        if (tableObjects == null)
+            tableObjects = loadSystemRelations();
+
+        loadStatistics(tableObjects);
+    }
+
+    /**
+     * Rebuild the tables from the table and attribute data relations
+     *
+     * @return Tables by table number
+     * @throws ExecutionFailure Failed to read the system relations
+     */
+    private Map<Integer, Table> loadSystemRelations() throws ExecutionFailure {
+        Map<Integer, Table> tableObjects = new HashMap<>();
 
         List<List<DataType>> allTableRecords = StorageManager.getAllRecords(TABLE_DATA_NUM, TABLE_SCHEMA);
 
@@ -122,30 +181,310 @@ public class Catalog implements ICatalog {
 
         List<List<DataType>> allAttrDTs = StorageManager.getAllRecords(ATTR_DATA_NUM, ATTR_SCHEMA);
 
-        for (int tableNum : tableObjects.keySet()) {
-            for (List<DataType> record : allAttrDTs.stream().filter(r -> ((DTInteger) r.get(1)).getValue() == tableNum).sorted(new AttrRecordSorter()).toList()) {
-                int table_id = ((DTInteger) record.get(1)).getValue();
-                String name = ((DTVarchar) record.get(2)).getValue();
-                String type = ((DTVarchar) record.get(3)).getValue();
-                Integer maxDataLen = ((DTInteger) record.get(4)).getValue();
-                boolean unique = ((DTBoolean) record.get(6)).getValue();
-                boolean nullable = ((DTBoolean) record.get(7)).getValue();
-                boolean primarykey = ((DTBoolean) record.get(8)).getValue();
-
-                if (maxDataLen == null) {
-                    tableObjects.get(table_id).addAttribute(new Attribute(name, type, unique, nullable, primarykey));
-                } else {
-                    tableObjects.get(table_id).addAttribute(new Attribute(name, type, maxDataLen, unique, nullable, primarykey));
+        // one sort groups the rows by table and puts each table's rows in order
+        List<List<DataType>> sortedAttrDTs = new ArrayList<>(allAttrDTs);
+        sortedAttrDTs.sort(Comparator.<List<DataType>>comparingInt(r -> ((DTInteger) r.get(1)).getValue()).thenComparing(new AttrRecordSorter()));
+
+        for (List<DataType> record : sortedAttrDTs) {
+            int table_id = ((DTInteger) record.get(1)).getValue();
+            if (!tableObjects.containsKey(table_id))
+                continue;
+
+            String name = ((DTVarchar) record.get(2)).getValue();
+            String type = ((DTVarchar) record.get(3)).getValue();
+            Integer maxDataLen = ((DTInteger) record.get(4)).getValue();
+            boolean unique = ((DTBoolean) record.get(6)).getValue();
+            boolean nullable = ((DTBoolean) record.get(7)).getValue();
+            boolean primarykey = ((DTBoolean) record.get(8)).getValue();
+            Integer addedIn = ((DTInteger) record.get(9)).getValue();
+            Integer droppedIn = ((DTInteger) record.get(DROPPED_IN_INDEX)).getValue();
+            String defaultValue = ((DTVarchar) record.get(11)).getValue();
+
+            Attribute attribute = maxDataLen == null
+                    ? new Attribute(name, type, unique, nullable, primarykey)
+                    : new Attribute(name, type, maxDataLen, unique, nullable, primarykey);
+            attribute.setAddedIn(addedIn == null ? 0 : addedIn);
+            attribute.setDroppedIn(droppedIn == null ? -1 : droppedIn);
+            if (defaultValue != null)
+                attribute.setDefault(ColumnStatistics.parseValue(attribute, defaultValue));
+
+            tableObjects.get(table_id).addAttribute(attribute);
+            AttrIds.put(attribute, ((DTInteger) record.getFirst()).getValue());
+        }
+
+        NextNum = tableObjects.keySet().stream().max(Comparator.naturalOrder()).orElse(0) + 1;
+        NextAttrId = allAttrDTs.stream()
+                .map(r -> ((DTInteger) r.getFirst()).getValue())
+                .max(Comparator.naturalOrder())
+                .orElse(0)
+                + 1;
+
+        return tableObjects;
+    }
+
+    /**
+     * Load the tables from the snapshot written at the last clean shutdown. The snapshot is removed once read, so
+     * after a crash or with a snapshot from another version the tables are rebuilt from the system relations instead
+     *
+     * @return Tables by table number, null if there is no usable snapshot
+     */
+    private Map<Integer, Table> loadSnapshot() {
+        Path snapshotPath = Paths.get(this.DBPath, SNAPSHOT_PATH);
+        if (!snapshotPath.toFile().exists())
+            return null;
+
+        Map<Integer, Table> tableObjects = new HashMap<>();
+        Map<Attribute, Integer> attrIds = new HashMap<>();
+        try (DataInputStream snapshot = new DataInputStream(new ByteArrayInputStream(Files.readAllBytes(snapshotPath)))) {
+            Files.delete(snapshotPath);
+            if (snapshot.readInt() != SNAPSHOT_FORMAT)
+                return null;
+
+            int nextNum = snapshot.readInt();
+            int nextAttrId = snapshot.readInt();
+            int tableCount = snapshot.readInt();
+            for (int i = 0; i < tableCount; i++) {
+                Table t = new Table(snapshot.readUTF(), snapshot.readInt());
+                int attrCount = snapshot.readInt();
+                for (int j = 0; j < attrCount; j++) {
+                    int id = snapshot.readInt();
+                    String name = snapshot.readUTF();
+                    AttributeType type = AttributeType.values()[snapshot.readByte()];
+                    int maxDataLen = snapshot.readInt();
+                    byte flags = snapshot.readByte();
+                    boolean unique = (flags & 1) != 0;
+                    boolean nullable = (flags & 2) != 0;
+                    boolean primarykey = (flags & 4) != 0;
+
+                    Attribute attribute = maxDataLen < 0
+                            ? new Attribute(name, type.name(), unique, nullable, primarykey)
+                            : new Attribute(name, type.name(), maxDataLen, unique, nullable, primarykey);
+                    attribute.setAddedIn(snapshot.readInt());
+                    attribute.setDroppedIn(snapshot.readInt());
+                    if ((flags & 8) != 0)
+                        attribute.setDefault(ColumnStatistics.parseValue(attribute, snapshot.readUTF()));
+
+                    t.addAttribute(attribute);
+                    attrIds.put(attribute, id);
                 }
+                tableObjects.put(t.getNumber(), t);
             }
+
+            if (snapshot.available() > 0)
+                return null;
+            NextNum = nextNum;
+            NextAttrId = nextAttrId;
+        } catch (IOException | RuntimeException e) {
+            return null;    // cut short or unreadable, the system relations are still correct
         }
 
-        NextNum = tableObjects.keySet().stream().max(Comparator.naturalOrder()).orElse(0) + 1;
+        tableObjects.values().forEach(t -> Tables.put(t.getName(), t));
+        AttrIds.putAll(attrIds);
+        return tableObjects;
+    }
 
+    /**
+     * Write every table and attribute to the snapshot read on the next start. Attributes are written in the order
+     * they were saved to the catalog, so loading them rebuilds the same schema versions
+     *
+     * @throws IOException Failed to write the snapshot
+     */
+    private void saveSnapshot() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(SNAPSHOT_FORMAT);
+            out.writeInt(NextNum);
+            out.writeInt(NextAttrId);
+            out.writeInt(Tables.size());
+            for (Table t : Tables.values()) {
+                out.writeUTF(t.getName());
+                out.writeInt(t.getNumber());
+
+                List<Attribute> stored = t.getAttributes().getStored();
+                out.writeInt(stored.size());
+                for (Attribute a : stored) {
+                    boolean hasLength = a.getDataType() == AttributeType.CHAR || a.getDataType() == AttributeType.VARCHAR;
+                    boolean hasDefault = !a.getDefault().isNull();
+                    out.writeInt(AttrIds.get(a));
+                    out.writeUTF(a.getName());
+                    out.writeByte(a.getDataType().ordinal());
+                    out.writeInt(hasLength ? a.getMaxDataLength() : -1);
+                    out.writeByte((a.isUnique() ? 1 : 0) | (a.isNullable() ? 2 : 0) | (a.isPrimaryKey() ? 4 : 0) | (hasDefault ? 8 : 0));
+                    out.writeInt(a.getAddedIn());
+                    out.writeInt(a.getDroppedIn());
+                    if (hasDefault)
+                        out.writeUTF(a.getDefault().stringValue());
+                }
+            }
+        }
+
+        // write then rename so a crash part way through never leaves a snapshot that looks complete
+        Path snapshotPath = Paths.get(this.DBPath, SNAPSHOT_PATH);
+        Path tempPath = Paths.get(this.DBPath, SNAPSHOT_PATH + ".tmp");
+        Files.write(tempPath, bytes.toByteArray());
+        Files.move(tempPath, snapshotPath, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Load the statistics saved at the last clean shutdown. Saved statistics are removed once loaded so a crash
+     * can't leave stale counts behind, and any table without saved statistics is rebuilt with a scan
+     *
+     * @param tableObjects Tables by table number
+     * @throws ExecutionFailure Failed to read the statistics or rebuild them
+     */
+    private void loadStatistics(Map<Integer, Table> tableObjects) throws ExecutionFailure {
+        Map<Integer, TableStatistics> saved = new HashMap<>();
+        for (List<DataType> record : StorageManager.getAllRecords(STATS_DATA_NUM, STATS_SCHEMA)) {
+            saved.put(((DTInteger) record.get(0)).getValue(), new TableStatistics(
+                    ((DTInteger) record.get(1)).getValue(),
+                    ((DTInteger) record.get(2)).getValue(),
+                    ((DTDouble) record.get(3)).getValue()));
+        }
+
+        try {
+            for (int tableNum : saved.keySet())
+                StorageManager.deleteRecord(STATS_DATA_NUM, new DTInteger(Integer.toString(tableNum)), STATS_SCHEMA);
+            StorageManager.flush();
+        } catch (IOException ioe) {
+            throw new ExecutionFailure("Failed to clear saved statistics: " + ioe.getMessage());
+        }
+
+        for (Table t : tableObjects.values()) {
+            TableStatistics stats = saved.get(t.getNumber());
+            if (stats == null)
+                stats = StorageManager.computeStatistics(t.getNumber(), t.getAttributes());
+
+            t.setStatistics(stats);
+            StorageManager.registerStatistics(t.getNumber(), stats);
+        }
+
+        loadColumnStatistics(tableObjects);
+    }
+
+    /**
+     * Load the column statistics saved at the last clean shutdown. Like the table statistics they are removed once
+     * loaded, a table whose column statistics are lost just goes back to the planner's guesses until it is analyzed
+     *
+     * @param tableObjects Tables by table number
+     * @throws ExecutionFailure Failed to read the column statistics
+     */
+    private void loadColumnStatistics(Map<Integer, Table> tableObjects) throws ExecutionFailure {
+        List<List<DataType>> records = StorageManager.getAllRecords(COLUMN_STATS_DATA_NUM, COLUMN_STATS_SCHEMA);
+
+        // rows are one histogram bound each, group them by table and attribute
+        Map<Integer, Map<String, List<List<DataType>>>> rowsByColumn = new HashMap<>();
+        for (List<DataType> record : records) {
+            rowsByColumn.computeIfAbsent(((DTInteger) record.get(1)).getValue(), k -> new HashMap<>())
+                    .computeIfAbsent(((DTVarchar) record.get(2)).getValue(), k -> new ArrayList<>())
+                    .add(record);
+        }
+
+        for (Map.Entry<Integer, Map<String, List<List<DataType>>>> tableRows : rowsByColumn.entrySet()) {
+            Table t = tableObjects.get(tableRows.getKey());
+            if (t == null)
+                continue;
+
+            Map<String, ColumnStatistics> columnStatistics = new HashMap<>();
+            for (Map.Entry<String, List<List<DataType>>> columnRows : tableRows.getValue().entrySet()) {
+                Attribute attribute = t.getAttributes().stream()
+                        .filter(a -> a.getName().equalsIgnoreCase(columnRows.getKey()))
+                        .findFirst().orElse(null);
+                if (attribute == null)
+                    continue;
+
+                List<List<DataType>> rows = columnRows.getValue().stream()
+                        .sorted(Comparator.comparingInt(r -> ((DTInteger) r.get(5)).getValue()))
+                        .toList();
+                List<DataType> bounds = new ArrayList<>();
+                for (List<DataType> row : rows) {
+                    if (!row.get(6).isNull())
+                        bounds.add(ColumnStatistics.parseValue(attribute, ((DTVarchar) row.get(6)).getValue()));
+                }
+                columnStatistics.put(columnRows.getKey(), new ColumnStatistics(
+                        ((DTInteger) rows.getFirst().get(3)).getValue(),
+                        ((DTDouble) rows.getFirst().get(4)).getValue(),
+                        bounds));
+            }
+            t.setColumnStatistics(columnStatistics);
+        }
+
+        try {
+            for (List<DataType> record : records)
+                StorageManager.deleteRecord(COLUMN_STATS_DATA_NUM, record.getFirst(), COLUMN_STATS_SCHEMA);
+            StorageManager.flush();
+        } catch (IOException ioe) {
+            throw new ExecutionFailure("Failed to clear saved column statistics: " + ioe.getMessage());
+        }
+    }
+
+    /**
+     * Save the column statistics of a table, one row per histogram bound. Columns with a bound too long to store are
+     * skipped and have to be analyzed again after a restart
+     *
+     * @param t      Table to save the column statistics of
+     * @param nextId Id of the first row to insert
+     * @return Id of the next row to insert
+     * @throws IOException      Failed to write to the database
+     * @throws ExecutionFailure Failed to insert a row
+     */
+    private int saveColumnStatistics(Table t, int nextId) throws IOException, ExecutionFailure {
+        for (Map.Entry<String, ColumnStatistics> column : t.getColumnStatistics().entrySet()) {
+            ColumnStatistics stats = column.getValue();
+            if (stats.getBounds().stream().anyMatch(b -> b.stringValue().length() > MAX_BOUND_LENGTH))
+                continue;
+
+            // a column of only nulls has no bounds but still needs a row
+            List<DataType> bounds = stats.getBounds().isEmpty() ? Collections.singletonList(null) : stats.getBounds();
+            for (int i = 0; i < bounds.size(); i++) {
+                List<DataType> record = List.of(
+                        new DTInteger(Objects.toString(nextId++)),
+                        new DTInteger(Objects.toString(t.getNumber())),
+                        new DTVarchar(column.getKey()),
+                        new DTInteger(Objects.toString(stats.getDistinctCount())),
+                        new DTDouble(Objects.toString(stats.getNullFraction())),
+                        new DTInteger(Objects.toString(i)),
+                        new DTVarchar(bounds.get(i) == null ? null : bounds.get(i).stringValue())
+                );
+                StorageManager.insertRecord(COLUMN_STATS_DATA_NUM, COLUMN_STATS_SCHEMA, record);
+            }
+        }
+        return nextId;
+    }
+
+    /**
+     * Save the table and column statistics of every table and write out everything in the buffer. Should be called on
+     * clean shutdown
+     *
+     * @throws IOException Failed to write to the database
+     */
+    public void close() throws IOException {
+        StorageManager.stopPageWriter();    // the flush below writes whatever it did not get to
+        try {
+            int nextColumnStatsId = 1;
+            for (Table t : Tables.values()) {
+                nextColumnStatsId = saveColumnStatistics(t, nextColumnStatsId);
+
+                TableStatistics stats = t.getStatistics();
+                List<DataType> record = List.of(
+                        new DTInteger(Objects.toString(t.getNumber())),
+                        new DTInteger(Objects.toString(stats.getRowCount())),
+                        new DTInteger(Objects.toString(stats.getPageCount())),
+                        new DTDouble(Objects.toString(stats.getRecordBytes()))
+                );
+                StorageManager.insertRecord(STATS_DATA_NUM, STATS_SCHEMA, record);
+            }
+        } catch (ExecutionFailure ef) {
+            throw new IOException("Failed to save statistics: " + ef.getMessage());
+        }
+        StorageManager.flush();
+        saveSnapshot();
     }
 
     public void createTable(String name, List<Attribute> attributes) throws IOException, ExecutionFailure {
-        Tables.put(name, new Table(name, NextNum));
+        PlanCache.invalidate();
+        Table table = new Table(name, NextNum);
+        table.setStatistics(StorageManager.getStatistics(NextNum));
+        Tables.put(name, table);
 
         List<DataType> record = List.of(
                 new DTInteger(Objects.toString(NextNum)),
@@ -155,7 +494,8 @@ public class Catalog implements ICatalog {
         StorageManager.insertRecord(TABLE_DATA_NUM, TABLE_SCHEMA, record);
 
         for (Attribute a : attributes) {
-            addAttribute(name, a);
+            table.addAttribute(a);
+            insertAttribute(table, a);
         }
 
         StorageManager.flush();
@@ -163,6 +503,11 @@ public class Catalog implements ICatalog {
         NextNum++;
     }
 
+    @Override
+    public PlanCache getPlanCache() {
+        return PlanCache;
+    }
+
     @Override
     public int getPageSize() {
         return PageSize;
@@ -194,19 +539,15 @@ public class Catalog implements ICatalog {
     public void deleteTable(String name) throws ExecutionFailure {
         name = name.toLowerCase();
         Table t = Tables.remove(name);
+        PlanCache.invalidate();
 
         try {
             // Delete the entry from the table data relation
             StorageManager.deleteRecord(TABLE_DATA_NUM, new DTInteger(Integer.toString(t.getNumber())), TABLE_SCHEMA);
 
-            // Delete all related entries from the attribute data relation
-            //      Note: I wish we could use StorageManager.selectRecords, but because the catalog does not know about
-            //      the attr data relation (i.e., the relation does not have a "name"), it will not be able to build a
-            //      where tree.
-            for (List<DataType> record: StorageManager.getAllRecords(ATTR_DATA_NUM, ATTR_SCHEMA)) {
-                if (((DTInteger) record.get(1)).getValue() == t.getNumber()) {
-                    StorageManager.deleteRecord(ATTR_DATA_NUM, record.getFirst(), ATTR_SCHEMA);
-                }
+            // Delete all related entries from the attribute data relation, dropped attributes included
+            for (Attribute a : t.getAttributes().getStored()) {
+                StorageManager.deleteRecord(ATTR_DATA_NUM, new DTInteger(Objects.toString(AttrIds.remove(a))), ATTR_SCHEMA);
             }
         } catch (IOException e) {
             throw new ExecutionFailure(CRIT_DELETE_ERROR_STR);
@@ -215,23 +556,59 @@ public class Catalog implements ICatalog {
 
     @Override
     public void addAttribute(String tableName, Attribute attribute) throws ExecutionFailure, IOException {
-        tableName = tableName.toLowerCase();
-        Table t = Tables.get(tableName);
-        t.addAttribute(attribute);
+        Table t = Tables.get(tableName.toLowerCase());
+        t.alterAddAttribute(attribute);
+        PlanCache.invalidate();
 
-        int nextId = StorageManager.getAllRecords(ATTR_DATA_NUM, ATTR_SCHEMA).stream()
-                .map(a -> ((DTInteger) a.getFirst()).getValue())
-                .max(Comparator.naturalOrder())
-                .orElse(0)
-                + 1;
+        insertAttribute(t, attribute);
+        StorageManager.flush();
+    }
 
-        int nextOrder = StorageManager.getAllRecords(ATTR_DATA_NUM, ATTR_SCHEMA).stream()
-                .filter(a -> ((DTInteger) a.get(1)).getValue() == t.getNumber())
-                .map(a -> ((DTInteger) a.get(ORDER_INDEX)).getValue())
-                .max(Comparator.naturalOrder())
-                .orElse(0)
-                + 1;
+    @Override
+    public void dropAttribute(String tableName, String attrName) throws ExecutionFailure, IOException {
+        Table t = Tables.get(tableName.toLowerCase());
+        Attribute attribute = t.getAttributes().stream()
+                .filter(a -> a.getName().equalsIgnoreCase(attrName))
+                .findFirst().orElseThrow();
+        t.alterDropAttribute(attribute);
+        PlanCache.invalidate();
+
+        // the row stays so pages written before the drop can still be read
+        int id = AttrIds.get(attribute);
+        StorageManager.updateRecord(ATTR_DATA_NUM, ATTR_SCHEMA, new DTInteger(Objects.toString(id)), toAttributeRecord(t, attribute, id));
+        StorageManager.flush();
+    }
+
+    @Override
+    public void setColumnStatistics(String tableName, Map<String, ColumnStatistics> columnStatistics) {
+        Table t = Tables.get(tableName.toLowerCase());
+        t.setColumnStatistics(columnStatistics);
+        PlanCache.invalidate();     // plans were picked with the old statistics
+    }
 
+    /**
+     * Save an attribute of a table to the attribute data relation
+     *
+     * @param t         Table the attribute belongs to
+     * @param attribute Attribute to save
+     * @throws ExecutionFailure Failed to insert the row
+     * @throws IOException      Failed to write to the database
+     */
+    private void insertAttribute(Table t, Attribute attribute) throws ExecutionFailure, IOException {
+        int id = NextAttrId++;
+        AttrIds.put(attribute, id);
+        StorageManager.insertRecord(ATTR_DATA_NUM, ATTR_SCHEMA, toAttributeRecord(t, attribute, id));
+    }
+
+    /**
+     * Build the attribute data row of an attribute. Its order is its position among every attribute the table stored
+     *
+     * @param t         Table the attribute belongs to
+     * @param attribute Attribute to save
+     * @param id        ID of the row
+     * @return Attribute data record
+     */
+    private List<DataType> toAttributeRecord(Table t, Attribute attribute, int id) {
         DTInteger maxDataLen;
 
         if (attribute.getDataType() == AttributeType.CHAR || attribute.getDataType() == AttributeType.VARCHAR) {
@@ -240,18 +617,20 @@ public class Catalog implements ICatalog {
             maxDataLen = new DTInteger((String) null);
         }
 
-        List<DataType> record = List.of(
-                new DTInteger(Objects.toString(nextId)),
+        return List.of(
+                new DTInteger(Objects.toString(id)),
                 new DTInteger(Objects.toString(t.getNumber())),
                 new DTVarchar(attribute.getName()),
                 new DTVarchar(attribute.getDataType().name()),
                 maxDataLen,
-                new DTInteger(Objects.toString(nextOrder)),
+                new DTInteger(Objects.toString(t.getAttributes().getStored().indexOf(attribute) + 1)),
                 new DTBoolean(Objects.toString(attribute.isUnique())),
                 new DTBoolean(Objects.toString(attribute.isNullable())),
-                new DTBoolean(Objects.toString(attribute.isPrimaryKey()))
+                new DTBoolean(Objects.toString(attribute.isPrimaryKey())),
+                new DTInteger(Objects.toString(attribute.getAddedIn())),
+                new DTInteger(attribute.getDroppedIn() < 0 ? null : Objects.toString(attribute.getDroppedIn())),
+                new DTVarchar(attribute.getDefault().isNull() ? null : attribute.getDefault().stringValue())
         );
-        StorageManager.insertRecord(ATTR_DATA_NUM, ATTR_SCHEMA, record);
     }
 
     private static class AttrRecordSorter implements Comparator<List<DataType>> {
@@ -0,0 +1,223 @@
+package catalog;
+
+import dataTypes.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <b>File:</b> ColumnStatistics.java
+ * <p>
+ * <b>Description:</b> Value distribution of a single column gathered by analyze, used by the planner to estimate how
+ * many records pass a predicate
+ *
+ * @author Derek Garcia
+ */
+public class ColumnStatistics {
+
+    public static final int HISTOGRAM_BUCKETS = 10;
+
+    private final int distinctCount;
+    private final double nullFraction;
+    private final List<DataType> bounds;    // equi-depth histogram bounds, first is the min and last is the max
+
+    /**
+     * Create column statistics
+     *
+     * @param distinctCount Estimated number of distinct non-null values
+     * @param nullFraction  Fraction of the records that are null in this column
+     * @param bounds        Equi-depth histogram bounds in ascending order, empty if every value is null
+     */
+    public ColumnStatistics(int distinctCount, double nullFraction, List<DataType> bounds) {
+        this.distinctCount = distinctCount;
+        this.nullFraction = nullFraction;
+        this.bounds = bounds;
+    }
+
+    /**
+     * Build the statistics of a column from a sample of its values
+     *
+     * @param sample      Values of the column read from the sampled pages, in any order
+     * @param sampleRows  Number of records that were sampled
+     * @param tableRows   Number of records in the table
+     * @return Statistics of the column
+     */
+    public static ColumnStatistics fromSample(List<DataType> sample, int sampleRows, int tableRows) {
+        List<DataType> values = new ArrayList<>(sample.stream().filter(v -> !v.isNull()).toList());
+        values.sort((v1, v2) -> v2.compareTo(v1));     // compareTo is reversed, this is ascending
+
+        double nullFraction = sampleRows == 0 ? 0 : (double) (sampleRows - values.size()) / sampleRows;
+
+        // count the distinct values and how many were only seen once
+        int sampleDistinct = 0;
+        int seenOnce = 0;
+        for (int i = 0; i < values.size(); ) {
+            int j = i + 1;
+            while (j < values.size() && values.get(j).compareTo(values.get(i)) == 0)
+                j++;
+            sampleDistinct++;
+            if (j - i == 1)
+                seenOnce++;
+            i = j;
+        }
+
+        // scale up the distinct count if only part of the table was read (Haas and Stokes' Duj1 estimator)
+        int distinctCount = sampleDistinct;
+        if (sampleRows < tableRows && !values.isEmpty()) {
+            double n = values.size();
+            double estimate = n * sampleDistinct / (n - seenOnce + seenOnce * n / (tableRows * (1 - nullFraction)));
+            distinctCount = (int) Math.round(Math.min(Math.max(estimate, sampleDistinct), tableRows));
+        }
+
+        // equi-depth bounds, each bucket holds the same number of sampled values
+        List<DataType> bounds = new ArrayList<>();
+        if (!values.isEmpty()) {
+            int buckets = Math.min(HISTOGRAM_BUCKETS, values.size());
+            for (int i = 0; i <= buckets; i++)
+                bounds.add(values.get(Math.min(values.size() - 1, i * values.size() / buckets)));
+        }
+
+        return new ColumnStatistics(distinctCount, nullFraction, bounds);
+    }
+
+    /**
+     * @return Estimated number of distinct non-null values
+     */
+    public int getDistinctCount() {
+        return this.distinctCount;
+    }
+
+    /**
+     * @return Fraction of the records that are null in this column
+     */
+    public double getNullFraction() {
+        return this.nullFraction;
+    }
+
+    /**
+     * @return Equi-depth histogram bounds in ascending order, empty if every value is null
+     */
+    public List<DataType> getBounds() {
+        return this.bounds;
+    }
+
+    /**
+     * @return Smallest value of the column, null if every value is null
+     */
+    public DataType getMin() {
+        return this.bounds.isEmpty() ? null : this.bounds.getFirst();
+    }
+
+    /**
+     * @return Largest value of the column, null if every value is null
+     */
+    public DataType getMax() {
+        return this.bounds.isEmpty() ? null : this.bounds.getLast();
+    }
+
+    /**
+     * @return Summary of the statistics for display
+     */
+    @Override
+    public String toString() {
+        return "distinct %d, nulls %.2f, min %s, max %s".formatted(
+                this.distinctCount,
+                this.nullFraction,
+                getMin() == null ? "NULL" : getMin().stringValue(),
+                getMax() == null ? "NULL" : getMax().stringValue());
+    }
+
+    /**
+     * Estimate the fraction of the records that pass the comparison <code>column comparator value</code>
+     *
+     * @param comparator One of =, !=, <, <=, >, >=
+     * @param value      Constant the column is compared to, null if it is a parameter that is not known yet
+     * @return Selectivity between 0 and 1
+     */
+    public double estimateSelectivity(String comparator, DataType value) {
+        double notNull = 1 - this.nullFraction;
+        if (this.bounds.isEmpty())
+            return 0;   // every value is null, nothing passes a comparison
+
+        // without a value assume it is one of the column's values and ranges cover a third of them
+        boolean inRange = value == null || (compare(value, getMin()) >= 0 && compare(value, getMax()) <= 0);
+        double equal = inRange ? notNull / Math.max(1, this.distinctCount) : 0;
+        double less = notNull * (value == null ? 1.0 / 3 : fractionBelow(value));
+
+        double selectivity = switch (comparator) {
+            case "=" -> equal;
+            case "!=" -> notNull - equal;
+            case "<" -> less;
+            case "<=" -> less + equal;
+            case ">" -> notNull - less - equal;
+            case ">=" -> notNull - less;
+            default -> 1;
+        };
+        return Math.min(1, Math.max(0, selectivity));
+    }
+
+    /**
+     * Find the fraction of the non-null values that are smaller than a value using the histogram. Numeric values are
+     * interpolated within their bucket, anything else is assumed to be in the middle of it
+     *
+     * @param value Value to find the position of
+     * @return Fraction between 0 and 1
+     */
+    private double fractionBelow(DataType value) {
+        if (compare(value, getMin()) <= 0)
+            return 0;
+        if (compare(value, getMax()) > 0)
+            return 1;
+
+        int buckets = this.bounds.size() - 1;
+        if (buckets == 0)
+            return 0;
+
+        int bucket = 0;
+        while (bucket < buckets - 1 && compare(value, this.bounds.get(bucket + 1)) > 0)
+            bucket++;
+
+        double position = 0.5;
+        Double low = toNumber(this.bounds.get(bucket));
+        Double high = toNumber(this.bounds.get(bucket + 1));
+        Double target = toNumber(value);
+        if (low != null && high != null && target != null)
+            position = high.equals(low) ? 0 : Math.min(1, Math.max(0, (target - low) / (high - low)));
+
+        return (bucket + position) / buckets;
+    }
+
+    /**
+     * Compare two non-null values in ascending order
+     *
+     * @return negative if v1 is smaller, 0 if equal, positive if v1 is larger
+     */
+    private static int compare(DataType v1, DataType v2) {
+        return v2.compareTo(v1);
+    }
+
+    private static Double toNumber(DataType value) {
+        if (value instanceof DTInteger i)
+            return i.getValue().doubleValue();
+        if (value instanceof DTDouble d)
+            return d.getValue();
+        return null;
+    }
+
+    /**
+     * Convert the string form of a histogram bound back into a value of the column
+     *
+     * @param attribute Column the value belongs to
+     * @param value     String form of the value
+     * @return Value of the column
+     */
+    public static DataType parseValue(Attribute attribute, String value) {
+        return switch (attribute.getDataType()) {
+            case INTEGER -> new DTInteger(value);
+            case DOUBLE -> new DTDouble(value);
+            case BOOLEAN -> new DTBoolean(value);
+            case CHAR -> new DTChar(value, attribute.getMaxDataLength());
+            case VARCHAR -> new DTVarchar(value);
+        };
+    }
+}
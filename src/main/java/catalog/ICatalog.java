@@ -1,9 +1,11 @@
 package catalog;
 
+import cli.cmd.PlanCache;
 import cli.cmd.exception.ExecutionFailure;
 
 import java.io.IOException;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 public interface ICatalog {
@@ -16,6 +18,15 @@ public interface ICatalog {
     void createTable(String name, List<Attribute> attributes) throws IOException, ExecutionFailure;
     void deleteTable(String name) throws ExecutionFailure, IOException;
     void addAttribute(String tableName, Attribute attribute) throws ExecutionFailure, IOException;
+    void dropAttribute(String tableName, String attrName) throws ExecutionFailure, IOException;
+    void setColumnStatistics(String tableName, Map<String, ColumnStatistics> columnStatistics);
+
+    /**
+     * @return Cache of parsed statements, null if statements are not cached
+     */
+    default PlanCache getPlanCache() {
+        return null;
+    }
 
 
 }
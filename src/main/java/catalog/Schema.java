@@ -0,0 +1,151 @@
+package catalog;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+
+/**
+ * <b>File:</b> Schema.java
+ * <p>
+ * <b>Description:</b> Attributes of a table along with the layouts its pages may still be stored in. Every alter
+ * table starts a new version instead of rewriting the table; pages record the version they were written at and are
+ * read through that version's layout until they are next rewritten. As a list it holds the visible attributes in
+ * record order and can't be modified, attributes only change through the catalog
+ *
+ * @author Derek Garcia
+ */
+public final class Schema extends AbstractList<Attribute> implements RandomAccess {
+
+    private final List<Attribute> Stored = new ArrayList<>();     // every attribute a page may hold, in storage order
+    private List<Attribute> Visible;       // replaced on every change, never modified
+    private final Map<Integer, List<Attribute>> Layouts = new HashMap<>();
+    private final Map<String, Integer> Ordinals = new HashMap<>();      // visible attribute name to its position
+    private int PrimaryKeyOrdinal = -1;
+    private int Version = 0;
+
+    /**
+     * Create a schema at version 0
+     *
+     * @param attributes Attributes of the table
+     */
+    public Schema(List<Attribute> attributes) {
+        Stored.addAll(attributes);
+        setVisible(new ArrayList<>(attributes));
+    }
+
+    Schema() {
+        this(List.of());
+    }
+
+    @Override
+    public Attribute get(int index) {
+        return Visible.get(index);
+    }
+
+    @Override
+    public int size() {
+        return Visible.size();
+    }
+
+    /**
+     * @return Version new pages are written at
+     */
+    public int getVersion() {
+        return Version;
+    }
+
+    /**
+     * @param name Name of the attribute
+     * @return Position of the attribute in a record, -1 if the table has no attribute with the name
+     */
+    public int getOrdinal(String name) {
+        return Ordinals.getOrDefault(name, -1);
+    }
+
+    /**
+     * @return Position of the primary key in a record, -1 if the table has none
+     */
+    public int getPrimaryKeyOrdinal() {
+        return PrimaryKeyOrdinal;
+    }
+
+    /**
+     * @return Every attribute the table stored, dropped ones included, in the order they were saved to the catalog
+     */
+    List<Attribute> getStored() {
+        return Collections.unmodifiableList(Stored);
+    }
+
+    /**
+     * Get the attributes stored in a page written at a version, dropped attributes included
+     *
+     * @param version Schema version of the page
+     * @return Attributes of the page's records in the order they are stored
+     */
+    public List<Attribute> getLayout(int version) {
+        if (version == Version)
+            return this;
+        return Layouts.computeIfAbsent(version, v -> Stored.stream().filter(a -> a.isStoredIn(v)).toList());
+    }
+
+    /**
+     * Add an attribute as it was loaded from the catalog, the version is moved up to the last change it records
+     *
+     * @param attribute Attribute to add
+     */
+    void load(Attribute attribute) {
+        Stored.add(attribute);
+        Version = Math.max(Version, Math.max(attribute.getAddedIn(), attribute.getDroppedIn()));
+        Layouts.clear();
+        if (attribute.getDroppedIn() < 0) {
+            List<Attribute> visible = new ArrayList<>(Visible);
+            visible.add(attribute);
+            setVisible(visible);
+        }
+    }
+
+    /**
+     * Start a new version with an attribute added at the end
+     *
+     * @param attribute Attribute to add
+     */
+    void addAttribute(Attribute attribute) {
+        attribute.setAddedIn(++Version);
+        Stored.add(attribute);
+        List<Attribute> visible = new ArrayList<>(Visible);
+        visible.add(attribute);
+        setVisible(visible);
+    }
+
+    /**
+     * Start a new version without an attribute. Pages written before keep storing it until they are rewritten
+     *
+     * @param attribute Attribute to drop
+     */
+    void dropAttribute(Attribute attribute) {
+        attribute.setDroppedIn(++Version);
+        List<Attribute> visible = new ArrayList<>(Visible);
+        visible.remove(attribute);
+        setVisible(visible);
+    }
+
+    /**
+     * Replace the visible attributes and index their positions
+     *
+     * @param visible Attributes in record order, not kept modifiable
+     */
+    private void setVisible(List<Attribute> visible) {
+        Visible = Collections.unmodifiableList(visible);
+        Ordinals.clear();
+        PrimaryKeyOrdinal = -1;
+        for (int i = 0; i < Visible.size(); i++) {
+            Ordinals.putIfAbsent(Visible.get(i).getName(), i);
+            if (PrimaryKeyOrdinal < 0 && Visible.get(i).isPrimaryKey())
+                PrimaryKeyOrdinal = i;
+        }
+    }
+}
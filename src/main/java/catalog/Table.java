@@ -1,24 +1,27 @@
 package catalog;
 
+import java.util.HashMap;
 import java.util.List;
-import java.util.ArrayList;
-import java.util.Objects;
+import java.util.Map;
+import java.util.NoSuchElementException;
 
 public class Table implements ITable {
 
     private final String Name;
     private final int Number;
-    private final List<Attribute> Attributes;
+    private final Schema Attributes;
+    private TableStatistics Statistics = new TableStatistics();
+    private Map<String, ColumnStatistics> ColumnStats = new HashMap<>();
 
     public Table(String name, int number, List<Attribute> attributes) {
         Name = name;
-        Attributes = attributes;
+        Attributes = new Schema(attributes);
         Number = number;
     }
 
 
     Table(String name, int number) {
-        this(name, number, new ArrayList<>());
+        this(name, number, List.of());
     }
 
     @Override
@@ -32,34 +35,84 @@ public class Table implements ITable {
     }
 
     @Override
-    public List<Attribute> getAttributes() {
+    public Schema getAttributes() {
         return Attributes;
     }
 
     @Override
     public Attribute getAttribute(String attrName) {
-        return Attributes.stream().filter(a -> Objects.equals(a.getName(), attrName)).findFirst().orElseThrow();
+        int ordinal = Attributes.getOrdinal(attrName);
+        if (ordinal < 0)
+            throw new NoSuchElementException("No attribute named " + attrName);
+        return Attributes.get(ordinal);
     }
 
     @Override
     public void addAttribute(Attribute attribute) {
         // This does not check for unique attribute names, that should be handled by the command.
-        Attributes.add(attribute);
+        Attributes.load(attribute);
+    }
+
+    /**
+     * Add an attribute to a table that may already hold records. Stored records are not touched, they read as the
+     * attribute's default until their page is rewritten
+     *
+     * @param attribute Attribute to add
+     */
+    void alterAddAttribute(Attribute attribute) {
+        Attributes.addAttribute(attribute);
+    }
+
+    /**
+     * Hide an attribute of the table. Stored records keep the value until their page is rewritten
+     *
+     * @param attribute Attribute to drop
+     */
+    void alterDropAttribute(Attribute attribute) {
+        Attributes.dropAttribute(attribute);
+        ColumnStats.remove(attribute.getName().toLowerCase());
+    }
+
+    /**
+     * @return Row and page statistics of this table
+     */
+    public TableStatistics getStatistics() {
+        return Statistics;
+    }
+
+    void setStatistics(TableStatistics statistics) {
+        Statistics = statistics;
+    }
+
+    /**
+     * @param attrName Name of the attribute
+     * @return Value distribution of the attribute from the last analyze, null if it was never analyzed
+     */
+    public ColumnStatistics getColumnStatistics(String attrName) {
+        return ColumnStats.get(attrName.toLowerCase());
+    }
+
+    /**
+     * @return Value distributions from the last analyze by attribute name
+     */
+    public Map<String, ColumnStatistics> getColumnStatistics() {
+        return ColumnStats;
+    }
+
+    /**
+     * Replace the value distributions of the table, done by analyze
+     *
+     * @param columnStatistics Value distributions by attribute name
+     */
+    public void setColumnStatistics(Map<String, ColumnStatistics> columnStatistics) {
+        ColumnStats = columnStatistics;
     }
 
     public int getIndexOfPrimaryKey() {
-        for (int i = 0; i < Attributes.size(); i++) {
-            if (Attributes.get(i).isPrimaryKey())
-                return i;
-        }
-        return -1; // Should never happen. All tables should have a PK.
+        return Attributes.getPrimaryKeyOrdinal(); // -1 should never happen. All tables should have a PK.
     }
 
     public int getIndexOfAttribute(String attrName) {
-        for (int i = 0; i < Attributes.size(); i++) {
-            if (Attributes.get(i).getName().equals(attrName))
-                return i;
-        }
-        return -1; // Should never happen. Never call this function without already validating the name exists.
+        return Attributes.getOrdinal(attrName); // -1 should never happen. Never call this function without already validating the name exists.
     }
 }
@@ -0,0 +1,150 @@
+package catalog;
+
+/**
+ * <b>File:</b> TableStatistics.java
+ * <p>
+ * <b>Description:</b> Row and page statistics of a table, kept up to date by the storage manager on every insert and
+ * delete so they can be read without touching the table file
+ *
+ * @author Derek Garcia
+ */
+public class TableStatistics {
+
+    private int rowCount;
+    private int pageCount;
+    private double recordBytes;     // total size of every record, used for the average and fill factor
+
+    /**
+     * Create statistics for an empty table
+     */
+    public TableStatistics() {
+        this(0, 0, 0);
+    }
+
+    /**
+     * Create statistics with known values
+     *
+     * @param rowCount    Number of records in the table
+     * @param pageCount   Number of pages in the table file
+     * @param recordBytes Total size of the records in bytes
+     */
+    public TableStatistics(int rowCount, int pageCount, double recordBytes) {
+        this.rowCount = rowCount;
+        this.pageCount = pageCount;
+        this.recordBytes = recordBytes;
+    }
+
+    /**
+     * Create a copy of statistics, used to put them back if a statement that changed them fails
+     *
+     * @param statistics Statistics to copy
+     */
+    public TableStatistics(TableStatistics statistics) {
+        this(statistics.rowCount, statistics.pageCount, statistics.recordBytes);
+    }
+
+    /**
+     * Put back the values of a copy taken before
+     *
+     * @param statistics Copy to take the values of
+     */
+    public void restore(TableStatistics statistics) {
+        this.rowCount = statistics.rowCount;
+        this.pageCount = statistics.pageCount;
+        this.recordBytes = statistics.recordBytes;
+    }
+
+    /**
+     * Record that a record was added to the table
+     *
+     * @param recordSize Size of the record in bytes
+     */
+    public void recordInserted(int recordSize) {
+        this.rowCount++;
+        this.recordBytes += recordSize;
+    }
+
+    /**
+     * Record that records were added to the table at once
+     *
+     * @param records     Number of records added
+     * @param recordBytes Total size of the records in bytes
+     */
+    public void recordsInserted(int records, double recordBytes) {
+        this.rowCount += records;
+        this.recordBytes += recordBytes;
+    }
+
+    /**
+     * Record that a record was removed from the table
+     *
+     * @param recordSize Size of the record in bytes
+     */
+    public void recordDeleted(int recordSize) {
+        this.rowCount--;
+        this.recordBytes -= recordSize;
+    }
+
+    /**
+     * Record that a page was added to the table file
+     */
+    public void pageAdded() {
+        this.pageCount++;
+    }
+
+    /**
+     * Record that pages were added to the table file at once
+     *
+     * @param pages Number of pages added, less than 0 if the file got shorter
+     */
+    public void pagesAdded(int pages) {
+        this.pageCount += pages;
+    }
+
+    /**
+     * Record that a page was removed from the table file
+     */
+    public void pageRemoved() {
+        this.pageCount--;
+    }
+
+    /**
+     * @return Number of records in the table
+     */
+    public int getRowCount() {
+        return this.rowCount;
+    }
+
+    /**
+     * @return Number of pages in the table file
+     */
+    public int getPageCount() {
+        return this.pageCount;
+    }
+
+    /**
+     * @return Total size of the records in bytes
+     */
+    public double getRecordBytes() {
+        return this.recordBytes;
+    }
+
+    /**
+     * @return Average size of a record in bytes, 0 if the table is empty
+     */
+    public double getAverageRecordSize() {
+        return this.rowCount == 0 ? 0 : this.recordBytes / this.rowCount;
+    }
+
+    /**
+     * Get the fraction of the table's pages that hold data, including the record count at the start of each page
+     *
+     * @param pageSize Size of a page in bytes
+     * @return Fill factor between 0 and 1, 0 if the table has no pages
+     */
+    public double getFillFactor(int pageSize) {
+        if (this.pageCount == 0)
+            return 0;
+        return (this.recordBytes + (double) Integer.BYTES * this.pageCount) / ((double) pageSize * this.pageCount);
+    }
+}
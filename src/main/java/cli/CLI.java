@@ -69,6 +69,7 @@ public class CLI {
         DBCatalog = catalog;
         DBStorageManager = storageManager;
         this.outputStream = new CLIStandardOutput(System.out);  // enabled by default
+        DBStorageManager.startPageWriter();     // runs until the catalog is closed on exit
     }
 
     /**
@@ -85,7 +86,7 @@ public class CLI {
      */
     private void after(){
         try {
-            DBStorageManager.flush();
+            DBCatalog.close();
         } catch (IOException ioe) {
             Console.err("This db is corrupt...");
         }
@@ -124,8 +125,31 @@ public class CLI {
             Command cmd = CommandFactory.buildCommand(stdin, this.DBCatalog, this.DBStorageManager);
             cmd.execute();
         } catch (CommandException e){
-            // fail if error with command
+            // fail if error with command, what it changed is undone instead of logged
             Console.err(e.getMessage());
+            try {
+                this.DBStorageManager.rollback();
+            } catch (IOException ioe) {
+                Console.err("Failed to write to the log: " + ioe.getMessage());
+            }
+            return;
+        }
+
+        try {
+            this.DBStorageManager.commit();
+        } catch (IOException ioe) {
+            Console.err("Failed to write to the log: " + ioe.getMessage());
+        }
+    }
+
+    /**
+     * Force every commit to the device before waiting on the user
+     */
+    private void sync(){
+        try {
+            this.DBStorageManager.sync();
+        } catch (IOException ioe) {
+            Console.err("Failed to write to the log: " + ioe.getMessage());
         }
     }
 
@@ -195,6 +219,7 @@ public class CLI {
 
         // Read until reach 'exit;` keyword
         while(true){
+            sync();     // statements run before now are durable once the user can type the next one
             String stdin = readInput();
             if(stdin.equalsIgnoreCase("exit;"))
                 break;
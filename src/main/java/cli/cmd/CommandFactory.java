@@ -3,6 +3,7 @@ package cli.cmd;
 import catalog.ICatalog;
 import cli.cmd.commands.*;
 import cli.cmd.exception.CommandException;
+import cli.cmd.exception.InvalidUsage;
 import cli.cmd.exception.UnknownCommand;
 import sm.StorageManager;
 
@@ -15,6 +16,34 @@ import sm.StorageManager;
  */
 public class CommandFactory {
     public static Command buildCommand(String args, ICatalog catalog, StorageManager storageManager) throws CommandException {
+        // Reuse the parsed statement if it was seen before
+        PlanCache planCache = catalog.getPlanCache();
+        String key = PlanCache.normalize(args);
+        if (planCache != null && planCache.get(key) != null)
+            return planCache.get(key);
+
+        Command command = buildStatement(args, catalog, storageManager);
+
+        // Only statements that can be run again as is are cached
+        if (command instanceof Preparable preparable) {
+            if (preparable.getParameterCount() > 0)
+                throw new InvalidUsage(args, "Parameters can only be used in a prepared statement.");
+            if (planCache != null)
+                planCache.put(key, command);
+        }
+        return command;
+    }
+
+    /**
+     * Parse a command without looking in the plan cache. Parameters are allowed, they must be bound before it is run
+     *
+     * @param args           The string representation of the command passed to the CLI.
+     * @param catalog        The catalog of the current DB.
+     * @param storageManager The storage manager of the current DB.
+     * @return Parsed command
+     * @throws CommandException when the command could not be parsed.
+     */
+    public static Command buildStatement(String args, ICatalog catalog, StorageManager storageManager) throws CommandException {
         // Parse the command keyword
         String cmdKeyword = args.split(" ")[0].replace(";", "");
 
@@ -29,6 +58,11 @@ public class CommandFactory {
             case "select" -> new Select(args, catalog, storageManager);
             case "delete" -> new Delete(args, catalog, storageManager);
             case "update" -> new Update(args, catalog, storageManager);
+            case "analyze" -> new Analyze(args, catalog, storageManager);
+            case "explain" -> new Explain(args, catalog, storageManager);
+            case "prepare" -> new Prepare(args, catalog, storageManager);
+            case "execute" -> new Execute(args, catalog, storageManager);
+            case "copy" -> new Copy(args, catalog, storageManager);
             default -> throw new UnknownCommand(cmdKeyword);
         };
     }
@@ -0,0 +1,136 @@
+package cli.cmd;
+
+import cli.cmd.commands.Command;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * <b>File:</b> PlanCache.java
+ * <p>
+ * <b>Description:</b> Parsed statements kept so repeated statements skip parsing and planning. Statements are keyed by
+ * their text with the whitespace outside of quotes collapsed, and the least recently used one is dropped once the
+ * cache is full. Named prepared statements keep their text forever but their parsed form is dropped with the rest of
+ * the cache whenever the schema changes
+ *
+ * @author Derek Garcia
+ */
+public class PlanCache {
+
+    public static final int DEFAULT_CAPACITY = 256;
+
+    private final int capacity;
+    private final Map<String, Command> plans;
+    private final Map<String, String> preparedText = new HashMap<>();
+    private final Map<String, Command> preparedPlans = new HashMap<>();
+
+    /**
+     * Create a plan cache with the default capacity
+     */
+    public PlanCache() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Create a plan cache
+     *
+     * @param capacity Number of statements to keep
+     */
+    public PlanCache(int capacity) {
+        this.capacity = capacity;
+        this.plans = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Command> eldest) {
+                return size() > PlanCache.this.capacity;
+            }
+        };
+    }
+
+    /**
+     * Collapse every run of whitespace outside of quotes to a single space so statements that only differ in spacing
+     * share a plan. Case is kept since it is shown in the output
+     *
+     * @param statement Statement text
+     * @return Normalized text
+     */
+    public static String normalize(String statement) {
+        StringBuilder sb = new StringBuilder(statement.length());
+        boolean quoted = false;
+        boolean space = false;
+        for (char c : statement.strip().toCharArray()) {
+            if (c == '"')
+                quoted = !quoted;
+
+            if (!quoted && Character.isWhitespace(c)) {
+                space = true;
+                continue;
+            }
+            if (space)
+                sb.append(' ');
+            space = false;
+            sb.append(c);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @param statement Normalized statement text
+     * @return Parsed statement, null if it isn't cached
+     */
+    public Command get(String statement) {
+        return this.plans.get(statement);
+    }
+
+    /**
+     * @param statement Normalized statement text
+     * @param command   Parsed statement
+     */
+    public void put(String statement, Command command) {
+        this.plans.put(statement, command);
+    }
+
+    /**
+     * Save a named statement
+     *
+     * @param name      Name of the statement, replaces any statement with the same name
+     * @param statement Statement text
+     * @param command   Parsed statement
+     */
+    public void prepare(String name, String statement, Command command) {
+        name = name.toLowerCase();
+        this.preparedText.put(name, statement);
+        this.preparedPlans.put(name, command);
+    }
+
+    /**
+     * @param name Name of the statement
+     * @return Text of the statement, null if there is no statement with the name
+     */
+    public String getPreparedText(String name) {
+        return this.preparedText.get(name.toLowerCase());
+    }
+
+    /**
+     * @param name Name of the statement
+     * @return Parsed statement, null if it was never prepared or was dropped by a schema change
+     */
+    public Command getPrepared(String name) {
+        return this.preparedPlans.get(name.toLowerCase());
+    }
+
+    /**
+     * @return Number of cached statements, not counting named statements
+     */
+    public int size() {
+        return this.plans.size();
+    }
+
+    /**
+     * Drop every parsed statement, the schema they were parsed against changed
+     */
+    public void invalidate() {
+        this.plans.clear();
+        this.preparedPlans.clear();
+    }
+}
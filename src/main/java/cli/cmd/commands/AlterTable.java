@@ -1,26 +1,21 @@
 package cli.cmd.commands;
 
-import cli.cmd.commands.CreateTable;
-import cli.cmd.commands.DropTable;
-
 import cli.cmd.exception.ExecutionFailure;
 import cli.cmd.exception.InvalidUsage;
 
 import dataTypes.AttributeType;
-import dataTypes.DTChar;
-import dataTypes.DTVarchar;
-import dataTypes.DataType;
 import sm.StorageManager;
 
+import catalog.ColumnStatistics;
 import catalog.ICatalog;
 import catalog.Table;
 import catalog.Attribute;
 
+import java.io.IOException;
 import java.util.List;
 import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
-import java.util.stream.Collectors;
 import util.Console;
 
 import static util.ReservedKeywords.INVALID_ATTR_NAME_MSG;
@@ -49,9 +44,6 @@ public class AlterTable extends Command {
     private Integer maxDataLength = null;
 
 
-    private static final Pattern STRING_SIZE_PATTERN = Pattern.compile(
-        "(varchar|char)\\((\\d+)\\)",
-        Pattern.CASE_INSENSITIVE);
     private static final String INVALID_ATTR_LENGTH_MSG = "The attribute '%s' has a max length of %s characters. You provided too many characters in tuple #%s";
     private static final String NO_QUOTES_MSG = "The attribute '%s' takes a string, which must be wrapped in quotes. You did not do this for tuple #%s";
     private static final Pattern STRING_PATTERN = Pattern.compile("\"(.*)\"", Pattern.CASE_INSENSITIVE);
@@ -151,8 +143,6 @@ public class AlterTable extends Command {
             } catch (IllegalArgumentException iae) {
                 throw new InvalidUsage(args, "'%s' is not a valid attribute type.".formatted(typeString));
             }
-            String num;
-            int length = 1;
 
             switch (newType) {
                 case INTEGER, DOUBLE, BOOLEAN -> {
@@ -183,30 +173,6 @@ public class AlterTable extends Command {
                     
                 }
                 case CHAR, VARCHAR -> {
-                    if(defaultValue != null){
-                    Matcher stringSizeMatcher = STRING_SIZE_PATTERN.matcher(attributeType);
-                    Matcher stringMatcher = STRING_PATTERN.matcher(defaultValue);
-                    if(stringSizeMatcher.find()){
-                        num = stringSizeMatcher.group(2);
-                        length = Integer.parseInt(num);
-                    }
-                    
-                    
-
-
-                if (!stringMatcher.matches()) {
-                    throw new InvalidUsage(NO_QUOTES_MSG.formatted(attributeType, defaultValue), "");
-                }
-
-                String val = stringMatcher.group(1);
-
-                if (val.length() > length) {
-                    throw new InvalidUsage(INVALID_ATTR_LENGTH_MSG.formatted(attributeType, length, attributeType), "");
-                }
-                }
-
-                }
-                default -> {
                     if (newAttributeData.length != 2) {
                         throw new InvalidUsage(args, "Attributes of type CHAR or VARCHAR require a max length.");
                     }
@@ -216,6 +182,18 @@ public class AlterTable extends Command {
                     } catch (NumberFormatException nfe) {
                         throw new InvalidUsage(args, "The attribute's max length must be an integer.");
                     }
+                    if(defaultValue != null){
+                        Matcher stringMatcher = STRING_PATTERN.matcher(defaultValue.strip());
+                        if (!stringMatcher.matches()) {
+                            throw new InvalidUsage(NO_QUOTES_MSG.formatted(attributeType, defaultValue), "");
+                        }
+
+                        String val = stringMatcher.group(1);
+
+                        if (val.length() > maxDataLength) {
+                            throw new InvalidUsage(INVALID_ATTR_LENGTH_MSG.formatted(attributeType, maxDataLength, attributeType), "");
+                        }
+                    }
                 }
             }
 
@@ -227,201 +205,36 @@ public class AlterTable extends Command {
         // TODO
     }
 
+    /**
+     * Add or drop the attribute by changing the table's schema only. Stored records are not read or rewritten, they
+     * read as the new attribute's default, or without the dropped attribute, until their page is next rewritten
+     *
+     * @throws ExecutionFailure when the primary key is dropped or the catalog cannot be modified
+     */
     @Override
     public void execute() throws ExecutionFailure {
-        // Check if the command is dropping an attribute
-        int tableNumber = catalog.getTableNumber(tableName);
-        List<List<DataType>> allRecordsList = sm.getAllRecords(tableNumber, catalog.getRecordSchema(tableName).getAttributes());
-        if(isDrop){
-            int attributeIndex = 0;
-            Table table = catalog.getRecordSchema(tableName);
-            List<Attribute> attributes = table.getAttributes();
-            // Iterate through all attributes from schema and drop the desired attribute and keep track of its index
-            for (int i = 0; i < attributes.size(); i++) {
-                if(attributes.get(i).getName().equalsIgnoreCase(attributeName)){
-                    if(attributes.get(i).isPrimaryKey()){
-                        throw new ExecutionFailure("Execution failure cannot drop primary key");
-                    }
-                    else{
-                        attributes.remove(i);
-                        attributeIndex = i;
-                    }
-                }
-            }
-            // Creating Create Table Command
-            String attributeValues = "";
-            // Iterate through all attributes from schema
-            for (int v = 0; v < attributes.size(); v++){
-                // Get attribute and stringify all its respective information
-                Attribute attr = attributes.get(v);
-                // If last value then dont add a comma, otherwise have a comma
-                // Result should look like 'AttName AttType AttConstraint, AttName AttType AttConstraint'
-                if(v == attributes.size()-1){
-                    attributeValues = attributeValues + attr.getName() + " " + getStringType(attr) + getConstraintString(attr);
-                }
-                else{
-                    attributeValues = attributeValues + attr.getName() + " " + getStringType(attr) + getConstraintString(attr) + ", ";
-                }   
-            }
-            // Creating Insert Into Command
-            String insertValues = "";
-            // Iterate through first list
-            for (int r = 0; r < allRecordsList.size(); r++) {
-                List<DataType> record = allRecordsList.get(r);
-                String eachValue = " ( ";
-                // Iterate through each value
-                for (int i = 0; i < record.size(); i++) {
-                    // If it is a char or varchar then add quotation marks
-                    if(!(i == attributeIndex)){
-                        String recordString = record.get(i).stringValue();
-                    if(record.get(i) instanceof DTChar || record.get(i) instanceof DTVarchar){
-                        eachValue = eachValue + "\"" + recordString + "\"" + " ";
-                    }
-                    else{
-                        eachValue = eachValue +  recordString  + " ";
-                    }
-                    }
-                }
-                if(r == allRecordsList.size()-1){
-                    eachValue += ")";
-                }
-                else{
-                    eachValue += " ),";
-                }
-                // Add each ( Value, Value, Value ), or ( Value, Value, Value ) to main string
-                // Result should look like ( Value, Value, Value ), ( Value, Value, Value ), ( Value, Value, Value )
-                insertValues += eachValue;
-            }
-            // Create each command
-            String dropTableCommand =("DROP TABLE " + tableName + ";").strip();
-            String createTableCommand = ("CREATE TABLE " + tableName + "( " + attributeValues + " );").strip();
-            String insertIntoCommand = ("INSERT INTO " + tableName + " VALUES" + insertValues + ";").strip();
-            try {
-                // Run each command
-                DropTable newDropTableExecutable = new DropTable(dropTableCommand, this.catalog, this.sm);
-                newDropTableExecutable.execute();
-                CreateTable newTableExecutable = new CreateTable(createTableCommand, this.catalog, this.sm);
-                newTableExecutable.execute();
-                if(!(allRecordsList.size() == 0)){
-                    InsertInto newInsertIntoExecutable = new InsertInto(insertIntoCommand, this.catalog, this.sm);
-                    newInsertIntoExecutable.execute();
-                }
-                else{
-                    Console.out("SUCCESS");
-                }
-            } catch (InvalidUsage e) {
-                throw new ExecutionFailure("Execution failure to drop attribute");
-            }
+        try {
+            if (isDrop) {
+                Attribute attribute = catalog.getRecordSchema(tableName).getAttributes().stream()
+                        .filter(a -> a.getName().equalsIgnoreCase(attributeName))
+                        .findFirst().orElseThrow();
+                if (attribute.isPrimaryKey())
+                    throw new ExecutionFailure("Execution failure cannot drop primary key");
+                catalog.dropAttribute(tableName, attributeName);
+            } else if (isAdd) {
+                Attribute attribute = maxDataLength == null
+                        ? new Attribute(attributeName, newType, false, true)
+                        : new Attribute(attributeName, newType, maxDataLength, false, true);
+                if (defaultValue != null && !defaultValue.strip().equalsIgnoreCase("null")) {
+                    Matcher stringMatcher = STRING_PATTERN.matcher(defaultValue.strip());
+                    String value = stringMatcher.matches() ? stringMatcher.group(1) : defaultValue.strip();
+                    attribute.setDefault(ColumnStatistics.parseValue(attribute, value));
+                }
+                catalog.addAttribute(tableName, attribute);
+            }
+        } catch (IOException ioe) {
+            throw new ExecutionFailure("The file for the table '%s' could not be opened or modified.".formatted(tableName));
         }
-        else if(isAdd){
-            // Get attribute type from command line argument
-            List<String> input = getInput(args);
-            String attributeTypeString = input.get(5);
-            // Get default value from command line argument
-            String defaultValue = "";
-            if(this.args.toLowerCase().contains("default")){
-                String[] takeDefault = args.toLowerCase().split("default");
-                defaultValue = takeDefault[1].replace(";", "").strip();
-            }
-            Table table = catalog.getRecordSchema(tableName);
-            List<Attribute> attributes = table.getAttributes();
-            // Creating Create Table Command
-            String attributeValues = "";
-            // Iterate through all attributes from schema
-            for (int v = 0; v < attributes.size(); v++){
-                // Get attribute and stringify all its respective information
-                Attribute attr = attributes.get(v);
-                attributeValues = attributeValues + attr.getName() + " " + getStringType(attr) + getConstraintString(attr) + ", ";
-            }
-            // Result should look like 'AttName AttType AttConstraint, AttName AttType AttConstraint, NewAttributeName NewAttributeType'
-            attributeValues += attributeName + " " + attributeTypeString;
-            // Creating Insert Into Command
-            String insertValues = "";
-            // Iterate through first list
-            for (int r = 0; r < allRecordsList.size(); r++) {
-                List<DataType> record = allRecordsList.get(r);
-                String eachValue = " ( ";
-                // Iterate through each value
-                for (int i = 0; i < record.size(); i++) {
-                    // If it is a char or varchar then add quotation marks
-                    if(record.get(i) instanceof DTChar || record.get(i) instanceof DTVarchar){
-                        eachValue = eachValue + "\"" + record.get(i).stringValue() + "\"" + " ";
-                    }
-                    else{
-                        eachValue += record.get(i).stringValue() + " ";
-                    }
-                }
-                // If argument contained default, then use default value, otherwise input null value
-                if(r == allRecordsList.size()-1){
-                    eachValue += args.toLowerCase().contains("default") ?  defaultValue + ")" : " null )";
-                }
-                else{
-                    eachValue += args.toLowerCase().contains("default") ?  defaultValue + ")," : " null ), ";
-                }
-                // Add each ( Value, Value, defaultValue ), or ( Value, Value, null ) to main string
-                // Result should look like ( Value, Value, null ), ( Value, Value, null ), ( Value, Value, null )
-                insertValues += eachValue;
-            }
-            // Create each command
-            String dropTableCommand =("DROP TABLE " + tableName + ";").strip();
-            String createTableCommand = ("CREATE TABLE " + tableName + "( " + attributeValues + " );").strip();
-            String insertIntoCommand = ("INSERT INTO " + tableName + " VALUES " + insertValues.strip() + ";");
-            try {
-                // Run each command
-                DropTable newDropTableExecutable = new DropTable(dropTableCommand, this.catalog, this.sm);
-                newDropTableExecutable.execute();
-                CreateTable newTableExecutable = new CreateTable(createTableCommand, this.catalog, this.sm);
-                newTableExecutable.execute();
-                if(!(allRecordsList.size() == 0)){
-                    InsertInto newInsertIntoExecutable = new InsertInto(insertIntoCommand, this.catalog, this.sm);
-                    newInsertIntoExecutable.execute();
-                }
-                else{
-                    Console.out("SUCCESS");
-                }
-                
-            } catch (InvalidUsage e) {
-                throw new ExecutionFailure("Execution failure to add attribute");
-            }
-        }
-    }
-
-    public String getConstraintString(Attribute attr){
-        String temp = "";
-        if(attr.isPrimaryKey()){
-            temp = temp + " primarykey";
-        }
-        else{
-            if(attr.isUnique()){
-            temp = temp + " unique";
-        }
-        if(!attr.isNullable()){
-            temp = temp + " notnull";
-        }
-        }
-        
-        return temp;
-    }
-
-    public String getStringType(Attribute attr) {
-        AttributeType attrType = attr.getDataType();
-        switch (attrType) {
-            case INTEGER -> {
-                return "integer";
-            }
-            case DOUBLE -> {
-                return "double";
-            }
-            case BOOLEAN -> {
-                return "boolean";
-            }
-            case CHAR -> {
-                return "char" + "(" + attr.getMaxDataLength() + ")";
-            }
-            default -> {
-                return "varchar" + "(" + attr.getMaxDataLength() + ")";
-            }
-        }
-
+        Console.out("SUCCESS");
     }
 }
@@ -0,0 +1,90 @@
+package cli.cmd.commands;
+
+import catalog.Attribute;
+import catalog.ColumnStatistics;
+import catalog.ICatalog;
+import catalog.Table;
+import cli.cmd.exception.ExecutionFailure;
+import cli.cmd.exception.InvalidUsage;
+import dataTypes.DataType;
+import sm.StorageManager;
+import util.Console;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * <b>File:</b> Analyze.java
+ * <p>
+ * <b>Description:</b> Command to gather the value distribution of every column in a table from a sample of its pages
+ *
+ * @author Derek Garcia
+ */
+public class Analyze extends Command {
+
+    private static final int SAMPLE_PAGES = 64;
+    private static final Pattern FULL_MATCH = Pattern.compile("analyze\\s+([a-z][a-z0-9]*)\\s*;", Pattern.CASE_INSENSITIVE);
+
+    private final ICatalog catalog;
+    private final StorageManager sm;
+    private final String tableName;
+
+    /**
+     * Create a new Analyze command to be executed
+     *
+     * @param args           The string representation of the command passed to the CLI.
+     * @param catalog        The catalog of the current DB.
+     * @param storageManager The storage manager of the current DB.
+     * @throws InvalidUsage when the arguments could not be parsed.
+     */
+    public Analyze(String args, ICatalog catalog, StorageManager storageManager) throws InvalidUsage {
+        this.catalog = catalog;
+        this.sm = storageManager;
+
+        Matcher fullMatcher = FULL_MATCH.matcher(args);
+        if (!fullMatcher.matches())
+            throw new InvalidUsage(args, "Correct Usage: analyze <table>;");
+
+        this.tableName = fullMatcher.group(1).toLowerCase();
+        if (!catalog.getExistingTableNames().contains(this.tableName))
+            throw new InvalidUsage(args, "Table " + this.tableName + " does not Exist in the Catalog");
+    }
+
+    @Override
+    protected void helpMessage() {
+        // TODO
+    }
+
+    /**
+     * Sample the pages of the table and replace its column statistics
+     *
+     * @throws ExecutionFailure when the table's file cannot be read.
+     */
+    @Override
+    public void execute() throws ExecutionFailure {
+        Table table = this.catalog.getRecordSchema(this.tableName);
+        List<Attribute> attributes = table.getAttributes();
+        List<List<DataType>> sample = this.sm.sampleRecords(table.getNumber(), attributes, SAMPLE_PAGES);
+        int tableRows = Math.max(sample.size(), table.getStatistics().getRowCount());
+
+        Map<String, ColumnStatistics> columnStatistics = new HashMap<>();
+        for (int i = 0; i < attributes.size(); i++) {
+            List<DataType> values = new ArrayList<>(sample.size());
+            for (List<DataType> record : sample)
+                values.add(record.get(i));
+
+            ColumnStatistics stats = ColumnStatistics.fromSample(values, sample.size(), tableRows);
+            columnStatistics.put(attributes.get(i).getName().toLowerCase(), stats);
+
+            Console.out("%s: %s".formatted(attributes.get(i).getName(), stats));
+        }
+
+        this.catalog.setColumnStatistics(this.tableName, columnStatistics);
+        Console.out("Sampled %d of %d records".formatted(sample.size(), tableRows));
+        Console.out("SUCCESS");
+    }
+}
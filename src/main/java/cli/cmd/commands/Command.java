@@ -1,8 +1,10 @@
 package cli.cmd.commands;
 
 import cli.cmd.exception.ExecutionFailure;
+import util.PlanNode;
 
 import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
 
 /**
@@ -29,4 +31,38 @@ public abstract class Command {
         input.removeIf(String::isEmpty);
         return input;
     }
+
+    /**
+     * Count the output of a plan operator, does nothing if the command is not being explained
+     *
+     * @param node     Operator producing the output, null if not explaining
+     * @param iterator Output of the operator
+     * @return Counting iterator, or the same iterator if not explaining
+     */
+    <T> Iterator<T> instrument(PlanNode node, Iterator<T> iterator) {
+        return node == null ? iterator : node.instrument(iterator);
+    }
+
+    /**
+     * Start timing work of a plan operator, does nothing if the command is not being explained
+     *
+     * @param node Operator doing the work, null if not explaining
+     */
+    void start(PlanNode node) {
+        if (node != null)
+            node.start();
+    }
+
+    /**
+     * Stop timing work of a plan operator, does nothing if the command is not being explained
+     *
+     * @param node Operator doing the work, null if not explaining
+     * @param rows Number of rows the work produced
+     */
+    void stop(PlanNode node, long rows) {
+        if (node != null) {
+            node.stop();
+            node.addRows(rows);
+        }
+    }
 }
@@ -0,0 +1,352 @@
+package cli.cmd.commands;
+
+import catalog.Attribute;
+import catalog.ICatalog;
+import catalog.Table;
+import cli.cmd.exception.ExecutionFailure;
+import cli.cmd.exception.InvalidUsage;
+import dataTypes.*;
+import sm.ExternalSort;
+import sm.StorageManager;
+import util.Console;
+import util.parse.DelimitedReader;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * <b>File:</b> Copy.java
+ * <p>
+ * <b>Description:</b> Command to bulk load a table from a CSV or TSV file, or export it to one. Loading streams the
+ * file and sorts it by primary key in a fixed amount of memory, then fills pages in order in a single pass. Exporting
+ * streams the table one page at a time, either as text or as the raw pages of the table file
+ *
+ * @author Derek Garcia
+ */
+public class Copy extends Command {
+
+    private static final int EXPORT_BUFFER_SIZE = 64 * 1024;
+    private static final Pattern FULL_MATCH = Pattern.compile(
+            "copy\\s+([a-z][a-z0-9]*)\\s+(from|to)\\s+\"([^\"]+)\"(?:\\s+format\\s+(csv|binary))?\\s*;",
+            Pattern.CASE_INSENSITIVE);
+    private static final String CORRECT_USAGE_MSG = "Correct Usage: copy <table> from \"<path>\"; or copy <table> to \"<path>\" [format csv|binary];";
+
+    private static final String UNEQUAL_ATTR_MSG = "Table %s expects %s attributes and line %s has %s";
+    private static final String INVALID_ATTR_TYPE_MSG = "The value '%s' for attribute '%s' on line %s is not of type %s.";
+    private static final String INVALID_ATTR_LENGTH_MSG = "The attribute '%s' has a max length of %s characters. Line %s has too many characters";
+    private static final String NOT_NULLABLE_MSG = "Attribute '%s' is not nullable, you violate this constraint on line %s";
+    private static final String NOT_UNIQUE_MSG = "Attribute '%s' is unique, you violate this constraint with the value '%s'";
+
+    private final ICatalog catalog;
+    private final StorageManager sm;
+    private final String tableName;
+    private final boolean export;
+    private final boolean binary;
+    private final Path path;
+
+    /**
+     * Create a new Copy command to be executed
+     *
+     * @param args           The string representation of the command passed to the CLI.
+     * @param catalog        The catalog of the current DB.
+     * @param storageManager The storage manager of the current DB.
+     * @throws InvalidUsage when the arguments could not be parsed.
+     */
+    public Copy(String args, ICatalog catalog, StorageManager storageManager) throws InvalidUsage {
+        this.catalog = catalog;
+        this.sm = storageManager;
+
+        Matcher fullMatcher = FULL_MATCH.matcher(args);
+        if (!fullMatcher.matches())
+            throw new InvalidUsage(args, CORRECT_USAGE_MSG);
+
+        this.tableName = fullMatcher.group(1).toLowerCase();
+        if (!catalog.getExistingTableNames().contains(this.tableName))
+            throw new InvalidUsage(args, "Table " + this.tableName + " does not Exist in the Catalog");
+
+        this.export = fullMatcher.group(2).equalsIgnoreCase("to");
+        this.binary = fullMatcher.group(4) != null && fullMatcher.group(4).equalsIgnoreCase("binary");
+        if (this.binary && !this.export)
+            throw new InvalidUsage(args, "Only copy to can use the binary format.");
+
+        this.path = Path.of(fullMatcher.group(3));
+    }
+
+    @Override
+    protected void helpMessage() {
+        // TODO
+    }
+
+    /**
+     * Load the file into the table or export the table to the file
+     *
+     * @throws ExecutionFailure when a file cannot be read or written, a value is invalid or a constraint is violated.
+     */
+    @Override
+    public void execute() throws ExecutionFailure {
+        if (this.export)
+            export();
+        else
+            load();
+        Console.out("SUCCESS");
+    }
+
+    /**
+     * Read and convert every record of the file before the table is touched, so a bad value loads nothing. The
+     * records are sorted by primary key and the unique attributes are checked with sorts of their own, then the
+     * sorted records are handed to the storage manager
+     *
+     * @throws ExecutionFailure when the file cannot be read, a value is invalid or a constraint is violated.
+     */
+    private void load() throws ExecutionFailure {
+        if (!Files.isRegularFile(this.path))
+            throw new ExecutionFailure("The file '%s' does not exist.".formatted(this.path));
+
+        Table table = this.catalog.getRecordSchema(this.tableName);
+        List<Attribute> attrs = table.getAttributes();
+        int pki = table.getIndexOfPrimaryKey();
+
+        List<ExternalSort> sorts = new ArrayList<>();
+        try (DelimitedReader reader = DelimitedReader.open(this.path)) {
+            ExternalSort recordSort = this.sm.createSort(attrs, ascending(pki));
+            sorts.add(recordSort);
+
+            // values of each unique attribute are sorted on their own so repeats end up next to each other
+            List<Integer> uniqueColumns = new ArrayList<>();
+            List<ExternalSort> uniqueSorts = new ArrayList<>();
+            int[] uniqueNulls = new int[attrs.size()];
+            for (int i = 0; i < attrs.size(); i++) {
+                if (attrs.get(i).isUnique() && !attrs.get(i).isPrimaryKey()) {
+                    uniqueColumns.add(i);
+                    uniqueSorts.add(this.sm.createSort(List.of(attrs.get(i)), ascending(0)));
+                }
+            }
+            sorts.addAll(uniqueSorts);
+
+            List<String> fields = reader.readRecord();
+            if (fields != null && isHeader(fields, attrs))
+                fields = reader.readRecord();
+
+            for (; fields != null; fields = reader.readRecord()) {
+                List<DataType> record = convertFieldsToRecord(fields, attrs, reader.getLineNumber());
+                recordSort.add(record);
+                for (int u = 0; u < uniqueColumns.size(); u++)
+                    addUniqueValue(uniqueSorts.get(u), uniqueNulls, uniqueColumns.get(u), record.get(uniqueColumns.get(u)));
+            }
+
+            for (int u = 0; u < uniqueColumns.size(); u++) {
+                int column = uniqueColumns.get(u);
+                boolean[] mask = new boolean[attrs.size()];
+                mask[column] = true;
+                for (Iterator<List<DataType>> stored = this.sm.scanRecords(table.getNumber(), attrs, null, mask); stored.hasNext(); )
+                    addUniqueValue(uniqueSorts.get(u), uniqueNulls, column, stored.next().getFirst());
+                checkUnique(attrs.get(column), uniqueSorts.get(u).iterator(), uniqueNulls[column]);
+            }
+
+            int loaded = this.sm.loadSortedRecords(table.getNumber(), attrs, recordSort.iterator());
+            Console.out("Loaded %d records".formatted(loaded));
+        } catch (IOException ioe) {
+            throw new ExecutionFailure("The file '%s' could not be read or the table '%s' could not be modified."
+                    .formatted(this.path, this.tableName));
+        } finally {
+            closeSorts(sorts);
+        }
+    }
+
+    /**
+     * Write the table to the file. The binary format is the page size followed by the table file as it is on disk,
+     * copied by the file system without passing through memory. The CSV format has a header of the attribute names
+     * and is read back by copy from
+     *
+     * @throws ExecutionFailure when the table cannot be read or the file cannot be written.
+     */
+    private void export() throws ExecutionFailure {
+        Table table = this.catalog.getRecordSchema(this.tableName);
+        try (FileChannel out = FileChannel.open(this.path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            if (this.binary) {
+                out.write(ByteBuffer.allocate(Integer.BYTES).putInt(this.sm.getPageSize()).flip());
+                this.sm.exportPages(table.getNumber(), out);
+                Console.out("Exported %d records".formatted(table.getStatistics().getRowCount()));
+                return;
+            }
+
+            boolean tabs = isTabDelimited(this.path);
+            List<Attribute> attrs = table.getAttributes();
+            long exported = 0;
+            try (Writer writer = new BufferedWriter(Channels.newWriter(out, StandardCharsets.UTF_8), EXPORT_BUFFER_SIZE)) {
+                List<String> header = attrs.stream().map(Attribute::getName).toList();
+                writeLine(writer, header, tabs);
+
+                List<String> fields = new ArrayList<>(attrs.size());
+                for (Iterator<List<DataType>> records = this.sm.scanRecords(table.getNumber(), attrs, null, null); records.hasNext(); exported++) {
+                    fields.clear();
+                    for (DataType value : records.next())
+                        fields.add(formatValue(value));
+                    writeLine(writer, fields, tabs);
+                }
+            }
+            Console.out("Exported %d records".formatted(exported));
+        } catch (IOException | UncheckedIOException e) {
+            throw new ExecutionFailure("The table '%s' could not be read or the file '%s' could not be written."
+                    .formatted(this.tableName, this.path));
+        }
+    }
+
+    /**
+     * @return True if the file is written with tabs between fields, the same way {@link DelimitedReader#open} reads it
+     */
+    private static boolean isTabDelimited(Path path) {
+        String name = path.getFileName().toString().toLowerCase();
+        return name.endsWith(".tsv") || name.endsWith(".tab");
+    }
+
+    /**
+     * @return Value as it is written to a file, null for null
+     */
+    private static String formatValue(DataType value) {
+        if (value.isNull())
+            return null;
+        if (value instanceof DTBoolean b)
+            return b.getValue().toString();
+        return value.stringValue();
+    }
+
+    /**
+     * Write the fields of a line. CSV fields are quoted if they are empty or hold a delimiter, quote or line break,
+     * TSV fields can't hold tabs or line breaks so they are replaced with spaces
+     */
+    private static void writeLine(Writer writer, List<String> fields, boolean tabs) throws IOException {
+        for (int i = 0; i < fields.size(); i++) {
+            if (i > 0)
+                writer.write(tabs ? '\t' : ',');
+
+            String field = fields.get(i);
+            if (field == null)
+                continue;
+            if (tabs) {
+                writer.write(field.replace('\t', ' ').replace('\n', ' ').replace('\r', ' '));
+            } else if (field.isEmpty() || field.indexOf(',') >= 0 || field.indexOf('"') >= 0 || field.indexOf('\n') >= 0 || field.indexOf('\r') >= 0) {
+                writer.write('"');
+                writer.write(field.replace("\"", "\"\""));
+                writer.write('"');
+            } else {
+                writer.write(field);
+            }
+        }
+        writer.write('\n');
+    }
+
+    /**
+     * @return True if every field is the name of the attribute in its position
+     */
+    private static boolean isHeader(List<String> fields, List<Attribute> attrs) {
+        if (fields.size() != attrs.size())
+            return false;
+        for (int i = 0; i < attrs.size(); i++) {
+            if (fields.get(i) == null || !fields.get(i).trim().equalsIgnoreCase(attrs.get(i).getName()))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Add a value of a unique attribute to its sort. Nulls can't be sorted so they are only counted
+     */
+    private static void addUniqueValue(ExternalSort sort, int[] nulls, int column, DataType value) throws IOException {
+        if (value.isNull())
+            nulls[column]++;
+        else
+            sort.add(List.of(value));
+    }
+
+    /**
+     * Check that sorted values of a unique attribute don't repeat. Like insert, a second null is a repeat
+     *
+     * @throws ExecutionFailure when a value repeats
+     */
+    private static void checkUnique(Attribute attr, Iterator<List<DataType>> sorted, int nulls) throws ExecutionFailure {
+        if (nulls > 1)
+            throw new ExecutionFailure(NOT_UNIQUE_MSG.formatted(attr.getName(), "NULL"));
+
+        DataType previous = null;
+        while (sorted.hasNext()) {
+            DataType value = sorted.next().getFirst();
+            if (previous != null && value.compareTo(previous) == 0)
+                throw new ExecutionFailure(NOT_UNIQUE_MSG.formatted(attr.getName(), value.stringValue()));
+            previous = value;
+        }
+    }
+
+    /**
+     * Convert the fields of a line to a record. Fields are taken as they are, strings don't need quotes
+     *
+     * @param fields     Fields of the line, null for an empty field
+     * @param attrs      Attributes of the table
+     * @param lineNumber Line of the file, used for errors
+     * @return Record of the line
+     * @throws ExecutionFailure when a field is not a valid value of its attribute
+     */
+    private List<DataType> convertFieldsToRecord(List<String> fields, List<Attribute> attrs, long lineNumber) throws ExecutionFailure {
+        if (fields.size() != attrs.size())
+            throw new ExecutionFailure(UNEQUAL_ATTR_MSG.formatted(this.tableName, attrs.size(), lineNumber, fields.size()));
+
+        List<DataType> record = new ArrayList<>(attrs.size());
+        for (int i = 0; i < attrs.size(); i++) {
+            Attribute a = attrs.get(i);
+            String value = fields.get(i);
+            if (value == null && !a.isNullable())
+                throw new ExecutionFailure(NOT_NULLABLE_MSG.formatted(a.getName(), lineNumber));
+
+            if ((a.getDataType() == AttributeType.CHAR || a.getDataType() == AttributeType.VARCHAR)
+                    && value != null && value.length() > a.getMaxDataLength())
+                throw new ExecutionFailure(INVALID_ATTR_LENGTH_MSG.formatted(a.getName(), a.getMaxDataLength(), lineNumber));
+
+            // numbers and booleans may be padded, strings are kept exactly
+            String trimmed = value == null ? null : value.trim();
+            try {
+                record.add(switch (a.getDataType()) {
+                    case INTEGER -> new DTInteger(trimmed);
+                    case DOUBLE -> new DTDouble(trimmed);
+                    case BOOLEAN -> {
+                        if (trimmed != null && !trimmed.equalsIgnoreCase("true") && !trimmed.equalsIgnoreCase("false"))
+                            throw new NumberFormatException();
+                        yield new DTBoolean(trimmed);
+                    }
+                    case CHAR -> new DTChar(value, a.getMaxDataLength());
+                    case VARCHAR -> new DTVarchar(value);
+                });
+            } catch (NumberFormatException nfe) {
+                throw new ExecutionFailure(INVALID_ATTR_TYPE_MSG.formatted(value, a.getName(), lineNumber, a.getDataType()));
+            }
+        }
+        return record;
+    }
+
+    private static Comparator<List<DataType>> ascending(int column) {
+        return (r1, r2) -> r2.get(column).compareTo(r1.get(column));     // compareTo is reversed, this is ascending
+    }
+
+    private static void closeSorts(List<ExternalSort> sorts) throws ExecutionFailure {
+        try {
+            for (ExternalSort sort : sorts)
+                sort.close();
+        } catch (IOException ioe) {
+            throw new ExecutionFailure("Failed to remove the temporary sort files: " + ioe.getMessage());
+        }
+    }
+}
@@ -9,8 +9,8 @@ import java.util.List;
 import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
-import dataTypes.DataType;
 import sm.StorageManager;
+import util.PlanNode;
 import util.where.WhereTree;
 
 /**
@@ -19,7 +19,7 @@ import util.where.WhereTree;
  * <b>Description: Command to Delete information about the database</b>
  *
  */
-public class Delete extends Command{
+public class Delete extends Command implements Explainable, Preparable {
 
     private static final Pattern FULL_MATCH = Pattern.compile(
         "delete\\s+from\\s+([a-z0-9]+)\\s*(where\\s+.+)?;", Pattern.CASE_INSENSITIVE);
@@ -28,6 +28,8 @@ public class Delete extends Command{
     private final StorageManager sm;
     private final String tableName;
     private WhereTree whereTree;
+    private PlanNode deleteNode = null;     // only set when explaining
+    private PlanNode scanNode = null;
 
     public Delete(String args, ICatalog catalog, StorageManager storageManager) throws InvalidUsage {
         this.catalog = catalog;
@@ -72,25 +74,50 @@ public class Delete extends Command{
         // TODO
     }
 
+    @Override
+    public int getParameterCount() {
+        return this.whereTree == null ? 0 : this.whereTree.getParameterCount();
+    }
+
+    @Override
+    public void bind(List<String> values) throws ExecutionFailure {
+        if (this.whereTree == null) {
+            if (!values.isEmpty())
+                throw new ExecutionFailure("Expected 0 parameters but %d were given.".formatted(values.size()));
+            return;
+        }
+        this.whereTree.bind(values);
+    }
+
+    @Override
+    public PlanNode explain(boolean analyze) {
+        double rows = this.catalog.getRecordSchema(this.tableName).getStatistics().getRowCount();
+        String operator = "Seq Scan on " + this.tableName;
+        if (this.whereTree != null) {
+            operator += " filter: " + this.whereTree;
+            rows *= this.whereTree.estimateSelectivity();
+        }
+        this.scanNode = new PlanNode(operator, rows);
+        this.deleteNode = new PlanNode("Delete on " + this.tableName, rows, this.scanNode);
+        return this.deleteNode;
+    }
+
     @Override
     public void execute() throws ExecutionFailure {
         int tableID = this.catalog.getTableNumber(this.tableName);
-        int pki = this.catalog.getRecordSchema(this.tableName).getIndexOfPrimaryKey();
         List<Attribute> attributes = this.catalog.getRecordSchema(this.tableName).getAttributes();
 
+        start(this.deleteNode);
+        start(this.scanNode);
         // note: if no where clause is given, delete all records
-        List<List<DataType>> allRecords = whereTree == null
-                ? this.sm.getAllRecords(tableID, attributes)
-                : this.sm.selectRecords(tableID, attributes, whereTree);
-
-        // For each record, if where clause matches delete from table
-        for (List<DataType> record: allRecords) {
-            try {
-                this.sm.deleteRecord(tableID, record.get(pki), attributes);
-            } catch (IOException e) {
-                throw new ExecutionFailure("The file for the table '%s' could not be opened or modified.".formatted(tableName));
-            }
+        int deleted;
+        try {
+            deleted = this.sm.deleteWhere(tableID, attributes, this.whereTree);
+        } catch (IOException e) {
+            throw new ExecutionFailure("The file for the table '%s' could not be opened or modified.".formatted(tableName));
         }
+        stop(this.scanNode, deleted);
+        stop(this.deleteNode, deleted);
     }
 
 }
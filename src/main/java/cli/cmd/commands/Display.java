@@ -3,6 +3,7 @@ package cli.cmd.commands;
 import cli.cmd.exception.ExecutionFailure;
 import cli.cmd.exception.InvalidUsage;
 import catalog.Attribute;
+import catalog.ColumnStatistics;
 import catalog.ICatalog;
 import catalog.Table;
 
@@ -72,12 +73,12 @@ public class Display extends Command {
     public void execute() throws ExecutionFailure { 
         if (tableName != null) {
             Table tableSchema = catalog.getRecordSchema(tableName);
-            int tableID = tableSchema.getNumber();
-            int pageCount = sm.getPageCount(tableID);
-            int recordCount = sm.getAllRecords(tableID, tableSchema.getAttributes()).size();
+            int pageCount = tableSchema.getStatistics().getPageCount();
+            int recordCount = tableSchema.getStatistics().getRowCount();
             printTable(tableSchema);
             Console.out("Pages: " + pageCount);
             Console.out("Records: " + recordCount);
+            printColumnStatistics(tableSchema);
             Console.out("SUCCESS");
         }
         else{
@@ -96,9 +97,8 @@ public class Display extends Command {
             }
             for (String name : allTableNames) {
                 Table tempTable = catalog.getRecordSchema(name);
-                int tableID = tempTable.getNumber();
-                int pageCount = sm.getPageCount(tableID);
-                int recordCount = sm.getAllRecords(tableID, tempTable.getAttributes()).size();
+                int pageCount = tempTable.getStatistics().getPageCount();
+                int recordCount = tempTable.getStatistics().getRowCount();
                 printTable(tempTable);
                 Console.out("Pages: " + pageCount);
                 Console.out("Records: " + recordCount);
@@ -108,6 +108,23 @@ public class Display extends Command {
         }
     }
 
+    /**
+     * Print the value distribution of each column if the table has been analyzed
+     *
+     * @param table Table to print the column statistics of
+     */
+    private void printColumnStatistics(Table table) {
+        if (table.getColumnStatistics().isEmpty())
+            return;
+
+        Console.out("Column Statistics: ");
+        for (Attribute attr : table.getAttributes()) {
+            ColumnStatistics stats = table.getColumnStatistics(attr.getName());
+            if (stats != null)
+                Console.out("     " + attr.getName() + ": " + stats);
+        }
+    }
+
     public void printTable(Table table){
         List<Attribute> attributes = table.getAttributes();
         Console.out("Table Name: " + table.getName());
@@ -0,0 +1,112 @@
+package cli.cmd.commands;
+
+import catalog.ICatalog;
+import cli.cmd.PlanCache;
+import cli.cmd.exception.ExecutionFailure;
+import cli.cmd.exception.InvalidUsage;
+import sm.StorageManager;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * <b>File:</b> Execute.java
+ * <p>
+ * <b>Description:</b> Command to run a statement saved by prepare with values for its ? placeholders. The statement is
+ * parsed again if the schema changed since it was prepared
+ *
+ * @author Derek Garcia
+ */
+public class Execute extends Command {
+
+    private static final Pattern FULL_MATCH = Pattern.compile("execute\\s+([a-z][a-z0-9]*)\\s*(?:\\((.*)\\))?\\s*;", Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+
+    private final ICatalog catalog;
+    private final StorageManager sm;
+    private final PlanCache planCache;
+    private final String name;
+    private final List<String> values;
+
+    /**
+     * Create a new Execute command to be executed
+     *
+     * @param args           The string representation of the command passed to the CLI.
+     * @param catalog        The catalog of the current DB.
+     * @param storageManager The storage manager of the current DB.
+     * @throws InvalidUsage when the arguments could not be parsed or there is no statement with the name.
+     */
+    public Execute(String args, ICatalog catalog, StorageManager storageManager) throws InvalidUsage {
+        this.catalog = catalog;
+        this.sm = storageManager;
+
+        Matcher fullMatcher = FULL_MATCH.matcher(args);
+        if (!fullMatcher.matches())
+            throw new InvalidUsage(args, "Correct Usage: execute <name>[(<value>, ...)];");
+
+        this.planCache = catalog.getPlanCache();
+        this.name = fullMatcher.group(1).toLowerCase();
+        if (this.planCache == null || this.planCache.getPreparedText(this.name) == null)
+            throw new InvalidUsage(args, "There is no prepared statement named " + this.name);
+
+        this.values = fullMatcher.group(2) == null ? List.of() : splitValues(fullMatcher.group(2));
+    }
+
+    /**
+     * Split a list of values on the commas that are not inside quotes
+     *
+     * @param valueList Comma separated values
+     * @return Values with surrounding whitespace removed, empty if there are none
+     */
+    private static List<String> splitValues(String valueList) {
+        List<String> values = new ArrayList<>();
+        if (valueList.isBlank())
+            return values;
+
+        StringBuilder value = new StringBuilder();
+        boolean quoted = false;
+        for (char c : valueList.toCharArray()) {
+            if (c == '"')
+                quoted = !quoted;
+            if (c == ',' && !quoted) {
+                values.add(value.toString().strip());
+                value.setLength(0);
+            } else {
+                value.append(c);
+            }
+        }
+        values.add(value.toString().strip());
+        return values;
+    }
+
+    @Override
+    protected void helpMessage() {
+        // TODO
+    }
+
+    /**
+     * Bind the values to the prepared statement and run it
+     *
+     * @throws ExecutionFailure when the statement no longer parses, the values don't match its placeholders or it
+     *                          fails to run.
+     */
+    @Override
+    public void execute() throws ExecutionFailure {
+        Command command = this.planCache.getPrepared(this.name);
+
+        // the schema changed since the statement was parsed
+        if (command == null) {
+            String statement = this.planCache.getPreparedText(this.name);
+            try {
+                command = Prepare.parse(statement, this.catalog, this.sm);
+            } catch (InvalidUsage e) {
+                throw new ExecutionFailure("The prepared statement %s is no longer valid. %s".formatted(this.name, e.getMessage()));
+            }
+            this.planCache.prepare(this.name, statement, command);
+        }
+
+        ((Preparable) command).bind(this.values);
+        command.execute();
+    }
+}
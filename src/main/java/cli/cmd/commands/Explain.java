@@ -0,0 +1,82 @@
+package cli.cmd.commands;
+
+import catalog.ICatalog;
+import cli.cmd.exception.ExecutionFailure;
+import cli.cmd.exception.InvalidUsage;
+import sm.StorageManager;
+import util.Console;
+import util.PlanNode;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * <b>File:</b> Explain.java
+ * <p>
+ * <b>Description:</b> Command to show the plan of a select, update or delete. With analyze the statement is run and
+ * each operator reports what it actually did
+ *
+ * @author Derek Garcia
+ */
+public class Explain extends Command {
+
+    private static final Pattern FULL_MATCH = Pattern.compile("explain\\s+(analyze\\s+)?((select|update|delete)\\s.*)", Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+
+    private final StorageManager sm;
+    private final boolean analyze;
+    private final Command statement;
+
+    /**
+     * Create a new Explain command to be executed
+     *
+     * @param args           The string representation of the command passed to the CLI.
+     * @param catalog        The catalog of the current DB.
+     * @param storageManager The storage manager of the current DB.
+     * @throws InvalidUsage when the arguments or the explained statement could not be parsed.
+     */
+    public Explain(String args, ICatalog catalog, StorageManager storageManager) throws InvalidUsage {
+        this.sm = storageManager;
+
+        Matcher fullMatcher = FULL_MATCH.matcher(args);
+        if (!fullMatcher.matches())
+            throw new InvalidUsage(args, "Correct Usage: explain [analyze] <select | update | delete statement>;");
+
+        this.analyze = fullMatcher.group(1) != null;
+        String statementArgs = fullMatcher.group(2);
+        this.statement = switch (fullMatcher.group(3).toLowerCase()) {
+            case "select" -> new Select(statementArgs, catalog, storageManager);
+            case "update" -> new Update(statementArgs, catalog, storageManager);
+            default -> new Delete(statementArgs, catalog, storageManager);
+        };
+        if (((Preparable) this.statement).getParameterCount() > 0)
+            throw new InvalidUsage(args, "Parameters can only be used in a prepared statement.");
+    }
+
+    @Override
+    protected void helpMessage() {
+        // TODO
+    }
+
+    /**
+     * Print the plan, running the statement first if analyzing
+     *
+     * @throws ExecutionFailure when the statement fails to run.
+     */
+    @Override
+    public void execute() throws ExecutionFailure {
+        PlanNode plan = ((Explainable) this.statement).explain(this.analyze);
+
+        long executionNanos = 0;
+        if (this.analyze) {
+            plan.analyze(this.sm);
+            long start = System.nanoTime();
+            this.statement.execute();
+            executionNanos = System.nanoTime() - start;
+        }
+
+        for (String line : plan.format(this.analyze))
+            Console.out(line);
+        if (this.analyze)
+            Console.out("Execution time: %.3f ms".formatted(executionNanos / 1_000_000.0));
+    }
+}
@@ -0,0 +1,22 @@
+package cli.cmd.commands;
+
+import util.PlanNode;
+
+/**
+ * <b>File:</b> Explainable.java
+ * <p>
+ * <b>Description:</b> Command that can describe the operators it runs
+ *
+ * @author Derek Garcia
+ */
+public interface Explainable {
+
+    /**
+     * Build the plan of the command without running it
+     *
+     * @param analyze True if the command will be executed next, its operators count what they do and result rows are
+     *                not printed
+     * @return Root operator of the plan
+     */
+    PlanNode explain(boolean analyze);
+}
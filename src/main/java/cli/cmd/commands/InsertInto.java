@@ -11,9 +11,13 @@ import catalog.Attribute;
 
 import sm.StorageManager;
 
+import util.parse.InsertStatement;
+
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -28,7 +32,7 @@ public class InsertInto extends Command {
 
     private final ICatalog catalog;
     private final StorageManager sm;
-    private final List<String> tuples = new ArrayList<>();
+    private final List<List<String>> tuples;
 
     private final String tableName;
 
@@ -39,11 +43,8 @@ public class InsertInto extends Command {
     private static final String INVALID_ATTR_LENGTH_MSG = "The attribute '%s' has a max length of %s characters. You provided too many characters in tuple #%s";
     private static final String NO_QUOTES_MSG = "The attribute '%s' takes a string, which must be wrapped in quotes. You did not do this for tuple #%s";
 
-    private static final Pattern FULL_PATTERN = Pattern.compile("insert[\\s\\t]+into[\\s\\t]+([a-z0-9]*)[\\s\\t]+values[\\s\\t]+(\\(.*\\))\\s*;", Pattern.CASE_INSENSITIVE);
     private static final Pattern TABLE_NAME_PATTERN = Pattern.compile("[a-z][a-z0-9]*", Pattern.CASE_INSENSITIVE);
-    private static final Pattern TUPLE_PATTERN = Pattern.compile("\\s*\\(\\s*([-0-9\\s\"a-z.]+)\\s*\\)\\s*", Pattern.CASE_INSENSITIVE);
     private static final Pattern STRING_PATTERN = Pattern.compile("\"(.*)\"", Pattern.CASE_INSENSITIVE);
-    private static final Pattern VALUE_PATTERN = Pattern.compile("\".*?\"|\\S+", Pattern.CASE_INSENSITIVE);
 
     /**
      * Create a new Insert Into command to be executed. Parse the arguments to allow
@@ -60,12 +61,12 @@ public class InsertInto extends Command {
         this.sm = storageManager;
 
 
-        Matcher fullMatcher = FULL_PATTERN.matcher(args);
+        InsertStatement statement = InsertStatement.parse(args);
         // Insert Into Syntax Validation
-        if (!fullMatcher.matches()) {
+        if (statement == null) {
             throw new InvalidUsage(args, CORRECT_USAGE_MSG);
         }
-        tableName = fullMatcher.group(1);
+        tableName = statement.tableName();
 
         Matcher tableNameMatcher = TABLE_NAME_PATTERN.matcher(tableName);
         if (!tableNameMatcher.matches()) {
@@ -76,17 +77,7 @@ public class InsertInto extends Command {
             throw new InvalidUsage(args, TABLE_DNE_MSG.formatted(tableName));
         }
 
-        String allTuples = fullMatcher.group(2);
-
-        List<String> unparsedTuples = List.of(allTuples.split(","));
-
-        for (String tuple : unparsedTuples) {
-            Matcher tupleMatcher = TUPLE_PATTERN.matcher(tuple);
-            if (!tupleMatcher.matches())
-                throw new InvalidUsage(args, CORRECT_USAGE_MSG);
-            tuples.add(tupleMatcher.group(1));
-        }
-
+        tuples = statement.tuples();
     }
 
     @Override
@@ -95,50 +86,59 @@ public class InsertInto extends Command {
     }
 
     /**
-     * Iterates through the list of parsed values pulled from the command and inserts them into the database through
-     * the storage manager.
+     * Converts every tuple pulled from the command and checks the unique constraints, then inserts them into the
+     * database through the storage manager in a single batch. Nothing is inserted if a tuple is invalid.
      *
-     * @throws ExecutionFailure when the table's file cannot be read or modified.
+     * @throws ExecutionFailure when a tuple is invalid or the table's file cannot be read or modified.
      */
     @Override
     public void execute() throws ExecutionFailure {
         int tableNumber = catalog.getTableNumber(tableName);
         List<Attribute> attrs = catalog.getRecordSchema(tableName).getAttributes();
 
-        for (int i = 0; i < tuples.size(); i++) {
-            List<DataType> tuple = convertStringToTuple(tuples.get(i), attrs, i);
-            try {
-                checkUniqueConstraint(tableNumber, attrs, tuple, i);
-                sm.insertRecord(tableNumber, attrs, tuple);
-            } catch (IOException ioe) {
-                throw new ExecutionFailure("The file for the table '%s' could not be opened or modified.".formatted(tableName));
-            }
+        List<List<DataType>> records = new ArrayList<>(tuples.size());
+        for (int i = 0; i < tuples.size(); i++)
+            records.add(convertStringToTuple(tuples.get(i), attrs, i));
+
+        checkUniqueConstraints(tableNumber, attrs, records);
+        try {
+            sm.insertRecords(tableNumber, attrs, records);
+        } catch (IOException ioe) {
+            throw new ExecutionFailure("The file for the table '%s' could not be opened or modified.".formatted(tableName));
         }
         Console.out("SUCCESS");
     }
 
-    private void checkUniqueConstraint(int tableNum, List<Attribute> attrs, List<DataType> tuple, int tupleNum) throws ExecutionFailure {
+    /**
+     * Check the unique attributes against the table and the tuples before them. The table is only read once
+     *
+     * @throws ExecutionFailure when a tuple repeats a unique value
+     */
+    private void checkUniqueConstraints(int tableNum, List<Attribute> attrs, List<List<DataType>> tuples) throws ExecutionFailure {
         List<List<DataType>> allRecords = null;
         for (int i = 0; i < attrs.size(); i++) {
             Attribute a = attrs.get(i);
-            DataType value = tuple.get(i);
+            if (!a.isUnique() || a.isPrimaryKey())
+                continue;
 
-            int finalI = i;
-            if (a.isUnique() && !a.isPrimaryKey()) {
-                if (allRecords == null) {
-                    allRecords = sm.getAllRecords(tableNum, attrs);
-                }
+            if (allRecords == null)
+                allRecords = sm.getAllRecords(tableNum, attrs);
+
+            // values of one attribute share a type, so equal values have equal strings
+            Set<String> seen = new HashSet<>();
+            for (List<DataType> r : allRecords)
+                seen.add(r.get(i).isNull() ? null : r.get(i).stringValue());
 
-                if (allRecords.stream().anyMatch(r -> r.get(finalI).compareTo(value) == 0))
+            for (int tupleNum = 0; tupleNum < tuples.size(); tupleNum++) {
+                DataType value = tuples.get(tupleNum).get(i);
+                if (!seen.add(value.isNull() ? null : value.stringValue()))
                     throw new ExecutionFailure("Attribute '%s' is unique, you violate this constraint in tuple #%s"
                             .formatted(a.getName(), tupleNum));
             }
         }
     }
 
-    private List<DataType> convertStringToTuple(String entry, List<Attribute> attrs, int tupleNum) throws ExecutionFailure {
-        List<String> values = customSplit(entry);
-
+    private List<DataType> convertStringToTuple(List<String> values, List<Attribute> attrs, int tupleNum) throws ExecutionFailure {
         if (values.size() != attrs.size()) {
             throw new ExecutionFailure(UNEQUAL_ATTR_MSG.formatted(tableName, attrs.size(), values.size(), tupleNum));
         }
@@ -189,15 +189,4 @@ public class InsertInto extends Command {
 
         return tuple;
     }
-
-    private List<String> customSplit(String input) {
-        List<String> result = new ArrayList<>();
-        Matcher valueMatcher = VALUE_PATTERN.matcher(input);
-
-        while (valueMatcher.find()) {
-            result.add(valueMatcher.group());
-        }
-
-        return result;
-    }
 }
\ No newline at end of file
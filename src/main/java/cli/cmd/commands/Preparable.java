@@ -0,0 +1,29 @@
+package cli.cmd.commands;
+
+import cli.cmd.exception.ExecutionFailure;
+
+import java.util.List;
+
+/**
+ * <b>File:</b> Preparable.java
+ * <p>
+ * <b>Description:</b> Command that can be parsed once and executed many times, with ? placeholders in its where clause
+ * bound to new values before each run
+ *
+ * @author Derek Garcia
+ */
+public interface Preparable {
+
+    /**
+     * @return Number of ? placeholders in the command
+     */
+    int getParameterCount();
+
+    /**
+     * Set the values of the ? placeholders for the next execution
+     *
+     * @param values Values in the order the placeholders appear
+     * @throws ExecutionFailure The wrong number of values was given or a value does not match its placeholder's type
+     */
+    void bind(List<String> values) throws ExecutionFailure;
+}
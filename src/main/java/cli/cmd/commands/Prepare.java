@@ -0,0 +1,85 @@
+package cli.cmd.commands;
+
+import catalog.ICatalog;
+import cli.cmd.PlanCache;
+import cli.cmd.exception.ExecutionFailure;
+import cli.cmd.exception.InvalidUsage;
+import sm.StorageManager;
+import util.Console;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * <b>File:</b> Prepare.java
+ * <p>
+ * <b>Description:</b> Command to parse a select, update or delete once and save it under a name. The where clause can
+ * use ? in place of a constant, the values are given each time it is run with execute
+ *
+ * @author Derek Garcia
+ */
+public class Prepare extends Command {
+
+    private static final Pattern FULL_MATCH = Pattern.compile("prepare\\s+([a-z][a-z0-9]*)\\s+as\\s+((select|update|delete)\\s.*)", Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+
+    private final PlanCache planCache;
+    private final String name;
+    private final String statement;
+    private final Command command;
+
+    /**
+     * Create a new Prepare command to be executed
+     *
+     * @param args           The string representation of the command passed to the CLI.
+     * @param catalog        The catalog of the current DB.
+     * @param storageManager The storage manager of the current DB.
+     * @throws InvalidUsage when the arguments or the prepared statement could not be parsed.
+     */
+    public Prepare(String args, ICatalog catalog, StorageManager storageManager) throws InvalidUsage {
+        Matcher fullMatcher = FULL_MATCH.matcher(args);
+        if (!fullMatcher.matches())
+            throw new InvalidUsage(args, "Correct Usage: prepare <name> as <select | update | delete statement>;");
+
+        this.planCache = catalog.getPlanCache();
+        if (this.planCache == null)
+            throw new InvalidUsage(args, "This database does not support prepared statements.");
+
+        this.name = fullMatcher.group(1).toLowerCase();
+        this.statement = fullMatcher.group(2);
+        this.command = parse(this.statement, catalog, storageManager);
+    }
+
+    /**
+     * Parse a statement that can be prepared
+     *
+     * @param statement      Select, update or delete statement, may have ? placeholders
+     * @param catalog        The catalog of the current DB.
+     * @param storageManager The storage manager of the current DB.
+     * @return Parsed statement
+     * @throws InvalidUsage when the statement could not be parsed.
+     */
+    static Command parse(String statement, ICatalog catalog, StorageManager storageManager) throws InvalidUsage {
+        return switch (statement.strip().split("\\s+")[0].toLowerCase()) {
+            case "select" -> new Select(statement, catalog, storageManager);
+            case "update" -> new Update(statement, catalog, storageManager);
+            case "delete" -> new Delete(statement, catalog, storageManager);
+            default -> throw new InvalidUsage(statement, "Only select, update and delete statements can be prepared.");
+        };
+    }
+
+    @Override
+    protected void helpMessage() {
+        // TODO
+    }
+
+    /**
+     * Save the parsed statement under its name, replacing any statement with the same name
+     *
+     * @throws ExecutionFailure never, saving can't fail
+     */
+    @Override
+    public void execute() throws ExecutionFailure {
+        this.planCache.prepare(this.name, this.statement, this.command);
+        Console.out("SUCCESS");
+    }
+}
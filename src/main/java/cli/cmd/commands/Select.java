@@ -1,14 +1,24 @@
 package cli.cmd.commands;
 
 import catalog.Attribute;
+import catalog.ColumnStatistics;
 import catalog.ICatalog;
+import catalog.Table;
 import cli.cmd.exception.ExecutionFailure;
 import cli.cmd.exception.InvalidUsage;
 import util.Console;
+import util.PlanNode;
+import util.TopN;
 import dataTypes.*;
+import sm.BInterpreter;
+import sm.ExternalSort;
+import sm.HashAggregate;
 import sm.StorageManager;
+import util.parse.SelectStatement;
 import util.where.WhereTree;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.*;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -22,13 +32,13 @@ import static util.Format.*;
  *
  * @author Derek Garcia
  */
-public class Select extends Command {
+public class Select extends Command implements Explainable, Preparable {
 
     // CONSTANTS
     private static final String TABLE_DNE_MSG = "Table %s does not exist in the Catalog";
     private static final String BAD_ATTR_NAME_MSG = "The attribute names could not be parsed:";
     private static final Pattern TABLE_ATTR_PATTERN = Pattern.compile("([a-z][a-z0-9]*)(?:\\.([a-z][a-z0-9]*))?", Pattern.CASE_INSENSITIVE);
-    private static final Pattern FULL_SELECT_STMT = Pattern.compile("select\\s+(\\*|(?:[a-z][a-z0-9]*(?:\\.[a-z][a-z0-9]*)?(?:,\\s*)?)+)\\s+from\\s+((?:[a-z][a-z0-9]*(?:\\.[a-z][a-z0-9]*)?(?:,\\s*)?)+)(?:\\s+(where\\s+.+?))?(?:\\s+orderby\\s+(.+?))?\\s*;", Pattern.CASE_INSENSITIVE);
+    private static final Pattern AGGREGATE_PATTERN = Pattern.compile("(count|sum|avg|min|max)\\s*\\(\\s*(\\*|[a-z][a-z0-9]*(?:\\.[a-z][a-z0-9]*)?)\\s*\\)", Pattern.CASE_INSENSITIVE);
 
     // Base
     private final ICatalog catalog;
@@ -39,9 +49,23 @@ public class Select extends Command {
 
     private final List<String> tableNames;
     private List<AttributeName> attrsToDisplay = null;
+    private List<SelectItem> selectItems = null;    // only set when aggregating
+    private List<AttributeName> groupBy = List.of();
 
     private final String args;
     private AttributeName orderByData;
+    private Integer limit = null;
+    private int offset = 0;
+    private int[] columnMap = null;
+
+    // operators of the plan, only set when explaining
+    private boolean analyzing = false;
+    private PlanNode scanNode = null;
+    private final Map<String, PlanNode> tableNodes = new HashMap<>();
+    private PlanNode joinNode = null;
+    private PlanNode aggregateNode = null;
+    private PlanNode sortNode = null;
+    private PlanNode limitNode = null;
 
 
     //==================================================================================================================
@@ -55,12 +79,12 @@ public class Select extends Command {
         this.args = args;
 
         // Select String Syntax Validation
-        Matcher FullMatch = FULL_SELECT_STMT.matcher(args);
+        SelectStatement statement = SelectStatement.parse(args);
 
-        if (!FullMatch.matches())
-            throw new InvalidUsage(args, "Correct Usage: (select <a_1>, ..., <a_N> from <t_1>, ..., <t_N> [where <condition(s)>] [orderby <a_1>];)");
+        if (statement == null)
+            throw new InvalidUsage(args, "Correct Usage: (select <a_1>, ..., <a_N> from <t_1>, ..., <t_N> [where <condition(s)>] [groupby <a_1>, ..., <a_N>] [orderby <a_1>] [limit <n> [offset <m>]];)");
 
-        tableNames = List.of(FullMatch.group(2).split(",\\s*"));
+        tableNames = statement.tableNames();
 
         Set<String> allTables = catalog.getExistingTableNames();
 
@@ -70,24 +94,29 @@ public class Select extends Command {
             }
         }
 
-        if (FullMatch.group(3) != null) {
+        if (statement.where() != null) {
             try {
-                whereTree = new WhereTree(FullMatch.group(3), catalog, tableNames);
+                whereTree = new WhereTree(statement.where(), catalog, tableNames);
             } catch (ExecutionFailure ef) {
                 throw new InvalidUsage(args, ef.getMessage());
             }
         }
 
 
-        if (!FullMatch.group(1).equals("*")){
-            attrsToDisplay = validateAttributeSet(List.of(FullMatch.group(1).split(",\\s*")),
+        List<String> selectList = statement.selectList();
+        boolean hasAggregate = selectList.stream().anyMatch(i -> AGGREGATE_PATTERN.matcher(i).matches());
+
+        if (hasAggregate || statement.groupBy() != null) {
+            validateAggregates(selectList, statement.groupBy());
+        } else if (!selectList.equals(List.of("*"))){
+            attrsToDisplay = validateAttributeSet(selectList,
                     getAllAttrs().stream().map(Attribute::getName).toList(),
                     getDistinctAttrNames());
         }
 
-        String orderByArg = FullMatch.group(4);
+        String orderByArg = statement.orderBy();
         if (orderByArg != null) {
-            orderByData = validateAttributeSet(List.of(FullMatch.group(4)),
+            orderByData = validateAttributeSet(List.of(orderByArg),
                     getAllAttrs().stream().map(Attribute::getName).toList(),
                     getDistinctAttrNames()).getFirst();
 
@@ -96,6 +125,70 @@ public class Select extends Command {
             }
         }
 
+        if (statement.limit() != null) {
+            try {
+                limit = Integer.parseInt(statement.limit());
+                if (statement.offset() != null)
+                    offset = Integer.parseInt(statement.offset());
+            } catch (NumberFormatException nfe) {
+                throw new InvalidUsage(args, "The limit and offset must be at most %d.".formatted(Integer.MAX_VALUE));
+            }
+        }
+
+    }
+
+    /**
+     * Validate a select list that has aggregate functions or a groupby clause. Every attribute outside an aggregate
+     * must be grouped by
+     *
+     * @param selectList  Items of the select list
+     * @param groupByList Attributes to group by, null if not grouping
+     * @throws InvalidUsage Select list or groupby is invalid
+     */
+    private void validateAggregates(List<String> selectList, List<String> groupByList) throws InvalidUsage {
+        List<String> allAttrNames = getAllAttrs().stream().map(Attribute::getName).toList();
+
+        if (selectList.getFirst().equals("*"))
+            throw new InvalidUsage(args, "Cannot select * when using groupby.");
+
+        if (groupByList != null)
+            groupBy = validateAttributeSet(groupByList, allAttrNames, getDistinctAttrNames());
+
+        selectItems = new ArrayList<>();
+        attrsToDisplay = new ArrayList<>();
+        for (String item : selectList) {
+            Matcher aggregateMatcher = AGGREGATE_PATTERN.matcher(item);
+
+            // plain attribute, must be grouped by
+            if (!aggregateMatcher.matches()) {
+                AttributeName attr = validateAttributeSet(List.of(item), allAttrNames, getDistinctAttrNames()).getFirst();
+                if (groupBy.stream().noneMatch(g -> g.getFullName().equals(attr.getFullName())))
+                    throw new InvalidUsage(args, "The attribute %s must be part of the groupby clause or used in an aggregate function.".formatted(item));
+
+                attrsToDisplay.add(attr);
+                selectItems.add(new SelectItem(null, attr, null));
+                continue;
+            }
+
+            HashAggregate.Function function = HashAggregate.Function.valueOf(aggregateMatcher.group(1).toUpperCase());
+            String displayName = "%s(%s)".formatted(function.name().toLowerCase(), aggregateMatcher.group(2));
+
+            if (aggregateMatcher.group(2).equals("*")) {
+                if (function != HashAggregate.Function.COUNT)
+                    throw new InvalidUsage(args, "Only count can be applied to *.");
+
+                selectItems.add(new SelectItem(function, null, displayName));
+                continue;
+            }
+
+            AttributeName attr = validateAttributeSet(List.of(aggregateMatcher.group(2)), allAttrNames, getDistinctAttrNames()).getFirst();
+            AttributeType type = getAttribute(attr).getDataType();
+            if ((function == HashAggregate.Function.SUM || function == HashAggregate.Function.AVG)
+                    && type != AttributeType.INTEGER && type != AttributeType.DOUBLE)
+                throw new InvalidUsage(args, "%s can only be applied to integer or double attributes.".formatted(function.name().toLowerCase()));
+
+            selectItems.add(new SelectItem(function, attr, displayName));
+        }
     }
 
     @Override
@@ -110,13 +203,15 @@ public class Select extends Command {
     @Override
     public void execute() throws ExecutionFailure {
 
-        List<List<DataType>> goodRecords = getValidRecords();
+        if (selectItems != null) {
+            executeAggregate();
+            return;
+        }
+
+        Iterator<List<DataType>> goodRecords = getValidRecords();
 
         List<Attribute> finalAttrs = new ArrayList<>();
-        List<List<DataType>> finalRecords = new ArrayList<>();
-        for (int i = 0; i < goodRecords.size(); i++)
-            finalRecords.add(new ArrayList<>());    // create a new array of empty lists with the same size as the records that passed the conditions
-                                                    // this allows us to place the attributes in the order requested
+        List<Integer> projection = null;    // indexes of the attributes to copy, in the order requested
 
         if (attrsToDisplay == null) {   // if there was no projection  (i.e. "select * ...")
             // then copy all the attribute names and for any that overlap, append the table name
@@ -134,8 +229,8 @@ public class Select extends Command {
                 }
             }
             // and don't do any rearrangement of attributes in the records
-            finalRecords = goodRecords;
         } else {    // if there was projection
+            projection = new ArrayList<>();
             for (AttributeName attr : attrsToDisplay) {
                 // copy each attribute, in order of projection, into the new array (renamed if ambiguous)
                 int attrIdx = getTableAttrOffsets().get(attr.TableName) + catalog.getRecordSchema(attr.TableName).getIndexOfAttribute(attr.AttributeName);
@@ -153,28 +248,380 @@ public class Select extends Command {
                     finalAttrs.add(new Attribute(displayName, oldAttr.getDataType()));
 
                 // and copy over the attribute data from the records that passed comparison into the correct spot.
-                for (int i = 0; i < goodRecords.size(); i++) {
-                    finalRecords.get(i).add(goodRecords.get(i).get(attrIdx));
-                }
+                projection.add(columnMap == null ? attrIdx : columnMap[attrIdx]);
             }
         }
 
-        // Order if necessary (only by one attribute, and only ascending)
-        if (orderByData != null) {
-            int sortColIdx = attrsToDisplay != null
-                ? attrsToDisplay.stream().map(AttributeName::getFullName).toList().indexOf(orderByData.getFullName())
-                : getTableAttrOffsets().get(orderByData.TableName) + catalog.getRecordSchema(orderByData.TableName).getIndexOfAttribute(orderByData.AttributeName);
-
+        List<Integer> colWidths = getColumnWidths(finalAttrs);
 
-            finalRecords.sort((r1, r2) -> {
-                return r2.get(sortColIdx).compareTo(r1.get(sortColIdx)); // reverse the order
-            });
+        try {
+            // Order if necessary (only by one attribute, and only ascending)
+            if (orderByData != null && !isOrderedByPrimaryKey()) {
+                int sortColIdx = attrsToDisplay != null
+                    ? attrsToDisplay.stream().map(AttributeName::getFullName).toList().indexOf(orderByData.getFullName())
+                    : getTableAttrOffsets().get(orderByData.TableName) + catalog.getRecordSchema(orderByData.TableName).getIndexOfAttribute(orderByData.AttributeName);
+                orderAndPrint(colWidths, finalAttrs, goodRecords, projection, sortColIdx);
+            } else {
+                // records already come out of the scan in primary key order if ordering by it
+                printRecords(colWidths, finalAttrs, goodRecords, projection);
+            }
+        } catch (IOException | UncheckedIOException e) {
+            throw new ExecutionFailure("Failed to read records from table file: " + e.getMessage());
         }
+    }
 
-        // Run the normal print routines
+    /**
+     * Group the valid records and compute the aggregate functions of the select list, then order and print the groups
+     *
+     * @throws ExecutionFailure Failed to read records or aggregate them
+     */
+    private void executeAggregate() throws ExecutionFailure {
+        List<Attribute> finalAttrs = new ArrayList<>();
+        for (SelectItem item : selectItems) {
+            if (item.function() == null) {
+                Attribute oldAttr = getAttribute(item.attr());
+                String displayName =
+                        getDistinctAttrNames().containsKey(oldAttr.getName()) ||
+                                item.attr().RequestedName.equalsIgnoreCase(item.attr().getFullName())
+                        ? item.attr().RequestedName
+                        : item.attr().getFullName();
+                if (oldAttr.getDataType() == AttributeType.CHAR || oldAttr.getDataType() == AttributeType.VARCHAR)
+                    finalAttrs.add(new Attribute(displayName, oldAttr.getDataType(), oldAttr.getMaxDataLength()));
+                else
+                    finalAttrs.add(new Attribute(displayName, oldAttr.getDataType()));
+            } else {
+                finalAttrs.add(new Attribute(item.displayName(), getAggregateType(item)));
+            }
+        }
         List<Integer> colWidths = getColumnWidths(finalAttrs);
+
+        int sortColIdx = -1;
+        if (orderByData != null)
+            sortColIdx = attrsToDisplay.stream().map(AttributeName::getFullName).toList().indexOf(orderByData.getFullName());
+
+        // a count of every record is read from the table statistics instead of the records
+        if (isCountOfTable()) {
+            DTInteger count = new DTInteger(String.valueOf(catalog.getRecordSchema(tableNames.getFirst()).getStatistics().getRowCount()));
+            printRecords(colWidths, finalAttrs, instrument(scanNode, List.of(Collections.<DataType>nCopies(selectItems.size(), count)).iterator()), null);
+            return;
+        }
+
+        Iterator<List<DataType>> goodRecords = getValidRecords();
+
+        // input records may only hold the columns that were decoded
+        List<Attribute> inputAttrs = new ArrayList<>();
+        for (int i = 0; i < getAllAttrs().size(); i++) {
+            if (columnMap == null || columnMap[i] != -1)
+                inputAttrs.add(getAllAttrs().get(i));
+        }
+
+        List<Integer> groupColumns = groupBy.stream().map(this::getRecordIndex).toList();
+        List<HashAggregate.Aggregate> aggregates = new ArrayList<>();
+        List<Integer> projection = new ArrayList<>();   // position of each select item in the aggregated records
+        for (SelectItem item : selectItems) {
+            if (item.function() == null) {
+                projection.add(groupBy.stream().map(AttributeName::getFullName).toList().indexOf(item.attr().getFullName()));
+            } else {
+                projection.add(groupBy.size() + aggregates.size());
+                aggregates.add(new HashAggregate.Aggregate(item.function(), item.attr() == null ? -1 : getRecordIndex(item.attr())));
+            }
+        }
+
+        try (HashAggregate aggregate = sm.createAggregate(inputAttrs, groupColumns, aggregates)) {
+            start(aggregateNode);
+            while (goodRecords.hasNext())
+                aggregate.add(goodRecords.next());
+            Iterator<List<DataType>> groups = aggregate.iterator();
+            stop(aggregateNode, 0);
+
+            orderAndPrint(colWidths, finalAttrs, instrument(aggregateNode, groups), projection, sortColIdx);
+        } catch (IOException | UncheckedIOException e) {
+            throw new ExecutionFailure("Failed to read records from table file: " + e.getMessage());
+        } catch (ArithmeticException ae) {
+            throw new ExecutionFailure("The sum is too large to fit in an integer.");
+        }
+    }
+
+    /**
+     * Order the records by a column of the projected records if requested, then print them
+     *
+     * @param colWidths  Widths of each column
+     * @param finalAttrs Attributes to display
+     * @param records    Records to print
+     * @param projection Indexes of the attributes to print, null to print the record as is
+     * @param sortColIdx Index of the column in the projected records to order by, -1 to not order
+     * @throws IOException Failed to read or write sort files
+     */
+    private void orderAndPrint(List<Integer> colWidths, List<Attribute> finalAttrs, Iterator<List<DataType>> records, List<Integer> projection, int sortColIdx) throws IOException {
+        if (sortColIdx == -1) {
+            printRecords(colWidths, finalAttrs, records, projection);
+            return;
+        }
+
+        Comparator<List<DataType>> comparator = (r1, r2) -> {
+            return r2.get(sortColIdx).compareTo(r1.get(sortColIdx)); // reverse the order
+        };
+
+        // only the first offset + limit rows can be printed, so keep just those in a bounded heap
+        if (limit != null) {
+            TopN<List<DataType>> topN = new TopN<>((int) Math.min(Integer.MAX_VALUE, (long) offset + limit), comparator);
+            start(sortNode);
+            while (records.hasNext())
+                topN.add(project(records.next(), projection));
+            List<List<DataType>> sorted = topN.toSortedList();
+            stop(sortNode, 0);
+
+            printRecords(colWidths, finalAttrs, instrument(sortNode, sorted.iterator()), null);
+            return;
+        }
+
+        // spills sorted runs to disk if the result is larger than the buffer
+        try (ExternalSort sort = sm.createSort(finalAttrs, comparator)) {
+            start(sortNode);
+            while (records.hasNext())
+                sort.add(project(records.next(), projection));
+            Iterator<List<DataType>> sorted = sort.iterator();
+            stop(sortNode, 0);
+
+            printRecords(colWidths, finalAttrs, instrument(sortNode, sorted), null);
+        }
+    }
+
+    /**
+     * Copy the requested attributes of a record in the order requested
+     *
+     * @param record     Record to project
+     * @param projection Indexes of the attributes to copy, null to keep the record as is
+     * @return Projected record
+     */
+    private List<DataType> project(List<DataType> record, List<Integer> projection) {
+        if (projection == null)
+            return record;
+
+        List<DataType> projected = new ArrayList<>(projection.size());
+        for (int recordIdx : projection)
+            projected.add(record.get(recordIdx));
+        return projected;
+    }
+
+    /**
+     * Run the normal print routines, printing each row as it is produced. Rows before the offset are skipped and
+     * no more records are pulled once the limit is printed
+     *
+     * @param colWidths  Widths of each column
+     * @param finalAttrs Attributes to display
+     * @param records    Records to print
+     * @param projection Indexes of the attributes to print, null to print the record as is
+     */
+    private void printRecords(List<Integer> colWidths, List<Attribute> finalAttrs, Iterator<List<DataType>> records, List<Integer> projection) {
+        records = instrument(limitNode, limit(records));
+
+        // explain analyze runs the query but only shows the plan
+        if (analyzing) {
+            records.forEachRemaining(r -> {});
+            return;
+        }
+
         Console.out(createHeader(colWidths, finalAttrs));
-        Console.out(createFormattedRows(colWidths, finalRecords));
+
+        int printed = 0;
+        while (records.hasNext()) {
+            Console.out(createFormattedRow(colWidths, project(records.next(), projection)));
+            printed++;
+        }
+
+        if (printed == 0)
+            Console.out("");
+    }
+
+    /**
+     * Skip the records before the offset and stop once the limit is reached, no more records are pulled after
+     *
+     * @param records Records to limit
+     * @return Iterator of the records within the limit and offset
+     */
+    private Iterator<List<DataType>> limit(Iterator<List<DataType>> records) {
+        return new Iterator<>() {
+            private int skipped = 0;
+            private int returned = 0;
+
+            @Override
+            public boolean hasNext() {
+                for (; skipped < offset && records.hasNext(); skipped++)
+                    records.next();
+                return (limit == null || returned < limit) && records.hasNext();
+            }
+
+            @Override
+            public List<DataType> next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                returned++;
+                return records.next();
+            }
+        };
+    }
+
+    /**
+     * @return True if every select item is count(*) of a single table without a where or groupby
+     */
+    private boolean isCountOfTable() {
+        return tableNames.size() == 1 && whereTree == null && groupBy.isEmpty()
+                && selectItems.stream().allMatch(i -> i.function() == HashAggregate.Function.COUNT && i.attr() == null);
+    }
+
+    /**
+     * Get the type an aggregate function produces
+     *
+     * @param item Aggregate select item
+     * @return Type of the aggregate values
+     */
+    private AttributeType getAggregateType(SelectItem item) {
+        return switch (item.function()) {
+            case COUNT -> AttributeType.INTEGER;
+            case AVG -> AttributeType.DOUBLE;
+            case SUM, MIN, MAX -> getAttribute(item.attr()).getDataType();
+        };
+    }
+
+    /**
+     * @param attr Attribute name
+     * @return Attribute from the catalog
+     */
+    private Attribute getAttribute(AttributeName attr) {
+        return catalog.getRecordSchema(attr.TableName).getAttributes().get(
+                catalog.getRecordSchema(attr.TableName).getIndexOfAttribute(attr.AttributeName));
+    }
+
+    /**
+     * Get the index of an attribute in the valid records, which only hold the decoded columns
+     *
+     * @param attr Attribute name
+     * @return Index of the attribute in the records
+     */
+    private int getRecordIndex(AttributeName attr) {
+        int attrIdx = getTableAttrOffsets().get(attr.TableName) + catalog.getRecordSchema(attr.TableName).getIndexOfAttribute(attr.AttributeName);
+        return columnMap == null ? attrIdx : columnMap[attrIdx];
+    }
+
+    /**
+     * @return True if the only table is ordered by its primary key, which the storage manager can produce directly
+     */
+    private boolean isOrderedByPrimaryKey() {
+        if (orderByData == null || selectItems != null || tableNames.size() != 1)
+            return false;
+
+        return catalog.getRecordSchema(orderByData.TableName).getAttributes().stream()
+                .anyMatch(a -> a.isPrimaryKey() && a.getName().equalsIgnoreCase(orderByData.AttributeName));
+    }
+
+    //==================================================================================================================
+    // Plan Explanation
+    //==================================================================================================================
+
+    @Override
+    public int getParameterCount() {
+        return whereTree == null ? 0 : whereTree.getParameterCount();
+    }
+
+    @Override
+    public void bind(List<String> values) throws ExecutionFailure {
+        if (whereTree == null) {
+            if (!values.isEmpty())
+                throw new ExecutionFailure("Expected 0 parameters but %d were given.".formatted(values.size()));
+            return;
+        }
+        whereTree.bind(values);
+    }
+
+    @Override
+    public PlanNode explain(boolean analyze) {
+        analyzing = analyze;
+        tableNodes.clear();
+        PlanNode input;
+
+        if (selectItems != null && isCountOfTable()) {
+            scanNode = new PlanNode("Statistics Count on " + tableNames.getFirst(), 1);
+            input = scanNode;
+        } else if (tableNames.size() == 1) {
+            String tName = tableNames.getFirst();
+            String operator;
+            if (isPrimaryKeyLookupCheaper(tName))
+                operator = "Index Lookup on %s using %s".formatted(tName, whereTree.TableOptimizations.get(tName.toLowerCase()));
+            else if (isOrderedByPrimaryKey() && sm.isIndexed())
+                operator = "Index Scan on " + tName;
+            else
+                operator = "Seq Scan on " + tName;
+
+            double rows = catalog.getRecordSchema(tName).getStatistics().getRowCount();
+            if (whereTree != null) {
+                operator += " filter: " + whereTree;
+                rows *= whereTree.estimateSelectivity();
+            }
+            scanNode = new PlanNode(operator, rows);
+            input = scanNode;
+        } else {
+            // children are listed in the order the tables are read
+            double productRows = 1;
+            List<PlanNode> children = new ArrayList<>();
+            for (String tName : tableNames.stream().sorted(Comparator.comparingDouble(this::estimateRows)).toList()) {
+                String operator;
+                if (isPrimaryKeyLookupCheaper(tName))
+                    operator = "Index Lookup on %s using %s".formatted(tName, whereTree.TableOptimizations.get(tName.toLowerCase()));
+                else if (whereTree != null && whereTree.TableOptimizations.containsKey(tName.toLowerCase()))
+                    operator = "Seq Scan on %s filter: %s".formatted(tName, whereTree.TableOptimizations.get(tName.toLowerCase()));
+                else
+                    operator = "Seq Scan on " + tName;
+
+                PlanNode tableNode = new PlanNode(operator, estimateRows(tName));
+                tableNodes.put(tName, tableNode);
+                children.add(tableNode);
+                productRows *= catalog.getRecordSchema(tName).getStatistics().getRowCount();
+            }
+
+            String operator = "Nested Loop";
+            if (whereTree != null) {
+                operator += " filter: " + whereTree;
+                productRows *= whereTree.estimateSelectivity();
+            }
+            joinNode = new PlanNode(operator, productRows, children.toArray(new PlanNode[0]));
+            input = joinNode;
+        }
+
+        if (selectItems != null && !isCountOfTable()) {
+            double groups = 1;
+            if (!groupBy.isEmpty()) {
+                for (AttributeName attr : groupBy) {
+                    ColumnStatistics stats = catalog.getRecordSchema(attr.TableName).getColumnStatistics(attr.AttributeName);
+                    groups *= stats == null ? input.getEstimatedRows() : Math.max(1, stats.getDistinctCount());
+                }
+                groups = Math.min(groups, input.getEstimatedRows());
+            }
+
+            String operator = "Hash Aggregate " + String.join(", ", selectItems.stream().filter(i -> i.function() != null).map(SelectItem::displayName).toList());
+            if (!groupBy.isEmpty())
+                operator += " group by: " + String.join(", ", groupBy.stream().map(AttributeName::getFullName).toList());
+            aggregateNode = new PlanNode(operator, groups, input);
+            input = aggregateNode;
+        }
+
+        if (orderByData != null && !isOrderedByPrimaryKey()) {
+            sortNode = limit == null
+                    ? new PlanNode("Sort by " + orderByData.getFullName(), input.getEstimatedRows(), input)
+                    : new PlanNode("Top-N Sort by %s keep %d".formatted(orderByData.getFullName(), (long) offset + limit),
+                            Math.min(input.getEstimatedRows(), (double) offset + limit), input);
+            input = sortNode;
+        }
+
+        if (limit != null || offset > 0) {
+            double rows = Math.max(0, input.getEstimatedRows() - offset);
+            if (limit != null)
+                rows = Math.min(rows, limit);
+            limitNode = new PlanNode((limit == null ? "Offset " + offset : "Limit %d offset %d".formatted(limit, offset)), rows, input);
+            input = limitNode;
+        }
+
+        return input;
     }
 
     //==================================================================================================================
@@ -260,34 +707,72 @@ public class Select extends Command {
         }
     }
 
+    /**
+     * Item of a select list that aggregates
+     *
+     * @param function    Aggregate function, null for a grouped attribute
+     * @param attr        Attribute the item refers to, null for count(*)
+     * @param displayName Name of the aggregate column
+     */
+    private record SelectItem(HashAggregate.Function function, AttributeName attr, String displayName) {
+    }
+
     //==================================================================================================================
     // Record Collection and Comparison
     //==================================================================================================================
 
-    private List<List<DataType>> getValidRecords() throws ExecutionFailure {
+    private Iterator<List<DataType>> getValidRecords() throws ExecutionFailure {
         List<List<DataType>> goodRecords = new ArrayList<>();
 
         if (tableNames.size() == 1) {
+            // stream the single table page by page
             String tName = tableNames.getFirst();
             int tableNum = catalog.getTableNumber(tName);
-            if (whereTree != null) {
-                goodRecords = sm.selectRecords(tableNum, catalog.getRecordSchema(tName).getAttributes(), whereTree);
-            } else
-                goodRecords = sm.getAllRecords(tableNum, catalog.getRecordSchema(tName).getAttributes());
+            boolean[] columnMask = getColumnMask(tName);
+            columnMap = BInterpreter.getColumnMap(columnMask);
+            List<Attribute> attributes = catalog.getRecordSchema(tName).getAttributes();
+            if (isPrimaryKeyLookupCheaper(tName))
+                return instrument(scanNode, sm.lookupRecord(tableNum, attributes, whereTree.getPrimaryKeyLookup(tName), whereTree, columnMask));
+            if (isOrderedByPrimaryKey())
+                return instrument(scanNode, sm.scanRecordsByPrimaryKey(tableNum, attributes, whereTree, columnMask));
+            return instrument(scanNode, sm.scanRecords(tableNum, attributes, whereTree, columnMask));
         }
         else {
-            List<List<DataType>> cartesianProduct = new ArrayList<>();
+            // read the tables expected to return the fewest records first, if one is empty so is the product
+            Map<String, List<List<DataType>>> tableRecords = new HashMap<>();
+            List<String> readOrder = tableNames.stream()
+                    .sorted(Comparator.comparingDouble(this::estimateRows))
+                    .toList();
 
-            for (String tName : tableNames) {
+            for (String tName : readOrder) {
                 int tableNum = catalog.getTableNumber(tName);
+                List<Attribute> attributes = catalog.getRecordSchema(tName).getAttributes();
                 List<List<DataType>> allRecords;
+                PlanNode tableNode = tableNodes.get(tName);
+                start(tableNode);
 
-                if (whereTree != null && whereTree.TableOptimizations.containsKey(tName)) {
-                    WhereTree optimizingTree = whereTree.TableOptimizations.get(tName);
-                    allRecords = sm.selectRecords(tableNum, catalog.getRecordSchema(tName).getAttributes(), optimizingTree);
+                if (isPrimaryKeyLookupCheaper(tName)) {
+                    allRecords = new ArrayList<>();
+                    sm.lookupRecord(tableNum, attributes, whereTree.getPrimaryKeyLookup(tName), null, null).forEachRemaining(allRecords::add);
+                }
+                else if (whereTree != null && whereTree.TableOptimizations.containsKey(tName.toLowerCase())) {
+                    WhereTree optimizingTree = whereTree.TableOptimizations.get(tName.toLowerCase());
+                    allRecords = sm.selectRecords(tableNum, attributes, optimizingTree);
                 }
                 else
-                    allRecords = sm.getAllRecords(tableNum, catalog.getRecordSchema(tName).getAttributes());
+                    allRecords = sm.getAllRecords(tableNum, attributes);
+
+                stop(tableNode, allRecords.size());
+                if (allRecords.isEmpty())
+                    return Collections.emptyIterator();
+                tableRecords.put(tName, allRecords);
+            }
+
+            // combine in the order the tables were listed so the columns line up
+            start(joinNode);
+            List<List<DataType>> cartesianProduct = new ArrayList<>();
+            for (String tName : tableNames) {
+                List<List<DataType>> allRecords = tableRecords.get(tName);
 
                 if (cartesianProduct.isEmpty()) {
                     cartesianProduct = allRecords;
@@ -309,12 +794,76 @@ public class Select extends Command {
                 if (whereTree == null || whereTree.passesTree(record))
                     goodRecords.add(record);
             }
+            stop(joinNode, goodRecords.size());
         }
 
-        return goodRecords;
+        return goodRecords.iterator();
+    }
+
+    /**
+     * Estimate how many records of a table pass the predicate chosen to filter it
+     *
+     * @param tName Name of the table
+     * @return Estimated number of records
+     */
+    private double estimateRows(String tName) {
+        double rows = catalog.getRecordSchema(tName).getStatistics().getRowCount();
+        return whereTree == null ? rows : rows * whereTree.estimateSelectivity(tName);
+    }
+
+    /**
+     * Compare the pages read by looking a table up through its index against reading every page of the table
+     *
+     * @param tName Name of the table
+     * @return True if the table can be looked up by primary key and doing so reads fewer pages than a scan
+     */
+    private boolean isPrimaryKeyLookupCheaper(String tName) {
+        if (!sm.isIndexed() || whereTree == null || whereTree.getPrimaryKeyLookup(tName) == null)
+            return false;
+
+        Table table = catalog.getRecordSchema(tName);
+        Attribute pk = table.getAttributes().get(table.getIndexOfPrimaryKey());
+        int keySize = switch (pk.getDataType()) {
+            case INTEGER -> Integer.BYTES;
+            case DOUBLE -> Double.BYTES;
+            case BOOLEAN -> 1;
+            case CHAR, VARCHAR -> pk.getMaxDataLength();
+        };
+
+        // one node per level of the tree, then the page holding the record
+        double fanout = Math.max(2, (double) sm.getPageSize() / (keySize + 2 * Integer.BYTES));
+        int rows = Math.max(2, table.getStatistics().getRowCount());
+        int lookupPages = (int) Math.ceil(Math.log(rows) / Math.log(fanout)) + 1;
+        return lookupPages < table.getStatistics().getPageCount();
     }
 
 
+    /**
+     * Get the columns of a table that are needed to answer this query so the storage manager can skip the rest
+     *
+     * @param tName Name of the table to scan
+     * @return Mask of columns to decode, null if every column is needed
+     */
+    private boolean[] getColumnMask(String tName) {
+        if (attrsToDisplay == null)
+            return null;
+
+        List<Attribute> attributes = catalog.getRecordSchema(tName).getAttributes();
+        Set<String> neededAttrs = new HashSet<>();
+        attrsToDisplay.forEach(a -> neededAttrs.add(a.getFullName()));
+        groupBy.forEach(a -> neededAttrs.add(a.getFullName()));
+        if (selectItems != null)
+            selectItems.stream().filter(i -> i.attr() != null).forEach(i -> neededAttrs.add(i.attr().getFullName()));
+        if (whereTree != null)
+            neededAttrs.addAll(whereTree.getReferencedAttributes());
+
+        boolean[] columnMask = new boolean[attributes.size()];
+        for (int i = 0; i < attributes.size(); i++) {
+            columnMask[i] = neededAttrs.contains("%s.%s".formatted(tName.toLowerCase(), attributes.get(i).getName().toLowerCase()));
+        }
+        return columnMask;
+    }
+
     //==================================================================================================================
     // Table Data Creation
     //==================================================================================================================
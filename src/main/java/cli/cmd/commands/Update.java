@@ -4,6 +4,7 @@ import catalog.*;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
 import java.util.regex.Matcher;
@@ -11,6 +12,7 @@ import java.util.regex.Pattern;
 import dataTypes.*;
 import util.where.WhereTree;
 import sm.StorageManager;
+import util.PlanNode;
 
 /**
  * <b>File:</b> Update.java
@@ -18,7 +20,7 @@ import sm.StorageManager;
  * <b>Description: Command to Update information in the database</b>
  *
  */
-public class Update extends Command{
+public class Update extends Command implements Explainable, Preparable {
 
     private static final Pattern FULL_MATCH = Pattern.compile(
         "update\\s+([a-z0-9]+)\\s+set\\s+([a-z0-9_]+)\\s*=\\s*" +
@@ -29,19 +31,18 @@ public class Update extends Command{
     private static final String NO_QUOTES_MSG = "The attribute '%s' takes a string, which must be wrapped in quotes. You did not do this for tuple #%s";
     private static final Pattern STRING_PATTERN = Pattern.compile("\"(.*)\"", Pattern.CASE_INSENSITIVE);
 
-    private static final String UNEQUAL_ATTR_MSG = "Table %s expects %s attributes and you provided %s.";
-    private static final String INVALID_ATTR_TYPE_MSG = "The provided value '%s' for attribute '%s' is not of type %s.";
-    private static final Pattern VALUE_PATTERN = Pattern.compile("\".*?\"|\\S+", Pattern.CASE_INSENSITIVE);
     private final ICatalog catalog;
     private final StorageManager sm;
     private final String tableName;
     private final String updateValue;
+    private final DataType setValue;
     private Attribute setAttribute;
     private WhereTree whereTree = null;
-    private Attribute primaryKey;
     private int primaryKeyIdx;
     private Integer attributeIndex;
     private final String columnName;
+    private PlanNode updateNode = null;     // only set when explaining
+    private PlanNode scanNode = null;
 
     public Update(String args, ICatalog catalog, StorageManager storageManager) throws InvalidUsage {
         this.catalog = catalog;
@@ -61,15 +62,15 @@ public class Update extends Command{
         
         this.columnName = fullMatcher.group(2);
         validateAttributeExists(columnName, tableName, args);
-        // Validating if column contains set value type
+        // Validating if column contains set value type, strings are checked for quotes below
         try {
-            switch(setAttribute.getDataType()){
+            this.setValue = switch (setAttribute.getDataType()) {
                 case INTEGER -> new DTInteger(updateValue);
                 case DOUBLE -> new DTDouble(updateValue);
                 case BOOLEAN -> new DTBoolean(updateValue);
-                case CHAR -> new DTChar(updateValue, setAttribute.getMaxDataLength());
-                case VARCHAR -> new DTVarchar(updateValue);
-            }
+                case CHAR -> new DTChar(STRING_PATTERN.matcher(updateValue).replaceFirst("$1"), setAttribute.getMaxDataLength());
+                case VARCHAR -> new DTVarchar(STRING_PATTERN.matcher(updateValue).replaceFirst("$1"));
+            };
         } catch (NumberFormatException nfe) {
             throw new InvalidUsage(args, "Cannot set %s to value %s".formatted(columnName, updateValue));
         }
@@ -122,7 +123,6 @@ public class Update extends Command{
         int count = 0;
         for (Attribute a : attributes) {
             if(a.isPrimaryKey()){
-                primaryKey = a;
                 primaryKeyIdx = count;
             }
             if (a.getName().equalsIgnoreCase(attr)) {
@@ -146,119 +146,104 @@ public class Update extends Command{
     }
 
     @Override
-    public void execute() throws ExecutionFailure {
-        int tableID = this.catalog.getTableNumber(this.tableName);
-        List<Attribute> attributes = this.catalog.getRecordSchema(this.tableName).getAttributes();
-        int PKIndex = catalog.getRecordSchema(tableName).getIndexOfPrimaryKey();
-
-        List<List<DataType>> allRecords = whereTree == null
-                ? this.sm.getAllRecords(tableID, attributes)
-                : this.sm.selectRecords(tableID, attributes, whereTree);
-
-        for (List<DataType> record : allRecords) {
-            String deleteCommand = "DELETE FROM " + tableName + " WHERE " + primaryKey.getName() + " = " + record.get(primaryKeyIdx).stringValue() + ";";
-            StringBuilder values = new StringBuilder();
-            for (int i = 0; i < record.size(); i++) {
-                if(i == attributeIndex){
-                    values.append(updateValue).append(" ");
-                }
-                else{
-                    values.append(record.get(i).stringValue()).append(" ");
-                }
-            }
-
-            values = new StringBuilder(values.toString().replace("\"", "").strip());
-            try {
-                // Run each command
-                List<DataType> tuple = convertStringToTuple(values.toString(), attributes);
-                checkUniqueConstraint(tableID, attributes, tuple);
-                
-                Delete newDeleteExecutable = new Delete(deleteCommand, this.catalog, this.sm);
-                newDeleteExecutable.execute();
-
-                try {
-                    if (sm.getAllRecords(tableID, attributes).stream().anyMatch(r -> r.get(PKIndex).compareTo(record.get(PKIndex)) == 0))
-                        throw new ExecutionFailure("There already exists an entry for primary key: '%s'.".formatted(record.get(PKIndex).stringValue()));
-
-                    sm.insertRecord(tableID, attributes, tuple);
-                } catch (IOException ioe) {
-                    throw new ExecutionFailure("The file for the table '%s' could not be opened or modified.".formatted(tableName));
-                }
-            } catch (InvalidUsage e) {
-                throw new ExecutionFailure("Execution failure to update record where " + primaryKey.getName() + " = " + record.get(primaryKeyIdx).stringValue());
-            }
-        }
-        System.out.println("SUCCESS: " + allRecords.size() + " Records Changed");
+    public int getParameterCount() {
+        return this.whereTree == null ? 0 : this.whereTree.getParameterCount();
     }
 
-    private void checkUniqueConstraint(int tableNum, List<Attribute> attrs, List<DataType> tuple) throws ExecutionFailure {
-        List<List<DataType>> allRecords = null;
-        for (int i = 0; i < attrs.size(); i++) {
-            Attribute a = attrs.get(i);
-            DataType value = tuple.get(i);
-
-            int finalI = i;
-            if (a.isUnique() && !a.isPrimaryKey()) {
-                if (allRecords == null) {
-                    allRecords = sm.getAllRecords(tableNum, attrs);
-                }
-
-                if (allRecords.stream().anyMatch(r -> r.get(finalI).compareTo(value) == 0))
-                    throw new ExecutionFailure("Attribute '%s' is unique"
-                            .formatted(a.getName()));
-            }
+    @Override
+    public void bind(List<String> values) throws ExecutionFailure {
+        if (this.whereTree == null) {
+            if (!values.isEmpty())
+                throw new ExecutionFailure("Expected 0 parameters but %d were given.".formatted(values.size()));
+            return;
         }
+        this.whereTree.bind(values);
     }
 
-    private List<DataType> convertStringToTuple(String entry, List<Attribute> attrs) throws ExecutionFailure {
-        List<String> values = customSplit(entry);
-
-        if (values.size() != attrs.size()) {
-            throw new ExecutionFailure(UNEQUAL_ATTR_MSG.formatted(tableName, attrs.size(), values.size()));
+    @Override
+    public PlanNode explain(boolean analyze) {
+        double rows = this.catalog.getRecordSchema(this.tableName).getStatistics().getRowCount();
+        String operator = "Seq Scan on " + this.tableName;
+        if (this.whereTree != null) {
+            operator += " filter: " + this.whereTree;
+            rows *= this.whereTree.estimateSelectivity();
         }
+        this.scanNode = new PlanNode(operator, rows);
+        this.updateNode = new PlanNode("Update on %s set %s".formatted(this.tableName, this.columnName), rows, this.scanNode);
+        return this.updateNode;
+    }
 
-        List<DataType> tuple = new ArrayList<>();
-
-        for (int i = 0; i < attrs.size(); i++) {
-
-            DataType dt;
-
-            Attribute a = attrs.get(i);
-            String value = values.get(i);
-            if (a.isNullable()) {
-                value = value.equalsIgnoreCase("null") ? null : value;
-            } else if (value.equalsIgnoreCase("null")) {
-                throw new ExecutionFailure("Attribute '%s' is not nullable"
-                        .formatted(a.getName()));
-            }
+    /**
+     * Replace the set attribute of every matching record in place through the storage manager. Unique and primary
+     * key values are checked before any record is changed, at most one record can take them. Any other attribute is
+     * set in the same pass that finds the matching records
+     *
+     * @throws ExecutionFailure when a constraint is violated or the table's file cannot be read or modified.
+     */
+    @Override
+    public void execute() throws ExecutionFailure {
+        int tableID = this.catalog.getTableNumber(this.tableName);
+        List<Attribute> attributes = this.catalog.getRecordSchema(this.tableName).getAttributes();
 
-            try {
-                dt = switch (a.getDataType()) {
-                    case INTEGER -> new DTInteger(value);
-                    case DOUBLE -> new DTDouble(value);
-                    case BOOLEAN -> new DTBoolean(value);
-                    case CHAR -> new DTChar(value, a.getMaxDataLength());
-                    case VARCHAR -> new DTVarchar(value);
-                };
-            } catch (NumberFormatException nfe) {
-                throw new ExecutionFailure(INVALID_ATTR_TYPE_MSG.formatted(values.get(i), a.getName(), a.getDataType()));
+        start(this.updateNode);
+        start(this.scanNode);
+        int changed;
+        try {
+            if (setAttribute.isUnique() || setAttribute.isPrimaryKey()) {
+                List<List<DataType>> allRecords = whereTree == null
+                        ? this.sm.getAllRecords(tableID, attributes)
+                        : this.sm.selectRecords(tableID, attributes, whereTree);
+                stop(this.scanNode, allRecords.size());
+
+                checkUniqueConstraint(tableID, attributes, allRecords);
+                for (List<DataType> record : allRecords) {
+                    List<DataType> updated = new ArrayList<>(record);
+                    updated.set(attributeIndex, this.setValue);
+                    this.sm.updateRecord(tableID, attributes, record.get(primaryKeyIdx), updated);
+                }
+                changed = allRecords.size();
+            } else {
+                changed = this.sm.updateWhere(tableID, attributes, whereTree, attributeIndex, this.setValue);
+                stop(this.scanNode, changed);
             }
-
-            tuple.add(dt);
+        } catch (IOException ioe) {
+            throw new ExecutionFailure("The file for the table '%s' could not be opened or modified.".formatted(tableName));
         }
-
-        return tuple;
+        stop(this.updateNode, changed);
+        System.out.println("SUCCESS: " + changed + " Records Changed");
     }
 
-    private List<String> customSplit(String input) {
-        List<String> result = new ArrayList<>();
-        Matcher valueMatcher = VALUE_PATTERN.matcher(input);
-
-        while (valueMatcher.find()) {
-            result.add(valueMatcher.group());
+    /**
+     * Check that setting a unique attribute, or the primary key, leaves no two records with the same value. Every
+     * matching record gets the same value, so only one record can be changed and no other record may hold the value
+     *
+     * @throws ExecutionFailure when the value would be repeated
+     */
+    private void checkUniqueConstraint(int tableNum, List<Attribute> attrs, List<List<DataType>> matched) throws ExecutionFailure {
+        if (!setAttribute.isUnique() && !setAttribute.isPrimaryKey())
+            return;
+
+        String message = setAttribute.isPrimaryKey()
+                ? "Duplicate primary key '%s'".formatted(this.setValue.stringValue())
+                : "Attribute '%s' is unique".formatted(setAttribute.getName());
+        if (matched.size() > 1)
+            throw new ExecutionFailure(message);
+        if (matched.isEmpty())
+            return;
+
+        // primary keys are checked by the storage manager as the record is replaced
+        if (setAttribute.isPrimaryKey())
+            return;
+
+        DataType matchedKey = matched.getFirst().get(primaryKeyIdx);
+        boolean[] mask = new boolean[attrs.size()];
+        mask[primaryKeyIdx] = true;
+        mask[attributeIndex] = true;
+        int keyColumn = primaryKeyIdx < attributeIndex ? 0 : 1;     // narrow records keep the attribute order
+        for (Iterator<List<DataType>> records = sm.scanRecords(tableNum, attrs, null, mask); records.hasNext(); ) {
+            List<DataType> record = records.next();
+            if (record.get(1 - keyColumn).compareTo(this.setValue) == 0 && record.get(keyColumn).compareTo(matchedKey) != 0)
+                throw new ExecutionFailure(message);
         }
-
-        return result;
     }
-
 }
@@ -52,6 +52,11 @@ public class DTBoolean implements DataType, Comparable<DataType> {
     DTBoolean dtBoolean = (DTBoolean) obj;
     return Objects.equals(value, dtBoolean.value);
     }   
+
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(value);
+    }
   
     public int compareTo(DataType o) {
         if (o.isNull() && this.isNull()) { return 0; } // both null
@@ -58,6 +58,11 @@ public class DTChar implements DataType, Comparable<DataType> {
     return Objects.equals(value, dtChar.value);
     }  
 
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(value);
+    }
+
     public int compareTo(DataType o) {
         if (o.isNull() && this.isNull()) { return 0; } // both null
         else if (o.isNull() || this.isNull()) { return -1; } // one null
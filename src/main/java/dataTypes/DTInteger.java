@@ -54,6 +54,11 @@ public class DTInteger implements DataType, Comparable<DataType> {
     return Objects.equals(value, dtInteger.value);
     }   
 
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(value);
+    }
+
     public int compareTo(DataType o) {
         if (o.isNull() && this.isNull()) { return 0; } // both null
         else if (o.isNull() || this.isNull()) { return -1; } // one null
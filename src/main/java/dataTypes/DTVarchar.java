@@ -50,6 +50,11 @@ public class DTVarchar implements DataType, Comparable<DataType> {
     return Objects.equals(value, dtVarchar.value);
     }   
 
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(value);
+    }
+
     public int compareTo(DataType o) {
         if (o.isNull() && this.isNull()) { return 0; } // both null
         else if (o.isNull() || this.isNull()) { return -1; } // one null
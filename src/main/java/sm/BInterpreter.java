@@ -2,10 +2,10 @@ package sm;
 
 import catalog.Attribute;
 import catalog.NotSupportedConstraint;
+import catalog.Schema;
 import dataTypes.*;
 import dataTypes.DataType;
 
-import java.io.ByteArrayOutputStream;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -14,12 +14,15 @@ import java.util.List;
 /**
  * <b>File:</b> BInterpreter.java
  * <p>
- * <b>Description:</b> Convert tables to/from binary
+ * <b>Description:</b> Convert tables to/from binary. Pages are decoded straight from the buffer holding them and
+ * encoded straight into the one they go to, so a page in an off-heap frame is never copied onto the heap first
  *
  * @author Ryan Nowak
  */
 public class BInterpreter {
 
+    private static long bytesDecoded = 0;   // bytes of page data turned into DataTypes, reported by explain analyze
+
     /**
      * Converts binary page data into DataType objects
      *
@@ -28,157 +31,431 @@ public class BInterpreter {
      * @return list of lists of DataTypes representing all the records in a page
      */
     public static List<List<DataType>> convertPageToRecords(byte[] data, List<Attribute> attributes) {
+        return convertPageToRecords(ByteBuffer.wrap(data), attributes, null);
+    }
+
+    /**
+     * Converts binary page data into DataType objects
+     *
+     * @param data binary page data, read from index 0 without moving its position
+     * @param attributes table attributes
+     * @return list of lists of DataTypes representing all the records in a page
+     */
+    public static List<List<DataType>> convertPageToRecords(ByteBuffer data, List<Attribute> attributes) {
+        return convertPageToRecords(data, attributes, null);
+    }
+
+    /**
+     * Converts binary page data into DataType objects, only decoding the columns set in the column mask.
+     * Columns outside the mask are skipped over by offset arithmetic and are not included in the records.
+     * A page written at an older version of the table's schema is read through that version's layout, attributes
+     * added since read as their default and attributes dropped since are skipped like unmasked columns.
+     *
+     * @param data binary page data, read from index 0 without moving its position
+     * @param attributes table attributes
+     * @param columnMask columns to decode, null to decode every column
+     * @return list of lists of DataTypes containing only the masked columns, in schema order
+     */
+    public static List<List<DataType>> convertPageToRecords(ByteBuffer data, List<Attribute> attributes, boolean[] columnMask) {
         List<List<DataType>> records = new ArrayList<>();
 
-        ByteBuffer numRecBuff = ByteBuffer.wrap(Arrays.copyOfRange(data, 0, 4));
-        int numRecords = numRecBuff.getInt();
-        int dataIdx = 4; // skip indexes 0-3 which contains number of records
+        int version = getPageVersion(data);
+        int numRecords = getRecordCount(data);
+        int dataIdx = getHeaderSize(version);
+        int skippedBytes = 0;
+
+        // where each stored column goes in the returned records, -1 if it is not returned
+        List<Attribute> layout = getLayout(attributes, version);
+        int[] columnMap = getColumnMap(columnMask);
+        int[] storedMap = new int[layout.size()];
+        for (int i = 0; i < layout.size(); i++) {
+            int j = layout == attributes ? i : attributes.indexOf(layout.get(i));
+            storedMap[i] = j < 0 ? -1 : columnMap == null ? j : columnMap[j];
+        }
+
+        // attributes added after the page was written
+        int width = 0;
+        List<Integer> missing = new ArrayList<>();
+        for (int j = 0; j < attributes.size(); j++) {
+            if (columnMask != null && !columnMask[j])
+                continue;
+            if (layout != attributes && !layout.contains(attributes.get(j)))
+                missing.add(j);
+            width++;
+        }
+
+        // if there are more than 8 attributes in a table, then bitmap will take up more than 1 byte
+        int bitmapSize = ((layout.size()-1) / 8) + 1;
 
         // parse each record
         for (int i = 0; i < numRecords; i++) {
-            List<DataType> dataTypes = new ArrayList<>();
+            DataType[] dataTypes = new DataType[width];
 
             // get null bitmap
-            // if there are more than 8 attributes in a table, then bitmap will take up more than 1 byte
-            int bitmapSize = ((attributes.size()-1) / 8) + 1;
-            byte[] bitmap = Arrays.copyOfRange(data, dataIdx, dataIdx + bitmapSize);
+            byte[] bitmap = copyOfRange(data, dataIdx, dataIdx + bitmapSize);
             dataIdx += bitmapSize;
 
-            for (int j = 0; j < attributes.size(); j++) {
-                // check if attribute is null
-                if (getBit(bitmap, j) == 1) {
+            for (int k = 0; k < layout.size(); k++) {
+                Attribute attribute = layout.get(k);
+                boolean isNull = getBit(bitmap, k) == 1;
 
+                // skip over columns that were not requested without decoding them
+                if (storedMap[k] < 0) {
+                    if (!isNull) {
+                        int fieldLength = getFieldLength(data, dataIdx, attribute);
+                        dataIdx += fieldLength;
+                        skippedBytes += fieldLength;
+                    }
+                    continue;
                 }
 
-                switch (attributes.get(j).getDataType()) {
-                    case INTEGER:
-                        // 4 bytes
-
-                        // check if attribute is null
-                        if (getBit(bitmap, j) == 1) {
-                            dataTypes.add(new DTInteger((byte[]) null));
-                        }
-                        else {
-                            dataTypes.add(new DTInteger(Arrays.copyOfRange(data, dataIdx, dataIdx + 4)));
-                            dataIdx += 4; // change to constants for neater code?
-                        }
-                        break;
-
-                    case DOUBLE:
-                        // 8 bytes
-
-                        // check if attribute is null
-                        if (getBit(bitmap, j) == 1) {
-                            dataTypes.add(new DTDouble((byte[]) null));
-                        }
-                        else {
-                            dataTypes.add(new DTDouble(Arrays.copyOfRange(data, dataIdx, dataIdx + 8)));
-                            dataIdx += 8;
-                        }
-                        break;
-
-                    case BOOLEAN:
-                        // 1 byte
-
-                        // check if attribute is null
-                        if (getBit(bitmap, j) == 1) {
-                            dataTypes.add(new DTBoolean((byte[]) null));
-                        }
-                        else {
-                            dataTypes.add(new DTBoolean(Arrays.copyOfRange(data, dataIdx, dataIdx + 1)));
-                            dataIdx += 1;
-                        }
-                        break;
-
-                    case CHAR:
-                        // bytes based on max length
-
-                        // check if attribute is null
-                        if (getBit(bitmap, j) == 1) {
-                            dataTypes.add(new DTChar((byte[]) null, 0));
-                        }
-                        else {
-                            int length = attributes.get(j).getMaxDataLength(); // get max length of char
-
-                            dataTypes.add(new DTChar(Arrays.copyOfRange(data, dataIdx, dataIdx + length), length));
-                            dataIdx += length;
-                        }
-                        break;
-
-                    case VARCHAR:
-                        // 1 byte for length + n bytes
-
-                        // check if attribute is null
-                        if (getBit(bitmap, j) == 1) {
-                            dataTypes.add(new DTVarchar((byte[]) null));
-                        }
-                        else {
-                            // get length of varchar
-                            int length = data[dataIdx];
-                            dataIdx += 1;
-                            dataTypes.add(new DTVarchar(Arrays.copyOfRange(data, dataIdx, dataIdx + length)));
-                            dataIdx += length;
-                        }
-                        break;
-                }
+                dataTypes[storedMap[k]] = decodeField(data, dataIdx, attribute, isNull);
+                if (!isNull)
+                    dataIdx += getFieldLength(data, dataIdx, attribute);
             }
 
-            records.add(dataTypes);
+            for (int j : missing)
+                dataTypes[columnMap == null ? j : columnMap[j]] = attributes.get(j).getDefault();
+
+            records.add(new ArrayList<>(Arrays.asList(dataTypes)));
         }
 
+        bytesDecoded += dataIdx - skippedBytes;
         return records;
     }
 
     /**
-     * Convert DataType objects representing records into binary page data
+     * Convert one field of a record into a DataType
+     *
+     * @param data binary page data
+     * @param dataIdx index of the start of the field
+     * @param attribute attribute of the field
+     * @param isNull whether the field is set in the null bitmap, null fields take up no bytes
+     * @return the field's value
+     */
+    private static DataType decodeField(ByteBuffer data, int dataIdx, Attribute attribute, boolean isNull) {
+        return switch (attribute.getDataType()) {
+            // 4 bytes
+            case INTEGER -> isNull ? new DTInteger((byte[]) null) : new DTInteger(copyOfRange(data, dataIdx, dataIdx + 4));
+            // 8 bytes
+            case DOUBLE -> isNull ? new DTDouble((byte[]) null) : new DTDouble(copyOfRange(data, dataIdx, dataIdx + 8));
+            // 1 byte
+            case BOOLEAN -> isNull ? new DTBoolean((byte[]) null) : new DTBoolean(copyOfRange(data, dataIdx, dataIdx + 1));
+            // bytes based on max length
+            case CHAR -> {
+                if (isNull)
+                    yield new DTChar((byte[]) null, 0);
+                int length = attribute.getMaxDataLength(); // get max length of char
+                yield new DTChar(copyOfRange(data, dataIdx, dataIdx + length), length);
+            }
+            // 1 byte for length + n bytes
+            case VARCHAR -> {
+                if (isNull)
+                    yield new DTVarchar((byte[]) null);
+                int length = data.get(dataIdx);
+                yield new DTVarchar(copyOfRange(data, dataIdx + 1, dataIdx + 1 + length));
+            }
+        };
+    }
+
+    /**
+     * Copy the bytes of one field out of page data
+     *
+     * @param data binary page data
+     * @param from index of the first byte
+     * @param to index after the last byte
+     * @return the field's bytes
+     */
+    static byte[] copyOfRange(ByteBuffer data, int from, int to) {
+        byte[] bytes = new byte[to - from];
+        data.get(from, bytes);
+        return bytes;
+    }
+
+    /**
+     * @return Total bytes of page data decoded into records since startup, skipped columns are not included
+     */
+    public static long getBytesDecoded() {
+        return bytesDecoded;
+    }
+
+    /**
+     * Convert DataType objects into binary page data that is not tied to a table, like sort runs and partitions
      *
      * @param records list of lists of DataTypes representing all the records in a page
      * @return binary page data
      */
     public static byte[] convertRecordsToPage(List<List<DataType>> records) {
-        ByteArrayOutputStream pageData = new ByteArrayOutputStream();
+        return convertRecordsToPage(records, 0, null);
+    }
+
+    /**
+     * Convert DataType objects representing records of a table into binary page data at the table's current schema
+     * version
+     *
+     * @param records list of lists of DataTypes representing all the records in a page
+     * @param attributes table attributes
+     * @return binary page data
+     */
+    public static byte[] convertRecordsToPage(List<List<DataType>> records, List<Attribute> attributes) {
+        return convertRecordsToPage(records, getVersion(attributes), null);
+    }
+
+    /**
+     * Convert DataType objects representing records of a table into binary page data at an older schema version.
+     * Used when records are only taken out of a page, so the page never grows: attributes added since the version
+     * are left out and attributes dropped since are written as null, which frees their space
+     *
+     * @param records list of lists of DataTypes representing all the records in a page
+     * @param attributes table attributes
+     * @param version schema version to write the page at, usually the version it was read at
+     * @return binary page data
+     */
+    public static byte[] convertRecordsToPage(List<List<DataType>> records, List<Attribute> attributes, int version) {
+        return convertRecordsToPage(records, version, getStoredMap(attributes, version));
+    }
+
+    /**
+     * Convert records into binary page data
+     *
+     * @param records list of lists of DataTypes representing all the records in a page
+     * @param version schema version written to the page header
+     * @param storedMap index in the record of each stored column, -1 for a null column, null to store records as is
+     * @return binary page data
+     */
+    private static byte[] convertRecordsToPage(List<List<DataType>> records, int version, int[] storedMap) {
+        byte[] data = new byte[getPageDataSize(records, version, storedMap)];
+        writeRecords(records, version, storedMap, ByteBuffer.wrap(data));
+        return data;
+    }
+
+    /**
+     * Get the number of bytes records of a table take up as binary page data at the current schema version
+     *
+     * @param records list of lists of DataTypes representing all the records in a page
+     * @param attributes table attributes
+     * @return size of the page data in bytes, may be more than a page holds
+     */
+    static int getPageDataSize(List<List<DataType>> records, List<Attribute> attributes) {
+        return getPageDataSize(records, attributes, getVersion(attributes));
+    }
+
+    /**
+     * Get the number of bytes records of a table take up as binary page data at a schema version
+     *
+     * @param records list of lists of DataTypes representing all the records in a page
+     * @param attributes table attributes
+     * @param version schema version the page is written at
+     * @return size of the page data in bytes, may be more than a page holds
+     */
+    static int getPageDataSize(List<List<DataType>> records, List<Attribute> attributes, int version) {
+        return getPageDataSize(records, version, getStoredMap(attributes, version));
+    }
 
-        // write number of records (4 bytes)
-        pageData.writeBytes(ByteBuffer.allocate(4).putInt(records.size()).array());
+    /**
+     * Write records of a table as binary page data into a buffer, from index 0 without moving its position
+     *
+     * @param records list of lists of DataTypes representing all the records in a page
+     * @param attributes table attributes
+     * @param version schema version to write the page at
+     * @param target buffer with room for {@link #getPageDataSize} bytes
+     */
+    static void writeRecords(List<List<DataType>> records, List<Attribute> attributes, int version, ByteBuffer target) {
+        writeRecords(records, version, getStoredMap(attributes, version), target);
+    }
 
-        if (!records.isEmpty()) {
-            int bitmapSize = ((records.get(0).size() - 1) / 8) + 1; // allocate bytes based on number of attributes
+    /**
+     * Get where each stored column of a page written at a schema version comes from in the records
+     *
+     * @return index in the record of each stored column, -1 for dropped attributes, null if the version is current
+     */
+    private static int[] getStoredMap(List<Attribute> attributes, int version) {
+        if (version == getVersion(attributes))
+            return null;
+
+        List<Attribute> layout = getLayout(attributes, version);
+        int[] storedMap = new int[layout.size()];
+        for (int i = 0; i < layout.size(); i++)
+            storedMap[i] = attributes.indexOf(layout.get(i));
+        return storedMap;
+    }
 
-            // write each record
-            for (List<DataType> record : records) {
-                byte[] bitmap = new byte[bitmapSize];
+    private static int getPageDataSize(List<List<DataType>> records, int version, int[] storedMap) {
+        int size = getHeaderSize(version);
+        for (List<DataType> record : records) {
+            int columnCount = storedMap == null ? record.size() : storedMap.length;
+            size += ((columnCount - 1) / 8) + 1;    // null bitmap
+            for (int i = 0; i < columnCount; i++) {
+                int j = storedMap == null ? i : storedMap[i];
+                if (j < 0 || record.get(j).isNull())
+                    continue;
+                DataType dataType = record.get(j);
+                size += dataType instanceof DTVarchar ? 1 + dataType.convertToBytes().length : dataType.convertToBytes().length;
+            }
+        }
+        return size;
+    }
 
-                ByteArrayOutputStream recordData = new ByteArrayOutputStream();
+    private static void writeRecords(List<List<DataType>> records, int version, int[] storedMap, ByteBuffer target) {
+        int dataIdx = 0;
 
-                for (int i = 0; i < record.size(); i++) {
-                    DataType dataType = record.get(i);
+        // write schema version and number of records (4 bytes each), version 0 pages only have the number of records
+        if (version != 0) {
+            target.putInt(dataIdx, -version);
+            dataIdx += 4;
+        }
+        target.putInt(dataIdx, records.size());
+        dataIdx += 4;
 
-                    // if null, set bit in null bitmap
-                    // don't write any data
-                    if (dataType.isNull()) {
-                        setBit(bitmap, i, 1);
-                        continue;
-                    }
+        if (records.isEmpty())
+            return;
 
-                    if (dataType instanceof DTVarchar) {
-                        byte[] varcharData = dataType.convertToBytes();
+        int columnCount = storedMap == null ? records.get(0).size() : storedMap.length;
+        int bitmapSize = ((columnCount - 1) / 8) + 1; // allocate bytes based on number of attributes
+        byte[] bitmap = new byte[bitmapSize];
 
-                        // for varchar, must write 1 byte for the length
-                        recordData.write((char) varcharData.length);
-                        recordData.writeBytes(varcharData);
-                    } else {
-                        recordData.writeBytes(dataType.convertToBytes());
-                    }
+        // write each record, the null bitmap is filled in once its columns are written
+        for (List<DataType> record : records) {
+            Arrays.fill(bitmap, (byte) 0);
+            int bitmapIdx = dataIdx;
+            dataIdx += bitmapSize;
 
-                }
+            for (int i = 0; i < columnCount; i++) {
+                int j = storedMap == null ? i : storedMap[i];
 
-                pageData.writeBytes(bitmap);
-                pageData.writeBytes(recordData.toByteArray());
+                // if null, set bit in null bitmap
+                // don't write any data
+                if (j < 0 || record.get(j).isNull()) {
+                    setBit(bitmap, i, 1);
+                    continue;
+                }
 
+                byte[] fieldData = record.get(j).convertToBytes();
+                if (record.get(j) instanceof DTVarchar)
+                    target.put(dataIdx++, (byte) fieldData.length);     // for varchar, must write 1 byte for the length
+                target.put(dataIdx, fieldData);
+                dataIdx += fieldData.length;
             }
+
+            target.put(bitmapIdx, bitmap);
         }
+    }
+
+    /**
+     * Get the schema version a page was written at
+     *
+     * @param data binary page data
+     * @return schema version of the page, 0 for pages not tied to a table
+     */
+    public static int getPageVersion(byte[] data) {
+        return getPageVersion(ByteBuffer.wrap(data));
+    }
 
-        return pageData.toByteArray();
+    /**
+     * Get the schema version a page was written at
+     *
+     * @param data binary page data
+     * @return schema version of the page, 0 for pages not tied to a table
+     */
+    public static int getPageVersion(ByteBuffer data) {
+        int first = data.getInt(0);
+        return first < 0 ? -first : 0;
+    }
+
+    /**
+     * Get the number of records in a page without decoding them
+     *
+     * @param data binary page data
+     * @return number of records in the page
+     */
+    public static int getRecordCount(ByteBuffer data) {
+        return data.getInt(getHeaderSize(getPageVersion(data)) - 4);
+    }
+
+    /**
+     * Get the number of bytes before the first record of a new page of a table
+     *
+     * @param attributes table attributes
+     * @return size of the page header in bytes
+     */
+    public static int getPageHeaderSize(List<Attribute> attributes) {
+        return getHeaderSize(getVersion(attributes));
+    }
+
+    private static int getHeaderSize(int version) {
+        return version == 0 ? Integer.BYTES : 2 * Integer.BYTES;     // version 0 pages only have the number of records
+    }
+
+    static int getVersion(List<Attribute> attributes) {
+        return attributes instanceof Schema schema ? schema.getVersion() : 0;
+    }
+
+    private static List<Attribute> getLayout(List<Attribute> attributes, int version) {
+        return attributes instanceof Schema schema ? schema.getLayout(version) : attributes;
+    }
+
+    /**
+     * Build a map of full record indexes to narrow record indexes for a column mask
+     *
+     * @param columnMask Columns that are decoded, null for all columns
+     * @return Map of schema index to index in the narrow record, null if no mask
+     */
+    public static int[] getColumnMap(boolean[] columnMask) {
+        if (columnMask == null)
+            return null;
+
+        int[] columnMap = new int[columnMask.length];
+        int narrowIndex = 0;
+        for (int i = 0; i < columnMask.length; i++) {
+            columnMap[i] = columnMask[i] ? narrowIndex++ : -1;
+        }
+        return columnMap;
+    }
+
+    /**
+     * Get the number of bytes a record takes up when converted to binary page data
+     *
+     * @param record record to measure
+     * @return number of bytes used by the record
+     */
+    public static int getRecordSize(List<DataType> record) {
+        int size = ((record.size() - 1) / 8) + 1;   // null bitmap
+
+        for (DataType dataType : record) {
+            if (dataType.isNull())
+                continue;
+
+            if (dataType instanceof DTInteger)
+                size += 4;
+            else if (dataType instanceof DTDouble)
+                size += 8;
+            else if (dataType instanceof DTBoolean)
+                size += 1;
+            else if (dataType instanceof DTVarchar)
+                size += 1 + dataType.stringValue().length();
+            else
+                size += dataType.convertToBytes().length;
+        }
+
+        return size;
+    }
+
+    /**
+     * Get the number of bytes a non-null field takes up in a page
+     *
+     * @param data binary page data
+     * @param dataIdx index of the start of the field
+     * @param attribute attribute of the field
+     * @return number of bytes used by the field
+     */
+    private static int getFieldLength(ByteBuffer data, int dataIdx, Attribute attribute) {
+        return switch (attribute.getDataType()) {
+            case INTEGER -> 4;
+            case DOUBLE -> 8;
+            case BOOLEAN -> 1;
+            case CHAR -> attribute.getMaxDataLength();
+            case VARCHAR -> 1 + data.get(dataIdx);   // 1 byte for length + n bytes
+        };
     }
 
     private static int getBit(byte[] ba, int pos) {
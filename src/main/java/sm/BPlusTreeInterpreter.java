@@ -7,28 +7,28 @@ import util.BPlusTree.InternalNode;
 import util.BPlusTree.LeafNode;
 import util.BPlusTree.RecordPointer;
 
-import java.io.ByteArrayOutputStream;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
-import java.util.Arrays;
 
 public class BPlusTreeInterpreter {
 
     public static byte[] convertNodeToBinary(Node node) {
-        ByteArrayOutputStream pageData = new ByteArrayOutputStream();
+        // size the page data up front and write it in place
+        int size = 1 + 4 + 4;   // leaf flag, parent's page number, number of pairs
+        for (DataType key : node.keys)
+            size += key instanceof DTVarchar ? 1 + key.convertToBytes().length : key.convertToBytes().length;
+        size += node.isLeaf ? ((LeafNode) node).pointers.size() * 8 : ((InternalNode) node).children.size() * 4;
+        ByteBuffer pageData = ByteBuffer.allocate(size);
 
         // first byte is flag indicating if node is leaf node
-        if (node.isLeaf)
-            pageData.writeBytes(new byte[] {1});
-        else
-            pageData.writeBytes(new byte[] {0});
+        pageData.put((byte) (node.isLeaf ? 1 : 0));
 
         // write parent's page number (4 bytes)
         int parentNum = node.parentNum == null ? -1 : node.parentNum;
-        pageData.writeBytes(ByteBuffer.allocate(4).putInt(parentNum).array());
+        pageData.putInt(parentNum);
 
         // write number of pairs (4 bytes)
-        pageData.writeBytes(ByteBuffer.allocate(4).putInt(node.keys.size()).array());
+        pageData.putInt(node.keys.size());
 
         // write key values
         for (DataType key: node.keys) {
@@ -36,38 +36,38 @@ public class BPlusTreeInterpreter {
                 byte[] varcharData = key.convertToBytes();
 
                 // for varchar, must write 1 byte for the length
-                pageData.write((char) varcharData.length);
-                pageData.writeBytes(varcharData);
+                pageData.put((byte) varcharData.length);
+                pageData.put(varcharData);
             } else {
-                pageData.writeBytes(key.convertToBytes());
+                pageData.put(key.convertToBytes());
             }
         }
 
         // if leaf node, write record pointers
         if (node.isLeaf) {
             for (RecordPointer recordPointer : ((LeafNode) node).pointers) {
-                pageData.writeBytes(ByteBuffer.allocate(4).putInt(recordPointer.pageNumber).array());
-                pageData.writeBytes(ByteBuffer.allocate(4).putInt(recordPointer.index).array());
+                pageData.putInt(recordPointer.pageNumber);
+                pageData.putInt(recordPointer.index);
             }
         }
         // else if internal node, write page pointers
         else {
             for (Integer pageNumber : ((InternalNode) node).children) {
-                pageData.writeBytes(ByteBuffer.allocate(4).putInt(pageNumber).array());
+                pageData.putInt(pageNumber);
             }
         }
 
-        return pageData.toByteArray();
+        return pageData.array();
     }
 
 
     public static Node convertBinaryToNode(Page p, Integer pageNum, Attribute attribute, int N) {
         Node node;
+        ByteBuffer data = p.getBuffer();    // read straight from the page's frame
 
         // read flag indicating if node is leaf or internal node
-        ByteBuffer numRecBuff = ByteBuffer.wrap(Arrays.copyOfRange(p.getData(), 0, 1 + Integer.BYTES));
-        int isLeaf =  numRecBuff.get();
-        Integer parentNum =  numRecBuff.getInt();
+        int isLeaf =  data.get(0);
+        Integer parentNum =  data.getInt(1);
         parentNum = parentNum == -1 ? null : parentNum;
         if (isLeaf == 1) {
             node = new LeafNode(N, pageNum, parentNum, p);
@@ -81,7 +81,7 @@ public class BPlusTreeInterpreter {
         int dataIdx = 1 + Integer.BYTES; // skip index 0 (isLeaf) and index 1-4 (parentNum)
 
         // read number of pairs (key-pointer pairs)
-        int numPairs = ByteBuffer.wrap(Arrays.copyOfRange(p.getData(), dataIdx, dataIdx + 4)).getInt();
+        int numPairs = data.getInt(dataIdx);
         dataIdx += 4;
 
         // read keys
@@ -90,19 +90,19 @@ public class BPlusTreeInterpreter {
             switch (attribute.getDataType()) {
                 case INTEGER:
                     // 4 bytes
-                    keys.add(new DTInteger(Arrays.copyOfRange(p.getData(), dataIdx, dataIdx + 4)));
+                    keys.add(new DTInteger(BInterpreter.copyOfRange(data, dataIdx, dataIdx + 4)));
                     dataIdx += 4;
                     break;
 
                 case DOUBLE:
                     // 8 bytes
-                    keys.add(new DTDouble(Arrays.copyOfRange(p.getData(), dataIdx, dataIdx + 8)));
+                    keys.add(new DTDouble(BInterpreter.copyOfRange(data, dataIdx, dataIdx + 8)));
                     dataIdx += 8;
                     break;
 
                 case BOOLEAN:
                     // 1 byte
-                    keys.add(new DTBoolean(Arrays.copyOfRange(p.getData(), dataIdx, dataIdx + 1)));
+                    keys.add(new DTBoolean(BInterpreter.copyOfRange(data, dataIdx, dataIdx + 1)));
                     dataIdx += 1;
                     break;
 
@@ -110,16 +110,16 @@ public class BPlusTreeInterpreter {
                     // bytes based on max length
                     int length = attribute.getMaxDataLength(); // get max length of char
 
-                    keys.add(new DTChar(Arrays.copyOfRange(p.getData(), dataIdx, dataIdx + length), length));
+                    keys.add(new DTChar(BInterpreter.copyOfRange(data, dataIdx, dataIdx + length), length));
                     dataIdx += length;
                     break;
 
                 case VARCHAR:
                     // 1 byte for length + n bytes
                     // get length of varchar
-                    int varcharLength = p.getData()[dataIdx];
+                    int varcharLength = data.get(dataIdx);
                     dataIdx += 1;
-                    keys.add(new DTVarchar(Arrays.copyOfRange(p.getData(), dataIdx, dataIdx + varcharLength)));
+                    keys.add(new DTVarchar(BInterpreter.copyOfRange(data, dataIdx, dataIdx + varcharLength)));
                     dataIdx += varcharLength;
                     break;
             }
@@ -131,9 +131,9 @@ public class BPlusTreeInterpreter {
             ArrayList<RecordPointer> recordPointers = new ArrayList<>();
 
             for (int i = 0; i < numPairs; i++) {
-                int pageNumber = ByteBuffer.wrap(Arrays.copyOfRange(p.getData(), dataIdx, dataIdx + 4)).getInt();
+                int pageNumber = data.getInt(dataIdx);
                 dataIdx += 4;
-                int index = ByteBuffer.wrap(Arrays.copyOfRange(p.getData(), dataIdx, dataIdx + 4)).getInt();
+                int index = data.getInt(dataIdx);
                 dataIdx += 4;
 
                 recordPointers.add(new RecordPointer(pageNumber, index));
@@ -146,7 +146,7 @@ public class BPlusTreeInterpreter {
             ArrayList<Integer> pagePointers = new ArrayList<>();
 
             for (int i = 0; i < numPairs + 1; i++) {
-                pagePointers.add(ByteBuffer.wrap(Arrays.copyOfRange(p.getData(), dataIdx, dataIdx + 4)).getInt());
+                pagePointers.add(data.getInt(dataIdx));
                 dataIdx += 4;
             }
 
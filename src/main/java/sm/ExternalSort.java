@@ -0,0 +1,282 @@
+package sm;
+
+import catalog.Attribute;
+import dataTypes.DataType;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+
+/**
+ * <b>File:</b> ExternalSort.java
+ * <p>
+ * <b>Description:</b> Sorts records in a fixed amount of memory by spilling sorted runs to temporary files
+ * and k-way merging them back together
+ *
+ * @author Derek Garcia
+ */
+public class ExternalSort implements AutoCloseable {
+
+    private static final String RUN_FILE_PREFIX = "sort-";
+    private static final String RUN_FILE_EXTENSION = ".run";
+
+    private final String databaseRoot;
+    private final int pageSize;
+    private final int memoryBudget;
+    private final int fanIn;
+    private final List<Attribute> attributes;
+    private final Comparator<List<DataType>> comparator;
+
+    private final List<List<DataType>> memoryRun = new ArrayList<>();
+    private int memoryRunSize = 0;
+    private final List<Path> runs = new ArrayList<>();
+    private final Set<Path> runFiles = new HashSet<>();
+    private final List<RunReader> openReaders = new ArrayList<>();
+
+    /**
+     * Run reader that streams records from a run file one page at a time
+     */
+    private class RunReader {
+        private final DataInputStream in;
+        private final int runNumber;
+        private Iterator<List<DataType>> pageRecords = Collections.emptyIterator();
+        private List<DataType> head;
+
+        /**
+         * Open a run file for reading
+         *
+         * @param run       Path to the run file
+         * @param runNumber Position of the run, used to keep the merge stable
+         * @throws IOException Failed to open the run file
+         */
+        RunReader(Path run, int runNumber) throws IOException {
+            this.in = new DataInputStream(new BufferedInputStream(Files.newInputStream(run), pageSize));
+            this.runNumber = runNumber;
+            advance();
+        }
+
+        /**
+         * Move to the next record in the run, reading the next page if needed
+         *
+         * @throws IOException Failed to read the run file
+         */
+        void advance() throws IOException {
+            while (!this.pageRecords.hasNext()) {
+                int length;
+                try {
+                    length = this.in.readInt();
+                } catch (EOFException eof) {
+                    this.head = null;
+                    return;
+                }
+                byte[] data = new byte[length];
+                this.in.readFully(data);
+                this.pageRecords = BInterpreter.convertPageToRecords(data, attributes).iterator();
+            }
+            this.head = this.pageRecords.next();
+        }
+
+        void close() throws IOException {
+            this.in.close();
+        }
+    }
+
+    /**
+     * Create a new external sort
+     *
+     * @param databaseRoot Root directory of the database, run files are written here
+     * @param pageSize     Size of a page in bytes
+     * @param bufferSize   Number of pages the sort may hold in memory
+     * @param attributes   Constraints of the data types being sorted
+     * @param comparator   Order to sort the records in
+     */
+    ExternalSort(String databaseRoot, int pageSize, int bufferSize, List<Attribute> attributes, Comparator<List<DataType>> comparator) {
+        this.databaseRoot = databaseRoot;
+        this.pageSize = pageSize;
+        this.memoryBudget = pageSize * bufferSize;
+        this.fanIn = Math.max(2, bufferSize - 1);     // one page is reserved for output
+        this.attributes = attributes;
+        this.comparator = comparator;
+    }
+
+    /**
+     * Add a record to the sort, spilling a sorted run to disk if the memory budget is exceeded
+     *
+     * @param record Record to add
+     * @throws IOException Failed to write the run file
+     */
+    public void add(List<DataType> record) throws IOException {
+        this.memoryRun.add(record);
+        this.memoryRunSize += BInterpreter.getRecordSize(record);
+
+        if (this.memoryRunSize >= this.memoryBudget)
+            spillMemoryRun();
+    }
+
+    /**
+     * Get the sorted records. If nothing was spilled the sort happens entirely in memory
+     *
+     * @return Iterator of the sorted records
+     * @throws IOException Failed to read or write run files
+     */
+    public Iterator<List<DataType>> iterator() throws IOException {
+        // everything fit in memory
+        if (this.runs.isEmpty()) {
+            this.memoryRun.sort(this.comparator);
+            return this.memoryRun.iterator();
+        }
+
+        if (!this.memoryRun.isEmpty())
+            spillMemoryRun();
+
+        // merge until the remaining runs can be merged in one pass
+        while (this.runs.size() > this.fanIn) {
+            List<Path> mergedRuns = new ArrayList<>();
+            for (int i = 0; i < this.runs.size(); i += this.fanIn) {
+                List<Path> group = this.runs.subList(i, Math.min(i + this.fanIn, this.runs.size()));
+                mergedRuns.add(writeRun(mergeIterator(group)));
+            }
+            this.runs.clear();
+            this.runs.addAll(mergedRuns);
+        }
+
+        return mergeIterator(this.runs);
+    }
+
+    /**
+     * Delete any run files that are still on disk
+     *
+     * @throws IOException Failed to delete run files
+     */
+    @Override
+    public void close() throws IOException {
+        for (RunReader reader : this.openReaders)
+            reader.close();
+        this.openReaders.clear();
+
+        for (Path run : this.runFiles)
+            Files.deleteIfExists(run);
+        this.runFiles.clear();
+        this.runs.clear();
+    }
+
+    /**
+     * Sort the in memory records and write them to a new run file
+     *
+     * @throws IOException Failed to write run file
+     */
+    private void spillMemoryRun() throws IOException {
+        this.memoryRun.sort(this.comparator);
+        this.runs.add(writeRun(this.memoryRun.iterator()));
+        this.memoryRun.clear();
+        this.memoryRunSize = 0;
+    }
+
+    /**
+     * Write sorted records to a new run file as a sequence of pages
+     *
+     * @param records Sorted records to write
+     * @return Path to the run file
+     * @throws IOException Failed to write run file
+     */
+    private Path writeRun(Iterator<List<DataType>> records) throws IOException {
+        Path run = Files.createTempFile(Paths.get(this.databaseRoot), RUN_FILE_PREFIX, RUN_FILE_EXTENSION);
+        run.toFile().deleteOnExit();
+        this.runFiles.add(run);
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(run), this.pageSize))) {
+            List<List<DataType>> pageRecords = new ArrayList<>();
+            int pageBytes = Integer.BYTES;      // 4 bytes reserved for num records
+
+            while (records.hasNext()) {
+                List<DataType> record = records.next();
+                int recordSize = BInterpreter.getRecordSize(record);
+
+                // page is full, write it out
+                if (!pageRecords.isEmpty() && pageBytes + recordSize > this.pageSize) {
+                    writePage(out, pageRecords);
+                    pageRecords.clear();
+                    pageBytes = Integer.BYTES;
+                }
+
+                pageRecords.add(record);
+                pageBytes += recordSize;
+            }
+
+            if (!pageRecords.isEmpty())
+                writePage(out, pageRecords);
+        }
+        return run;
+    }
+
+    /**
+     * Write a page of records to a run file
+     *
+     * @param out         Run file output stream
+     * @param pageRecords Records in the page
+     * @throws IOException Failed to write to file
+     */
+    private void writePage(DataOutputStream out, List<List<DataType>> pageRecords) throws IOException {
+        byte[] data = BInterpreter.convertRecordsToPage(pageRecords);
+        out.writeInt(data.length);
+        out.write(data);
+    }
+
+    /**
+     * Create an iterator that k-way merges runs using a heap. Each run is deleted once it is exhausted
+     *
+     * @param runsToMerge Runs to merge, in the order they were created
+     * @return Iterator of merged records
+     * @throws IOException Failed to open run files
+     */
+    private Iterator<List<DataType>> mergeIterator(List<Path> runsToMerge) throws IOException {
+        // order by record, break ties by run so equal records keep their original order
+        PriorityQueue<RunReader> heap = new PriorityQueue<>((r1, r2) -> {
+            int order = this.comparator.compare(r1.head, r2.head);
+            return order != 0 ? order : Integer.compare(r1.runNumber, r2.runNumber);
+        });
+
+        Map<RunReader, Path> readerRuns = new HashMap<>();
+        for (int i = 0; i < runsToMerge.size(); i++) {
+            RunReader reader = new RunReader(runsToMerge.get(i), i);
+            this.openReaders.add(reader);
+            readerRuns.put(reader, runsToMerge.get(i));
+            if (reader.head != null)
+                heap.add(reader);
+        }
+
+        return new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+                return !heap.isEmpty();
+            }
+
+            @Override
+            public List<DataType> next() {
+                RunReader reader = heap.poll();
+                if (reader == null)
+                    throw new NoSuchElementException();
+
+                List<DataType> record = reader.head;
+                try {
+                    reader.advance();
+                    if (reader.head != null) {
+                        heap.add(reader);
+                    } else {
+                        // run is exhausted, remove it
+                        reader.close();
+                        openReaders.remove(reader);
+                        Path run = readerRuns.get(reader);
+                        runFiles.remove(run);
+                        Files.deleteIfExists(run);
+                    }
+                } catch (IOException ioe) {
+                    throw new UncheckedIOException(ioe);
+                }
+                return record;
+            }
+        };
+    }
+}
@@ -0,0 +1,52 @@
+package sm;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * <b>File:</b> FrameArena.java
+ * <p>
+ * <b>Description:</b> Off-heap memory for the pages of the page buffer. One direct buffer is allocated up front and
+ * cut into page sized frames, a page gets a frame when it comes into the buffer and gives it back when it leaves, so
+ * the pages in the buffer take no heap however large the buffer is. There is one frame per page the buffer holds,
+ * every frame is only taken once pinned pages keep the buffer over capacity, and then there is none to hand out
+ *
+ * @author Derek Garcia
+ */
+class FrameArena {
+
+    private final Deque<ByteBuffer> free = new ArrayDeque<>();
+
+    /**
+     * Allocate the frames
+     *
+     * @param frames   Number of frames, the capacity of the page buffer
+     * @param pageSize Size of a frame in bytes
+     */
+    FrameArena(int frames, int pageSize) {
+        ByteBuffer memory = ByteBuffer.allocateDirect(Math.multiplyExact(frames, pageSize));
+        for (int i = 0; i < frames; i++)
+            this.free.push(memory.slice(i * pageSize, pageSize));
+    }
+
+    /**
+     * Take a free frame. It still holds whatever page was in it last
+     *
+     * @return Frame ready to be read into, null if every frame is taken
+     */
+    synchronized ByteBuffer acquire() {
+        ByteBuffer frame = this.free.poll();
+        return frame == null ? null : frame.clear();
+    }
+
+    /**
+     * Give a frame back once its page left the buffer
+     *
+     * @param frame Frame to give back, null if the page had none
+     */
+    synchronized void release(ByteBuffer frame) {
+        if (frame != null)
+            this.free.push(frame);
+    }
+}
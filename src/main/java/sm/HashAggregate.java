@@ -0,0 +1,401 @@
+package sm;
+
+import catalog.Attribute;
+import dataTypes.*;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+
+/**
+ * <b>File:</b> HashAggregate.java
+ * <p>
+ * <b>Description:</b> Streaming hash aggregate that groups records and computes aggregate functions for each group.
+ * Groups are kept in memory until the memory budget is used up, after which records of new groups are hash
+ * partitioned to temporary files and aggregated one partition at a time
+ *
+ * @author Derek Garcia
+ */
+public class HashAggregate implements AutoCloseable {
+
+    /**
+     * Supported aggregate functions
+     */
+    public enum Function {
+        COUNT, SUM, AVG, MIN, MAX
+    }
+
+    /**
+     * Aggregate function applied to a column of the input records
+     *
+     * @param function Function to apply
+     * @param column   Index of the column in the input records, -1 to count every record
+     */
+    public record Aggregate(Function function, int column) {
+    }
+
+    private static final String PARTITION_FILE_PREFIX = "agg-";
+    private static final String PARTITION_FILE_EXTENSION = ".part";
+    private static final int MAX_DEPTH = 8;         // stop partitioning if the hash can't split the groups
+    private static final int GROUP_OVERHEAD = 64;   // rough cost of a hash map entry and its accumulators
+
+    private final String databaseRoot;
+    private final int pageSize;
+    private final int bufferSize;
+    private final int memoryBudget;
+    private final List<Attribute> attributes;
+    private final List<Integer> groupColumns;
+    private final List<Aggregate> aggregates;
+    private final int depth;
+
+    private final Map<List<DataType>, Accumulator[]> groups = new LinkedHashMap<>();
+    private int groupsSize = 0;
+    private PartitionWriter[] partitions = null;
+    private final Set<Path> partitionFiles = new HashSet<>();
+    private final List<HashAggregate> children = new ArrayList<>();
+
+    /**
+     * Running state of one aggregate function for one group
+     */
+    private static class Accumulator {
+        private final Function function;
+        private final Attribute attribute;
+        private long count = 0;
+        private long intSum = 0;
+        private double doubleSum = 0;
+        private DataType extreme = null;
+
+        Accumulator(Function function, Attribute attribute) {
+            this.function = function;
+            this.attribute = attribute;
+        }
+
+        /**
+         * Add a value to the aggregate, null values are ignored
+         *
+         * @param value Value to add, null to count the record
+         */
+        void add(DataType value) {
+            if (value != null && value.isNull())
+                return;
+
+            this.count++;
+            switch (this.function) {
+                case SUM, AVG -> {
+                    if (value instanceof DTInteger i)
+                        this.intSum += i.getValue();
+                    else if (value instanceof DTDouble d)
+                        this.doubleSum += d.getValue();
+                }
+                // compareTo is reversed, positive means value is smaller
+                case MIN -> {
+                    if (this.extreme == null || value.compareTo(this.extreme) > 0)
+                        this.extreme = value;
+                }
+                case MAX -> {
+                    if (this.extreme == null || value.compareTo(this.extreme) < 0)
+                        this.extreme = value;
+                }
+            }
+        }
+
+        /**
+         * @return Final value of the aggregate
+         * @throws ArithmeticException Integer sum does not fit in an integer
+         */
+        DataType result() {
+            return switch (this.function) {
+                case COUNT -> new DTInteger(String.valueOf(Math.toIntExact(this.count)));
+                case SUM -> {
+                    if (this.count == 0)
+                        yield nullOf(this.attribute);
+                    yield this.attribute.getDataType() == AttributeType.INTEGER
+                            ? new DTInteger(String.valueOf(Math.toIntExact(this.intSum)))
+                            : new DTDouble(String.valueOf(this.doubleSum));
+                }
+                case AVG -> {
+                    if (this.count == 0)
+                        yield new DTDouble((String) null);
+                    double sum = this.attribute.getDataType() == AttributeType.INTEGER ? this.intSum : this.doubleSum;
+                    yield new DTDouble(String.valueOf(sum / this.count));
+                }
+                case MIN, MAX -> this.extreme == null ? nullOf(this.attribute) : this.extreme;
+            };
+        }
+    }
+
+    /**
+     * Buffered writer for one partition file
+     */
+    private class PartitionWriter {
+        private final Path path;
+        private final DataOutputStream out;
+        private final List<List<DataType>> pageRecords = new ArrayList<>();
+        private int pageBytes = Integer.BYTES;      // 4 bytes reserved for num records
+
+        PartitionWriter() throws IOException {
+            this.path = Files.createTempFile(Paths.get(databaseRoot), PARTITION_FILE_PREFIX, PARTITION_FILE_EXTENSION);
+            this.path.toFile().deleteOnExit();
+            partitionFiles.add(this.path);
+            this.out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(this.path), pageSize));
+        }
+
+        /**
+         * Add a record to the partition, writing out the page once it is full
+         *
+         * @param record Record to add
+         * @throws IOException Failed to write to file
+         */
+        void add(List<DataType> record) throws IOException {
+            int recordSize = BInterpreter.getRecordSize(record);
+            if (!this.pageRecords.isEmpty() && this.pageBytes + recordSize > pageSize)
+                writePage();
+
+            this.pageRecords.add(record);
+            this.pageBytes += recordSize;
+        }
+
+        private void writePage() throws IOException {
+            byte[] data = BInterpreter.convertRecordsToPage(this.pageRecords);
+            this.out.writeInt(data.length);
+            this.out.write(data);
+            this.pageRecords.clear();
+            this.pageBytes = Integer.BYTES;
+        }
+
+        void close() throws IOException {
+            if (!this.pageRecords.isEmpty())
+                writePage();
+            this.out.close();
+        }
+    }
+
+    /**
+     * Create a new hash aggregate
+     *
+     * @param databaseRoot Root directory of the database, partition files are written here
+     * @param pageSize     Size of a page in bytes
+     * @param bufferSize   Number of pages the aggregate may hold in memory
+     * @param attributes   Constraints of the data types of the input records
+     * @param groupColumns Indexes of the columns to group by, empty for a single group
+     * @param aggregates   Aggregate functions to compute
+     */
+    HashAggregate(String databaseRoot, int pageSize, int bufferSize, List<Attribute> attributes, List<Integer> groupColumns, List<Aggregate> aggregates) {
+        this(databaseRoot, pageSize, bufferSize, attributes, groupColumns, aggregates, 0);
+    }
+
+    private HashAggregate(String databaseRoot, int pageSize, int bufferSize, List<Attribute> attributes, List<Integer> groupColumns, List<Aggregate> aggregates, int depth) {
+        this.databaseRoot = databaseRoot;
+        this.pageSize = pageSize;
+        this.bufferSize = bufferSize;
+        this.memoryBudget = pageSize * bufferSize;
+        this.attributes = attributes;
+        this.groupColumns = groupColumns;
+        this.aggregates = aggregates;
+        this.depth = depth;
+    }
+
+    /**
+     * Add a record to its group. If the group is new and memory is full, the record is spilled to a partition
+     *
+     * @param record Record to add
+     * @throws IOException Failed to write partition file
+     */
+    public void add(List<DataType> record) throws IOException {
+        List<DataType> key = new ArrayList<>(this.groupColumns.size());
+        for (int column : this.groupColumns)
+            key.add(record.get(column));
+
+        Accumulator[] accumulators = this.groups.get(key);
+
+        if (accumulators == null) {
+            // no room for another group, aggregate it later with its partition
+            if (this.groupsSize >= this.memoryBudget && this.depth < MAX_DEPTH) {
+                spill(key, record);
+                return;
+            }
+
+            accumulators = newAccumulators();
+            this.groups.put(key, accumulators);
+            this.groupsSize += BInterpreter.getRecordSize(key) + GROUP_OVERHEAD * (accumulators.length + 1);
+        }
+
+        for (int i = 0; i < accumulators.length; i++) {
+            int column = this.aggregates.get(i).column();
+            accumulators[i].add(column == -1 ? null : record.get(column));
+        }
+    }
+
+    /**
+     * Get the aggregated groups, each record is the group columns followed by the aggregate values. Without group
+     * columns there is always exactly one record, even if nothing was added
+     *
+     * @return Iterator of the aggregated records
+     * @throws IOException Failed to read or write partition files
+     */
+    public Iterator<List<DataType>> iterator() throws IOException {
+        // empty input still has one group when not grouping
+        if (this.groups.isEmpty() && this.groupColumns.isEmpty() && this.depth == 0)
+            this.groups.put(new ArrayList<>(), newAccumulators());
+
+        List<Iterator<List<DataType>>> results = new ArrayList<>();
+        results.add(this.groups.entrySet().stream().map(e -> {
+            List<DataType> result = new ArrayList<>(e.getKey());
+            for (Accumulator accumulator : e.getValue())
+                result.add(accumulator.result());
+            return result;
+        }).iterator());
+
+        // then each partition, one at a time
+        if (this.partitions != null) {
+            for (PartitionWriter partition : this.partitions)
+                partition.close();
+
+            for (PartitionWriter partition : this.partitions)
+                results.add(partitionIterator(partition.path));
+        }
+
+        return new Iterator<>() {
+            private int current = 0;
+
+            @Override
+            public boolean hasNext() {
+                while (current < results.size() && !results.get(current).hasNext())
+                    current++;
+                return current < results.size();
+            }
+
+            @Override
+            public List<DataType> next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                return results.get(current).next();
+            }
+        };
+    }
+
+    /**
+     * Delete any partition files that are still on disk
+     *
+     * @throws IOException Failed to delete partition files
+     */
+    @Override
+    public void close() throws IOException {
+        for (HashAggregate child : this.children)
+            child.close();
+        this.children.clear();
+
+        if (this.partitions != null) {
+            for (PartitionWriter partition : this.partitions)
+                partition.out.close();
+            this.partitions = null;
+        }
+
+        for (Path partition : this.partitionFiles)
+            Files.deleteIfExists(partition);
+        this.partitionFiles.clear();
+    }
+
+    /**
+     * @return Fresh accumulators for a new group
+     */
+    private Accumulator[] newAccumulators() {
+        Accumulator[] accumulators = new Accumulator[this.aggregates.size()];
+        for (int i = 0; i < accumulators.length; i++) {
+            Aggregate aggregate = this.aggregates.get(i);
+            accumulators[i] = new Accumulator(aggregate.function(),
+                    aggregate.column() == -1 ? null : this.attributes.get(aggregate.column()));
+        }
+        return accumulators;
+    }
+
+    /**
+     * Write a record to the partition its group hashes to
+     *
+     * @param key    Group of the record
+     * @param record Record to write
+     * @throws IOException Failed to write partition file
+     */
+    private void spill(List<DataType> key, List<DataType> record) throws IOException {
+        if (this.partitions == null) {
+            this.partitions = new PartitionWriter[Math.max(2, this.bufferSize - 1)];     // one page is reserved for input
+            for (int i = 0; i < this.partitions.length; i++)
+                this.partitions[i] = new PartitionWriter();
+        }
+
+        // mix in the depth so each level splits the groups differently
+        int hash = key.hashCode() * 31 + this.depth * 0x9E3779B9;
+        hash ^= (hash >>> 16);
+        this.partitions[Math.floorMod(hash, this.partitions.length)].add(record);
+    }
+
+    /**
+     * Aggregate a partition file with a new hash aggregate one level deeper
+     *
+     * @param partition Partition file to aggregate
+     * @return Lazy iterator that aggregates the partition once it is first used
+     */
+    private Iterator<List<DataType>> partitionIterator(Path partition) {
+        return new Iterator<>() {
+            private Iterator<List<DataType>> results = null;
+
+            private Iterator<List<DataType>> getResults() {
+                if (this.results != null)
+                    return this.results;
+
+                HashAggregate child = new HashAggregate(databaseRoot, pageSize, bufferSize, attributes, groupColumns, aggregates, depth + 1);
+                children.add(child);
+
+                try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(partition), pageSize))) {
+                    while (true) {
+                        int length;
+                        try {
+                            length = in.readInt();
+                        } catch (EOFException eof) {
+                            break;
+                        }
+                        byte[] data = new byte[length];
+                        in.readFully(data);
+                        for (List<DataType> record : BInterpreter.convertPageToRecords(data, attributes))
+                            child.add(record);
+                    }
+                    partitionFiles.remove(partition);
+                    Files.deleteIfExists(partition);
+
+                    this.results = child.iterator();
+                    return this.results;
+                } catch (IOException ioe) {
+                    throw new UncheckedIOException(ioe);
+                }
+            }
+
+            @Override
+            public boolean hasNext() {
+                return getResults().hasNext();
+            }
+
+            @Override
+            public List<DataType> next() {
+                return getResults().next();
+            }
+        };
+    }
+
+    /**
+     * Create a null value of an attribute's type
+     *
+     * @param attribute Attribute to get the type of
+     * @return Null data type
+     */
+    private static DataType nullOf(Attribute attribute) {
+        return switch (attribute.getDataType()) {
+            case INTEGER -> new DTInteger((String) null);
+            case DOUBLE -> new DTDouble((String) null);
+            case BOOLEAN -> new DTBoolean((String) null);
+            case CHAR -> new DTChar((String) null, attribute.getMaxDataLength());
+            case VARCHAR -> new DTVarchar((String) null);
+        };
+    }
+}
@@ -6,6 +6,7 @@ import util.BPlusTree.*;
 
 import java.io.*;
 import java.nio.ByteBuffer;
+import java.util.*;
 
 /**
  * <b>DBFile:</b> IndexFile.java
@@ -22,6 +23,7 @@ public class IndexFile extends DBFile{
     private final int PageSize;
     private final Attribute PKAttr;
     private final PageBuffer Buffer;
+    private Integer RootPageNum = null;     // read from the file on first use, this object is the only writer while it is in use
 
     /**
      * Create a new Index file
@@ -38,7 +40,8 @@ public class IndexFile extends DBFile{
         this.Capacity = (pageSize / pairSize) - 1;
         this.Buffer = buffer;
         NodeCount = readNodeCount();
-        if (NodeCount == 0) {
+        // a lone leaf root also has a node count of 0, only a file without a root page number is new
+        if (toFile().length() < Integer.BYTES * 2) {
             LeafNode root = new LeafNode(Capacity, 0, null);
             updateRootNode(root);
             buffer.flush();
@@ -46,24 +49,26 @@ public class IndexFile extends DBFile{
     }
 
     private Node getRootNode() throws IOException {
-        try (RandomAccessFile raf = toRandomAccessFile()) {
-            // first 4 bytes of index file is reserved for number of pages,
-            // next 4 bytes contains the root node page number
-            byte[] buffer = new byte[Integer.BYTES];
-            raf.seek(Integer.BYTES);
-            raf.read(buffer, 0, Integer.BYTES);
-            int rootPageNum = ByteBuffer.wrap(buffer).getInt();
-            return getNodeFromBuffer(rootPageNum);
+        if (RootPageNum == null)
+            RootPageNum = Buffer.getRootNumber(this);   // moved by the running statement, the file has it once it commits
+        if (RootPageNum == null) {
+            try (RandomAccessFile raf = toRandomAccessFile()) {
+                // first 4 bytes of index file is reserved for number of pages,
+                // next 4 bytes contains the root node page number
+                byte[] buffer = new byte[Integer.BYTES];
+                raf.seek(Integer.BYTES);
+                raf.read(buffer, 0, Integer.BYTES);
+                RootPageNum = ByteBuffer.wrap(buffer).getInt();
+            }
         }
+        return getNodeFromBuffer(RootPageNum);
     }
 
     private void updateRootNode(Node newRoot) throws IOException {
-        try (RandomAccessFile raf = toRandomAccessFile()) {
-            raf.seek(Integer.BYTES);    // Skip the page count int
-            raf.write(ByteBuffer.allocate(Integer.BYTES).putInt(newRoot.pageNum).array(), 0, Integer.BYTES);
-            writeNode(newRoot);
+        Buffer.setRootNumber(this, newRoot.pageNum);
+        RootPageNum = newRoot.pageNum;
+        writeNode(newRoot);
 //            Buffer.flush();
-        }
     }
 
     private int readNodeCount() throws IOException {
@@ -75,11 +80,14 @@ public class IndexFile extends DBFile{
     }
 
     private int nextNodeValue() throws IOException {
-        try (RandomAccessFile raf = toRandomAccessFile()) {
-            // update page count
-            NodeCount = readNodeCount() + 1;
-            raf.write(ByteBuffer.allocate(Integer.BYTES).putInt(NodeCount).array(), 0, Integer.BYTES);
-            return NodeCount;
+        // the page writer updates the node count too when it writes a node, it holds the buffer while it does
+        synchronized (Buffer) {
+            try (RandomAccessFile raf = toRandomAccessFile()) {
+                // update page count
+                NodeCount = readNodeCount() + 1;
+                raf.write(ByteBuffer.allocate(Integer.BYTES).putInt(NodeCount).array(), 0, Integer.BYTES);
+                return NodeCount;
+            }
         }
     }
 
@@ -109,10 +117,11 @@ public class IndexFile extends DBFile{
             leaf.pointers.remove(index);
 
             if (leaf.keys.size() < Capacity / 2) {
-                // Handle underflow
+                // Handle underflow, writes the leaf itself
                 handleUnderflow(leaf);
+            } else {
+                writeNode(leaf);
             }
-            writeNode(leaf);
         }
     }
 
@@ -140,9 +149,9 @@ public class IndexFile extends DBFile{
 
         if (leaf.keys.size() > Capacity) {
             splitLeafNode(leaf);
+        } else {
+            writeNode(leaf);
         }
-
-        writeNode(leaf);
     }
 
     private void splitLeafNode(LeafNode leaf) throws IOException {
@@ -162,11 +171,14 @@ public class IndexFile extends DBFile{
             leaf.parentNum = newRoot.pageNum;
             newLeaf.parentNum = newRoot.pageNum;
             writeNode(leaf);
+            writeNode(newLeaf);
             updateRootNode(newRoot);
         } else {
+            // both halves are written before the parent changes, a split of the parent rereads them to repoint them
+            writeNode(leaf);
+            writeNode(newLeaf);
             insertInParent(leaf, newLeaf.keys.getFirst(), newLeaf);
         }
-        writeNode(newLeaf);
     }
 
     private void insertInParent(Node oldNode, DataType key, Node newNode) throws IOException {
@@ -185,8 +197,9 @@ public class IndexFile extends DBFile{
 
         if (parent.keys.size() > Capacity) {
             splitInternalNode(parent);
+        } else {
+            writeNode(parent);
         }
-        writeNode(parent);
     }
 
     private void splitInternalNode(InternalNode node) throws IOException {
@@ -203,6 +216,7 @@ public class IndexFile extends DBFile{
         for (int childNum : newInternal.children) {
             Node child = getNodeFromBuffer(childNum);
             child.parentNum = newInternal.pageNum;
+            writeNode(child);
         }
 
         if (node.parentNum == null) {
@@ -212,12 +226,133 @@ public class IndexFile extends DBFile{
             newRoot.children.add(newInternal.pageNum);
             node.parentNum = newRoot.pageNum;
             newInternal.parentNum = newRoot.pageNum;
-            updateRootNode(newRoot);
             writeNode(node);
+            writeNode(newInternal);
+            updateRootNode(newRoot);
         } else {
+            writeNode(node);
+            writeNode(newInternal);
             insertInParent(node, upKey, newInternal);
         }
-        writeNode(newInternal);
+    }
+
+    /**
+     * @return True if the tree holds no keys
+     * @throws IOException Failed to read the root node
+     */
+    public boolean isEmpty() throws IOException {
+        Node root = getRootNode();
+        return root.isLeaf && root.keys.isEmpty();
+    }
+
+    /**
+     * Start building the tree bottom up from keys given in ascending order. The tree must be empty
+     *
+     * @return Bulk load to add the keys to
+     * @throws IOException Failed to read the root node
+     */
+    public BulkLoad bulkLoad() throws IOException {
+        if (!isEmpty())
+            throw new IllegalStateException("Index %s is not empty".formatted(this));
+        return new BulkLoad();
+    }
+
+    /**
+     * Builds the tree one full node at a time instead of descending from the root for every key. Only the node being
+     * filled on each level is held in memory; when it is full it is written and handed to the level above, so the
+     * leaves are written in key order and each node is written once
+     */
+    public class BulkLoad {
+        private final List<Node> openNodes = new ArrayList<>();         // node being filled on each level, leaves first
+        private final List<DataType> openMinKeys = new ArrayList<>();   // smallest key under each open node
+
+        private BulkLoad() {
+        }
+
+        /**
+         * Add the next key to the tree
+         *
+         * @param key     Key larger than every key added before it
+         * @param pointer Location of the record
+         * @throws IOException Failed to write a full node
+         */
+        public void add(DataType key, RecordPointer pointer) throws IOException {
+            LeafNode leaf;
+            if (openNodes.isEmpty()) {
+                leaf = (LeafNode) getRootNode();    // reuse the empty root as the first leaf
+                openNodes.add(leaf);
+                openMinKeys.add(key);
+            } else {
+                leaf = (LeafNode) openNodes.getFirst();
+                if (leaf.keys.size() >= Capacity) {
+                    leaf = new LeafNode(Capacity, nextNodeValue(), null);
+                    replaceOpenNode(0, leaf, key);
+                }
+            }
+            leaf.keys.add(key);
+            leaf.pointers.add(pointer);
+        }
+
+        /**
+         * Write the nodes that are still open and make the top one the root
+         *
+         * @throws IOException Failed to write a node
+         */
+        public void finish() throws IOException {
+            for (int level = 0; level < openNodes.size(); level++) {
+                Node node = openNodes.get(level);
+                if (level == openNodes.size() - 1) {
+                    node.parentNum = null;
+                    updateRootNode(node);
+                } else {
+                    closeNode(level);
+                }
+            }
+            openNodes.clear();
+            openMinKeys.clear();
+        }
+
+        /**
+         * Start a new node on a level, writing the full one it replaces
+         */
+        private void replaceOpenNode(int level, Node node, DataType minKey) throws IOException {
+            closeNode(level);
+            openNodes.set(level, node);
+            openMinKeys.set(level, minKey);
+        }
+
+        /**
+         * Hand the open node on a level to its parent and write it
+         */
+        private void closeNode(int level) throws IOException {
+            Node node = openNodes.get(level);
+            node.parentNum = addChild(level + 1, node.pageNum, openMinKeys.get(level)).pageNum;
+            writeNode(node);
+        }
+
+        /**
+         * Add a child to the open node on a level, starting a new node if it is full
+         *
+         * @return Node the child was added to
+         */
+        private InternalNode addChild(int level, int childNum, DataType childMinKey) throws IOException {
+            if (level == openNodes.size()) {
+                openNodes.add(new InternalNode(Capacity, nextNodeValue(), null));
+                openMinKeys.add(childMinKey);
+            }
+
+            InternalNode parent = (InternalNode) openNodes.get(level);
+            if (parent.children.size() > Capacity) {
+                parent = new InternalNode(Capacity, nextNodeValue(), null);
+                replaceOpenNode(level, parent, childMinKey);
+            }
+
+            // keys separate the children, each is the smallest key under the child to its right
+            if (!parent.children.isEmpty())
+                parent.keys.add(childMinKey);
+            parent.children.add(childNum);
+            return parent;
+        }
     }
 
     public RecordPointer search(DataType key) throws IOException {
@@ -230,6 +365,54 @@ public class IndexFile extends DBFile{
         return null;
     }
 
+    /**
+     * Walk the leaves of the tree in key order, reading each node only once the previous leaf is used up
+     *
+     * @return Iterator of record pointers in ascending key order
+     */
+    public Iterator<RecordPointer> leafPointers() {
+        Deque<Integer> toVisit = new ArrayDeque<>();
+        return new Iterator<>() {
+            private Iterator<RecordPointer> leafPointers = null;
+
+            @Override
+            public boolean hasNext() {
+                try {
+                    // first call starts at the root
+                    if (this.leafPointers == null) {
+                        this.leafPointers = Collections.emptyIterator();
+                        toVisit.push(getRootNode().pageNum);
+                    }
+
+                    while (!this.leafPointers.hasNext()) {
+                        if (toVisit.isEmpty())
+                            return false;
+
+                        Node node = getNodeFromBuffer(toVisit.pop());
+                        if (node.isLeaf) {
+                            this.leafPointers = ((LeafNode) node).pointers.iterator();
+                        } else {
+                            // push right to left so the leftmost child is visited first
+                            List<Integer> children = ((InternalNode) node).children;
+                            for (int i = children.size() - 1; i >= 0; i--)
+                                toVisit.push(children.get(i));
+                        }
+                    }
+                    return true;
+                } catch (IOException ioe) {
+                    throw new UncheckedIOException(ioe);
+                }
+            }
+
+            @Override
+            public RecordPointer next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                return this.leafPointers.next();
+            }
+        };
+    }
+
     private void handleUnderflow(Node node) throws IOException {
         if (node.isLeaf) {
             LeafNode leaf = (LeafNode) node;
@@ -245,6 +428,7 @@ public class IndexFile extends DBFile{
             if (leaf.keys.isEmpty()) {
                 leaf.pointers.clear();
             }
+            writeNode(leaf);
             return;
         }
 
@@ -260,11 +444,12 @@ public class IndexFile extends DBFile{
                 leftSibling.pointers.addAll(leaf.pointers);
                 parent.keys.remove(leafIndex - 1);
                 parent.children.remove(leafIndex);
+                // written before the parent underflows, a merge above rereads and repoints them
+                writeNode(leftSibling);
+                writeNode(parent);
                 if (parent.keys.isEmpty()) {
                     handleUnderflow(parent);
                 }
-                writeNode(leftSibling);
-                writeNode(parent);
                 return;
             }
         }
@@ -277,11 +462,11 @@ public class IndexFile extends DBFile{
                 leaf.pointers.addAll(rightSibling.pointers);
                 parent.keys.remove(leafIndex);
                 parent.children.remove(leafIndex + 1);
+                writeNode(leaf);
+                writeNode(parent);
                 if (parent.keys.isEmpty()) {
                     handleUnderflow(parent);
                 }
-                writeNode(leaf);
-                writeNode(parent);
                 return;
             }
         }
@@ -349,13 +534,13 @@ public class IndexFile extends DBFile{
 
                 // Remove the reference from the parent
                 parent.keys.remove(index - 1);
-                parent.children.remove(internal.pageNum);
+                parent.children.remove(index);
+                writeNode(parent);
+                writeNode(leftSibling);
 
                 if (parent.keys.size() < Capacity / 2) {
                     handleInternalUnderflow(parent);
                 }
-                writeNode(parent);
-                writeNode(leftSibling);
                 return;
             }
         }
@@ -370,13 +555,13 @@ public class IndexFile extends DBFile{
                 internal.children.addAll(rightSibling.children);
                 for (int i = 0; i < internal.children.size(); i++) {
                     Node child = getNodeFromBuffer(internal.children.get(i));
-                    child.parentNum = rightSibling.pageNum;
+                    child.parentNum = internal.pageNum;
                     writeNode(child);
                 }
 
                 // Remove the reference from the parent
                 parent.keys.remove(index);
-                parent.children.remove(rightSibling.pageNum);
+                parent.children.remove(index + 1);
                 writeNode(internal);
                 writeNode(parent);
 
@@ -440,7 +625,7 @@ public class IndexFile extends DBFile{
     }
 
     private Node getNodeFromBuffer(int pageNum) throws IOException {
-        Page p = Buffer.readFromBuffer(fileID, pageNum, false, this);
+        Page p = Buffer.readFromBuffer(fileID, pageNum, this);
         return BPlusTreeInterpreter.convertBinaryToNode(p, pageNum, PKAttr, Capacity);
     }
 
@@ -450,6 +635,8 @@ public class IndexFile extends DBFile{
             n.page = new Page(this, PageSize, n.pageNum, nodeData, true);
             Buffer.writeToBuffer(n.page);
 //            Buffer.flush();
+        } else {
+            n.page = Buffer.readFromBuffer(fileID, n.pageNum, this);     // page may have been evicted since the node was read
         }
         n.page.setData(nodeData);
     }
@@ -0,0 +1,96 @@
+package sm;
+
+import catalog.Attribute;
+import dataTypes.DataType;
+import util.BPlusTree.RecordPointer;
+import util.where.WhereTree;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * <b>File:</b> IndexScan.java
+ * <p>
+ * <b>Description:</b> Iterator that streams the records of a table in primary key order by following the leaves of
+ * its index
+ *
+ * @author Derek Garcia
+ */
+public class IndexScan implements Iterator<List<DataType>> {
+
+    private final PageBuffer buffer;
+    private final int tableID;
+    private final Iterator<RecordPointer> pointers;
+    private final List<Attribute> attributes;
+    private final WhereTree whereTree;
+    private final boolean[] columnMask;
+    private final int[] columnMap;
+
+    // last page decoded, neighboring keys usually share a page
+    private int pageNumber = -1;
+    private List<List<DataType>> pageRecords = null;
+    private List<DataType> nextRecord = null;
+
+    /**
+     * Create a new index scan
+     *
+     * @param buffer     Page buffer to read pages from
+     * @param tf         Table file to scan
+     * @param idxF       Index of the table file
+     * @param attributes Constraints of data types
+     * @param whereTree  WhereTree to filter records with, null for all records
+     * @param columnMask Columns to decode, null for all columns
+     */
+    IndexScan(PageBuffer buffer, TableFile tf, IndexFile idxF, List<Attribute> attributes, WhereTree whereTree, boolean[] columnMask) {
+        this.buffer = buffer;
+        this.tableID = tf.getTableID();
+        this.pointers = idxF.leafPointers();
+        this.attributes = attributes;
+        this.whereTree = whereTree;
+        this.columnMask = columnMask;
+        this.columnMap = BInterpreter.getColumnMap(columnMask);
+    }
+
+    /**
+     * Read the record a pointer refers to, decoding its page only if it is not the last page read
+     *
+     * @param rp Pointer to the record
+     * @return Narrow record
+     * @throws IOException Failed to read page
+     */
+    private List<DataType> readRecord(RecordPointer rp) throws IOException {
+        if (rp.pageNumber != this.pageNumber) {
+            Page page = this.buffer.readFromBuffer(this.tableID, rp.pageNumber, null);
+            this.pageRecords = BInterpreter.convertPageToRecords(page.getBuffer(), this.attributes, this.columnMask);
+            this.pageNumber = rp.pageNumber;
+        }
+        return this.pageRecords.get(rp.index);
+    }
+
+    @Override
+    public boolean hasNext() {
+        try {
+            while (this.nextRecord == null && this.pointers.hasNext()) {
+                List<DataType> record = readRecord(this.pointers.next());
+                if (this.whereTree == null || this.whereTree.passesTree(record, this.columnMap))
+                    this.nextRecord = record;
+            }
+            return this.nextRecord != null;
+        } catch (IOException ioe) {
+            throw new UncheckedIOException(ioe);
+        }
+    }
+
+    @Override
+    public List<DataType> next() {
+        if (!hasNext())
+            throw new NoSuchElementException();
+
+        List<DataType> record = this.nextRecord;
+        this.nextRecord = null;
+        return record;
+    }
+}
@@ -0,0 +1,71 @@
+package sm;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * <b>File:</b> LRUPolicy.java
+ * <p>
+ * <b>Description:</b> Least recently used replacement. A page read moves to the front and the page at the back is
+ * evicted. Pages read ahead of a sequential scan start at the back and only move to the front on their second read
+ *
+ * @author Derek Garcia
+ */
+public class LRUPolicy implements ReplacementPolicy {
+
+    private final List<Page> pages = new ArrayList<>();     // most recently used first
+
+    @Override
+    public void admit(Page page) {
+        this.pages.addFirst(page);
+    }
+
+    @Override
+    public void admitReadAhead(List<Page> pages) {
+        // the page the scan needs first is evicted last
+        for (Page page : pages.reversed()) {
+            page.markReadAhead();
+            this.pages.addLast(page);
+        }
+    }
+
+    @Override
+    public void touch(Page page) {
+        if (page.isReadAhead()) {
+            page.clearReadAhead();      // the scan's own read, leave it at the back
+            return;
+        }
+        this.pages.remove(page);
+        this.pages.addFirst(page);
+    }
+
+    @Override
+    public void remove(Page page) {
+        this.pages.remove(page);
+    }
+
+    @Override
+    public Page evict() {
+        List<Page> victims = nextVictims(1);
+        if (victims.isEmpty())
+            return null;
+        this.pages.remove(victims.getFirst());
+        return victims.getFirst();
+    }
+
+    @Override
+    public List<Page> nextVictims(int count) {
+        return this.pages.reversed().stream().filter(Page::isEvictable).limit(count).toList();
+    }
+
+    @Override
+    public int size() {
+        return this.pages.size();
+    }
+
+    @Override
+    public Iterator<Page> iterator() {
+        return this.pages.iterator();
+    }
+}
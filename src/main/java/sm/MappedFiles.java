@@ -0,0 +1,102 @@
+package sm;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * <b>File:</b> MappedFiles.java
+ * <p>
+ * <b>Description:</b> Memory maps of the table and index files. Each file is mapped whole, a page read is a slice of
+ * the map and a page write is a copy into it, the operating system's page cache holds the data in between. A map is
+ * made again when its file grows, or is replaced by a swap file or deleted, which is noticed by comparing the file's
+ * key and size with the ones it was mapped at
+ *
+ * @author Derek Garcia
+ */
+class MappedFiles {
+
+    private record Mapping(Object fileKey, MappedByteBuffer map) {
+    }
+
+    private final Map<String, Mapping> mappings = new HashMap<>();
+
+    /**
+     * Get a map of the whole file
+     *
+     * @param path Path of the file
+     * @return Map of the file, null if the file does not exist
+     * @throws IOException Failed to map the file
+     */
+    MappedByteBuffer map(String path) throws IOException {
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(Paths.get(path), BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            this.mappings.remove(path);
+            return null;
+        }
+
+        Mapping mapping = this.mappings.get(path);
+        if (mapping != null && Objects.equals(mapping.fileKey(), attributes.fileKey()) && mapping.map().capacity() == attributes.size())
+            return mapping.map();
+        return remap(path, attributes.size());
+    }
+
+    /**
+     * Get a map of the whole file that reaches at least a given length, creating and growing the file as needed
+     *
+     * @param path      Path of the file
+     * @param minLength Length the file must have
+     * @return Map of the file
+     * @throws IOException Failed to grow or map the file
+     */
+    MappedByteBuffer map(String path, long minLength) throws IOException {
+        MappedByteBuffer map = map(path);
+        if (map != null && map.capacity() >= minLength)
+            return map;
+        return remap(path, minLength);
+    }
+
+    /**
+     * Map a file again, growing it first if it is shorter than the map
+     *
+     * @param path   Path of the file
+     * @param length Length to map, never less than the file
+     * @return Map of the file
+     * @throws IOException Failed to map the file
+     */
+    private MappedByteBuffer remap(String path, long length) throws IOException {
+        Path file = Paths.get(path);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            length = Math.max(length, channel.size());
+            if (length > Integer.MAX_VALUE)
+                throw new IOException("%s is too large to map".formatted(path));
+            // a map past the end of the file grows it, the old map stays valid for pages that still hold it
+            MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_WRITE, 0, length);
+            this.mappings.put(path, new Mapping(Files.readAttributes(file, BasicFileAttributes.class).fileKey(), map));
+            return map;
+        }
+    }
+
+    /**
+     * Force the changes made through the map of a file to the device
+     *
+     * @param path Path of the file
+     * @throws IOException Failed to map the file
+     */
+    void force(String path) throws IOException {
+        MappedByteBuffer map = map(path);
+        if (map != null)
+            map.force();    // swap files are renamed once written, there is nothing left to force
+    }
+}
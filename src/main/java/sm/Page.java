@@ -8,14 +8,17 @@ import cli.cmd.exception.ExecutionFailure;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 
 /**
  * <b>File:</b> Page.java
  * <p>
- * <b>Description:</b> Utility Page object to hold page data
+ * <b>Description:</b> Utility Page object to hold page data. A page in the buffer keeps its data in an off-heap frame,
+ * records are decoded straight from the frame and encoded straight into it. Only a page that has not come into the
+ * buffer yet, or one that is overfull until it is split, holds its data on the heap. A page read through a memory map
+ * reads from its slice of the map and takes a frame of its own once it changes, so a change never reaches the file
+ * before it is written
  *
  * @author Derek Garcia, Ryan Nowak
  */
@@ -24,8 +27,18 @@ public class Page {
     private final DBFile writeFile;
     private final int pageSize;
     private final int pageNumber;
-    private byte[] data;
+    private byte[] data;                // data that is not in a frame, null once it is
+    private ByteBuffer frame;           // off-heap frame holding the data, null if none
+    private boolean mapped = false;     // frame is a slice of the file's map, the page needs its own before it changes
+    private FrameArena frames;          // where a mapped page takes its own frame from
+    private boolean committedInLog = false;     // last committed data is only in the log, at the page LSN
     public boolean IsIndexPage;
+    private boolean dirty = true;       // data differs from the copy on disk
+    private boolean logged = false;     // data is in the write-ahead log
+    private long recLSN = -1;           // LSN of the oldest logged change not yet on disk, -1 if there is none
+    private long pageLSN = -1;          // LSN of the record holding the current data, -1 if it is not logged
+    private boolean readAhead = false;  // read ahead of a sequential scan and not read since
+    private int pinCount = 0;           // number of holders working on the page, never evicted while above 0
 
     /**
      * Create new Page
@@ -33,16 +46,45 @@ public class Page {
      * @param writeFile  File to write page to
      * @param pageSize   Max number of records page can hold
      * @param pageNumber Page Number
-     * @param data       Page byte data
+     * @param data       Page byte data, the page keeps it until it gets a frame
      */
     public Page(DBFile writeFile, int pageSize, int pageNumber, byte[] data, boolean isIndexPage) {
         this.writeFile = writeFile;
         this.pageSize = pageSize;
         this.pageNumber = pageNumber;
-        this.data = new byte[pageSize];
+        this.data = data;
         IsIndexPage = isIndexPage;
+    }
 
-        System.arraycopy(data, 0, this.data, 0, data.length);   // copy existing data
+    /**
+     * Create a page over a frame the page data was read into
+     *
+     * @param writeFile  File to write page to
+     * @param pageSize   Max number of records page can hold
+     * @param pageNumber Page Number
+     * @param frame      Frame holding the page data
+     */
+    Page(DBFile writeFile, int pageSize, int pageNumber, ByteBuffer frame, boolean isIndexPage) {
+        this.writeFile = writeFile;
+        this.pageSize = pageSize;
+        this.pageNumber = pageNumber;
+        this.frame = frame;
+        IsIndexPage = isIndexPage;
+    }
+
+    /**
+     * Create a page over its slice of a memory-mapped file
+     *
+     * @param writeFile  File to write page to
+     * @param pageSize   Max number of records page can hold
+     * @param pageNumber Page Number
+     * @param slice      Slice of the file's map holding the page data
+     * @param frames     Frames to take one from once the page changes
+     */
+    Page(DBFile writeFile, int pageSize, int pageNumber, ByteBuffer slice, boolean isIndexPage, FrameArena frames) {
+        this(writeFile, pageSize, pageNumber, slice, isIndexPage);
+        this.mapped = true;
+        this.frames = frames;
     }
 
     /**
@@ -73,7 +115,7 @@ public class Page {
      */
     public RecordPointer insertRecord(int primaryKeyIndex, List<Attribute> attributes, List<DataType> record) throws ExecutionFailure {
         // Get records
-        List<List<DataType>> records = BInterpreter.convertPageToRecords(this.data, attributes);
+        List<List<DataType>> records = BInterpreter.convertPageToRecords(getBuffer(), attributes);
 
         // Ordered insert
         for (List<DataType> storedRecord : records) {
@@ -86,7 +128,7 @@ public class Page {
             // > 0 means record is less than stored
             if (order > 0) {
                 records.add(records.indexOf(storedRecord), record);     // [..., stored, ...] -> [..., new, stored, ...]
-                this.data = BInterpreter.convertRecordsToPage(records);
+                setRecords(records, attributes);
                 return new RecordPointer(this.pageNumber, records.indexOf(record));
             }
         }
@@ -100,24 +142,24 @@ public class Page {
      *
      * @param primaryKeyIndex Index of the primary key
      * @param primaryKey      PrimaryKey of record to delete
-     * @return True if deleted, false otherwise
+     * @return The deleted record, null if no record was deleted
      */
-    public boolean deleteRecord(int primaryKeyIndex, List<Attribute> attributes, DataType primaryKey) {
+    public List<DataType> deleteRecord(int primaryKeyIndex, List<Attribute> attributes, DataType primaryKey) {
         // Get records
-        List<List<DataType>> records = BInterpreter.convertPageToRecords(this.data, attributes);
+        List<List<DataType>> records = BInterpreter.convertPageToRecords(getBuffer(), attributes);
 
         // Search for record to delete
         for (List<DataType> storedRecord : records) {
             // Record exists in page, so delete it
             if (primaryKey.compareTo(storedRecord.get(primaryKeyIndex)) == 0) {
                 records.remove(storedRecord);
-                this.data = BInterpreter.convertRecordsToPage(records);
-                return true;
+                setRecords(records, attributes, BInterpreter.getPageVersion(getBuffer()));
+                return storedRecord;
             }
         }
 
         // No record was deleted
-        return false;
+        return null;
     }
 
     /**
@@ -128,10 +170,10 @@ public class Page {
      */
     public HashMap<DataType, Integer> deleteRecordByIndex(List<Attribute> attributes, int pkIndex, int index) {
         // Get records
-        List<List<DataType>> records = BInterpreter.convertPageToRecords(this.data, attributes);
+        List<List<DataType>> records = BInterpreter.convertPageToRecords(getBuffer(), attributes);
 
         records.remove(records.get(index));
-        this.data = BInterpreter.convertRecordsToPage(records);
+        setRecords(records, attributes, BInterpreter.getPageVersion(getBuffer()));
         HashMap<DataType, Integer> toUpdate = new HashMap<>();
         for (int i = 0; i < records.size(); i++) {
             toUpdate.put(records.get(i).get(pkIndex), i);
@@ -147,44 +189,64 @@ public class Page {
      * @return Record Pointer to new record
      */
     public RecordPointer appendRecord(List<Attribute> attributes, List<DataType> record) {
-        List<List<DataType>> records = BInterpreter.convertPageToRecords(this.data, attributes);
+        List<List<DataType>> records = BInterpreter.convertPageToRecords(getBuffer(), attributes);
         records.add(record);
-        this.data = BInterpreter.convertRecordsToPage(records);
+        setRecords(records, attributes);
         return new RecordPointer(this.pageNumber, records.indexOf(record));
     }
 
     public int indexOf(List<Attribute> attributes, List<DataType> record) {
-        List<List<DataType>> records = BInterpreter.convertPageToRecords(this.data, attributes);
+        List<List<DataType>> records = BInterpreter.convertPageToRecords(getBuffer(), attributes);
         return records.indexOf(record);
     }
 
 
     /**
-     * Split the current page into 2. The first half will remain in the current page
+     * Split the current page into 2. The first half will remain in the current page. The halves are cut where their
+     * sizes are closest, so a large record among small ones still leaves two pages that fit
      *
      * @return the second half of the page
      */
     public Page split(List<Attribute> attributes) {
-        List<List<DataType>> leftRecords = BInterpreter.convertPageToRecords(this.data, attributes);
+        List<List<DataType>> leftRecords = BInterpreter.convertPageToRecords(getBuffer(), attributes);
+        int splitIndex = getSplitIndex(leftRecords);
 
         // Split right from all records
-        List<List<DataType>> rightRecords = new ArrayList<>(leftRecords.subList(leftRecords.size() / 2, leftRecords.size()));
+        List<List<DataType>> rightRecords = new ArrayList<>(leftRecords.subList(splitIndex, leftRecords.size()));
 
         // Create second page
         Page rightPage = new SwapPage(
                 this.writeFile,
                 this.pageSize,
                 this.pageNumber,
-                BInterpreter.convertRecordsToPage(rightRecords)
+                BInterpreter.convertRecordsToPage(rightRecords, attributes)
         );
 
         // Remove right page from this page
-        leftRecords.subList(leftRecords.size() / 2, leftRecords.size()).clear();
-        this.data = BInterpreter.convertRecordsToPage(leftRecords);
+        leftRecords.subList(splitIndex, leftRecords.size()).clear();
+        setRecords(leftRecords, attributes);
 
         return rightPage;
     }
 
+    /**
+     * @return Index of the first record of the right half, the one that leaves the larger half smallest
+     */
+    private static int getSplitIndex(List<List<DataType>> records) {
+        int totalBytes = records.stream().mapToInt(BInterpreter::getRecordSize).sum();
+        int splitIndex = 1;
+        int leftBytes = BInterpreter.getRecordSize(records.getFirst());
+        int largerHalf = Math.max(leftBytes, totalBytes - leftBytes);
+        for (int i = 2; i < records.size(); i++) {
+            leftBytes += BInterpreter.getRecordSize(records.get(i - 1));
+            if (Math.max(leftBytes, totalBytes - leftBytes) < largerHalf) {
+                largerHalf = Math.max(leftBytes, totalBytes - leftBytes);
+                splitIndex = i;
+            }
+        }
+        return splitIndex;
+    }
+
 
     /**
      * Get a copy of this page with a modified number
@@ -198,7 +260,7 @@ public class Page {
                 writeFile.getSwapFile(),
                 this.pageSize,
                 this.pageNumber + pageOffset,
-                this.data
+                getData()
         );
     }
 
@@ -208,7 +270,8 @@ public class Page {
      * @return true if overfull, false otherwise
      */
     public boolean isOverfull() {
-        return this.data.length > this.pageSize;
+        byte[] data = this.data;
+        return data != null && data.length > this.pageSize;
     }
 
     /**
@@ -217,11 +280,7 @@ public class Page {
      * @return true if empty, false otherwise
      */
     public boolean isEmpty() {
-        // get number of records in page
-        ByteBuffer numRecBuff = ByteBuffer.wrap(Arrays.copyOfRange(data, 0, 4));
-        int numRecords = numRecBuff.getInt();
-
-        return numRecords == 0;
+        return BInterpreter.getRecordCount(getBuffer()) == 0;
     }
 
     /**
@@ -246,14 +305,281 @@ public class Page {
     }
 
     /**
-     * @return Page byte data
+     * Get the page data to read from without copying it. The view is only good until the page changes or leaves the
+     * buffer
+     *
+     * @return Read-only view of the page data, from index 0
+     */
+    public synchronized ByteBuffer getBuffer() {
+        if (this.data != null)
+            return ByteBuffer.wrap(this.data).asReadOnlyBuffer();
+        if (this.frame == null)
+            throw new IllegalStateException("Page %d was read after it left the buffer".formatted(this.pageNumber));
+        return this.frame.asReadOnlyBuffer().clear();
+    }
+
+    /**
+     * Get a copy of the page data, for a page that takes the data of this one
+     *
+     * @return Copy of the page byte data
+     */
+    public synchronized byte[] getData() {
+        ByteBuffer buffer = getBuffer();
+        byte[] data = new byte[buffer.remaining()];
+        buffer.get(data);
+        return data;
+    }
+
+    /**
+     * Replace the page data, the page has to be written and logged again
+     *
+     * @param newData New page data, kept by the page only if it has no frame to copy it to or does not fit in one
+     */
+    public synchronized void setData(byte[] newData) {
+        markChanged();
+        if (this.frame != null && newData.length <= this.pageSize) {
+            putInFrame(ByteBuffer.wrap(newData));
+            this.data = null;
+        } else {
+            this.data = newData;
+        }
+    }
+
+    /**
+     * Replace the records of the page, encoding them straight into its frame. The page is written at the current
+     * schema version
+     *
+     * @param records    New records of the page
+     * @param attributes Table attributes
      */
-    public byte[] getData() {
-        return this.data;
+    public void setRecords(List<List<DataType>> records, List<Attribute> attributes) {
+        setRecords(records, attributes, BInterpreter.getVersion(attributes));
     }
 
-    public void setData(byte[] newData) {
-        this.data = newData;
+    /**
+     * Replace the records of the page, encoding them straight into its frame. Records that do not fit go to the heap
+     * until the page is split
+     *
+     * @param records    New records of the page
+     * @param attributes Table attributes
+     * @param version    Schema version to write the page at
+     */
+    public synchronized void setRecords(List<List<DataType>> records, List<Attribute> attributes, int version) {
+        markChanged();
+        int size = BInterpreter.getPageDataSize(records, attributes, version);
+        if (this.frame != null && size <= this.pageSize) {
+            BInterpreter.writeRecords(records, attributes, version, this.frame);
+            zeroFrame(size);
+            this.data = null;
+        } else {
+            this.data = new byte[size];
+            BInterpreter.writeRecords(records, attributes, version, ByteBuffer.wrap(this.data));
+        }
+    }
+
+    /**
+     * Mark the page as changed before its data is replaced. A mapped page takes its own frame first. If the last
+     * committed data was logged but not written, the log keeps it at the page LSN for a rollback
+     */
+    private void markChanged() {
+        if (this.mapped) {
+            ByteBuffer own = this.frames.acquire();
+            if (own == null)
+                throw new IllegalStateException("No free frame for page %d, every page in the buffer is pinned".formatted(this.pageNumber));
+            own.put(0, this.frame, 0, this.pageSize);
+            this.frame = own;
+            this.mapped = false;
+        }
+        if (this.dirty && this.logged)
+            this.committedInLog = true;
+        this.dirty = true;
+        this.logged = false;
+    }
+
+    /**
+     * Copy data to the start of the frame and zero the rest of it
+     *
+     * @param source Data to copy, from index 0 to its limit
+     */
+    private void putInFrame(ByteBuffer source) {
+        this.frame.put(0, source, 0, source.limit());
+        zeroFrame(source.limit());
+    }
+
+    /**
+     * Zero the frame from an index to its end, so no bytes of the page it held before are left
+     */
+    private void zeroFrame(int from) {
+        for (int i = from; i < this.pageSize; i++)
+            this.frame.put(i, (byte) 0);
+    }
+
+    /**
+     * @return True if the page changed since it was last written to disk
+     */
+    boolean isDirty() {
+        return this.dirty;
+    }
+
+    /**
+     * Mark the page as matching its copy on disk
+     */
+    synchronized void markWritten() {
+        this.dirty = false;
+        this.committedInLog = false;
+        this.recLSN = -1;
+    }
+
+    /**
+     * @return True if the page has a frame
+     */
+    synchronized boolean hasFrame() {
+        return this.frame != null;
+    }
+
+    /**
+     * Give the page a frame as it comes into the buffer, its data moves there unless it is overfull
+     *
+     * @param frame Frame to keep the data in
+     */
+    synchronized void attachFrame(ByteBuffer frame) {
+        this.frame = frame;
+        if (this.data != null && this.data.length <= this.pageSize) {
+            putInFrame(ByteBuffer.wrap(this.data));
+            this.data = null;
+        }
+    }
+
+    /**
+     * Take the frame away as the page leaves the buffer. Data only in the frame cannot be read afterwards
+     *
+     * @return The frame, null if the page had none or only its slice of a map
+     */
+    synchronized ByteBuffer detachFrame() {
+        ByteBuffer frame = this.mapped ? null : this.frame;
+        this.frame = null;
+        return frame;
+    }
+
+    /**
+     * @return True if the current data of the page is in the write-ahead log
+     */
+    boolean isLogged() {
+        return this.logged;
+    }
+
+    /**
+     * Mark the current data of the page as saved in the write-ahead log
+     *
+     * @param lsn LSN of the record the page was logged at
+     */
+    synchronized void markLogged(long lsn) {
+        this.logged = true;
+        this.committedInLog = false;
+        this.pageLSN = lsn;
+        if (this.recLSN < 0)
+            this.recLSN = lsn;      // keep the first change since the page was last written
+    }
+
+    /**
+     * @return LSN of the oldest logged change that is not on disk yet, -1 if there is none
+     */
+    long getRecLSN() {
+        return this.recLSN;
+    }
+
+    /**
+     * @return LSN of the record holding the current data of the page, -1 if it was never logged
+     */
+    long getPageLSN() {
+        return this.pageLSN;
+    }
+
+    /**
+     * @return True if the page changed since its last committed data was logged, and that data is not written yet.
+     * The log holds it at the page LSN
+     */
+    boolean isCommittedInLog() {
+        return this.committedInLog;
+    }
+
+    /**
+     * @return True if the page holds changes that are not committed yet. Its file must not get them before they are
+     */
+    boolean isUncommitted() {
+        return this.dirty && !this.logged && !this.writeFile.isSwap();
+    }
+
+    /**
+     * @return True if the page changed since it was last committed or written
+     */
+    boolean isChanged() {
+        return this.dirty && !this.logged;
+    }
+
+    /**
+     * Undo the changes made since the page was last committed, reading its committed data back from the log straight
+     * into its frame
+     *
+     * @param log Log holding the committed data at the page LSN
+     * @throws IOException Failed to read the log
+     */
+    synchronized void rollback(WriteAheadLog log) throws IOException {
+        log.readPage(this.pageLSN, this.frame);
+        this.data = null;
+        this.committedInLog = false;
+        this.logged = true;
+    }
+
+    /**
+     * @return True if the page was read ahead of a sequential scan and has not been read since
+     */
+    boolean isReadAhead() {
+        return this.readAhead;
+    }
+
+    /**
+     * Mark the page as read ahead of a sequential scan
+     */
+    void markReadAhead() {
+        this.readAhead = true;
+    }
+
+    /**
+     * Mark the page as read since it was read ahead
+     */
+    void clearReadAhead() {
+        this.readAhead = false;
+    }
+
+    /**
+     * @return True if someone is working on the page and it must stay in the buffer
+     */
+    boolean isPinned() {
+        return this.pinCount > 0;
+    }
+
+    /**
+     * @return True if the page may be evicted, it is neither pinned nor holding changes that are not committed
+     */
+    boolean isEvictable() {
+        return !isPinned() && !isUncommitted();
+    }
+
+    /**
+     * Add a holder of the page
+     */
+    void pin() {
+        this.pinCount++;
+    }
+
+    /**
+     * Remove a holder of the page
+     */
+    void unpin() {
+        if (this.pinCount == 0)
+            throw new IllegalStateException("Page %d is not pinned".formatted(this.pageNumber));
+        this.pinCount--;
     }
 
 
@@ -1,34 +1,88 @@
 package sm;
 
+import catalog.Attribute;
+import dataTypes.DataType;
+
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
 
 /**
  * <b>File:</b> PageBuffer.java
  * <p>
- * <b>Description:</b> page buffer used by Storage Manager to read and write to hardware
+ * <b>Description:</b> page buffer used by Storage Manager to read and write to hardware. A page that is being worked on
+ * across other reads is pinned, it is never evicted and every read of it finds the same copy until it is unpinned.
+ * Pages are read straight into off-heap frames that are reused as pages are evicted, once every frame is held by a
+ * pinned page nothing more can be read. In memory-mapped mode the table and index files are mapped instead, a page
+ * read is a slice of its file's map and the operating system caches the files, only a page that changes takes a frame.
+ * <p>
+ * Changes of the running statement stay out of the files until it commits, a page holding them is never evicted, so a
+ * statement that fails is undone by rolling the pages it changed back. A statement that changes more pages than the
+ * buffer holds spills them to the write-ahead log instead, they are read back from there and only reach their files
+ * once it commits. Statements that rebuild a file through its swap file, and changes to the schema, flush the buffer
+ * part way through, what they changed before the flush stays
  *
  * @author Derek Garcia
  */
 public class PageBuffer {
-    private final List<Page> buffer = new ArrayList<>();
+    private static final int READ_AHEAD_PAGES = 8;     // most pages a sequential scan reads at once
+    private ReplacementPolicy buffer;      // holds every page in the buffer and picks the one to evict
     private final int capacity;
     private final int pageSize;
     private final String databaseRoot;
+    private final WriteAheadLog log;
+    private final FrameArena frames;
+    private final ByteBuffer transfer;     // frame for pages moved between the log and their files
+    private final MappedFiles mappedFiles;     // null unless the files are memory-mapped
+    private final Set<String> unsyncedFiles = new HashSet<>();     // files written since the log was last emptied
+    private final Map<String, Integer> pendingRoots = new HashMap<>();     // index file path to the root node the running statement moved it to
+    private final Map<WriteAheadLog.PageID, Long> spilled = new HashMap<>();   // page the running statement changed to the LSN it was spilled at
+    private final Map<Integer, Integer> nextSequential = new HashMap<>();      // table ID to the page after the last one read
+    private PageWriter writer;     // null unless the background writer is running
+    private long hits = 0;
+    private long diskReads = 0;
+    private long evictionWrites = 0;
+    private long spillWrites = 0;
 
 
     /**
-     * Create a new Page Buffer
+     * Create a new Page Buffer that evicts pages with 2Q
      *
      * @param capacity Max buffer size in number of pages
      * @param pageSize Max page size in number of records
      */
     public PageBuffer(int capacity, int pageSize, String databaseRoot) {
+        this(capacity, pageSize, databaseRoot, false);
+    }
+
+    /**
+     * Create a new Page Buffer that evicts pages with 2Q
+     *
+     * @param capacity     Max buffer size in number of pages
+     * @param pageSize     Max page size in number of records
+     * @param memoryMapped Access the table and index files through memory maps
+     */
+    public PageBuffer(int capacity, int pageSize, String databaseRoot, boolean memoryMapped) {
+        this.buffer = new TwoQueuePolicy(capacity);
         this.capacity = capacity;
         this.pageSize = pageSize;
         this.databaseRoot = databaseRoot;
+        this.log = new WriteAheadLog(databaseRoot, pageSize);
+        this.frames = new FrameArena(capacity, pageSize);
+        this.transfer = ByteBuffer.allocateDirect(pageSize);
+        this.mappedFiles = memoryMapped ? new MappedFiles() : null;
     }
 
 
@@ -50,55 +104,371 @@ public class PageBuffer {
 
 
     /**
-     * Write a page to disk
+     * Write a page to disk if it changed since it was read. A logged page is only written once the log is forced
+     * through its record, so the file never gets a change a crash could take out of the log. Only a flush writes a page
+     * whose changes are not committed yet
      *
      * @param page Page to write to disk
      * @throws IOException Failed to open table file
      */
     private void writeToDisk(Page page, boolean isIndexPage) throws IOException {
+        if (!page.isDirty())
+            return;
+
         DBFile writeFile = page.getWriteFile();
-        try (RandomAccessFile raf = writeFile.toRandomAccessFile()) {
+        if (page.isLogged() && !writeFile.isSwap())
+            this.log.forceThrough(page.getPageLSN());
+
+        writeToFile(writeFile.toString(), isIndexPage, page.getPageNumber(), page.getBuffer());
+        page.markWritten();
+    }
+
+    /**
+     * Write page data to a table or index file and update the page count of the file
+     *
+     * @param path        Path of the file
+     * @param isIndexPage True if the file is an index file
+     * @param pageNumber  Page number to write
+     * @param data        Page data, from index 0 to its limit
+     * @throws IOException Failed to write to the file
+     */
+    private void writeToFile(String path, boolean isIndexPage, int pageNumber, ByteBuffer data) throws IOException {
+        this.unsyncedFiles.add(path);
+        if (this.mappedFiles != null) {
+            writeToMap(path, isIndexPage, pageNumber, data);
+            return;
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(path, "rw")) {
             // Write page data
+            long position;
             if (!isIndexPage)
-                raf.seek(Integer.BYTES + (long) page.getPageNumber() * this.pageSize);  // 4 bytes reserved for num pages
+                position = Integer.BYTES + (long) pageNumber * this.pageSize;  // 4 bytes reserved for num pages
             else
-                raf.seek((Integer.BYTES * 2) + (long) page.getPageNumber() * this.pageSize);  // 4 bytes reserved for num pages, 4 bytes for root node number
-            raf.write(page.getData());
+                position = (Integer.BYTES * 2) + (long) pageNumber * this.pageSize;  // 4 bytes reserved for num pages, 4 bytes for root node number
+            ByteBuffer bytes = data.duplicate().position(0);
+            while (bytes.hasRemaining())
+                raf.getChannel().write(bytes, position + bytes.position());
             // Update page count
             raf.seek(0);
-            if (!isIndexPage)
+            if (!isIndexPage) {
                 raf.writeInt((int) ((raf.length() - Integer.BYTES) / this.pageSize));
-            else
-                raf.writeInt((int) ((raf.length() - (Integer.BYTES * 2)) / this.pageSize));
+            } else {
+                // nodes are numbered before they are written, never count below a number already handed out
+                int nodeCount = Math.max(raf.readInt(), (int) ((raf.length() - (Integer.BYTES * 2)) / this.pageSize));
+                raf.seek(0);
+                raf.writeInt(nodeCount);
+            }
         }
     }
 
+    /**
+     * Write page data through the map of a table or index file, growing the file if the page is past its end, and
+     * update the page count of the file
+     *
+     * @param path        Path of the file
+     * @param isIndexPage True if the file is an index file
+     * @param pageNumber  Page number to write
+     * @param data        Page data, from index 0 to its limit
+     * @throws IOException Failed to grow or map the file
+     */
+    private void writeToMap(String path, boolean isIndexPage, int pageNumber, ByteBuffer data) throws IOException {
+        int header = isIndexPage ? Integer.BYTES * 2 : Integer.BYTES;   // 4 bytes reserved for num pages, 4 bytes for root node number
+        long offset = header + (long) pageNumber * this.pageSize;
+        MappedByteBuffer map = this.mappedFiles.map(path, Math.max(header, offset + data.limit()));
+        map.put((int) offset, data, 0, data.limit());
+
+        int pageCount = (map.capacity() - header) / this.pageSize;
+        if (isIndexPage)
+            pageCount = Math.max(map.getInt(0), pageCount);     // nodes are numbered before they are written
+        map.putInt(0, pageCount);
+    }
 
     /**
-     * Read Page binary from Table file from disk to buffer
+     * Write the root node numbers the running statement moved index roots to into their files
+     *
+     * @throws IOException Failed to write to a file
+     */
+    private void writeRoots() throws IOException {
+        for (Map.Entry<String, Integer> root : this.pendingRoots.entrySet()) {
+            this.unsyncedFiles.add(root.getKey());
+            try (RandomAccessFile raf = new RandomAccessFile(root.getKey(), "rw")) {
+                raf.seek(Integer.BYTES);    // Skip the page count int
+                raf.writeInt(root.getValue());
+            }
+        }
+        this.pendingRoots.clear();
+    }
+
+    /**
+     * Force every file written since the files were last forced
+     *
+     * @throws IOException Failed to force a file
+     */
+    private void forceFiles() throws IOException {
+        for (String path : this.unsyncedFiles) {
+            if (this.mappedFiles != null) {
+                this.mappedFiles.force(path);
+                continue;
+            }
+            try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.WRITE)) {
+                channel.force(false);
+            } catch (NoSuchFileException ignored) {
+                // swap files are renamed once written
+            }
+        }
+        this.unsyncedFiles.clear();
+    }
+
+
+    /**
+     * Read Page binary from Table file from disk to buffer. A table page read right after the page before it is
+     * taken as part of a sequential scan, the pages after it that are not buffered yet are read along with it in one
+     * read and handed to the replacement policy as read ahead. Room is made first and the pages are read straight
+     * into the frames that frees
      *
      * @param tableID    Table ID to read from
      * @param pageNumber Page number to get
+     * @return The page read
      */
-    private void readFromDisk(int tableID, int pageNumber, IndexFile indexFile) throws IOException {
+    private Page readFromDisk(int tableID, int pageNumber, IndexFile indexFile) throws IOException {
         DBFile writeFile;
         if (indexFile == null)
             writeFile = new TableFile(this.databaseRoot, tableID);
         else
             writeFile = indexFile;
 
-        byte[] buffer = new byte[this.pageSize];
+        Long spilledLSN = this.spilled.remove(new WriteAheadLog.PageID(indexFile != null, tableID, pageNumber));
+        if (spilledLSN != null)
+            return readFromLog(writeFile, pageNumber, indexFile != null, spilledLSN);
+
+        boolean sequential = indexFile == null && Objects.equals(this.nextSequential.get(tableID), pageNumber);
+        if (this.mappedFiles != null)
+            return readFromMap(writeFile, pageNumber, indexFile != null, sequential);
+
+        int pageCount = sequential ? readAheadCount(tableID, pageNumber) : 1;
+        makeRoom(pageCount);
+        List<ByteBuffer> acquired = new ArrayList<>(pageCount);
+        acquired.add(acquireFrame());
+        ByteBuffer frame;
+        while (acquired.size() < pageCount && (frame = this.frames.acquire()) != null)
+            acquired.add(frame);    // read ahead only into frames that are free
+        pageCount = acquired.size();
+        ByteBuffer[] frames = acquired.toArray(new ByteBuffer[0]);
 
-        // Read page from file
-        try (RandomAccessFile raf = writeFile.toRandomAccessFile()) {
+        // Read pages from file
+        long read = 0;
+        try (RandomAccessFile raf = writeFile.toRandomAccessFile(); FileChannel channel = raf.getChannel()) {
             if (indexFile == null)
-                raf.seek((Integer.BYTES) + (long) pageNumber * this.pageSize);  // 4 bytes reserved for num pages
+                channel.position((Integer.BYTES) + (long) pageNumber * this.pageSize);  // 4 bytes reserved for num pages
             else
-                raf.seek((Integer.BYTES * 2) + (long) pageNumber * this.pageSize);  // 4 bytes reserved for num pages, 4 bytes for root node number
-            raf.read(buffer, 0, this.pageSize);
+                channel.position((Integer.BYTES * 2) + (long) pageNumber * this.pageSize);  // 4 bytes reserved for num pages, 4 bytes for root node number
+            long n;
+            while (read < (long) pageCount * this.pageSize && (n = channel.read(frames)) > 0)
+                read += n;  // a read may stop short of what was asked, keep going until the end of the file
+        }
+
+        // a page past the end of the file starts out empty, not with the frame's last page
+        for (int b = (int) Math.min(read, this.pageSize); b < this.pageSize; b++)
+            frames[0].put(b, (byte) 0);
+
+        List<Page> pages = new ArrayList<>();
+        for (int i = 0; i < pageCount; i++) {
+            if (i > 0 && read < (long) (i + 1) * this.pageSize) {
+                this.frames.release(frames[i]);
+                continue;
+            }
+            Page page = new Page(writeFile, this.pageSize, pageNumber + i, frames[i], indexFile != null);
+            // a page past the end of the file still has to be written
+            if (read >= (long) (i + 1) * this.pageSize)
+                page.markWritten();
+            pages.add(page);
+        }
+
+        if (sequential) {
+            // a scan reads each page once, the replacement policy evicts them before the rest of the buffer unless
+            // they are read again
+            this.buffer.admitReadAhead(pages);
+            this.buffer.touch(pages.getFirst());    // the scan's read of the page it asked for
+        } else {
+            this.buffer.admit(pages.getFirst());
+        }
+        return pages.getFirst();
+    }
+
+    /**
+     * Read a page as a slice of its file's map. The operating system reads ahead on its own, a page of a sequential
+     * scan is still handed to the replacement policy as read ahead so the scan cannot push out the rest of the buffer
+     *
+     * @param writeFile   File of the page
+     * @param pageNumber  Page number to get
+     * @param isIndexPage True if the file is an index file
+     * @param sequential  True if the page is part of a sequential scan
+     * @return The page read
+     * @throws IOException Failed to map the file or evict a page
+     */
+    private Page readFromMap(DBFile writeFile, int pageNumber, boolean isIndexPage, boolean sequential) throws IOException {
+        makeRoom(1);
+        long offset = (isIndexPage ? Integer.BYTES * 2 : Integer.BYTES) + (long) pageNumber * this.pageSize;
+        MappedByteBuffer map = this.mappedFiles.map(writeFile.toString());
+
+        Page page;
+        if (map != null && offset + this.pageSize <= map.capacity()) {
+            page = new Page(writeFile, this.pageSize, pageNumber, map.slice((int) offset, this.pageSize), isIndexPage, this.frames);
+            page.markWritten();
+        } else {
+            // a page cut short by the end of the file keeps what there is of it and still has to be written
+            int length = map == null ? 0 : (int) Math.max(0, map.capacity() - offset);
+            ByteBuffer frame = acquireFrame();
+            if (length > 0)
+                frame.put(0, map, (int) offset, length);
+            for (int b = length; b < this.pageSize; b++)
+                frame.put(b, (byte) 0);
+            page = new Page(writeFile, this.pageSize, pageNumber, frame, isIndexPage);
+        }
+
+        if (sequential) {
+            this.buffer.admitReadAhead(List.of(page));
+            this.buffer.touch(page);    // the scan's read of the page
+        } else {
+            this.buffer.admit(page);
+        }
+        return page;
+    }
+
+    /**
+     * Read back a page the running statement spilled to the log. It still holds changes that are not committed
+     *
+     * @param writeFile   File of the page
+     * @param pageNumber  Page number to get
+     * @param isIndexPage True if the file is an index file
+     * @param lsn         LSN the page was spilled at
+     * @return The page read
+     * @throws IOException Failed to read the log or evict a page
+     */
+    private Page readFromLog(DBFile writeFile, int pageNumber, boolean isIndexPage, long lsn) throws IOException {
+        makeRoom(1);
+        ByteBuffer frame = acquireFrame();
+        this.log.readPage(lsn, frame);
+        Page page = new Page(writeFile, this.pageSize, pageNumber, frame, isIndexPage);
+        this.buffer.admit(page);
+        return page;
+    }
+
+    /**
+     * Take a free frame to read a page into
+     *
+     * @return Frame
+     * @throws IOException Every frame is held by a pinned page
+     */
+    private ByteBuffer acquireFrame() throws IOException {
+        ByteBuffer frame = this.frames.acquire();
+        if (frame == null)
+            throw new IOException("Every page in the buffer is pinned, there is no frame left to read a page into");
+        return frame;
+    }
+
+    /**
+     * Get how many pages a sequential scan reads starting at a table page, never past a page that is already in the
+     * buffer
+     *
+     * @param tableID    Table ID of the page
+     * @param pageNumber Page number of the page
+     * @return Number of pages to read, at least 1
+     */
+    private int readAheadCount(int tableID, int pageNumber) {
+        int limit = Math.min(READ_AHEAD_PAGES, Math.max(1, this.capacity / 4));     // leave room for the rest of the buffer
+        int count = 1;
+        while (count < limit && searchBuffer(tableID, pageNumber + count, false) == null)
+            count++;
+        return count;
+    }
+
+    /**
+     * Evict the page the replacement policy picks, writing it first if it changed. Its frame is free afterwards
+     *
+     * @return True if a page was evicted, false if every page is pinned or holds changes that are not committed
+     * @throws IOException Failed to write the page
+     */
+    private boolean evict() throws IOException {
+        Page toRemove = this.buffer.evict();
+        if (toRemove == null)
+            return false;   // the buffer goes over capacity until pages are unpinned
+        if (toRemove.isDirty())
+            this.evictionWrites++;
+        writeToDisk(toRemove, toRemove.IsIndexPage);
+        releaseFrame(toRemove);
+        return true;
+    }
+
+    /**
+     * Move a page holding changes that are not committed yet out of the buffer and into the log, the one the
+     * replacement policy has held longest. If its last committed data is only in the log the file gets that first, so
+     * a rollback finds it there
+     *
+     * @return True if a page was spilled, false if every page is pinned or already free to be evicted
+     * @throws IOException Failed to write to the log or the file
+     */
+    private boolean spill() throws IOException {
+        for (Page page : this.buffer) {
+            if (page.isPinned() || !page.isUncommitted())
+                continue;
+
+            if (page.isCommittedInLog()) {
+                this.log.forceThrough(page.getPageLSN());
+                this.log.readPage(page.getPageLSN(), this.transfer);
+                writeToFile(page.getWriteFile().toString(), page.IsIndexPage, page.getPageNumber(), this.transfer);
+            }
+            this.spilled.put(new WriteAheadLog.PageID(page), this.log.spillPage(page));
+            this.spillWrites++;
+            this.buffer.remove(page);
+            releaseFrame(page);
+            return true;
         }
+        return false;
+    }
+
+    /**
+     * Write the pages spilled to the log into their files, once the statement that changed them commits or the buffer
+     * is flushed
+     *
+     * @throws IOException Failed to read the log or write to a file
+     */
+    private void writeSpilledPages() throws IOException {
+        for (Map.Entry<WriteAheadLog.PageID, Long> spilledPage : this.spilled.entrySet()) {
+            WriteAheadLog.PageID page = spilledPage.getKey();
+            this.log.forceThrough(spilledPage.getValue());
+            this.log.readPage(spilledPage.getValue(), this.transfer);
+            writeToFile(pathOf(page), page.isIndex(), page.pageNumber(), this.transfer);
+        }
+        this.spilled.clear();
+    }
+
+    /**
+     * @return Path of the table or index file of a page
+     */
+    private String pathOf(WriteAheadLog.PageID page) {
+        String extension = page.isIndex() ? DBFile.INDEX_FILE_EXTENSION : DBFile.DB_FILE_EXTENSION;
+        return "%s/%s.%s".formatted(this.databaseRoot, page.fileID(), extension);
+    }
+
+    /**
+     * Take the frame of a page leaving the buffer and free it, a slice of a map is simply dropped
+     *
+     * @param page Page leaving the buffer
+     */
+    private void releaseFrame(Page page) {
+        this.frames.release(page.detachFrame());
+    }
 
-        writeToBuffer(new Page(writeFile, this.pageSize, pageNumber, buffer, indexFile != null));
+    /**
+     * Evict pages until there is room for more, spilling changes that are not committed yet once nothing else can go
+     *
+     * @param pages Number of pages to make room for
+     * @throws IOException Failed to evict or spill a page
+     */
+    private void makeRoom(int pages) throws IOException {
+        while (this.buffer.size() > this.capacity - pages && (evict() || spill()))
+            ;
     }
 
     /**
@@ -106,69 +476,341 @@ public class PageBuffer {
      *
      * @param page Page to add to buffer
      */
-    public void writeToBuffer(Page page) throws IOException {
+    public synchronized void writeToBuffer(Page page) throws IOException {
 
         // Make room if needed
-        if (this.buffer.size() == this.capacity) {
-            Page toRemove = this.buffer.remove(this.capacity - 1);
-            writeToDisk(toRemove, toRemove.IsIndexPage);
-        }
+        makeRoom(1);
 
-        // Push list
-        this.buffer.addFirst(page);
+        if (!page.hasFrame())
+            page.attachFrame(acquireFrame());
+        this.buffer.admit(page);
     }
 
 
     /**
      * Read page from the Page Buffer
      *
-     * @param tableID          Table ID to read from
-     * @param pageNumber       Page number to read from
-     * @param removeFromBuffer Remove this page from the buffer ( used for splitting pages )
+     * @param tableID    Table ID to read from
+     * @param pageNumber Page number to read from
      * @return Page
      */
-    public Page readFromBuffer(int tableID, int pageNumber, boolean removeFromBuffer, IndexFile indexFile) throws IOException {
+    public synchronized Page readFromBuffer(int tableID, int pageNumber, IndexFile indexFile) throws IOException {
 
         Page page = searchBuffer(tableID, pageNumber, indexFile != null);
 
         // Read page from disk if not in buffer
         // set to first to reduce search time
         if (page == null) {
-            readFromDisk(tableID, pageNumber, indexFile);
-            page = searchBuffer(tableID, pageNumber, indexFile != null);
+            page = readFromDisk(tableID, pageNumber, indexFile);
+            this.diskReads++;
+        } else {
+            this.hits++;
+            this.buffer.touch(page);    // a page read from disk was just admitted, that is its first read
         }
+        if (indexFile == null)
+            this.nextSequential.put(tableID, pageNumber + 1);
 
-        // Push to top of buffer
-        this.buffer.remove(page);
-        if (!removeFromBuffer)
-            this.buffer.addFirst(page);
+        return page;
+    }
 
+    /**
+     * Read a page and pin it, so it stays in the buffer while it is worked on. Every pin has to be matched by an unpin
+     *
+     * @param tableID    Table ID to read from
+     * @param pageNumber Page number to read from
+     * @return Pinned page
+     * @throws IOException Failed to read the page
+     */
+    public synchronized Page pin(int tableID, int pageNumber, IndexFile indexFile) throws IOException {
+        Page page = readFromBuffer(tableID, pageNumber, indexFile);
+        page.pin();
         return page;
     }
 
     /**
-     * Immediately write the first page to hardware ( used for new table )
+     * Release a pin on a page, it can be evicted once nobody holds it
+     *
+     * @param page Pinned page
+     */
+    public synchronized void unpin(Page page) {
+        page.unpin();
+    }
+
+    /**
+     * Drop a page from the buffer without writing it. Used once the page's data was copied to a swap page or a page
+     * with another number, and the page itself no longer belongs to the file
+     *
+     * @param page Page to drop
+     */
+    public synchronized void discard(Page page) {
+        this.buffer.remove(page);
+        releaseFrame(page);
+    }
+
+    /**
+     * @return Number of page reads that found the page in the buffer
+     */
+    public synchronized long getHits() {
+        return this.hits;
+    }
+
+    /**
+     * @return Number of page reads that had to go to disk
+     */
+    public synchronized long getDiskReads() {
+        return this.diskReads;
+    }
+
+    /**
+     * @return Number of evictions that had to write the evicted page first
+     */
+    public synchronized long getEvictionWrites() {
+        return this.evictionWrites;
+    }
+
+    /**
+     * @return Number of pages spilled to the log by statements that changed more pages than the buffer holds
+     */
+    public synchronized long getSpillWrites() {
+        return this.spillWrites;
+    }
+
+    /**
+     * @return Number of pages in the buffer that changed since they were last written
+     */
+    public synchronized int getDirtyPageCount() {
+        int dirty = 0;
+        for (Page page : this.buffer) {
+            if (page.isDirty())
+                dirty++;
+        }
+        return dirty;
+    }
+
+    /**
+     * Switch to another replacement policy. The pages in the buffer move over in the order the current policy would
+     * evict them, so the ones it would keep longest are also the newest to the new policy
+     *
+     * @param policy New replacement policy, empty
+     */
+    public synchronized void setReplacementPolicy(ReplacementPolicy policy) {
+        List<Page> pages = new ArrayList<>(this.buffer.nextVictims(this.buffer.size()));
+        for (Page page : this.buffer) {
+            if (!page.isEvictable())
+                pages.add(page);    // not a victim now, but still in the buffer
+        }
+        for (Page page : pages)
+            policy.admit(page);
+        this.buffer = policy;
+    }
+
+    /**
+     * Start writing pages next in line for eviction in the background. Does nothing if the writer is already running
+     *
+     * @param cleanFrames   Number of pages next in line for eviction to keep clean
+     * @param pagesPerRound Max number of pages to write in a round
+     * @param roundMillis   Milliseconds to wait between rounds
+     */
+    public synchronized void startWriter(int cleanFrames, int pagesPerRound, long roundMillis) {
+        if (this.writer != null)
+            return;
+        this.writer = new PageWriter(this, cleanFrames, pagesPerRound, roundMillis);
+        this.writer.start();
+    }
+
+    /**
+     * Stop the background writer, pages it did not get to stay dirty in the buffer
+     */
+    public void stopWriter() {
+        PageWriter stopping;
+        synchronized (this) {
+            stopping = this.writer;
+            this.writer = null;
+        }
+        // not holding the buffer, the writer may be waiting on it to finish its page
+        if (stopping != null)
+            stopping.shutdown();
+    }
+
+    /**
+     * Write the dirty page closest to eviction. Only pages whose current data is already in the log are written, so a
+     * page the running statement is changing is left alone and a torn statement never reaches the files through the
+     * writer
+     *
+     * @param frames Number of pages next in line for eviction to look at
+     * @return True if a page was written, false if those pages are already clean
+     * @throws IOException Failed to write the page
+     */
+    synchronized boolean writeTailPage(int frames) throws IOException {
+        for (Page page : this.buffer.nextVictims(frames)) {
+            // the running statement changes pages without holding the buffer, hold the page while it is checked and written
+            synchronized (page) {
+                if (page.isDirty() && page.isLogged() && !page.getWriteFile().isSwap()) {
+                    writeToDisk(page, page.IsIndexPage);
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Add a page to the end of a table file. The file immediately grows by an empty page so its page count includes
+     * it, the data stays in the buffer until the statement commits
      *  todo remove or move?
      *
      * @param writeFile  File to write the page to
      * @param pageNumber Page number
-     * @param data       binary data of page
+     * @param records    Records of the page
+     * @param attributes Table attributes
      * @throws IOException Failed to write to file
      */
-    public void fullWrite(TableFile writeFile, int pageNumber, byte[] data) throws IOException {
-        Page page = new Page(writeFile, this.pageSize, pageNumber, data, false);
+    public synchronized void fullWrite(TableFile writeFile, int pageNumber, List<List<DataType>> records, List<Attribute> attributes) throws IOException {
+        Page page = new Page(writeFile, this.pageSize, pageNumber, new byte[0], false);
         writeToBuffer(page);
-        writeToDisk(page, page.IsIndexPage);
+        writeToDisk(page, page.IsIndexPage);    // an empty page holds no records if the statement is rolled back
+        page.setRecords(records, attributes);
+    }
+
+    /**
+     * Move the root of an index to another node. The file gets the new root node number once the statement commits
+     *
+     * @param indexFile Index file
+     * @param rootNum   Page number of the new root node
+     */
+    public synchronized void setRootNumber(IndexFile indexFile, int rootNum) {
+        this.pendingRoots.put(indexFile.toString(), rootNum);
+    }
+
+    /**
+     * Get the root node number the running statement moved an index root to
+     *
+     * @param indexFile Index file
+     * @return Page number of the root node, null if the root node in the file is still the root
+     */
+    public synchronized Integer getRootNumber(IndexFile indexFile) {
+        return this.pendingRoots.get(indexFile.toString());
     }
 
     /**
-     * Pop and write each entry in the buffer to file
+     * Pop and write each entry in the buffer to file, pinned pages are written but stay. Once the files are forced
+     * nothing in the log is needed anymore, so it is emptied
      */
-    public void flush() throws IOException {
-        while (!this.buffer.isEmpty()) {
-            Page toRemove = this.buffer.removeFirst();
+    public synchronized void flush() throws IOException {
+        writeRoots();
+        List<Page> pages = new ArrayList<>(this.buffer.size());
+        this.buffer.forEach(pages::add);
+        for (Page toRemove : pages) {
             writeToDisk(toRemove, toRemove.IsIndexPage);
+            if (!toRemove.isPinned()) {
+                this.buffer.remove(toRemove);
+                releaseFrame(toRemove);
+            }
+        }
+        writeSpilledPages();
+
+        forceFiles();
+        this.log.truncate();
+    }
+
+    /**
+     * Log every table and index page changed since the last commit and commit them. The pages stay in the buffer as
+     * long as it has room for them, now free to be evicted. An index root the statement moved is written to its file
+     * once the log holding the new root node is forced
+     *
+     * @throws IOException Failed to write to the log
+     */
+    public synchronized void commit() throws IOException {
+        for (Page page : this.buffer) {
+            if (page.isUncommitted())
+                this.log.logPage(page);
+        }
+        this.log.commit();
+        writeSpilledPages();
+        if (!this.pendingRoots.isEmpty()) {
+            this.log.sync();
+            writeRoots();
+        }
+
+        if (this.log.needsCheckpoint())
+            checkpoint();
+        makeRoom(0);    // the buffer went over capacity if the statement changed more pages than it holds
+    }
+
+    /**
+     * Undo the changes of a statement that failed. Each page it changed goes back to its committed data, read back from
+     * the log if it is not in the file yet and from the file again otherwise, and the swap pages it left are dropped.
+     * Index roots it moved stay where they were, the pages it spilled are marked aborted in the log
+     *
+     * @throws IOException Failed to write to the log
+     */
+    public synchronized void rollback() throws IOException {
+        List<Page> pages = new ArrayList<>(this.buffer.size());
+        this.buffer.forEach(pages::add);
+        for (Page page : pages) {
+            if (!page.isChanged())
+                continue;
+            if (page.isCommittedInLog())
+                page.rollback(this.log);
+            else
+                discard(page);
+        }
+        this.pendingRoots.clear();
+
+        if (!this.spilled.isEmpty()) {
+            this.spilled.clear();
+            this.log.abort();
+        }
+    }
+
+    /**
+     * Take a fuzzy checkpoint. Only pages that stayed changed since the previous checkpoint are written, the rest stay
+     * in the buffer and are listed in the checkpoint instead, so recovery never replays more than about two
+     * checkpoint intervals of log
+     *
+     * @throws IOException Failed to write a page or the log
+     */
+    private void checkpoint() throws IOException {
+        long previous = this.log.getCheckpointLSN();
+        for (Page page : this.buffer) {
+            if (page.isDirty() && page.getRecLSN() >= 0 && page.getRecLSN() < previous)
+                writeToDisk(page, page.IsIndexPage);
         }
+        forceFiles();
+
+        Map<WriteAheadLog.PageID, Long> dirtyPages = new HashMap<>();
+        for (Page page : this.buffer) {
+            if (page.getRecLSN() >= 0)
+                dirtyPages.put(new WriteAheadLog.PageID(page), page.getRecLSN());
+        }
+        this.log.checkpoint(dirtyPages);
+    }
+
+    /**
+     * Write back the committed pages a crash left only in the log, then empty the log. Must be done before anything
+     * is read from the database
+     *
+     * @return Number of pages written back
+     * @throws IOException Failed to read the log or write a page
+     */
+    public synchronized int recover() throws IOException {
+        Map<WriteAheadLog.PageID, byte[]> images = this.log.readRedoImages();
+        for (Map.Entry<WriteAheadLog.PageID, byte[]> image : images.entrySet()) {
+            WriteAheadLog.PageID page = image.getKey();
+            writeToFile(pathOf(page), page.isIndex(), page.pageNumber(), ByteBuffer.wrap(image.getValue()));
+        }
+        forceFiles();
+        this.log.truncate();
+        return images.size();
+    }
+
+    /**
+     * Force every commit to the device
+     *
+     * @throws IOException Failed to force the log
+     */
+    public synchronized void sync() throws IOException {
+        this.log.sync();
     }
 
 }
@@ -0,0 +1,93 @@
+package sm;
+
+import util.Console;
+
+import java.io.IOException;
+
+/**
+ * <b>File:</b> PageWriter.java
+ * <p>
+ * <b>Description:</b> Background thread that writes changed pages next in line for eviction to disk before
+ * they are evicted, so a statement that needs a frame finds a clean one instead of paying for someone else's write.
+ * Writes are rate limited: each round writes at most a set number of pages, one at a time, and rounds are spaced out.
+ * The writer is stopped by a flag it checks between pages, never interrupted, so a write in progress is not cut short
+ *
+ * @author Derek Garcia
+ */
+class PageWriter extends Thread {
+
+    static final int PAGES_PER_ROUND = 8;
+    static final long ROUND_MILLIS = 20;
+
+    private final PageBuffer buffer;
+    private final int cleanFrames;
+    private final int pagesPerRound;
+    private final long roundMillis;
+    private final Object stop = new Object();      // waited on between rounds, notified to stop early
+    private volatile boolean running = true;
+
+    /**
+     * Create a new page writer, it is not started
+     *
+     * @param buffer        Page buffer to write the pages of
+     * @param cleanFrames   Number of pages next in line for eviction to keep clean
+     * @param pagesPerRound Max number of pages to write in a round
+     * @param roundMillis   Milliseconds to wait between rounds
+     */
+    PageWriter(PageBuffer buffer, int cleanFrames, int pagesPerRound, long roundMillis) {
+        super("page-writer");
+        setDaemon(true);    // never keeps the database open, a clean shutdown flushes the buffer anyway
+        this.buffer = buffer;
+        this.cleanFrames = cleanFrames;
+        this.pagesPerRound = pagesPerRound;
+        this.roundMillis = roundMillis;
+    }
+
+    @Override
+    public void run() {
+        while (this.running) {
+            try {
+                for (int written = 0; written < this.pagesPerRound && this.running; written++) {
+                    if (!this.buffer.writeTailPage(this.cleanFrames))
+                        break;      // tail is clean
+                }
+            } catch (IOException ioe) {
+                // the page stays dirty, eviction or the next flush writes it instead
+                if (this.running)
+                    Console.err("Background page write failed: " + ioe.getMessage());
+            }
+
+            synchronized (this.stop) {
+                long until = System.currentTimeMillis() + this.roundMillis;
+                long left;
+                while (this.running && (left = until - System.currentTimeMillis()) > 0) {
+                    try {
+                        this.stop.wait(left);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Stop the writer and wait for the page it is writing, if any
+     */
+    void shutdown() {
+        synchronized (this.stop) {
+            this.running = false;
+            this.stop.notifyAll();
+        }
+        boolean interrupted = false;
+        while (isAlive()) {
+            try {
+                join();
+            } catch (InterruptedException e) {
+                interrupted = true;     // keep waiting, the writer must not outlive the buffer's files
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+    }
+}
@@ -0,0 +1,63 @@
+package sm;
+
+import java.util.List;
+
+/**
+ * <b>File:</b> ReplacementPolicy.java
+ * <p>
+ * <b>Description:</b> Decides which page the page buffer evicts when it needs a free frame. The policy holds every
+ * page in the buffer, the buffer tells it when pages come in, are read again or leave. A pinned page is being worked
+ * on and is never chosen, neither is a page holding changes that are not committed yet
+ *
+ * @author Derek Garcia
+ */
+public interface ReplacementPolicy extends Iterable<Page> {
+
+    /**
+     * Add a page read on demand or created in the buffer
+     *
+     * @param page Page to add
+     */
+    void admit(Page page);
+
+    /**
+     * Add pages read ahead of a sequential scan. The scan reads each of them once, in order
+     *
+     * @param pages Pages in the order the scan reads them
+     */
+    void admitReadAhead(List<Page> pages);
+
+    /**
+     * Record a read of a page in the policy
+     *
+     * @param page Page that was read
+     */
+    void touch(Page page);
+
+    /**
+     * Take a page out of the policy without evicting it
+     *
+     * @param page Page to remove
+     */
+    void remove(Page page);
+
+    /**
+     * Choose an evictable page to evict and take it out of the policy
+     *
+     * @return Page to evict, null if no page is evictable
+     */
+    Page evict();
+
+    /**
+     * Get the evictable pages the policy would evict next, without taking them out
+     *
+     * @param count Max number of pages to get
+     * @return Pages in the order they would be evicted
+     */
+    List<Page> nextVictims(int count);
+
+    /**
+     * @return Number of pages held
+     */
+    int size();
+}
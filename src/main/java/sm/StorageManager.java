@@ -2,15 +2,23 @@ package sm;
 
 
 import catalog.Attribute;
+import catalog.TableStatistics;
 import cli.cmd.exception.ExecutionFailure;
 import dataTypes.DataType;
 import util.BPlusTree.RecordPointer;
 import util.where.WhereTree;
 
 import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
 /**
  * <b>File:</b> StorageManager.java
@@ -34,6 +42,8 @@ public class StorageManager {
     private final int bufferSize;
     private final String databaseRoot;
     private final boolean isIndexed;
+    private final Map<Integer, TableStatistics> statistics = new HashMap<>();
+    private final Map<Integer, TableStatistics> statisticsBefore = new HashMap<>();     // table ID to its statistics before the running statement
 
 
     /**
@@ -45,7 +55,21 @@ public class StorageManager {
      * @param isIndexed    Boolean whether to use an index or not
      */
     public StorageManager(int bufferSize, int pageSize, String databasePath, boolean isIndexed) {
-        this.buffer = new PageBuffer(bufferSize, pageSize, databasePath);
+        this(bufferSize, pageSize, databasePath, isIndexed, false);
+    }
+
+    /**
+     * Create a new Storage Manager with a page buffer, optionally reading and writing the table and index files
+     * through memory maps so the operating system's page cache holds them
+     *
+     * @param bufferSize   Max buffer size in number of pages
+     * @param pageSize     Max page size in number of records
+     * @param databasePath Path to database directory
+     * @param isIndexed    Boolean whether to use an index or not
+     * @param memoryMapped Boolean whether to memory-map the table and index files
+     */
+    public StorageManager(int bufferSize, int pageSize, String databasePath, boolean isIndexed, boolean memoryMapped) {
+        this.buffer = new PageBuffer(bufferSize, pageSize, databasePath, memoryMapped);
         this.pageSize = pageSize;
         this.bufferSize = bufferSize;
         this.databaseRoot = databasePath;
@@ -86,34 +110,34 @@ public class StorageManager {
         if (pageCount == 0) {
             List<List<DataType>> records = new ArrayList<>();
             records.add(record);
-            this.buffer.fullWrite(tf, 0, BInterpreter.convertRecordsToPage(records));
+            this.buffer.fullWrite(tf, 0, records, attributes);
+            getStatistics(tf.getTableID()).pageAdded();
             return new RecordPointer(0, 0);
         }
 
         // Iterate through all pages and attempt to insert the record
         for (int pageNumber = 0; pageNumber < pageCount; pageNumber++) {
-            // read page from buffer and attempt to insert
-            Page page = this.buffer.readFromBuffer(tf.getTableID(), pageNumber, false, null);
-            recordPointer = page.insertRecord(pki, attributes, record);
-
-            // Record added, split if needed
-            if (recordPointer != null && page.isOverfull()) {
-                page = this.buffer.readFromBuffer(tf.getTableID(), pageNumber, true, null);
-                recordPointer = tf.splitPage(this.buffer, pageNumber, attributes, page, record);
-            }
+            // read page from buffer and attempt to insert, pinned so a split works on this copy
+            Page page = this.buffer.pin(tf.getTableID(), pageNumber, null);
+            try {
+                recordPointer = page.insertRecord(pki, attributes, record);
 
-            // Record added, return pointer
-            if (recordPointer != null)
-                break;
+                // Reach end of pages and not inserted, append to end
+                if (recordPointer == null && pageNumber == pageCount - 1)
+                    recordPointer = page.appendRecord(attributes, record);
 
-            // Reach end of pages and not inserted, append to end and split if needed
-            if (pageNumber == pageCount - 1) {
-                recordPointer = page.appendRecord(attributes, record);
-                if (page.isOverfull()) {
-                    page = this.buffer.readFromBuffer(tf.getTableID(), pageNumber, true, null);
+                // Record added, split if needed
+                if (recordPointer != null && page.isOverfull()) {
                     recordPointer = tf.splitPage(this.buffer, pageNumber, attributes, page, record);
+                    getStatistics(tf.getTableID()).pageAdded();
                 }
+            } finally {
+                this.buffer.unpin(page);
             }
+
+            // Record added, return pointer
+            if (recordPointer != null)
+                break;
         }
 
         return recordPointer;
@@ -124,12 +148,13 @@ public class StorageManager {
      * Internal insert record method that returns a pointer to a record for B+ Trees
      *
      * @param tf         Table file to insert into
+     * @param idxF       Index of the table file
      * @param attributes Constraints of data types
      * @param record     record contents
      * @return Record pointer to the page and index of the newly inserted record
      * @throws IOException Failed to read or write to file
      */
-    private RecordPointer insertIndexedRecord(TableFile tf, List<Attribute> attributes, List<DataType> record) throws IOException {
+    private RecordPointer insertIndexedRecord(TableFile tf, IndexFile idxF, List<Attribute> attributes, List<DataType> record) throws IOException {
         int pageCount = tf.readPageCount();
         RecordPointer recordPointer;
 
@@ -137,16 +162,34 @@ public class StorageManager {
         if (pageCount == 0) {
             List<List<DataType>> records = new ArrayList<>();
             records.add(record);
-            this.buffer.fullWrite(tf, 0, BInterpreter.convertRecordsToPage(records));
+            this.buffer.fullWrite(tf, 0, records, attributes);
+            getStatistics(tf.getTableID()).pageAdded();
             return new RecordPointer(0, 0);
         }
 
-        Page page = this.buffer.readFromBuffer(tf.getTableID(), pageCount - 1, false, null);
+        Page page = this.buffer.pin(tf.getTableID(), pageCount - 1, null);
+        boolean split;
+        try {
+            recordPointer = page.appendRecord(attributes, record);
+            split = page.isOverfull();
+            if (split)
+                recordPointer = tf.splitPage(this.buffer, pageCount - 1, attributes, page, record);
+        } finally {
+            this.buffer.unpin(page);
+        }
+
+        if (split) {
+            getStatistics(tf.getTableID()).pageAdded();
 
-        recordPointer = page.appendRecord(attributes, record);
-        if (page.isOverfull()) {
-            page = this.buffer.readFromBuffer(tf.getTableID(), pageCount - 1, true, null);
-            recordPointer = tf.splitPage(this.buffer, pageCount - 1, attributes, page, record);
+            // the upper half of the last page moved to a new page, repoint the records that moved
+            int pki = getPrimaryKeyIndex(attributes);
+            Page newPage = this.buffer.readFromBuffer(tf.getTableID(), pageCount, null);
+            List<List<DataType>> movedRecords = BInterpreter.convertPageToRecords(newPage.getBuffer(), attributes);
+            for (int i = 0; i < movedRecords.size(); i++) {
+                DataType pk = movedRecords.get(i).get(pki);
+                if (pk.compareTo(record.get(pki)) != 0)     // new record is not in the index yet
+                    idxF.updatePointer(pk, new RecordPointer(pageCount, i));
+            }
         }
 
         return recordPointer;
@@ -177,15 +220,452 @@ public class StorageManager {
             if (idxF.search(pk) != null)
                 throw new ExecutionFailure("Duplicate primary key '%s'".formatted(pk.stringValue()));
 
-            RecordPointer rp = insertIndexedRecord(tf, attributes, record);
+            RecordPointer rp = insertIndexedRecord(tf, idxF, attributes, record);
             idxF.insertPointer(pk, rp);
+        } else {
+            insertRecord(tf, attributes, record);
+        }
+
+        getStatistics(tableID).recordInserted(BInterpreter.getRecordSize(record));
+
+    }
+
+
+    /**
+     * Insert many records into a table file at once. The records are sorted by primary key and routed to their pages
+     * together, so every page is decoded and written once no matter how many of the records land on it, and index
+     * entries are added in key order
+     *
+     * @param tableID    ID of table file
+     * @param attributes Constraints of data types
+     * @param records    records to insert, in any order
+     * @throws IOException      failed to write to file
+     * @throws ExecutionFailure a primary key is repeated in the records or already in the table
+     */
+    public void insertRecords(int tableID, List<Attribute> attributes, List<List<DataType>> records) throws IOException, ExecutionFailure {
+        if (records.isEmpty())
             return;
+
+        int pki = getPrimaryKeyIndex(attributes);
+        List<List<DataType>> sorted = new ArrayList<>(records);
+        sorted.sort((r1, r2) -> r2.get(pki).compareTo(r1.get(pki)));     // compareTo is reversed, this is ascending
+
+        for (int i = 1; i < sorted.size(); i++) {
+            if (sorted.get(i).get(pki).compareTo(sorted.get(i - 1).get(pki)) == 0)
+                throw new ExecutionFailure("Duplicate primary key '%s'".formatted(sorted.get(i).get(pki).stringValue()));
         }
 
-        insertRecord(tf, attributes, record);
+        TableFile tf = new TableFile(this.databaseRoot, tableID);
+        if (this.isIndexed)
+            appendIndexedRecords(tf, attributes, sorted);
+        else
+            mergeSortedRecords(tf, attributes, sorted);
+    }
+
+    /**
+     * Append sorted records to the end of an indexed table file, filling the last page before adding new ones, then
+     * add their index entries in key order
+     *
+     * @param tf         Table file to insert into
+     * @param attributes Constraints of data types
+     * @param sorted     records to insert in ascending primary key order
+     * @throws IOException      Failed to read or write to file
+     * @throws ExecutionFailure A primary key is already in the table
+     */
+    private void appendIndexedRecords(TableFile tf, List<Attribute> attributes, List<List<DataType>> sorted) throws IOException, ExecutionFailure {
+        int pki = getPrimaryKeyIndex(attributes);
+        IndexFile idxF = tf.getIndex(buffer, attributes.get(pki), pageSize);
+
+        // check every key before anything is written
+        for (List<DataType> record : sorted) {
+            if (idxF.search(record.get(pki)) != null)
+                throw new ExecutionFailure("Duplicate primary key '%s'".formatted(record.get(pki).stringValue()));
+        }
+
+        int pageCount = tf.readPageCount();
+        int pageNumber = Math.max(0, pageCount - 1);
+        List<List<DataType>> pageRecords = pageCount == 0
+                ? new ArrayList<>()
+                : BInterpreter.convertPageToRecords(this.buffer.readFromBuffer(tf.getTableID(), pageNumber, null).getBuffer(), attributes);
+        int pageBytes = BInterpreter.getPageHeaderSize(attributes) + pageRecords.stream().mapToInt(BInterpreter::getRecordSize).sum();
+
+        double insertedBytes = 0;
+        List<RecordPointer> pointers = new ArrayList<>(sorted.size());
+        for (List<DataType> record : sorted) {
+            int recordSize = BInterpreter.getRecordSize(record);
+
+            // page is full, write it and start the next one
+            if (!pageRecords.isEmpty() && pageBytes + recordSize > this.pageSize) {
+                writeAppendedPage(tf, attributes, pageNumber, pageCount, pageRecords);
+                pageNumber++;
+                pageRecords = new ArrayList<>();
+                pageBytes = BInterpreter.getPageHeaderSize(attributes);
+            }
+
+            pointers.add(new RecordPointer(pageNumber, pageRecords.size()));
+            pageRecords.add(record);
+            pageBytes += recordSize;
+            insertedBytes += recordSize;
+        }
+        writeAppendedPage(tf, attributes, pageNumber, pageCount, pageRecords);
+
+        for (int i = 0; i < sorted.size(); i++)
+            idxF.insertPointer(sorted.get(i).get(pki), pointers.get(i));
 
+        TableStatistics stats = getStatistics(tf.getTableID());
+        stats.recordsInserted(sorted.size(), insertedBytes);
+        stats.pagesAdded(pageNumber + 1 - pageCount);
     }
 
+    /**
+     * Write a page filled by {@link #appendIndexedRecords}. The existing last page is updated in the buffer, new
+     * pages are written through so the page count in the file stays correct. The caller counts the pages it added
+     *
+     * @param tf          Table file to write to
+     * @param attributes  Constraints of data types
+     * @param pageNumber  Page to write
+     * @param pageCount   Number of pages the file had before the insert
+     * @param pageRecords Records of the page
+     * @throws IOException Failed to write to file
+     */
+    private void writeAppendedPage(TableFile tf, List<Attribute> attributes, int pageNumber, int pageCount, List<List<DataType>> pageRecords) throws IOException {
+        if (pageNumber < pageCount) {
+            this.buffer.readFromBuffer(tf.getTableID(), pageNumber, null).setRecords(pageRecords, attributes);
+        } else {
+            this.buffer.fullWrite(tf, pageNumber, pageRecords, attributes);
+        }
+    }
+
+    /**
+     * Merge sorted records into a table file kept in primary key order. Each record goes to the first page holding a
+     * larger key, or the last page if there is none, which is where a single insert would put it. Pages that still fit
+     * are rewritten in place. Once a page overflows the rest of the file is streamed to the swap file, with the
+     * overflowing pages cut into as many full pages as needed, so the file is rebuilt once instead of once per split.
+     * A page that changed since it was written stays in the buffer until the swap file replaces the file, so a failed
+     * insert leaves the file as it was
+     *
+     * @param tf         Table file to insert into
+     * @param attributes Constraints of data types
+     * @param sorted     records to insert in ascending primary key order
+     * @throws IOException      Failed to read or write to file
+     * @throws ExecutionFailure A primary key is already in the table, the swap file is dropped and the pages changed
+     *                          before it are left for the statement to roll back
+     */
+    private void mergeSortedRecords(TableFile tf, List<Attribute> attributes, List<List<DataType>> sorted) throws IOException, ExecutionFailure {
+        int tableID = tf.getTableID();
+        int pki = getPrimaryKeyIndex(attributes);
+        int pageCount = tf.readPageCount();
+
+        TableFile swapFile = null;     // set once pages no longer fit in place
+        int swapPageNumber = 0;
+        int addedPages = 0;
+        int next = 0;
+
+        if (pageCount == 0)
+            swapFile = tf.getSwapFile();
+
+        for (int pageNumber = 0; pageNumber < Math.max(pageCount, 1); pageNumber++) {
+            if (swapFile == null && next == sorted.size())
+                break;      // nothing left to insert and nothing to move
+
+            boolean lastPage = pageNumber >= pageCount - 1;
+            Page page = pageCount == 0 ? null : this.buffer.readFromBuffer(tableID, pageNumber, null);
+            List<List<DataType>> stored = page == null ? new ArrayList<>() : BInterpreter.convertPageToRecords(page.getBuffer(), attributes);
+            byte[] data = page == null || swapFile == null ? null : page.getData();
+            if (page != null && swapFile != null && !page.isDirty())
+                this.buffer.discard(page);      // copied to the swap file below
+
+            // take the records that belong up to the largest key of this page, a key equal to it is a duplicate here
+            int end = next;
+            DataType largest = stored.isEmpty() ? null : stored.getLast().get(pki);
+            while (end < sorted.size() && (lastPage || (largest != null && sorted.get(end).get(pki).compareTo(largest) >= 0)))
+                end++;
+
+            List<List<DataType>> merged = stored;
+            if (end > next) {
+                try {
+                    merged = mergeRecords(stored, sorted.subList(next, end), pki);
+                } catch (ExecutionFailure ef) {
+                    if (swapFile != null)
+                        swapFile.delete();      // the file is never replaced, its swap pages go with the rollback
+                    throw ef;
+                }
+            }
+            next = end;
+
+            // untouched pages are copied as they are
+            if (swapFile != null && merged == stored && page != null) {
+                this.buffer.writeToBuffer(new SwapPage(swapFile, this.pageSize, swapPageNumber++, data));
+                continue;
+            }
+
+            List<List<List<DataType>>> chunks = splitIntoPages(attributes, merged);
+
+            // first page that doesn't fit, move everything before it to the swap file
+            if (swapFile == null && chunks.size() > 1) {
+                swapFile = tf.getSwapFile();
+                for (int before = 0; before < pageNumber; before++) {
+                    Page moved = this.buffer.readFromBuffer(tableID, before, null);
+                    SwapPage swapPage = moved.getSwapPage(0);
+                    if (!moved.isDirty())
+                        this.buffer.discard(moved);
+                    this.buffer.writeToBuffer(swapPage);
+                }
+                if (!page.isDirty())
+                    this.buffer.discard(page);      // drop the stale copy of this page
+                swapPageNumber = pageNumber;
+            }
+
+            if (swapFile == null) {
+                if (merged != stored)
+                    page.setRecords(merged, attributes);
+                continue;
+            }
+
+            for (List<List<DataType>> chunk : chunks)
+                this.buffer.writeToBuffer(new SwapPage(swapFile, this.pageSize, swapPageNumber++, BInterpreter.convertRecordsToPage(chunk, attributes)));
+            addedPages += pageCount == 0 ? chunks.size() : chunks.size() - 1;
+        }
+
+        if (swapFile != null) {
+            this.buffer.flush();
+            tf.closeSwapFile();
+        }
+
+        // counted once every page is merged, a duplicate on a later page stops the insert before it
+        TableStatistics stats = getStatistics(tableID);
+        stats.recordsInserted(sorted.size(), sorted.stream().mapToInt(BInterpreter::getRecordSize).sum());
+        stats.pagesAdded(addedPages);
+    }
+
+    /**
+     * Merge two lists of records sorted by primary key
+     *
+     * @param stored   Records already in the page
+     * @param inserted Records to add
+     * @param pki      Index of the primary key
+     * @return Records of both lists in primary key order
+     * @throws ExecutionFailure A record to add has the same key as a stored one
+     */
+    private static List<List<DataType>> mergeRecords(List<List<DataType>> stored, List<List<DataType>> inserted, int pki) throws ExecutionFailure {
+        List<List<DataType>> merged = new ArrayList<>(stored.size() + inserted.size());
+        int i = 0;
+        int j = 0;
+        while (i < stored.size() || j < inserted.size()) {
+            if (j == inserted.size()) {
+                merged.add(stored.get(i++));
+                continue;
+            }
+            if (i == stored.size()) {
+                merged.add(inserted.get(j++));
+                continue;
+            }
+
+            int order = inserted.get(j).get(pki).compareTo(stored.get(i).get(pki));
+            if (order == 0)
+                throw new ExecutionFailure("Duplicate primary key '%s'".formatted(inserted.get(j).get(pki).stringValue()));
+            merged.add(order > 0 ? inserted.get(j++) : stored.get(i++));     // > 0 means inserted is less than stored
+        }
+        return merged;
+    }
+
+    /**
+     * Cut records into groups that each fit in a page
+     *
+     * @param attributes Constraints of data types
+     * @param records    Records in page order
+     * @return Records of each page, at least one page even if there are no records
+     */
+    private List<List<List<DataType>>> splitIntoPages(List<Attribute> attributes, List<List<DataType>> records) {
+        List<List<List<DataType>>> pages = new ArrayList<>();
+        List<List<DataType>> page = new ArrayList<>();
+        int pageBytes = BInterpreter.getPageHeaderSize(attributes);
+        for (List<DataType> record : records) {
+            int recordSize = BInterpreter.getRecordSize(record);
+            if (!page.isEmpty() && pageBytes + recordSize > this.pageSize) {
+                pages.add(page);
+                page = new ArrayList<>();
+                pageBytes = BInterpreter.getPageHeaderSize(attributes);
+            }
+            page.add(record);
+            pageBytes += recordSize;
+        }
+        pages.add(page);
+        return pages;
+    }
+
+    /**
+     * Load records that are already sorted by primary key, taking them one at a time so any number of records can be
+     * loaded in the same amount of memory. Pages are filled completely and written in order. If a primary key is
+     * repeated the load stops there, what it changed is left for the statement to roll back
+     *
+     * @param tableID    ID of table file
+     * @param attributes Constraints of data types
+     * @param sorted     records to load in ascending primary key order
+     * @return Number of records loaded
+     * @throws IOException      failed to read or write to file
+     * @throws ExecutionFailure a primary key is repeated in the records or already in the table
+     */
+    public int loadSortedRecords(int tableID, List<Attribute> attributes, Iterator<List<DataType>> sorted) throws IOException, ExecutionFailure {
+        if (!sorted.hasNext())
+            return 0;
+
+        TableFile tf = new TableFile(this.databaseRoot, tableID);
+        return this.isIndexed
+                ? loadIndexedRecords(tf, attributes, sorted)
+                : loadOrderedRecords(tf, attributes, sorted);
+    }
+
+    /**
+     * Append sorted records to the end of an indexed table file. An empty index is built bottom up as the records are
+     * placed, otherwise each key is checked and inserted in order
+     *
+     * @param tf         Table file to load into
+     * @param attributes Constraints of data types
+     * @param sorted     records to load in ascending primary key order
+     * @return Number of records loaded
+     * @throws IOException      Failed to read or write to file
+     * @throws ExecutionFailure A primary key is repeated in the records or already in the table
+     */
+    private int loadIndexedRecords(TableFile tf, List<Attribute> attributes, Iterator<List<DataType>> sorted) throws IOException, ExecutionFailure {
+        int pki = getPrimaryKeyIndex(attributes);
+        IndexFile idxF = tf.getIndex(buffer, attributes.get(pki), pageSize);
+        IndexFile.BulkLoad bulkLoad = idxF.isEmpty() ? idxF.bulkLoad() : null;
+
+        int pageCount = tf.readPageCount();
+        int pageNumber = Math.max(0, pageCount - 1);
+        List<List<DataType>> pageRecords = pageCount == 0
+                ? new ArrayList<>()
+                : BInterpreter.convertPageToRecords(this.buffer.readFromBuffer(tf.getTableID(), pageNumber, null).getBuffer(), attributes);
+        int pageBytes = BInterpreter.getPageHeaderSize(attributes) + pageRecords.stream().mapToInt(BInterpreter::getRecordSize).sum();
+
+        int loaded = 0;
+        double loadedBytes = 0;
+        DataType previous = null;
+        while (sorted.hasNext()) {
+            List<DataType> record = sorted.next();
+            DataType pk = record.get(pki);
+            if ((previous != null && pk.compareTo(previous) == 0) || (bulkLoad == null && idxF.search(pk) != null))
+                throw new ExecutionFailure("Duplicate primary key '%s'".formatted(pk.stringValue()));
+            previous = pk;
+
+            // page is full, write it and start the next one
+            int recordSize = BInterpreter.getRecordSize(record);
+            if (!pageRecords.isEmpty() && pageBytes + recordSize > this.pageSize) {
+                writeAppendedPage(tf, attributes, pageNumber, pageCount, pageRecords);
+                pageNumber++;
+                pageRecords = new ArrayList<>();
+                pageBytes = BInterpreter.getPageHeaderSize(attributes);
+            }
+
+            RecordPointer pointer = new RecordPointer(pageNumber, pageRecords.size());
+            pageRecords.add(record);
+            pageBytes += recordSize;
+            loadedBytes += recordSize;
+            loaded++;
+
+            if (bulkLoad != null)
+                bulkLoad.add(pk, pointer);
+            else
+                idxF.insertPointer(pk, pointer);
+        }
+
+        if (loaded == 0)
+            return 0;
+        writeAppendedPage(tf, attributes, pageNumber, pageCount, pageRecords);
+        if (bulkLoad != null)
+            bulkLoad.finish();
+
+        // counted once every record is in, a duplicate stops the load before it
+        TableStatistics stats = getStatistics(tf.getTableID());
+        stats.recordsInserted(loaded, loadedBytes);
+        stats.pagesAdded(pageNumber + 1 - pageCount);
+        return loaded;
+    }
+
+    /**
+     * Merge sorted records with a table file kept in primary key order. Both are read in order and written to the swap
+     * file as full pages, so the file is rebuilt in one pass. A page that changed since it was written stays in the
+     * buffer until the swap file replaces the file, so a failed load leaves the file as it was
+     *
+     * @param tf         Table file to load into
+     * @param attributes Constraints of data types
+     * @param sorted     records to load in ascending primary key order
+     * @return Number of records loaded
+     * @throws IOException      Failed to read or write to file
+     * @throws ExecutionFailure A primary key is repeated in the records or already in the table
+     */
+    private int loadOrderedRecords(TableFile tf, List<Attribute> attributes, Iterator<List<DataType>> sorted) throws IOException, ExecutionFailure {
+        int tableID = tf.getTableID();
+        int pki = getPrimaryKeyIndex(attributes);
+        int pageCount = tf.readPageCount();
+        TableFile swapFile = tf.getSwapFile();
+
+        List<List<DataType>> pageRecords = new ArrayList<>();
+        int pageBytes = BInterpreter.getPageHeaderSize(attributes);
+        int swapPageNumber = 0;
+
+        int loaded = 0;
+        double loadedBytes = 0;
+        int storedPage = 0;
+        Iterator<List<DataType>> stored = Collections.emptyIterator();
+        List<DataType> nextStored = null;
+        List<DataType> nextLoaded = sorted.next();
+        DataType previous = null;
+
+        while (true) {
+            // read the next stored page once the current one is used up
+            while (nextStored == null && (stored.hasNext() || storedPage < pageCount)) {
+                if (!stored.hasNext()) {
+                    Page page = this.buffer.readFromBuffer(tableID, storedPage++, null);
+                    stored = BInterpreter.convertPageToRecords(page.getBuffer(), attributes).iterator();
+                    if (!page.isDirty())
+                        this.buffer.discard(page);      // its records go to the swap file
+                }
+                nextStored = stored.hasNext() ? stored.next() : null;
+            }
+
+            List<DataType> record;
+            if (nextLoaded == null && nextStored == null) {
+                break;
+            } else if (nextLoaded == null || (nextStored != null && nextStored.get(pki).compareTo(nextLoaded.get(pki)) > 0)) {
+                record = nextStored;    // > 0 means stored is less than loaded
+                nextStored = null;
+            } else {
+                DataType pk = nextLoaded.get(pki);
+                if ((previous != null && pk.compareTo(previous) == 0) || (nextStored != null && pk.compareTo(nextStored.get(pki)) == 0)) {
+                    swapFile.delete();      // the file is never replaced, its swap pages go with the rollback
+                    throw new ExecutionFailure("Duplicate primary key '%s'".formatted(pk.stringValue()));
+                }
+                previous = pk;
+                record = nextLoaded;
+                nextLoaded = sorted.hasNext() ? sorted.next() : null;
+                loadedBytes += BInterpreter.getRecordSize(record);
+                loaded++;
+            }
+
+            // page is full, write it and start the next one
+            int recordSize = BInterpreter.getRecordSize(record);
+            if (!pageRecords.isEmpty() && pageBytes + recordSize > this.pageSize) {
+                this.buffer.writeToBuffer(new SwapPage(swapFile, this.pageSize, swapPageNumber++, BInterpreter.convertRecordsToPage(pageRecords, attributes)));
+                pageRecords = new ArrayList<>();
+                pageBytes = BInterpreter.getPageHeaderSize(attributes);
+            }
+            pageRecords.add(record);
+            pageBytes += recordSize;
+        }
+        if (!pageRecords.isEmpty())
+            this.buffer.writeToBuffer(new SwapPage(swapFile, this.pageSize, swapPageNumber++, BInterpreter.convertRecordsToPage(pageRecords, attributes)));
+
+        this.buffer.flush();
+        tf.closeSwapFile();
+
+        // counted once the swap file replaced the file, a duplicate stops the load before it
+        TableStatistics stats = getStatistics(tableID);
+        stats.recordsInserted(loaded, loadedBytes);
+        stats.pagesAdded(swapPageNumber - pageCount);
+        return loaded;
+    }
 
     //
     // READ
@@ -200,20 +680,35 @@ public class StorageManager {
      * @return List of records that pass the select clause
      */
     public List<List<DataType>> selectRecords(int tableID, List<Attribute> attributes, WhereTree whereTree) throws ExecutionFailure {
+        return selectRecords(tableID, attributes, whereTree, null);
+    }
+
+    /**
+     * NOTE: This method will fail if the where tree has multiple tables attached to it, this expects an algebraic select to be passed into it.
+     * The column mask must include every attribute referenced by the where tree.
+     *
+     * @param tableID    TableId to get records from
+     * @param attributes Constants of data types
+     * @param whereTree  WhereTree to act as an algebraic select clause
+     * @param columnMask Columns to decode, null for all columns
+     * @return List of narrow records that pass the select clause, containing only the masked columns
+     */
+    public List<List<DataType>> selectRecords(int tableID, List<Attribute> attributes, WhereTree whereTree, boolean[] columnMask) throws ExecutionFailure {
         try {
             // Get page details
             TableFile tf = new TableFile(this.databaseRoot, tableID);
             int pageCount = tf.readPageCount();
+            int[] columnMap = BInterpreter.getColumnMap(columnMask);
 
             // Get all records
             List<List<DataType>> records = new ArrayList<>();
             for (int pageNumber = 0; pageNumber < pageCount; pageNumber++) {
-                Page page = this.buffer.readFromBuffer(tableID, pageNumber, false, null);
-                List<List<DataType>> readRecords = BInterpreter.convertPageToRecords(page.getData(), attributes);
+                Page page = this.buffer.readFromBuffer(tableID, pageNumber, null);
+                List<List<DataType>> readRecords = BInterpreter.convertPageToRecords(page.getBuffer(), attributes, columnMask);
                 List<List<DataType>> goodRecords = new ArrayList<>();
 
                 for (List<DataType> record : readRecords) {
-                    if (whereTree.passesTree(record))
+                    if (whereTree.passesTree(record, columnMap))
                         goodRecords.add(record);
                 }
 
@@ -236,6 +731,18 @@ public class StorageManager {
      * @return List of records for a given table file
      */
     public List<List<DataType>> getAllRecords(int tableID, List<Attribute> attributes) throws ExecutionFailure {
+        return getAllRecords(tableID, attributes, null);
+    }
+
+    /**
+     * Get all records for a given table file, only decoding the requested columns
+     *
+     * @param tableID    Table ID to get records from
+     * @param attributes Constraints of data types
+     * @param columnMask Columns to decode, null for all columns
+     * @return List of narrow records for a given table file, containing only the masked columns
+     */
+    public List<List<DataType>> getAllRecords(int tableID, List<Attribute> attributes, boolean[] columnMask) throws ExecutionFailure {
         try {
             // Get page details
             TableFile tf = new TableFile(this.databaseRoot, tableID);
@@ -244,8 +751,8 @@ public class StorageManager {
             // Get all records
             List<List<DataType>> records = new ArrayList<>();
             for (int pageNumber = 0; pageNumber < pageCount; pageNumber++) {
-                Page page = this.buffer.readFromBuffer(tableID, pageNumber, false, null);
-                records.addAll(BInterpreter.convertPageToRecords(page.getData(), attributes));
+                Page page = this.buffer.readFromBuffer(tableID, pageNumber, null);
+                records.addAll(BInterpreter.convertPageToRecords(page.getBuffer(), attributes, columnMask));
             }
 
             return records;
@@ -256,6 +763,110 @@ public class StorageManager {
     }
 
 
+    /**
+     * Stream the records of a table one page at a time
+     *
+     * @param tableID    Table ID to get records from
+     * @param attributes Constraints of data types
+     * @param whereTree  WhereTree to act as an algebraic select clause, null for all records
+     * @param columnMask Columns to decode, null for all columns
+     * @return Iterator of narrow records that pass the select clause
+     */
+    public TableScan scanRecords(int tableID, List<Attribute> attributes, WhereTree whereTree, boolean[] columnMask) throws ExecutionFailure {
+        try {
+            return new TableScan(this.buffer, new TableFile(this.databaseRoot, tableID), attributes, whereTree, columnMask);
+        } catch (IOException ioe) {
+            throw new ExecutionFailure("Failed to read records from table file: " + ioe.getMessage());
+        }
+    }
+
+    /**
+     * Stream the records of a table in primary key order. Indexed tables follow the leaves of the index, otherwise
+     * the table file is already kept in primary key order
+     *
+     * @param tableID    Table ID to get records from
+     * @param attributes Constraints of data types
+     * @param whereTree  WhereTree to act as an algebraic select clause, null for all records
+     * @param columnMask Columns to decode, null for all columns
+     * @return Iterator of narrow records that pass the select clause in primary key order
+     */
+    public Iterator<List<DataType>> scanRecordsByPrimaryKey(int tableID, List<Attribute> attributes, WhereTree whereTree, boolean[] columnMask) throws ExecutionFailure {
+        if (!this.isIndexed)
+            return scanRecords(tableID, attributes, whereTree, columnMask);
+
+        try {
+            TableFile tf = new TableFile(this.databaseRoot, tableID);
+            IndexFile idxF = tf.getIndex(this.buffer, attributes.get(getPrimaryKeyIndex(attributes)), this.pageSize);
+            return new IndexScan(this.buffer, tf, idxF, attributes, whereTree, columnMask);
+        } catch (IOException ioe) {
+            throw new ExecutionFailure("Failed to read records from table file: " + ioe.getMessage());
+        }
+    }
+
+    /**
+     * Find a single record by its primary key using the index
+     *
+     * @param tableID    Table ID to get the record from
+     * @param attributes Constraints of data types
+     * @param primaryKey Primary key of the record
+     * @param whereTree  WhereTree the record must also pass, null for none
+     * @param columnMask Columns to decode, null for all columns
+     * @return Iterator of the narrow record, empty if no record has the key or it does not pass the where tree
+     */
+    public Iterator<List<DataType>> lookupRecord(int tableID, List<Attribute> attributes, DataType primaryKey, WhereTree whereTree, boolean[] columnMask) throws ExecutionFailure {
+        if (!this.isIndexed)
+            throw new ExecutionFailure("Primary key lookups require an index.");
+
+        try {
+            TableFile tf = new TableFile(this.databaseRoot, tableID);
+            if (tf.readPageCount() == 0)
+                return Collections.emptyIterator();
+
+            IndexFile idxF = tf.getIndex(this.buffer, attributes.get(getPrimaryKeyIndex(attributes)), this.pageSize);
+            RecordPointer found = idxF.search(primaryKey);
+            if (found == null)
+                return Collections.emptyIterator();
+
+            Page page = this.buffer.readFromBuffer(tableID, found.pageNumber, null);
+            List<DataType> record = BInterpreter.convertPageToRecords(page.getBuffer(), attributes, columnMask).get(found.index);
+            if (whereTree != null && !whereTree.passesTree(record, BInterpreter.getColumnMap(columnMask)))
+                return Collections.emptyIterator();
+            return List.of(record).iterator();
+        } catch (IOException ioe) {
+            throw new ExecutionFailure("Failed to read records from table file: " + ioe.getMessage());
+        }
+    }
+
+    /**
+     * @return true if tables have a primary key index
+     */
+    public boolean isIndexed() {
+        return this.isIndexed;
+    }
+
+    /**
+     * Create a sort that spills to the database root once it holds more than a buffer's worth of pages
+     *
+     * @param attributes Constraints of the data types being sorted
+     * @param comparator Order to sort the records in
+     * @return new External Sort
+     */
+    public ExternalSort createSort(List<Attribute> attributes, Comparator<List<DataType>> comparator) {
+        return new ExternalSort(this.databaseRoot, this.pageSize, this.bufferSize, attributes, comparator);
+    }
+
+    /**
+     * Create a hash aggregate that partitions to the database root once its groups outgrow the buffer
+     *
+     * @param attributes   Constraints of the data types of the input records
+     * @param groupColumns Indexes of the columns to group by, empty for a single group
+     * @param aggregates   Aggregate functions to compute
+     * @return new Hash Aggregate
+     */
+    public HashAggregate createAggregate(List<Attribute> attributes, List<Integer> groupColumns, List<HashAggregate.Aggregate> aggregates) {
+        return new HashAggregate(this.databaseRoot, this.pageSize, this.bufferSize, attributes, groupColumns, aggregates);
+    }
+
     /**
      * Get the page count of a table
      *
@@ -296,8 +907,266 @@ public class StorageManager {
     //
     // UPDATE
     //
-    public void updateRecord(int tableID, DataType primaryKey, List<DataType> record) {
-        // TODO
+
+    /**
+     * Replace a record. The record is rewritten in its page when it still fits, and in a table kept in primary key
+     * order when its new key still sorts between its neighbours. Otherwise it is moved: appended to the end of an
+     * indexed table, or taken out and inserted where its key now belongs. The index is only changed when the key
+     * changes or the record moves
+     *
+     * @param tableID    ID of table file
+     * @param attributes Constraints of data types
+     * @param primaryKey Primary key of the record to replace
+     * @param record     New contents of the record
+     * @return true if a record with the key was found and replaced, false otherwise
+     * @throws IOException      Failed to read or write to file
+     * @throws ExecutionFailure The new primary key belongs to another record
+     */
+    public boolean updateRecord(int tableID, List<Attribute> attributes, DataType primaryKey, List<DataType> record) throws IOException, ExecutionFailure {
+        TableFile tf = new TableFile(this.databaseRoot, tableID);
+        int pki = getPrimaryKeyIndex(attributes);
+        RecordPointer found = findRecord(tf, attributes, primaryKey);
+        if (found == null)
+            return false;
+
+        DataType newKey = record.get(pki);
+        boolean keyChanged = newKey.compareTo(primaryKey) != 0;
+        if (keyChanged && findRecord(tf, attributes, newKey) != null)
+            throw new ExecutionFailure("Duplicate primary key '%s'".formatted(newKey.stringValue()));
+
+        // pinned, updating the index reads other pages before this one is changed
+        Page page = this.buffer.pin(tableID, found.pageNumber, null);
+        try {
+            List<List<DataType>> records = BInterpreter.convertPageToRecords(page.getBuffer(), attributes);
+            TableStatistics stats = getStatistics(tableID);
+            stats.recordDeleted(BInterpreter.getRecordSize(records.get(found.index)));
+            stats.recordInserted(BInterpreter.getRecordSize(record));
+
+            if (this.isIndexed)
+                updateIndexedRecord(tf, attributes, page, records, found, primaryKey, record);
+            else
+                updateOrderedRecord(tf, attributes, page, records, found, record, keyChanged);
+        } finally {
+            this.buffer.unpin(page);
+        }
+        return true;
+    }
+
+    /**
+     * Set a column that is not the primary key in every record that passes a where tree. A table kept in primary key
+     * order is updated in a single pass, each page is read once and rewritten in place while its records still fit.
+     * Once a page overflows the rest of the file is streamed to the swap file, with the overflowing pages cut into as
+     * many full pages as needed, as {@link #mergeSortedRecords} does. An indexed table finds each matching record
+     * through the index, one read of the table finds them all
+     *
+     * @param tableID    ID of table file
+     * @param attributes Constraints of data types
+     * @param whereTree  WhereTree records must pass to be updated, null to update every record
+     * @param column     Index of the column to set, not the primary key
+     * @param value      Value to set it to
+     * @return Number of records updated
+     * @throws IOException      Failed to read or write to file
+     * @throws ExecutionFailure A record could not be replaced
+     */
+    public int updateWhere(int tableID, List<Attribute> attributes, WhereTree whereTree, int column, DataType value) throws IOException, ExecutionFailure {
+        int pki = getPrimaryKeyIndex(attributes);
+        if (this.isIndexed) {
+            List<List<DataType>> matched = whereTree == null
+                    ? getAllRecords(tableID, attributes)
+                    : selectRecords(tableID, attributes, whereTree);
+            for (List<DataType> record : matched) {
+                List<DataType> updated = new ArrayList<>(record);
+                updated.set(column, value);
+                updateRecord(tableID, attributes, record.get(pki), updated);
+            }
+            return matched.size();
+        }
+
+        TableFile tf = new TableFile(this.databaseRoot, tableID);
+        int pageCount = tf.readPageCount();
+        TableStatistics stats = getStatistics(tableID);
+
+        TableFile swapFile = null;     // set once pages no longer fit in place
+        int swapPageNumber = 0;
+        int addedPages = 0;
+        int updatedCount = 0;
+
+        for (int pageNumber = 0; pageNumber < pageCount; pageNumber++) {
+            Page page = this.buffer.readFromBuffer(tableID, pageNumber, null);
+            List<List<DataType>> records = BInterpreter.convertPageToRecords(page.getBuffer(), attributes);
+
+            boolean changed = false;
+            for (int slot = 0; slot < records.size(); slot++) {
+                List<DataType> record = records.get(slot);
+                if (whereTree != null && !whereTree.passesTree(record))
+                    continue;
+                List<DataType> updated = new ArrayList<>(record);
+                updated.set(column, value);
+                records.set(slot, updated);
+                stats.recordDeleted(BInterpreter.getRecordSize(record));
+                stats.recordInserted(BInterpreter.getRecordSize(updated));
+                changed = true;
+                updatedCount++;
+            }
+
+            if (swapFile == null) {
+                if (!changed)
+                    continue;
+                if (BInterpreter.getPageDataSize(records, attributes) <= this.pageSize) {
+                    page.setRecords(records, attributes);
+                    continue;
+                }
+
+                // first page that doesn't fit, move everything before it to the swap file
+                swapFile = tf.getSwapFile();
+                for (int before = 0; before < pageNumber; before++) {
+                    Page moved = this.buffer.readFromBuffer(tableID, before, null);
+                    SwapPage swapPage = moved.getSwapPage(0);
+                    if (!moved.isDirty())
+                        this.buffer.discard(moved);
+                    this.buffer.writeToBuffer(swapPage);
+                }
+                swapPageNumber = pageNumber;
+            }
+
+            // untouched pages are copied as they are
+            if (!changed) {
+                byte[] data = page.getData();
+                if (!page.isDirty())
+                    this.buffer.discard(page);
+                this.buffer.writeToBuffer(new SwapPage(swapFile, this.pageSize, swapPageNumber++, data));
+                continue;
+            }
+
+            if (!page.isDirty())
+                this.buffer.discard(page);      // drop the stale copy of this page
+            List<List<List<DataType>>> chunks = splitIntoPages(attributes, records);
+            for (List<List<DataType>> chunk : chunks)
+                this.buffer.writeToBuffer(new SwapPage(swapFile, this.pageSize, swapPageNumber++, BInterpreter.convertRecordsToPage(chunk, attributes)));
+            addedPages += chunks.size() - 1;
+        }
+
+        if (swapFile != null) {
+            this.buffer.flush();
+            tf.closeSwapFile();
+        }
+        stats.pagesAdded(addedPages);
+        return updatedCount;
+    }
+
+    /**
+     * Replace a record of an indexed table
+     *
+     * @param tf         Table file of the record
+     * @param attributes Constraints of data types
+     * @param page       Page holding the record
+     * @param records    Records of the page
+     * @param found      Location of the record
+     * @param primaryKey Primary key of the record before the update
+     * @param record     New contents of the record
+     * @throws IOException Failed to read or write to file
+     */
+    private void updateIndexedRecord(TableFile tf, List<Attribute> attributes, Page page, List<List<DataType>> records,
+                                     RecordPointer found, DataType primaryKey, List<DataType> record) throws IOException {
+        int pki = getPrimaryKeyIndex(attributes);
+        DataType newKey = record.get(pki);
+        IndexFile idxF = tf.getIndex(this.buffer, attributes.get(pki), this.pageSize);
+
+        records.set(found.index, record);
+        if (BInterpreter.getPageDataSize(records, attributes) <= this.pageSize) {
+            page.setRecords(records, attributes);
+            if (newKey.compareTo(primaryKey) != 0) {
+                idxF.deletePointer(primaryKey);
+                idxF.insertPointer(newKey, found);
+            }
+            return;
+        }
+
+        // doesn't fit, take it out of its page and append it to the end of the table
+        records.remove(found.index);
+        page.setRecords(records, attributes, BInterpreter.getPageVersion(page.getBuffer()));
+        for (int i = found.index; i < records.size(); i++)
+            idxF.updatePointer(records.get(i).get(pki), new RecordPointer(found.pageNumber, i));
+
+        idxF.deletePointer(primaryKey);
+        RecordPointer moved = insertIndexedRecord(tf, idxF, attributes, record);
+        idxF.insertPointer(newKey, moved);
+    }
+
+    /**
+     * Replace a record of a table kept in primary key order
+     *
+     * @param tf         Table file of the record
+     * @param attributes Constraints of data types
+     * @param page       Page holding the record
+     * @param records    Records of the page
+     * @param found      Location of the record
+     * @param record     New contents of the record
+     * @param keyChanged Whether the primary key of the record changes
+     * @throws IOException      Failed to read or write to file
+     * @throws ExecutionFailure The new primary key belongs to another record
+     */
+    private void updateOrderedRecord(TableFile tf, List<Attribute> attributes, Page page, List<List<DataType>> records,
+                                     RecordPointer found, List<DataType> record, boolean keyChanged) throws IOException, ExecutionFailure {
+        int tableID = tf.getTableID();
+        int pki = getPrimaryKeyIndex(attributes);
+        DataType newKey = record.get(pki);
+
+        // a new key that still sorts between its neighbours in the page keeps its place, compareTo is reversed
+        boolean inPlace = !keyChanged
+                || (found.index > 0 && found.index < records.size() - 1
+                    && records.get(found.index - 1).get(pki).compareTo(newKey) > 0
+                    && newKey.compareTo(records.get(found.index + 1).get(pki)) > 0);
+
+        if (inPlace) {
+            records.set(found.index, record);
+            page.setRecords(records, attributes);
+            if (page.isOverfull()) {
+                tf.splitPage(this.buffer, found.pageNumber, attributes, page, record);
+                getStatistics(tableID).pageAdded();
+            }
+            return;
+        }
+
+        // the key moved past its neighbours, take it out and insert it where it now belongs
+        records.remove(found.index);
+        page.setRecords(records, attributes, BInterpreter.getPageVersion(page.getBuffer()));
+        if (records.isEmpty()) {
+            tf.deletePage(this.buffer, found.pageNumber);
+            getStatistics(tableID).pageRemoved();
+        }
+        insertRecord(tf, attributes, record);
+    }
+
+    /**
+     * Find where a record is stored. Indexed tables search the index, otherwise pages are read in order until one
+     * holds a larger key
+     *
+     * @param tf         Table file to search
+     * @param attributes Constraints of data types
+     * @param primaryKey Primary key of the record
+     * @return Location of the record, null if no record has the key
+     * @throws IOException Failed to read from file
+     */
+    private RecordPointer findRecord(TableFile tf, List<Attribute> attributes, DataType primaryKey) throws IOException {
+        int pki = getPrimaryKeyIndex(attributes);
+        if (this.isIndexed)
+            return tf.getIndex(this.buffer, attributes.get(pki), this.pageSize).search(primaryKey);
+
+        int pageCount = tf.readPageCount();
+        for (int pageNumber = 0; pageNumber < pageCount; pageNumber++) {
+            Page page = this.buffer.readFromBuffer(tf.getTableID(), pageNumber, null);
+            List<List<DataType>> records = BInterpreter.convertPageToRecords(page.getBuffer(), attributes);
+            for (int i = 0; i < records.size(); i++) {
+                if (records.get(i).get(pki).compareTo(primaryKey) == 0)
+                    return new RecordPointer(pageNumber, i);
+            }
+
+            // pages are in key order, the key would have been in this page
+            if (!records.isEmpty() && primaryKey.compareTo(records.getLast().get(pki)) > 0)
+                return null;
+        }
+        return null;
     }
 
     //
@@ -318,7 +1187,8 @@ public class StorageManager {
             if (found == null)
                 return;
 
-            Page page = this.buffer.readFromBuffer(tableID, found.pageNumber, false, null);
+            Page page = this.buffer.readFromBuffer(tableID, found.pageNumber, null);
+            List<DataType> deletedRecord = BInterpreter.convertPageToRecords(page.getBuffer(), attributes).get(found.index);
             HashMap<DataType, Integer> toUpdate = page.deleteRecordByIndex(attributes, pki, found.index);
 
             for (DataType pk : toUpdate.keySet()) {
@@ -326,25 +1196,99 @@ public class StorageManager {
             }
 
             idxF.deletePointer(primaryKey);
+            getStatistics(tableID).recordDeleted(BInterpreter.getRecordSize(deletedRecord));
         } else {
             // read each table page in order from the table file
             for (int pageNumber = 0; pageNumber < pageCount; pageNumber++) {
                 // read page from buffer and attempt to delete
-                Page page = this.buffer.readFromBuffer(tableID, pageNumber, false, null);
-                boolean recordDeleted = page.deleteRecord(pki, attributes, primaryKey);
-
+                Page page = this.buffer.readFromBuffer(tableID, pageNumber, null);
+                List<DataType> deletedRecord = page.deleteRecord(pki, attributes, primaryKey);
 
                 // Record deleted, delete page if empty
-                if (recordDeleted && page.isEmpty()) {
+                if (deletedRecord != null && page.isEmpty()) {
                     tf.deletePage(this.buffer, pageNumber);
+                    getStatistics(tableID).pageRemoved();
                 }
 
                 // Record deleted, done
-                if (recordDeleted) break;
+                if (deletedRecord != null) {
+                    getStatistics(tableID).recordDeleted(BInterpreter.getRecordSize(deletedRecord));
+                    break;
+                }
             }
         }
     }
 
+    /**
+     * Delete every record that passes a where tree. Each page is read once and rewritten once with the records that
+     * are kept. Pages left empty are removed together at the end, moving the pages after them forward in a single
+     * pass. Index entries of deleted records are removed, and moved records repointed, in key order once every page
+     * has been read
+     *
+     * @param tableID    ID of table file
+     * @param attributes Constraints of data types
+     * @param whereTree  WhereTree records must pass to be deleted, null to delete every record
+     * @return Number of records deleted
+     * @throws IOException Failed to read or write to file
+     */
+    public int deleteWhere(int tableID, List<Attribute> attributes, WhereTree whereTree) throws IOException {
+        TableFile tf = new TableFile(this.databaseRoot, tableID);
+        int pageCount = tf.readPageCount();
+        int pki = getPrimaryKeyIndex(attributes);
+        TableStatistics stats = getStatistics(tableID);
+
+        List<DataType> deletedKeys = new ArrayList<>();
+        Map<DataType, RecordPointer> movedPointers = new HashMap<>();
+        List<Integer> emptyPages = new ArrayList<>();
+
+        for (int pageNumber = 0; pageNumber < pageCount; pageNumber++) {
+            Page page = this.buffer.readFromBuffer(tableID, pageNumber, null);
+            List<List<DataType>> records = BInterpreter.convertPageToRecords(page.getBuffer(), attributes);
+            int newPageNumber = pageNumber - emptyPages.size();     // where the page ends up once empty pages are removed
+
+            List<List<DataType>> kept = new ArrayList<>(records.size());
+            for (int slot = 0; slot < records.size(); slot++) {
+                List<DataType> record = records.get(slot);
+                if (whereTree != null && !whereTree.passesTree(record)) {
+                    // records that changed slot or page need a new pointer
+                    if (this.isIndexed && (kept.size() != slot || newPageNumber != pageNumber))
+                        movedPointers.put(record.get(pki), new RecordPointer(newPageNumber, kept.size()));
+                    kept.add(record);
+                    continue;
+                }
+                deletedKeys.add(record.get(pki));
+                stats.recordDeleted(BInterpreter.getRecordSize(record));
+            }
+
+            if (kept.size() != records.size())
+                page.setRecords(kept, attributes, BInterpreter.getPageVersion(page.getBuffer()));
+            if (kept.isEmpty())
+                emptyPages.add(pageNumber);
+        }
+
+        if (!emptyPages.isEmpty()) {
+            tf.deletePages(this.buffer, emptyPages);
+            for (int i = 0; i < emptyPages.size(); i++)
+                stats.pageRemoved();
+        }
+
+        if (this.isIndexed && !deletedKeys.isEmpty()) {
+            IndexFile idxF = tf.getIndex(this.buffer, attributes.get(pki), this.pageSize);
+            Comparator<DataType> ascending = (k1, k2) -> k2.compareTo(k1);     // compareTo is reversed, this is ascending
+
+            deletedKeys.sort(ascending);
+            for (DataType key : deletedKeys)
+                idxF.deletePointer(key);
+
+            List<DataType> movedKeys = new ArrayList<>(movedPointers.keySet());
+            movedKeys.sort(ascending);
+            for (DataType key : movedKeys)
+                idxF.updatePointer(key, movedPointers.get(key));
+        }
+
+        return deletedKeys.size();
+    }
+
     /**
      * Drop a table from the database
      *
@@ -356,10 +1300,232 @@ public class StorageManager {
         TableFile tf = new TableFile(this.databaseRoot, tableID);
 //        tf.getIndex().delete(); //TODO: replace
         tf.delete();
+        this.statistics.remove(tableID);
+        this.statisticsBefore.remove(tableID);
+    }
+
+    //
+    // STATISTICS
+    //
+
+    /**
+     * Get the statistics of a table, creating empty statistics if the table has none yet. The first time the running
+     * statement gets them a copy is kept, so they can be put back if it fails
+     *
+     * @param tableID Table to get statistics of
+     * @return Statistics kept up to date by inserts and deletes
+     */
+    public TableStatistics getStatistics(int tableID) {
+        TableStatistics statistics = this.statistics.computeIfAbsent(tableID, id -> new TableStatistics());
+        this.statisticsBefore.computeIfAbsent(tableID, id -> new TableStatistics(statistics));
+        return statistics;
+    }
+
+    /**
+     * Use existing statistics object for a table, so the catalog and storage manager share one copy
+     *
+     * @param tableID    Table the statistics belong to
+     * @param statistics Statistics to keep up to date
+     */
+    public void registerStatistics(int tableID, TableStatistics statistics) {
+        this.statistics.put(tableID, statistics);
+        this.statisticsBefore.remove(tableID);
+    }
+
+    /**
+     * Rebuild the statistics of a table by reading every page, used when saved statistics are missing
+     *
+     * @param tableID    Table to scan
+     * @param attributes Constraints of data types
+     * @return Statistics of the table
+     * @throws ExecutionFailure Failed to read the table file
+     */
+    public TableStatistics computeStatistics(int tableID, List<Attribute> attributes) throws ExecutionFailure {
+        try {
+            TableFile tf = new TableFile(this.databaseRoot, tableID);
+            int pageCount = tf.readPageCount();
+            int rowCount = 0;
+            double recordBytes = 0;
+            for (int pageNumber = 0; pageNumber < pageCount; pageNumber++) {
+                Page page = this.buffer.readFromBuffer(tableID, pageNumber, null);
+                for (List<DataType> record : BInterpreter.convertPageToRecords(page.getBuffer(), attributes)) {
+                    rowCount++;
+                    recordBytes += BInterpreter.getRecordSize(record);
+                }
+            }
+            return new TableStatistics(rowCount, pageCount, recordBytes);
+        } catch (IOException ioe) {
+            throw new ExecutionFailure("Failed to read records from table file: " + ioe.getMessage());
+        }
+    }
+
+    /**
+     * Read the records of an evenly spaced sample of a table's pages through the buffer
+     *
+     * @param tableID     Table to sample
+     * @param attributes  Constraints of data types
+     * @param samplePages Max number of pages to read
+     * @return Records of the sampled pages
+     * @throws ExecutionFailure Failed to read the table file
+     */
+    public List<List<DataType>> sampleRecords(int tableID, List<Attribute> attributes, int samplePages) throws ExecutionFailure {
+        try {
+            TableFile tf = new TableFile(this.databaseRoot, tableID);
+            int pageCount = tf.readPageCount();
+            int pagesToRead = Math.min(pageCount, samplePages);
+
+            List<List<DataType>> records = new ArrayList<>();
+            for (int i = 0; i < pagesToRead; i++) {
+                int pageNumber = (int) ((long) i * pageCount / pagesToRead);
+                Page page = this.buffer.readFromBuffer(tableID, pageNumber, null);
+                records.addAll(BInterpreter.convertPageToRecords(page.getBuffer(), attributes));
+            }
+            return records;
+        } catch (IOException ioe) {
+            throw new ExecutionFailure("Failed to read records from table file: " + ioe.getMessage());
+        }
+    }
+
+    /**
+     * @return Number of page reads served from the buffer since startup
+     */
+    public long getBufferHits() {
+        return this.buffer.getHits();
+    }
+
+    /**
+     * @return Number of page reads that went to disk since startup
+     */
+    public long getDiskReads() {
+        return this.buffer.getDiskReads();
+    }
+
+    /**
+     * @return Number of evictions that had to write the evicted page first since startup
+     */
+    public long getEvictionWrites() {
+        return this.buffer.getEvictionWrites();
+    }
+
+    /**
+     * @return Number of pages spilled to the log since startup by statements that changed more pages than the buffer
+     * holds
+     */
+    public long getSpillWrites() {
+        return this.buffer.getSpillWrites();
+    }
+
+    /**
+     * @return Number of pages in the buffer not yet written since they changed
+     */
+    public int getDirtyPageCount() {
+        return this.buffer.getDirtyPageCount();
+    }
+
+    /**
+     * Switch the page buffer to another replacement policy, 2Q is used until then
+     *
+     * @param policy New replacement policy, empty
+     */
+    public void setReplacementPolicy(ReplacementPolicy policy) {
+        this.buffer.setReplacementPolicy(policy);
+    }
+
+    /**
+     * Start writing committed pages to disk in the background, keeping the last quarter of the buffer clean
+     */
+    public void startPageWriter() {
+        startPageWriter(Math.max(1, this.bufferSize / 4), PageWriter.PAGES_PER_ROUND, PageWriter.ROUND_MILLIS);
+    }
+
+    /**
+     * Start writing committed pages to disk in the background. Does nothing if the writer is already running
+     *
+     * @param cleanFrames   Number of pages next in line for eviction to keep clean
+     * @param pagesPerRound Max number of pages to write in a round
+     * @param roundMillis   Milliseconds to wait between rounds
+     */
+    public void startPageWriter(int cleanFrames, int pagesPerRound, long roundMillis) {
+        this.buffer.startWriter(cleanFrames, pagesPerRound, roundMillis);
+    }
+
+    /**
+     * Stop the background page writer, if it is running
+     */
+    public void stopPageWriter() {
+        this.buffer.stopWriter();
     }
 
     public void flush() throws IOException {
         this.buffer.flush();
     }
 
+    /**
+     * Commit the changes of a statement to the write-ahead log. Changed pages stay in the buffer until they are
+     * evicted or flushed
+     *
+     * @throws IOException Failed to write to the log
+     */
+    public void commit() throws IOException {
+        this.buffer.commit();
+        this.statisticsBefore.clear();
+    }
+
+    /**
+     * Undo the changes of a statement that failed, the ones a flush already wrote stay. The statistics of the tables
+     * it changed go back to what they were before it
+     *
+     * @throws IOException Failed to write to the log
+     */
+    public void rollback() throws IOException {
+        for (Map.Entry<Integer, TableStatistics> before : this.statisticsBefore.entrySet()) {
+            TableStatistics statistics = this.statistics.get(before.getKey());
+            if (statistics != null)
+                statistics.restore(before.getValue());
+        }
+        this.statisticsBefore.clear();
+        this.buffer.rollback();
+    }
+
+    /**
+     * Write back the committed changes a crash left only in the write-ahead log
+     *
+     * @return Number of pages written back
+     * @throws IOException Failed to read the log or write to a file
+     */
+    public int recover() throws IOException {
+        return this.buffer.recover();
+    }
+
+    /**
+     * Force every committed statement to the device, the log is otherwise forced once per group of commits
+     *
+     * @throws IOException Failed to force the log
+     */
+    public void sync() throws IOException {
+        this.buffer.sync();
+    }
+
+    /**
+     * Copy a table file as it is on disk, its page count followed by every page. Pages still in the buffer are written
+     * out first, then the file system transfers the bytes straight to the target without copying them into memory
+     *
+     * @param tableID ID of the table file
+     * @param target  Channel to write the file to
+     * @return Number of bytes written
+     * @throws IOException Failed to read the table file or write to the target
+     */
+    public long exportPages(int tableID, WritableByteChannel target) throws IOException {
+        this.buffer.flush();
+
+        TableFile tf = new TableFile(this.databaseRoot, tableID);
+        try (FileChannel source = FileChannel.open(tf.toFile().toPath(), StandardOpenOption.READ)) {
+            long size = source.size();
+            long position = 0;
+            while (position < size)
+                position += source.transferTo(position, size - position, target);
+            return position;
+        }
+    }
+
 }
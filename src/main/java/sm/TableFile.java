@@ -71,13 +71,13 @@ class TableFile extends DBFile {
      * @throws IOException Failed to read file
      */
     private void deleteLastPageFromFile(int pageSize) throws IOException {
+        int pageCount = readPageCount() - 1;
         try (RandomAccessFile raf = toRandomAccessFile()) {
             // update page count
-            byte[] buffer = new byte[]{(byte) (readPageCount() - 1)};
-            raf.write(buffer, 0, 1);
+            raf.writeInt(pageCount);
 
             // remove last page from file
-            raf.setLength(1 + (long) readPageCount() * pageSize);
+            raf.setLength(Integer.BYTES + (long) pageCount * pageSize);   // 4 bytes reserved for num pages
         }
     }
 
@@ -87,7 +87,7 @@ class TableFile extends DBFile {
      * @param buffer       Page buffer to use to iterate through pages
      * @param splitPageNum Page index to split on
      * @param attributes   Constants of data types
-     * @param p            Page to split
+     * @param p            Page to split, pinned by the caller so it is the buffered copy
      * @param record       Record that has been inserted
      * @return Record pointer to the split page containing the given record
      * @throws IOException Failed to read from file
@@ -97,28 +97,32 @@ class TableFile extends DBFile {
         int pageCount = readPageCount();
         RecordPointer recordPointer = null;
 
-        // Read each page from the original table file to the swap file
+        // Read each page from the original table file to the swap file, the originals are dropped once copied
         for (int pageNumber = 0; pageNumber < pageCount; pageNumber++) {
-            Page page = buffer.readFromBuffer(this.fileID, pageNumber, true, null);
             // add split page
             if (pageNumber == splitPageNum) {
                 // Get left and right swap pages
                 Page rightPage = p.split(attributes);
                 SwapPage leftSwapPage = p.getSwapPage(swapOffset);
+                buffer.discard(p);
                 swapOffset = 1;
                 SwapPage rightSwapPage = rightPage.getSwapPage(swapOffset);
 
-                buffer.writeToBuffer(leftSwapPage);     // add leftPage
-                buffer.writeToBuffer(rightSwapPage);    // add rightPage
-
                 // If left swap  has record, point to left swap else point to right swap
+                // found before they go to the buffer, adding the right page may evict the left one
                 recordPointer = leftSwapPage.indexOf(attributes, record) != -1
                         ? new RecordPointer(leftSwapPage.getPageNumber(), leftSwapPage.indexOf(attributes, record))
                         : new RecordPointer(rightSwapPage.getPageNumber(), rightSwapPage.indexOf(attributes, record));
 
+                buffer.writeToBuffer(leftSwapPage);     // add leftPage
+                buffer.writeToBuffer(rightSwapPage);    // add rightPage
+
             } else {
                 // add rest of page
-                buffer.writeToBuffer(page.getSwapPage(swapOffset));
+                Page page = buffer.readFromBuffer(this.fileID, pageNumber, null);
+                SwapPage swapPage = page.getSwapPage(swapOffset);
+                buffer.discard(page);
+                buffer.writeToBuffer(swapPage);
             }
         }
         buffer.flush();     // Write out any remaining files
@@ -135,13 +139,16 @@ class TableFile extends DBFile {
         int pageCount = readPageCount();
 
         // get page size and remove empty page from buffer
-        int pageSize = buffer.readFromBuffer(this.fileID, emptyPageNum, true, null).getPageSize();
+        Page emptyPage = buffer.readFromBuffer(this.fileID, emptyPageNum, null);
+        int pageSize = emptyPage.getPageSize();
+        buffer.discard(emptyPage);
 
         // move all pages after empty page forward
         for (int pageNumber = emptyPageNum + 1; pageNumber < pageCount; pageNumber++) {
-            Page page = buffer.readFromBuffer(this.fileID, pageNumber, true, null);
-            //buffer.writeToBuffer(page.getSwapPage(swapOffset));
-            buffer.writeToBuffer(new Page(this, pageSize, pageNumber - 1, page.getData(), false));
+            Page page = buffer.readFromBuffer(this.fileID, pageNumber, null);
+            Page moved = new Page(this, pageSize, pageNumber - 1, page.getData(), false);
+            buffer.discard(page);
+            buffer.writeToBuffer(moved);
         }
 
         // Write out any remaining files
@@ -151,12 +158,47 @@ class TableFile extends DBFile {
     }
 
 
+    /**
+     * Delete many pages from the table file at once. Every page after the first deleted one is moved forward once,
+     * past all the deleted pages before it
+     *
+     * @param buffer         Page buffer to move pages through
+     * @param emptyPageNums  Page numbers to delete in ascending order
+     * @throws IOException Failed to read or write file
+     */
+    public void deletePages(PageBuffer buffer, List<Integer> emptyPageNums) throws IOException {
+        int pageCount = readPageCount();
+        int pageSize = buffer.readFromBuffer(this.fileID, emptyPageNums.getFirst(), null).getPageSize();
+
+        int nextDeleted = 0;
+        int newPageNumber = emptyPageNums.getFirst();
+        for (int pageNumber = newPageNumber; pageNumber < pageCount; pageNumber++) {
+            Page page = buffer.readFromBuffer(this.fileID, pageNumber, null);
+            if (nextDeleted < emptyPageNums.size() && emptyPageNums.get(nextDeleted) == pageNumber) {
+                buffer.discard(page);
+                nextDeleted++;
+                continue;
+            }
+            Page moved = new Page(this, pageSize, newPageNumber++, page.getData(), false);
+            buffer.discard(page);
+            buffer.writeToBuffer(moved);
+        }
+
+        // Write out any remaining files
+        buffer.flush();
+
+        try (RandomAccessFile raf = toRandomAccessFile()) {
+            raf.writeInt(newPageNumber);
+            raf.setLength(Integer.BYTES + (long) newPageNumber * pageSize);   // 4 bytes reserved for num pages
+        }
+    }
+
     /**
      * Delete old table file and save new one with swap file contents
      *
      * @throws IOException Fails to write to file
      */
-    private void closeSwapFile() throws IOException {
+    void closeSwapFile() throws IOException {
         delete();
         TableFile swapFile = getSwapFile();
         swapFile.toFile().renameTo(toFile());
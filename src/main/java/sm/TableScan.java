@@ -0,0 +1,94 @@
+package sm;
+
+import catalog.Attribute;
+import dataTypes.DataType;
+import util.where.WhereTree;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * <b>File:</b> TableScan.java
+ * <p>
+ * <b>Description:</b> Iterator that streams the records of a table file one page at a time
+ *
+ * @author Derek Garcia
+ */
+public class TableScan implements Iterator<List<DataType>> {
+
+    private final PageBuffer buffer;
+    private final int tableID;
+    private final int pageCount;
+    private final List<Attribute> attributes;
+    private final WhereTree whereTree;
+    private final boolean[] columnMask;
+    private final int[] columnMap;
+
+    private int nextPageNumber = 0;
+    private Iterator<List<DataType>> pageRecords = Collections.emptyIterator();
+    private List<DataType> nextRecord = null;
+
+    /**
+     * Create a new table scan
+     *
+     * @param buffer     Page buffer to read pages from
+     * @param tf         Table file to scan
+     * @param attributes Constraints of data types
+     * @param whereTree  WhereTree to filter records with, null for all records
+     * @param columnMask Columns to decode, null for all columns
+     * @throws IOException Failed to read the page count
+     */
+    TableScan(PageBuffer buffer, TableFile tf, List<Attribute> attributes, WhereTree whereTree, boolean[] columnMask) throws IOException {
+        this.buffer = buffer;
+        this.tableID = tf.getTableID();
+        this.pageCount = tf.readPageCount();
+        this.attributes = attributes;
+        this.whereTree = whereTree;
+        this.columnMask = columnMask;
+        this.columnMap = BInterpreter.getColumnMap(columnMask);
+    }
+
+    /**
+     * Read the next page of the table from the buffer
+     *
+     * @throws IOException Failed to read page
+     */
+    private void readNextPage() throws IOException {
+        Page page = this.buffer.readFromBuffer(this.tableID, this.nextPageNumber++, null);
+        this.pageRecords = BInterpreter.convertPageToRecords(page.getBuffer(), this.attributes, this.columnMask).iterator();
+    }
+
+    @Override
+    public boolean hasNext() {
+        try {
+            while (this.nextRecord == null) {
+                if (this.pageRecords.hasNext()) {
+                    List<DataType> record = this.pageRecords.next();
+                    if (this.whereTree == null || this.whereTree.passesTree(record, this.columnMap))
+                        this.nextRecord = record;
+                } else if (this.nextPageNumber < this.pageCount) {
+                    readNextPage();
+                } else {
+                    return false;
+                }
+            }
+            return true;
+        } catch (IOException ioe) {
+            throw new UncheckedIOException(ioe);
+        }
+    }
+
+    @Override
+    public List<DataType> next() {
+        if (!hasNext())
+            throw new NoSuchElementException();
+
+        List<DataType> record = this.nextRecord;
+        this.nextRecord = null;
+        return record;
+    }
+}
@@ -0,0 +1,133 @@
+package sm;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.SequencedSet;
+import java.util.stream.Stream;
+
+/**
+ * <b>File:</b> TwoQueuePolicy.java
+ * <p>
+ * <b>Description:</b> 2Q replacement. A page read for the first time waits in a small first in first out queue and
+ * only moves to the main least recently used queue if it is read again after being evicted from it, which the policy
+ * notices through a queue of recently evicted page ids. Pages read once, like the pages of a large scan, never reach
+ * the main queue and cannot push out the pages that are read over and over.
+ * <p>
+ * Index pages get priority: one read again while still in the first queue moves to the main queue right away, so
+ * the root and inner nodes every lookup passes through are kept, and table pages leave the first queue before index
+ * pages do. Pages read ahead of a sequential scan are kept in a queue of their own and evicted before anything else,
+ * unless they are read again after the scan
+ *
+ * @author Derek Garcia
+ */
+public class TwoQueuePolicy implements ReplacementPolicy {
+
+    private final int probationCapacity;    // pages the first in first out queue keeps before giving up its oldest
+    private final int ghostCapacity;        // evicted page ids remembered
+    private final SequencedSet<Page> scanned = new LinkedHashSet<>();       // read ahead by a scan, oldest first
+    private final SequencedSet<Page> probation = new LinkedHashSet<>();     // read once, oldest first
+    private final SequencedSet<Page> main = new LinkedHashSet<>();          // read again, least recently used first
+    private final SequencedSet<WriteAheadLog.PageID> ghosts = new LinkedHashSet<>();    // evicted from probation, oldest first
+
+    /**
+     * Create a new 2Q policy with a quarter of the buffer for pages read once, remembering half a buffer of evicted
+     * pages
+     *
+     * @param capacity Number of pages the buffer holds
+     */
+    public TwoQueuePolicy(int capacity) {
+        this.probationCapacity = Math.max(1, capacity / 4);
+        this.ghostCapacity = Math.max(1, capacity / 2);
+    }
+
+    @Override
+    public void admit(Page page) {
+        if (this.ghosts.remove(new WriteAheadLog.PageID(page)))
+            this.main.addLast(page);
+        else
+            this.probation.addLast(page);
+    }
+
+    @Override
+    public void admitReadAhead(List<Page> pages) {
+        for (Page page : pages) {
+            page.markReadAhead();
+            this.scanned.addLast(page);
+        }
+    }
+
+    @Override
+    public void touch(Page page) {
+        if (this.main.remove(page)) {
+            this.main.addLast(page);
+        } else if (this.scanned.contains(page)) {
+            if (page.isReadAhead()) {
+                page.clearReadAhead();      // the scan's own read
+            } else {
+                this.scanned.remove(page);  // read again after the scan
+                this.main.addLast(page);
+            }
+        } else if (page.IsIndexPage && this.probation.remove(page)) {
+            this.main.addLast(page);
+        }
+        // a table page read again while still in probation is part of the same burst of reads, it stays where it is
+    }
+
+    @Override
+    public void remove(Page page) {
+        if (!this.scanned.remove(page) && !this.probation.remove(page))
+            this.main.remove(page);
+    }
+
+    @Override
+    public Page evict() {
+        List<Page> victims = nextVictims(1);
+        if (victims.isEmpty())
+            return null;
+
+        Page page = victims.getFirst();
+        if (!this.probation.remove(page)) {
+            remove(page);
+        } else if (!page.getWriteFile().isSwap()) {
+            // a swap page shares its id with the table page it replaces
+            this.ghosts.addLast(new WriteAheadLog.PageID(page));
+            if (this.ghosts.size() > this.ghostCapacity)
+                this.ghosts.removeFirst();
+        }
+        return page;
+    }
+
+    @Override
+    public List<Page> nextVictims(int count) {
+        // newest page the scan is done with first, a table scanned again finds its first pages still here
+        List<Page> victims = new ArrayList<>();
+        this.scanned.reversed().stream().filter(p -> !p.isReadAhead()).forEach(victims::add);
+        this.scanned.stream().filter(Page::isReadAhead).forEach(victims::add);
+
+        // table pages go first, an index page read once is still likely to be read again by the next lookup
+        List<Page> probation = Stream.concat(
+                this.probation.stream().filter(p -> !p.IsIndexPage),
+                this.probation.stream().filter(p -> p.IsIndexPage)).toList();
+        int overflow = this.main.isEmpty() ? probation.size() : Math.max(0, probation.size() - this.probationCapacity);
+        victims.addAll(probation.subList(0, overflow));
+        victims.addAll(this.main);
+        victims.addAll(probation.subList(overflow, probation.size()));
+        return victims.stream().filter(Page::isEvictable).limit(count).toList();
+    }
+
+    @Override
+    public int size() {
+        return this.scanned.size() + this.probation.size() + this.main.size();
+    }
+
+    @Override
+    public Iterator<Page> iterator() {
+        List<Page> pages = new ArrayList<>(size());
+        pages.addAll(this.scanned);
+        pages.addAll(this.probation);
+        pages.addAll(this.main);
+        return pages.iterator();
+    }
+}
@@ -0,0 +1,432 @@
+package sm;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.zip.CRC32;
+
+/**
+ * <b>File:</b> WriteAheadLog.java
+ * <p>
+ * <b>Description:</b> Redo log of the page buffer. A commit appends the image of every page changed since the last
+ * commit to the end of the log, so changed pages can stay in the buffer and reach their files later. Commits are
+ * grouped, the log is forced to the device once per group instead of once per statement. A logged page is only
+ * written to its file once the log is forced through its record.
+ * <p>
+ * A statement that changes more pages than the buffer holds spills the images of some of them to the log before it
+ * commits, they are read back from there until the statement ends. Recovery only uses them once a commit record
+ * follows them, an abort record drops them.
+ * <p>
+ * Records are addressed by log sequence number (LSN), their position in the log counting from when it was last
+ * emptied. The log is kept in segment files named after the LSN of their first record, each open for as long as it is
+ * part of the log, and a new segment starts after every checkpoint. Checkpoints record the pages that are still only in
+ * the log along with the LSN of their oldest logged change, everything before the oldest of those is already in the
+ * files and the segments holding nothing else are deleted
+ *
+ * @author Derek Garcia
+ */
+public class WriteAheadLog {
+
+    /**
+     * A page of a table or index file
+     *
+     * @param isIndex    True if the page is in an index file
+     * @param fileID     Table ID of the file
+     * @param pageNumber Page number in the file
+     */
+    record PageID(boolean isIndex, int fileID, int pageNumber) {
+        PageID(Page page) {
+            this(page.IsIndexPage, page.getWriteFile().getTableID(), page.getPageNumber());
+        }
+    }
+
+    private record Image(PageID page, long lsn, byte[] data) {
+    }
+
+    static final String LOG_FILE = "wal.log";      // segments are named wal.log.<LSN of their first record>
+    private static final byte PAGE_RECORD = 1;
+    private static final byte COMMIT_RECORD = 2;
+    private static final byte CHECKPOINT_RECORD = 3;
+    private static final byte ABORT_RECORD = 4;
+    private static final int PAGE_HEADER_SIZE = 2 + Integer.BYTES * 3;     // type, index flag, file, page number and length
+    private static final int GROUP_COMMIT_SIZE = 16;        // commits that may be waiting on one force
+    private static final int CHECKPOINT_PAGES = 256;        // pages worth of log written between checkpoints
+
+    private final Path directory;
+    private final long checkpointInterval;
+    private final TreeMap<Long, FileChannel> segments = new TreeMap<>();     // LSN of the first record of each segment to its channel, records are appended to the last
+    private ByteBuffer pending;         // records not yet appended, off the heap like the pages they hold
+    private long appendedLSN = 0;       // LSN the next appended record gets
+    private long forcedLSN = 0;         // LSN of the first record not yet forced to the device
+    private long checkpointLSN = 0;     // LSN of the last checkpoint record
+    private int unforcedCommits = 0;
+
+    /**
+     * Create a new write-ahead log, the first segment is created on the first commit
+     *
+     * @param databaseRoot Root path of the database
+     * @param pageSize     Page size in bytes
+     */
+    public WriteAheadLog(String databaseRoot, int pageSize) {
+        this.directory = Paths.get(databaseRoot);
+        this.checkpointInterval = (long) CHECKPOINT_PAGES * pageSize;
+        this.pending = ByteBuffer.allocateDirect(GROUP_COMMIT_SIZE * (PAGE_HEADER_SIZE + pageSize + Long.BYTES));
+    }
+
+    /**
+     * Add the image of a page to the next commit
+     *
+     * @param page Page to log
+     * @return LSN of the record
+     * @throws IOException Failed to write the record
+     */
+    long logPage(Page page) throws IOException {
+        long lsn = writePageRecord(page);
+        page.markLogged(lsn);
+        return lsn;
+    }
+
+    /**
+     * Append the image of a page the running statement changed, so the page can leave the buffer before the statement
+     * commits. The page stays uncommitted, the image is only used by recovery if the statement commits
+     *
+     * @param page Page to spill
+     * @return LSN of the record, to read the image back at
+     * @throws IOException Failed to write the record
+     */
+    long spillPage(Page page) throws IOException {
+        long lsn = writePageRecord(page);
+        append();
+        return lsn;
+    }
+
+    /**
+     * Read back the image of a page logged or spilled to the log, straight into the frame it goes to. The rest of the
+     * frame is zeroed
+     *
+     * @param lsn    LSN of the record
+     * @param target Frame to read the page data into, from index 0
+     * @throws IOException Failed to read the log
+     */
+    void readPage(long lsn, ByteBuffer target) throws IOException {
+        if (lsn >= this.appendedLSN)
+            append();   // the record is still pending
+
+        Map.Entry<Long, FileChannel> segment = this.segments.floorEntry(lsn);
+        long position = lsn - segment.getKey();
+        ByteBuffer header = ByteBuffer.allocate(PAGE_HEADER_SIZE);
+        readFully(segment.getValue(), header, position);
+        int length = header.getInt(PAGE_HEADER_SIZE - Integer.BYTES);
+        readFully(segment.getValue(), target.duplicate().clear().limit(length), position + PAGE_HEADER_SIZE);
+        for (int i = length; i < target.capacity(); i++)
+            target.put(i, (byte) 0);
+    }
+
+    /**
+     * Add a page record to the pending records, copying the page data straight from its frame
+     *
+     * @return LSN of the record
+     */
+    private long writePageRecord(Page page) {
+        long lsn = this.appendedLSN + this.pending.position();
+        ByteBuffer data = page.getBuffer();
+        CRC32 crc = new CRC32();
+        crc.update(data.duplicate());
+
+        reserve(PAGE_HEADER_SIZE + data.remaining() + Long.BYTES)
+                .put(PAGE_RECORD)
+                .put((byte) (page.IsIndexPage ? 1 : 0))
+                .putInt(page.getWriteFile().getTableID())
+                .putInt(page.getPageNumber())
+                .putInt(data.remaining())
+                .put(data)
+                .putLong(crc.getValue());
+        return lsn;
+    }
+
+    /**
+     * Make room for more pending records, growing the pending buffer if it is too small
+     *
+     * @param bytes Number of bytes about to be added
+     * @return Pending buffer to add them to
+     */
+    private ByteBuffer reserve(int bytes) {
+        if (this.pending.remaining() < bytes) {
+            ByteBuffer grown = ByteBuffer.allocateDirect(Math.max(this.pending.capacity() * 2, this.pending.position() + bytes));
+            this.pending = grown.put(this.pending.flip());
+        }
+        return this.pending;
+    }
+
+    /**
+     * Append the logged pages and a commit record to the log. The log is forced once enough commits are waiting,
+     * until then a commit survives the process ending but not the machine losing power
+     *
+     * @throws IOException Failed to write to the log
+     */
+    void commit() throws IOException {
+        if (this.pending.position() == 0)
+            return;     // nothing changed, nothing to make durable
+
+        reserve(1).put(COMMIT_RECORD);
+        if (append() && ++this.unforcedCommits >= GROUP_COMMIT_SIZE)
+            sync();
+    }
+
+    /**
+     * Append an abort record, so the pages the failed statement spilled are never used by recovery, not even once a
+     * later statement commits
+     *
+     * @throws IOException Failed to write to the log
+     */
+    void abort() throws IOException {
+        reserve(1).put(ABORT_RECORD);
+        append();
+    }
+
+    /**
+     * @return True if enough has been logged since the last checkpoint to take another
+     */
+    boolean needsCheckpoint() {
+        return this.appendedLSN - this.checkpointLSN >= this.checkpointInterval;
+    }
+
+    /**
+     * @return LSN of the last checkpoint, 0 if there was none since the log was emptied
+     */
+    long getCheckpointLSN() {
+        return this.checkpointLSN;
+    }
+
+    /**
+     * Record the pages only the log holds the latest committed image of and start a new segment, then delete the
+     * segments recovery would not need to replay. Every page written to its file before this must already be forced
+     *
+     * @param dirtyPages LSN of the oldest logged change not yet in the file of each page
+     * @throws IOException Failed to write to the log
+     */
+    void checkpoint(Map<PageID, Long> dirtyPages) throws IOException {
+        long lsn = this.appendedLSN + this.pending.position();
+        reserve(1 + Integer.BYTES).put(CHECKPOINT_RECORD).putInt(dirtyPages.size());
+        for (Map.Entry<PageID, Long> page : dirtyPages.entrySet()) {
+            reserve(1 + Integer.BYTES * 2 + Long.BYTES)
+                    .put((byte) (page.getKey().isIndex() ? 1 : 0))
+                    .putInt(page.getKey().fileID())
+                    .putInt(page.getKey().pageNumber())
+                    .putLong(page.getValue());
+        }
+        append();
+        force();
+        this.checkpointLSN = lsn;
+        openSegment(this.appendedLSN);
+
+        // a segment can go once the next one starts at or before the first record recovery needs
+        long redoLSN = Math.min(dirtyPages.values().stream().min(Comparator.naturalOrder()).orElse(lsn), lsn);
+        while (this.segments.size() > 1 && this.segments.higherKey(this.segments.firstKey()) <= redoLSN) {
+            Map.Entry<Long, FileChannel> segment = this.segments.pollFirstEntry();
+            segment.getValue().close();
+            Files.delete(segmentPath(segment.getKey()));
+        }
+    }
+
+    /**
+     * Force every commit appended so far to the device. Done before the user is asked for the next statement
+     *
+     * @throws IOException Failed to force the log
+     */
+    void sync() throws IOException {
+        if (this.unforcedCommits > 0)
+            force();
+    }
+
+    /**
+     * Force the log through a record before the page it holds is written to its file, so the file never gets a change
+     * the log could lose
+     *
+     * @param lsn LSN of the record
+     * @throws IOException Failed to force the log
+     */
+    void forceThrough(long lsn) throws IOException {
+        if (lsn < this.forcedLSN)
+            return;     // already on the device
+        append();
+        force();
+    }
+
+    /**
+     * Force the last segment, the ones before it were forced when the checkpoint that ended them was taken
+     */
+    private void force() throws IOException {
+        if (!this.segments.isEmpty())
+            this.segments.lastEntry().getValue().force(false);
+        this.unforcedCommits = 0;
+        this.forcedLSN = this.appendedLSN;
+    }
+
+    /**
+     * Empty the log once every page it holds is in its file, closing and deleting every segment
+     *
+     * @throws IOException Failed to delete the log
+     */
+    void truncate() throws IOException {
+        this.pending.clear();
+        this.unforcedCommits = 0;
+        this.appendedLSN = 0;
+        this.forcedLSN = 0;
+        this.checkpointLSN = 0;
+        for (FileChannel channel : this.segments.values())
+            channel.close();
+        this.segments.clear();
+        for (long firstLSN : findSegments())
+            Files.delete(segmentPath(firstLSN));
+    }
+
+    /**
+     * Read the log left by a crash and find the page images to write back. Only committed images are used, the last
+     * one of each page wins. Images from before the last checkpoint are skipped unless the checkpoint lists their page
+     * as not yet written since then. Reading stops at the first record that is cut short or fails its checksum
+     *
+     * @return Latest committed image of each page that may be missing from its file
+     * @throws IOException Failed to read the log
+     */
+    Map<PageID, byte[]> readRedoImages() throws IOException {
+        Map<PageID, byte[]> redo = new LinkedHashMap<>();
+        List<Image> committed = new ArrayList<>();
+        List<Image> group = new ArrayList<>();
+        Map<PageID, Long> dirtyPages = new HashMap<>();
+        long lastCheckpoint = -1;
+
+        // records never span segments, the first one cut short ends the log
+        boolean torn = false;
+        for (Iterator<Long> segments = findSegments().iterator(); segments.hasNext() && !torn; ) {
+            long first = segments.next();
+            byte[] log = Files.readAllBytes(segmentPath(first));
+            try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(log))) {
+                while (in.available() > 0 && !torn) {
+                    long lsn = first + (log.length - in.available());
+                    byte type = in.readByte();
+                    if (type == PAGE_RECORD) {
+                        PageID page = new PageID(in.readBoolean(), in.readInt(), in.readInt());
+                        int length = in.readInt();
+                        if (length < 0 || length > in.available()) {
+                            torn = true;
+                            break;
+                        }
+                        byte[] data = new byte[length];
+                        in.readFully(data);
+                        CRC32 crc = new CRC32();
+                        crc.update(data);
+                        if (in.readLong() != crc.getValue()) {
+                            torn = true;
+                            break;
+                        }
+                        group.add(new Image(page, lsn, data));
+                    } else if (type == COMMIT_RECORD) {
+                        committed.addAll(group);
+                        group.clear();
+                    } else if (type == ABORT_RECORD) {
+                        group.clear();
+                    } else if (type == CHECKPOINT_RECORD) {
+                        Map<PageID, Long> checkpointPages = new HashMap<>();
+                        int count = in.readInt();
+                        for (int i = 0; i < count; i++)
+                            checkpointPages.put(new PageID(in.readBoolean(), in.readInt(), in.readInt()), in.readLong());
+                        dirtyPages = checkpointPages;
+                        lastCheckpoint = lsn;
+                    } else {
+                        torn = true;
+                    }
+                }
+            } catch (EOFException e) {
+                // the last record was cut short by the crash, everything before it is usable
+                torn = true;
+            }
+        }
+
+        for (Image image : committed) {
+            Long recLSN = dirtyPages.get(image.page());
+            if (image.lsn() < lastCheckpoint && (recLSN == null || image.lsn() < recLSN))
+                continue;   // already in the file when the checkpoint was taken
+            redo.put(image.page(), image.data());
+        }
+        return redo;
+    }
+
+    /**
+     * Append the pending records to the last segment, creating the first one if needed
+     *
+     * @return True if anything was appended
+     * @throws IOException Failed to write to the log
+     */
+    private boolean append() throws IOException {
+        if (this.pending.position() == 0)
+            return false;
+
+        if (this.segments.isEmpty())
+            openSegment(this.appendedLSN);
+        Map.Entry<Long, FileChannel> segment = this.segments.lastEntry();
+        ByteBuffer records = this.pending.duplicate().flip();   // left as is if the write fails
+        long position = this.appendedLSN - segment.getKey();
+        while (records.hasRemaining())
+            segment.getValue().write(records, position + records.position());
+        this.appendedLSN += records.limit();
+        this.pending.clear();
+        return true;
+    }
+
+    /**
+     * Create a segment and open it for the rest of its life, records appended from now on go to it
+     *
+     * @param firstLSN LSN of the first record of the segment
+     * @throws IOException Failed to create the segment
+     */
+    private void openSegment(long firstLSN) throws IOException {
+        this.segments.put(firstLSN, FileChannel.open(segmentPath(firstLSN),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING));
+    }
+
+    /**
+     * @return Path of the segment starting at an LSN
+     */
+    private Path segmentPath(long firstLSN) {
+        return this.directory.resolve(LOG_FILE + "." + firstLSN);
+    }
+
+    /**
+     * Find the segments on disk, those a crash left behind included
+     *
+     * @return LSN of the first record of each segment, in log order
+     * @throws IOException Failed to list the database directory
+     */
+    private List<Long> findSegments() throws IOException {
+        List<Long> segments = new ArrayList<>();
+        if (!Files.isDirectory(this.directory))
+            return segments;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(this.directory, LOG_FILE + ".*")) {
+            for (Path file : files) {
+                String suffix = file.getFileName().toString().substring(LOG_FILE.length() + 1);
+                if (suffix.chars().allMatch(Character::isDigit) && !suffix.isEmpty())
+                    segments.add(Long.parseLong(suffix));
+            }
+        }
+        segments.sort(Comparator.naturalOrder());
+        return segments;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer bytes, long position) throws IOException {
+        while (bytes.hasRemaining()) {
+            if (channel.read(bytes, position + bytes.position()) < 0)
+                throw new EOFException("Log ends in the middle of a record");
+        }
+    }
+
+}
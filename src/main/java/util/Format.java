@@ -78,7 +78,7 @@ public class Format {
         return rows.deleteCharAt(0).toString();
     }
 
-    private static String createFormattedRow(List<Integer> colWidths, List<DataType> record) {
+    public static String createFormattedRow(List<Integer> colWidths, List<DataType> record) {
 
         StringBuilder row = new StringBuilder("|");
 
@@ -0,0 +1,168 @@
+package util;
+
+import sm.BInterpreter;
+import sm.StorageManager;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * <b>File:</b> PlanNode.java
+ * <p>
+ * <b>Description:</b> Operator of a query plan, shown by explain. When analyzing, the operator also counts the rows it
+ * produces, the time spent in it and the pages and bytes it read. Counts include the operators below it that ran while
+ * it was pulling rows from them
+ *
+ * @author Derek Garcia
+ */
+public class PlanNode {
+
+    private final String operator;
+    private final double estimatedRows;
+    private final List<PlanNode> children = new ArrayList<>();
+
+    private StorageManager sm = null;    // set only when analyzing
+    private int running = 0;
+    private long rows = 0;
+    private long nanos = 0;
+    private long bufferHits = 0;
+    private long diskReads = 0;
+    private long bytesDecoded = 0;
+    private long startNanos, startHits, startReads, startDecoded;
+
+    /**
+     * Create a new plan operator
+     *
+     * @param operator      Description of the operator
+     * @param estimatedRows Number of rows the operator is expected to produce
+     * @param children      Operators that feed this one
+     */
+    public PlanNode(String operator, double estimatedRows, PlanNode... children) {
+        this.operator = operator;
+        this.estimatedRows = estimatedRows;
+        this.children.addAll(List.of(children));
+    }
+
+    /**
+     * @return Number of rows the operator is expected to produce
+     */
+    public double getEstimatedRows() {
+        return this.estimatedRows;
+    }
+
+    /**
+     * @return Number of rows the operator produced, only counted when analyzing
+     */
+    public long getRows() {
+        return this.rows;
+    }
+
+    /**
+     * Count what this operator and the ones below it do from now on
+     *
+     * @param sm Storage manager to read the page counters from
+     */
+    public void analyze(StorageManager sm) {
+        this.sm = sm;
+        for (PlanNode child : this.children)
+            child.analyze(sm);
+    }
+
+    /**
+     * Start timing work done by the operator outside an instrumented iterator, like filling a sort
+     */
+    public void start() {
+        if (this.sm == null || this.running++ > 0)
+            return;
+        this.startNanos = System.nanoTime();
+        this.startHits = this.sm.getBufferHits();
+        this.startReads = this.sm.getDiskReads();
+        this.startDecoded = BInterpreter.getBytesDecoded();
+    }
+
+    /**
+     * Stop timing work started with {@link #start()}
+     */
+    public void stop() {
+        if (this.sm == null || --this.running > 0)
+            return;
+        this.nanos += System.nanoTime() - this.startNanos;
+        this.bufferHits += this.sm.getBufferHits() - this.startHits;
+        this.diskReads += this.sm.getDiskReads() - this.startReads;
+        this.bytesDecoded += BInterpreter.getBytesDecoded() - this.startDecoded;
+    }
+
+    /**
+     * Count rows produced by the operator outside an instrumented iterator
+     *
+     * @param rows Number of rows produced
+     */
+    public void addRows(long rows) {
+        this.rows += rows;
+    }
+
+    /**
+     * Wrap the output of the operator so every row and the work done to produce it is counted
+     *
+     * @param iterator Output of the operator
+     * @param <T>      Type of the rows
+     * @return Counting iterator, or the same iterator if not analyzing
+     */
+    public <T> Iterator<T> instrument(Iterator<T> iterator) {
+        if (this.sm == null)
+            return iterator;
+
+        return new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+                start();
+                try {
+                    return iterator.hasNext();
+                } finally {
+                    stop();
+                }
+            }
+
+            @Override
+            public T next() {
+                start();
+                try {
+                    T row = iterator.next();
+                    rows++;
+                    return row;
+                } finally {
+                    stop();
+                }
+            }
+        };
+    }
+
+    /**
+     * Format the operator and the ones below it as an indented tree
+     *
+     * @param analyze Include what was counted while analyzing
+     * @return Lines of the tree
+     */
+    public List<String> format(boolean analyze) {
+        List<String> lines = new ArrayList<>();
+        format(lines, 0, analyze);
+        return lines;
+    }
+
+    private void format(List<String> lines, int depth, boolean analyze) {
+        StringBuilder line = new StringBuilder();
+        if (depth > 0)
+            line.append("    ".repeat(depth - 1)).append("  -> ");
+        line.append(this.operator).append(" (estimated rows=").append(Math.round(this.estimatedRows)).append(")");
+
+        if (analyze) {
+            line.append(" (actual rows=%d time=%.3f ms pages hit=%d read=%d decoded=%d bytes)".formatted(
+                    this.rows, this.nanos / 1_000_000.0, this.bufferHits, this.diskReads, this.bytesDecoded));
+        }
+        lines.add(line.toString());
+
+        for (PlanNode child : this.children)
+            child.format(lines, depth + 1, analyze);
+    }
+}
@@ -23,6 +23,11 @@ public class ReservedKeywords {
             "Drop",
             "Alter",
             "Display",
+            "Analyze",
+            "Explain",
+            "Prepare",
+            "Execute",
+            "Copy",
             // Constraints
             "primarykey",
             "unique",
@@ -37,6 +42,9 @@ public class ReservedKeywords {
             "and",
             "or",
             "orderby",
+            "groupby",
+            "limit",
+            "offset",
             "From",
             "add",
             "default",
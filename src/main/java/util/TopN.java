@@ -0,0 +1,63 @@
+package util;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * <b>File:</b> TopN.java
+ * <p>
+ * <b>Description:</b> Keeps the first n items of a stream in sort order using a bounded heap, so ordering with a limit
+ * never holds more than n items
+ *
+ * @author Derek Garcia
+ */
+public class TopN<T> {
+
+    /**
+     * Item paired with its arrival order so equal items keep the order they were added in
+     */
+    private record Entry<T>(T item, long sequence) {
+    }
+
+    private final int n;
+    private final Comparator<Entry<T>> order;
+    private final PriorityQueue<Entry<T>> heap;
+    private long sequence = 0;
+
+    /**
+     * Create a new top n heap
+     *
+     * @param n          Number of items to keep
+     * @param comparator Order to keep the items in
+     */
+    public TopN(int n, Comparator<T> comparator) {
+        this.n = n;
+        this.order = Comparator.<Entry<T>, T>comparing(Entry::item, comparator).thenComparingLong(Entry::sequence);
+        this.heap = new PriorityQueue<>(this.order.reversed());     // worst item on top to be evicted
+    }
+
+    /**
+     * Add an item, dropping the worst item if more than n are held
+     *
+     * @param item Item to add
+     */
+    public void add(T item) {
+        if (this.n <= 0)
+            return;
+
+        this.heap.add(new Entry<>(item, this.sequence++));
+        if (this.heap.size() > this.n)
+            this.heap.poll();
+    }
+
+    /**
+     * @return The kept items in sort order
+     */
+    public List<T> toSortedList() {
+        List<Entry<T>> entries = new ArrayList<>(this.heap);
+        entries.sort(this.order);
+        return new ArrayList<>(entries.stream().map(Entry::item).toList());
+    }
+}
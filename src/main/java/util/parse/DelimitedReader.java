@@ -0,0 +1,153 @@
+package util.parse;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <b>File:</b> DelimitedReader.java
+ * <p>
+ * <b>Description:</b> Stream the records of a CSV or TSV file one at a time. The file is read through a fixed size
+ * buffer, so a file of any size is read in the same amount of memory. CSV fields may be wrapped in double quotes to
+ * hold delimiters, line breaks or doubled quotes. An empty field that is not quoted is read as null
+ *
+ * @author Derek Garcia
+ */
+public class DelimitedReader implements AutoCloseable {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Reader reader;
+    private final char delimiter;
+    private final boolean quoting;
+    private final char[] buffer = new char[BUFFER_SIZE];
+    private int position = 0;
+    private int limit = 0;
+
+    private long lineNumber = 1;
+    private long recordLineNumber = 0;
+
+    /**
+     * Open a delimited file
+     *
+     * @param path      Path to the file
+     * @param delimiter Character between fields
+     * @param quoting   Whether fields can be wrapped in double quotes
+     * @throws IOException Failed to open the file
+     */
+    public DelimitedReader(Path path, char delimiter, boolean quoting) throws IOException {
+        this.reader = Channels.newReader(FileChannel.open(path), StandardCharsets.UTF_8);
+        this.delimiter = delimiter;
+        this.quoting = quoting;
+    }
+
+    /**
+     * Open a file as TSV if its extension is .tsv or .tab, CSV otherwise
+     *
+     * @param path Path to the file
+     * @return Reader of the file
+     * @throws IOException Failed to open the file
+     */
+    public static DelimitedReader open(Path path) throws IOException {
+        String name = path.getFileName().toString().toLowerCase();
+        boolean tabs = name.endsWith(".tsv") || name.endsWith(".tab");
+        return new DelimitedReader(path, tabs ? '\t' : ',', !tabs);
+    }
+
+    /**
+     * Read the next record, skipping blank lines
+     *
+     * @return Fields of the record, null if the end of the file was reached
+     * @throws IOException Failed to read the file
+     */
+    public List<String> readRecord() throws IOException {
+        int c = read();
+        while (c == '\n' || c == '\r') {
+            endLine(c);
+            c = read();
+        }
+        if (c == -1)
+            return null;
+
+        this.recordLineNumber = this.lineNumber;
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+
+        while (true) {
+            if (c == -1 || c == '\n' || c == '\r' || c == this.delimiter) {
+                fields.add(quoted || !field.isEmpty() ? field.toString() : null);
+                field.setLength(0);
+                quoted = false;
+
+                if (c != this.delimiter) {
+                    if (c != -1)
+                        endLine(c);
+                    return fields;
+                }
+                c = read();
+            } else if (this.quoting && c == '"' && field.isEmpty() && !quoted) {
+                // read to the closing quote, a doubled quote is a literal one
+                quoted = true;
+                while ((c = read()) != -1) {
+                    if (c == '"') {
+                        c = read();
+                        if (c != '"')
+                            break;
+                    } else if (c == '\n') {
+                        this.lineNumber++;
+                    }
+                    field.append((char) c);
+                }
+            } else {
+                field.append((char) c);
+                c = read();
+            }
+        }
+    }
+
+    /**
+     * @return Line of the file the last record read started on
+     */
+    public long getLineNumber() {
+        return this.recordLineNumber;
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.reader.close();
+    }
+
+    /**
+     * Count a line break, treating \r\n as one
+     */
+    private void endLine(int c) throws IOException {
+        if (c == '\r' && peek() == '\n')
+            read();
+        this.lineNumber++;
+    }
+
+    private int read() throws IOException {
+        if (this.position == this.limit && !fill())
+            return -1;
+        return this.buffer[this.position++];
+    }
+
+    private int peek() throws IOException {
+        if (this.position == this.limit && !fill())
+            return -1;
+        return this.buffer[this.position];
+    }
+
+    private boolean fill() throws IOException {
+        int read = this.reader.read(this.buffer, 0, this.buffer.length);
+        this.position = 0;
+        this.limit = Math.max(0, read);
+        return read > 0;
+    }
+}
@@ -0,0 +1,67 @@
+package util.parse;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <b>File:</b> InsertStatement.java
+ * <p>
+ * <b>Description:</b> Syntax tree of an insert statement. Values are kept as written, strings with their quotes, so
+ * the insert command can convert them to the types of the table
+ *
+ * @param tableName Table to insert into
+ * @param tuples    Values of each tuple in order
+ * @author Derek Garcia
+ */
+public record InsertStatement(String tableName, List<List<String>> tuples) {
+
+    /**
+     * Parse an insert statement
+     * <p>
+     * <code>insert into &lt;name&gt; values (&lt;v_1&gt; ... &lt;v_N&gt;), ...;</code>
+     *
+     * @param statement Statement text
+     * @return Syntax tree, null if the statement does not follow the grammar
+     */
+    public static InsertStatement parse(String statement) {
+        TokenStream tokens = new TokenStream(statement);
+        if (!tokens.acceptWord("insert") || !tokens.acceptWord("into"))
+            return null;
+
+        String tableName = tokens.nextRawValue("(", ")", ",", ";");
+        if (tableName.isEmpty() || !tokens.acceptWord("values"))
+            return null;
+
+        List<List<String>> tuples = new ArrayList<>();
+        do {
+            List<String> tuple = parseTuple(tokens);
+            if (tuple == null)
+                return null;
+            tuples.add(tuple);
+        } while (tokens.acceptSymbol(","));
+
+        if (!tokens.acceptSymbol(";") || !tokens.atEnd())
+            return null;
+
+        return new InsertStatement(tableName, tuples);
+    }
+
+    /**
+     * Parse a parenthesized list of whitespace separated values
+     *
+     * @return Values of the tuple, null if it is empty or malformed
+     */
+    private static List<String> parseTuple(TokenStream tokens) {
+        if (!tokens.acceptSymbol("("))
+            return null;
+
+        List<String> values = new ArrayList<>();
+        while (!tokens.acceptSymbol(")")) {
+            String value = tokens.nextRawValue("(", ")", ",");
+            if (value.isEmpty())
+                return null;    // unclosed tuple or a delimiter where a value should be
+            values.add(value);
+        }
+        return values.isEmpty() ? null : values;
+    }
+}
@@ -0,0 +1,134 @@
+package util.parse;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <b>File:</b> Lexer.java
+ * <p>
+ * <b>Description:</b> Split a statement into tokens in a single pass over its characters. Nothing is ever re-read, so
+ * the time to tokenize is linear in the length of the statement
+ *
+ * @author Derek Garcia
+ */
+public class Lexer {
+
+    private final String source;
+    private int position = 0;
+
+    private Lexer(String source) {
+        this.source = source;
+    }
+
+    /**
+     * Split a statement into tokens
+     *
+     * @param source Statement text
+     * @return Tokens in order, always ending with an END token
+     */
+    public static List<Token> tokenize(String source) {
+        return new Lexer(source).tokenize();
+    }
+
+    private List<Token> tokenize() {
+        List<Token> tokens = new ArrayList<>();
+        while (true) {
+            boolean spaceBefore = skipWhitespace();
+            if (this.position == this.source.length()) {
+                tokens.add(new Token(Token.Type.END, "", this.position, this.position, spaceBefore));
+                return tokens;
+            }
+            tokens.add(nextToken(spaceBefore));
+        }
+    }
+
+    private boolean skipWhitespace() {
+        int start = this.position;
+        while (this.position < this.source.length() && Character.isWhitespace(this.source.charAt(this.position)))
+            this.position++;
+        return this.position > start;
+    }
+
+    private Token nextToken(boolean spaceBefore) {
+        int start = this.position;
+        char c = this.source.charAt(this.position);
+
+        if (c == '"') {
+            int close = this.source.indexOf('"', start + 1);
+            if (close < 0) {
+                this.position = this.source.length();
+                return token(Token.Type.UNKNOWN, start, spaceBefore);
+            }
+            this.position = close + 1;
+            return token(Token.Type.STRING, start, spaceBefore);
+        }
+
+        if (isLetter(c)) {
+            skipName();
+            // one qualifier is allowed, table.attribute
+            if (peek(0) == '.' && isLetter(peek(1))) {
+                this.position++;
+                skipName();
+            }
+            return token(Token.Type.WORD, start, spaceBefore);
+        }
+
+        if (isDigit(c) || (c == '-' && isDigit(peek(1)))) {
+            this.position++;
+            skipDigits();
+            if (peek(0) == '.') {
+                this.position++;
+                skipDigits();
+            }
+            return token(Token.Type.NUMBER, start, spaceBefore);
+        }
+
+        if (c == '?') {
+            this.position++;
+            return token(Token.Type.PARAMETER, start, spaceBefore);
+        }
+
+        switch (c) {
+            case '<', '>', '!' -> {
+                this.position += peek(1) == '=' ? 2 : 1;
+                return token(c == '!' && this.position - start == 1 ? Token.Type.UNKNOWN : Token.Type.SYMBOL, start, spaceBefore);
+            }
+            case '=', '(', ')', ',', ';', '*' -> {
+                this.position++;
+                return token(Token.Type.SYMBOL, start, spaceBefore);
+            }
+            default -> {
+                this.position++;
+                return token(Token.Type.UNKNOWN, start, spaceBefore);
+            }
+        }
+    }
+
+    private Token token(Token.Type type, int start, boolean spaceBefore) {
+        return new Token(type, this.source.substring(start, this.position), start, this.position, spaceBefore);
+    }
+
+    private void skipName() {
+        this.position++;
+        while (isLetter(peek(0)) || isDigit(peek(0)))
+            this.position++;
+    }
+
+    private void skipDigits() {
+        while (isDigit(peek(0)))
+            this.position++;
+    }
+
+    private char peek(int offset) {
+        int i = this.position + offset;
+        return i < this.source.length() ? this.source.charAt(i) : '\0';
+    }
+
+    private static boolean isLetter(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+}
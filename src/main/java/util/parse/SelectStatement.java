@@ -0,0 +1,163 @@
+package util.parse;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <b>File:</b> SelectStatement.java
+ * <p>
+ * <b>Description:</b> Syntax tree of a select statement. The clauses are only split apart here, names are checked
+ * against the catalog by the select command
+ *
+ * @param selectList Items of the select list, either "*", an attribute or an aggregate like "count(*)"
+ * @param tableNames Tables in the from clause
+ * @param where      Where clause starting with "where", null if there is none
+ * @param groupBy    Attributes to group by, null if there is no groupby clause
+ * @param orderBy    Attribute to order by, null if there is no orderby clause
+ * @param limit      Digits of the limit, null if there is no limit clause
+ * @param offset     Digits of the offset, null if there is no offset
+ * @author Derek Garcia
+ */
+public record SelectStatement(List<String> selectList, List<String> tableNames, String where, List<String> groupBy,
+                              String orderBy, String limit, String offset) {
+
+    private static final List<String> AGGREGATES = List.of("count", "sum", "avg", "min", "max");
+
+    /**
+     * Parse a select statement
+     * <p>
+     * <code>select &lt;items&gt; from &lt;tables&gt; [where &lt;condition(s)&gt;] [groupby &lt;attributes&gt;]
+     * [orderby &lt;attribute&gt;] [limit &lt;n&gt; [offset &lt;m&gt;]];</code>
+     *
+     * @param statement Statement text
+     * @return Syntax tree, null if the statement does not follow the grammar
+     */
+    public static SelectStatement parse(String statement) {
+        TokenStream tokens = new TokenStream(statement);
+        if (!tokens.acceptWord("select"))
+            return null;
+
+        // select list
+        List<String> selectList = new ArrayList<>();
+        if (tokens.acceptSymbol("*")) {
+            selectList.add("*");
+        } else {
+            do {
+                String item = parseSelectItem(tokens);
+                if (item == null)
+                    return null;
+                selectList.add(item);
+            } while (tokens.acceptSymbol(","));
+        }
+
+        // from clause
+        if (!tokens.acceptWord("from"))
+            return null;
+        List<String> tableNames = parseNameList(tokens);
+        if (tableNames == null)
+            return null;
+
+        // where clause, runs until the next clause or the end of the statement
+        String where = null;
+        if (tokens.peek().isWord("where")) {
+            Token first = tokens.next();
+            Token last = first;
+            while (!tokens.atEnd() && !tokens.peek().isSymbol(";") && !isClauseKeyword(tokens.peek()))
+                last = tokens.next();
+            if (last == first)
+                return null;
+            where = tokens.getText(first, last);
+        }
+
+        List<String> groupBy = null;
+        if (tokens.acceptWord("groupby")) {
+            groupBy = parseNameList(tokens);
+            if (groupBy == null)
+                return null;
+        }
+
+        // orderby attribute, anything up to the limit is passed on so a bad attribute gets a useful error
+        String orderBy = null;
+        if (tokens.peek().isWord("orderby")) {
+            tokens.next();
+            Token first = tokens.peek();
+            Token last = null;
+            while (!tokens.atEnd() && !tokens.peek().isSymbol(";") && !tokens.peek().isWord("limit"))
+                last = tokens.next();
+            if (last == null)
+                return null;
+            orderBy = tokens.getText(first, last);
+        }
+
+        String limit = null;
+        String offset = null;
+        if (tokens.acceptWord("limit")) {
+            limit = parseCount(tokens);
+            if (limit == null)
+                return null;
+            if (tokens.acceptWord("offset")) {
+                offset = parseCount(tokens);
+                if (offset == null)
+                    return null;
+            }
+        }
+
+        if (!tokens.acceptSymbol(";") || !tokens.atEnd())
+            return null;
+
+        return new SelectStatement(selectList, tableNames, where, groupBy, orderBy, limit, offset);
+    }
+
+    /**
+     * Parse an attribute or an aggregate of an attribute or *
+     *
+     * @return Text of the item with whitespace removed, null if it is not an item
+     */
+    private static String parseSelectItem(TokenStream tokens) {
+        Token name = tokens.next();
+        if (name.type() != Token.Type.WORD)
+            return null;
+
+        boolean isAggregate = AGGREGATES.contains(name.text().toLowerCase()) && tokens.peek().isSymbol("(");
+        if (!isAggregate)
+            return name.text();
+
+        tokens.next();
+        Token argument = tokens.next();
+        if (!argument.isSymbol("*") && (argument.type() != Token.Type.WORD))
+            return null;
+        if (!tokens.acceptSymbol(")"))
+            return null;
+        return "%s(%s)".formatted(name.text(), argument.text());
+    }
+
+    /**
+     * Parse a comma separated list of names
+     *
+     * @return Names, null if the list is empty or malformed
+     */
+    private static List<String> parseNameList(TokenStream tokens) {
+        List<String> names = new ArrayList<>();
+        do {
+            Token name = tokens.next();
+            if (name.type() != Token.Type.WORD)
+                return null;
+            names.add(name.text());
+        } while (tokens.acceptSymbol(","));
+        return names;
+    }
+
+    /**
+     * @return Digits of a non-negative count, null if the next token isn't one
+     */
+    private static String parseCount(TokenStream tokens) {
+        Token count = tokens.next();
+        if (count.type() != Token.Type.NUMBER || !count.text().chars().allMatch(Character::isDigit))
+            return null;
+        return count.text();
+    }
+
+    private static boolean isClauseKeyword(Token token) {
+        return token.isWord("groupby") || token.isWord("orderby") || token.isWord("limit");
+    }
+}
@@ -0,0 +1,52 @@
+package util.parse;
+
+/**
+ * <b>File:</b> Token.java
+ * <p>
+ * <b>Description:</b> Single token of a statement with its position in the source text
+ *
+ * @param type        Kind of token
+ * @param text        Text of the token, strings keep their quotes
+ * @param start       Index of the first character in the source text
+ * @param end         Index after the last character in the source text
+ * @param spaceBefore True if whitespace separates this token from the one before it
+ * @author Derek Garcia
+ */
+public record Token(Type type, String text, int start, int end, boolean spaceBefore) {
+
+    public enum Type {
+        WORD,       // name or keyword, may be qualified with one dot (table.attribute)
+        NUMBER,     // integer or decimal, may be negative
+        STRING,     // double quoted string
+        SYMBOL,     // comparator or punctuation
+        PARAMETER,  // ? placeholder
+        UNKNOWN,    // character that doesn't start any token, or a string without a closing quote
+        END         // end of the statement
+    }
+
+    /**
+     * @param word Keyword to check for
+     * @return True if this token is the word, ignoring case
+     */
+    public boolean isWord(String word) {
+        return this.type == Type.WORD && this.text.equalsIgnoreCase(word);
+    }
+
+    /**
+     * @param symbol Symbol to check for
+     * @return True if this token is the symbol
+     */
+    public boolean isSymbol(String symbol) {
+        return this.type == Type.SYMBOL && this.text.equals(symbol);
+    }
+
+    /**
+     * @return True if this token is one of the comparators usable in a where clause
+     */
+    public boolean isComparator() {
+        return this.type == Type.SYMBOL && switch (this.text) {
+            case "=", "!=", "<", "<=", ">", ">=" -> true;
+            default -> false;
+        };
+    }
+}
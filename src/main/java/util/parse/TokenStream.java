@@ -0,0 +1,132 @@
+package util.parse;
+
+import java.util.List;
+
+/**
+ * <b>File:</b> TokenStream.java
+ * <p>
+ * <b>Description:</b> Cursor over the tokens of a statement used by the recursive descent parsers. The cursor only
+ * moves forward, so a parse is a single pass over the tokens
+ *
+ * @author Derek Garcia
+ */
+public class TokenStream {
+
+    private final String source;
+    private final List<Token> tokens;
+    private int position = 0;
+
+    /**
+     * Tokenize a statement
+     *
+     * @param source Statement text
+     */
+    public TokenStream(String source) {
+        this.source = source;
+        this.tokens = Lexer.tokenize(source);
+    }
+
+    /**
+     * @return Next token without consuming it
+     */
+    public Token peek() {
+        return this.tokens.get(this.position);
+    }
+
+    /**
+     * @param offset Number of tokens to look past the next one
+     * @return Token without consuming it, the END token if past the end
+     */
+    public Token peek(int offset) {
+        return this.tokens.get(Math.min(this.position + offset, this.tokens.size() - 1));
+    }
+
+    /**
+     * @return Next token, the END token is never consumed
+     */
+    public Token next() {
+        Token token = peek();
+        if (token.type() != Token.Type.END)
+            this.position++;
+        return token;
+    }
+
+    /**
+     * Consume the next token if it is a keyword
+     *
+     * @param word Keyword to look for
+     * @return True if the keyword was consumed
+     */
+    public boolean acceptWord(String word) {
+        if (!peek().isWord(word))
+            return false;
+        next();
+        return true;
+    }
+
+    /**
+     * Consume the next token if it is a symbol
+     *
+     * @param symbol Symbol to look for
+     * @return True if the symbol was consumed
+     */
+    public boolean acceptSymbol(String symbol) {
+        if (!peek().isSymbol(symbol))
+            return false;
+        next();
+        return true;
+    }
+
+    /**
+     * @return True if every token was consumed
+     */
+    public boolean atEnd() {
+        return peek().type() == Token.Type.END;
+    }
+
+    /**
+     * @return Statement text the tokens were read from
+     */
+    public String getSource() {
+        return this.source;
+    }
+
+    /**
+     * @param from First token
+     * @param to   Last token
+     * @return Source text from the start of the first token to the end of the last one
+     */
+    public String getText(Token from, Token to) {
+        return this.source.substring(from.start(), to.end());
+    }
+
+    /**
+     * @param from First token
+     * @return Source text from the start of the token to the end of the statement
+     */
+    public String getRemainingText(Token from) {
+        return this.source.substring(from.start());
+    }
+
+    /**
+     * Consume a run of tokens that touch each other with no whitespace between them, stopping at whitespace or one of
+     * the given symbols
+     *
+     * @param delimiters Symbols that end the run
+     * @return Source text of the run, empty if the next token starts with a delimiter
+     */
+    public String nextRawValue(String... delimiters) {
+        Token first = peek();
+        Token last = null;
+        while (!atEnd() && (last == null || !peek().spaceBefore()) && !isDelimiter(peek(), delimiters))
+            last = next();
+        return last == null ? "" : getText(first, last);
+    }
+
+    private static boolean isDelimiter(Token token, String... delimiters) {
+        for (String d : delimiters)
+            if (token.isSymbol(d))
+                return true;
+        return false;
+    }
+}
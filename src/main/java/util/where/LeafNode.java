@@ -10,6 +10,21 @@ public class LeafNode extends Node{
     Integer TableNum;
     DataType Value;
     AttributeType ReturnType;
+    Integer ParameterIndex;     // position of a ? placeholder, its value is bound before the tree is used
+
+    /**
+     * Create a ? placeholder. Its return type is taken from what it is compared to
+     *
+     * @param parameterIndex Position of the placeholder in the where clause
+     */
+    static LeafNode parameter(int parameterIndex) {
+        LeafNode node = new LeafNode();
+        node.ParameterIndex = parameterIndex;
+        return node;
+    }
+
+    private LeafNode() {
+    }
 
     LeafNode(String table, String attribute){
         TableName = table == null ? null : table.toLowerCase();
@@ -46,8 +61,17 @@ public class LeafNode extends Node{
         return ReturnType;
     }
 
+    /**
+     * @return True if this leaf is a ? placeholder
+     */
+    boolean isParameter() {
+        return ParameterIndex != null;
+    }
+
     @Override
     public String toString() {
+        if (isParameter() && Value == null)
+            return "?";
         if (Value != null)
             return (Value instanceof DTChar || Value instanceof DTVarchar)
                     ? "\"" + Value.stringValue() + "\""
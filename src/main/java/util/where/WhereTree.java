@@ -1,9 +1,13 @@
 package util.where;
 
 import catalog.Attribute;
+import catalog.ColumnStatistics;
 import catalog.ICatalog;
+import catalog.Table;
 import cli.cmd.exception.ExecutionFailure;
 import dataTypes.*;
+import util.parse.Token;
+import util.parse.TokenStream;
 
 import java.util.*;
 import java.util.function.Predicate;
@@ -21,20 +25,21 @@ public class WhereTree {
     private final ICatalog Catalog;
     private final List<String> TableNames;
     public final Map<String, Integer> TableAttrOffsets = new HashMap<>();
+    private final Map<LeafNode, Integer> RecordIndexes = new IdentityHashMap<>();     // resolved once, leaves are tested per record
     public final Map<String, String> DistinctAttrNames = new HashMap<>();
     public final List<String> AllAttrNames = new ArrayList<>();
     private InternalNode tree;
+    private final List<LeafNode> Parameters = new ArrayList<>();
 
     public final Map<String, WhereTree> TableOptimizations = new HashMap<>();
-    private String UnparsedContent;
+    private final Map<String, Double> OptimizationSelectivity = new HashMap<>();
 
     private final List<String> parseErrors = new ArrayList<>();
+    private boolean MoreConditions;     // set while parsing when a conjunction ended at an "or"
     private static final String BAD_WHERE_MSG = "The where clause is invalid:";
+    private static final double DEFAULT_EQ_SELECTIVITY = 0.1;        // guesses for attributes that were never analyzed
+    private static final double DEFAULT_RANGE_SELECTIVITY = 1.0 / 3;
 
-    private static final Pattern GLOBAL_PATTERN = Pattern.compile("where\\s+(.*)", Pattern.CASE_INSENSITIVE);
-    private static final Pattern ALGEBRA_BRANCH_PATTERN = Pattern.compile("((?:\".*?\"|[a-z][a-z0-9]*(?:\\.[a-z][a-z0-9]*)?|-?[0-9]+\\.[0-9]*|-?[0-9]+)\\s*(?:>|<|=|!=|<=|>=)\\s*(?:\".*?\"|[a-z][a-z0-9]*(?:\\.[a-z][a-z0-9]*)?|-?[0-9]+\\.[0-9]*|-?[0-9]+))(?:\\s+(.*))?", Pattern.CASE_INSENSITIVE);
-    private static final Pattern CONDITIONAL_BRANCH_PATTERN = Pattern.compile("(and|or)\\s+(.*)", Pattern.CASE_INSENSITIVE);
-    private static final Pattern LEAF_NODE_PATTERN = Pattern.compile("(\".*?\"|[a-z][a-z0-9]*(?:\\.[a-z][a-z0-9]*)?|-?[0-9]+\\.[0-9]*|-?[0-9]+)\\s*(>|<|=|!=|<=|>=)\\s*(\".*?\"|[a-z][a-z0-9]*(?:\\.[a-z][a-z0-9]*)?|-?[0-9]+\\.[0-9]*|-?[0-9]+)", Pattern.CASE_INSENSITIVE);
     private static final Pattern TABLE_ATTR_PATTERN = Pattern.compile("([a-z][a-z0-9]*)(?:\\.([a-z][a-z0-9]*))?", Pattern.CASE_INSENSITIVE);
     private static final Pattern QUOTED_STRING_PATTERN = Pattern.compile("\"(.*)\"", Pattern.CASE_INSENSITIVE);
     private static final Pattern DOUBLE_PATTERN = Pattern.compile("-?[0-9]+\\.[0-9]*", Pattern.CASE_INSENSITIVE);
@@ -80,6 +85,8 @@ public class WhereTree {
 
             throw new ExecutionFailure(sb.toString());
         }
+
+        planOptimizations();
     }
 
     public WhereTree(InternalNode tree, ICatalog catalog, List<String> tableNames) throws ExecutionFailure {
@@ -110,80 +117,105 @@ public class WhereTree {
         this.tree = tree;
     }
 
+    /**
+     * Parse the where clause with a recursive descent over its tokens. "and" binds tighter than "or", and conditions
+     * joined by "and" are nested to the right
+     *
+     * @param input Where clause, starting with "where"
+     */
     private void parseInput(String input) {
-        Matcher overallMatcher = GLOBAL_PATTERN.matcher(input);
+        TokenStream tokens = new TokenStream(input);
 
-        if (!overallMatcher.matches()) {
+        Token where = tokens.next();
+        if (!where.isWord("where") || where.start() != 0 || !tokens.peek().spaceBefore()) {
             parseErrors.add("The format did not match the expected \"where <condition>;\"");
             return;
         }
 
-        UnparsedContent = overallMatcher.group(1);
-        tree = recursiveParse();
-
-        while (UnparsedContent != null) {
-            if (!parseErrors.isEmpty())
+        tree = parseConjunction(tokens);
+        while (tree != null && MoreConditions) {
+            InternalNode next = parseConjunction(tokens);
+            if (next == null)
                 return;
-            tree = new InternalNode(tree, recursiveParse(), "or");
+            tree = new InternalNode(tree, next, "or");
         }
     }
 
-    private InternalNode recursiveParse() {
-        Matcher innerLeafMatcher = ALGEBRA_BRANCH_PATTERN.matcher(UnparsedContent);
+    /**
+     * Parse comparisons joined by "and", stopping after an "or" or at the end of the clause
+     *
+     * @param tokens Tokens of the where clause
+     * @return Root of the conjunction, null if it could not be parsed
+     */
+    private InternalNode parseConjunction(TokenStream tokens) {
+        Token start = tokens.peek();
+        InternalNode inner = parseComparison(tokens);
+        if (inner == null)
+            return null;
+
+        MoreConditions = false;
+        Token next = tokens.peek();
+        if (next.type() == Token.Type.END)
+            return inner;
 
-        if (!innerLeafMatcher.matches()) {
-            parseErrors.add(UnparsedContent);
+        // the comparison must be separated from what follows it
+        if (!next.spaceBefore()) {
+            parseErrors.add(tokens.getRemainingText(start));
             parseErrors.add("^ Parse error. The parser could not validate this relational algebra.");
             return null;
         }
 
-        String leafString = innerLeafMatcher.group(1);
+        boolean andCondition = next.isWord("and");
+        if ((!andCondition && !next.isWord("or")) || !tokens.peek(1).spaceBefore()) {
+            parseErrors.add(tokens.getRemainingText(next));
+            parseErrors.add("^ Parse error. Tokens \"and\" or \"or\" expected here.");
+            return null;
+        }
+        tokens.next();
+
+        if (!andCondition) {
+            MoreConditions = true;
+            return inner;
+        }
 
-        Matcher leafMatcher = LEAF_NODE_PATTERN.matcher(leafString);
+        InternalNode rest = parseConjunction(tokens);
+        return rest == null ? null : new InternalNode(inner, rest, "and");
+    }
 
-        if (!leafMatcher.matches()) {
-            // I don't expect this error to throw, but its just there as a sanity check.
-            // We have to run matches for our groups, so might as well double check and throw if needed.
-            parseErrors.add(leafString);
+    /**
+     * Parse a single <code>operand comparator operand</code>
+     *
+     * @param tokens Tokens of the where clause
+     * @return Comparison, null if it could not be parsed
+     */
+    private InternalNode parseComparison(TokenStream tokens) {
+        Token start = tokens.peek();
+        Token left = tokens.next();
+        Token comparator = tokens.next();
+        Token right = tokens.next();
+
+        if (!isOperand(left) || !comparator.isComparator() || !isOperand(right)) {
+            parseErrors.add(tokens.getRemainingText(start));
             parseErrors.add("^ Parse error. The parser could not validate this relational algebra.");
             return null;
         }
 
-        String left = leafMatcher.group(1);
-        LeafNode leftLeaf = createLeaf(left);
+        LeafNode leftLeaf = createLeaf(left.text());
         if (leftLeaf == null)
             return null;
 
-
-        String comparer = leafMatcher.group(2);
-        String right = leafMatcher.group(3);
-        LeafNode rightLeaf = createLeaf(right);
+        LeafNode rightLeaf = createLeaf(right.text());
         if (rightLeaf == null)
             return null;
 
-        InternalNode inner = new InternalNode(leftLeaf, rightLeaf, comparer);
-
-        UnparsedContent = innerLeafMatcher.group(2);
-
-        if (UnparsedContent == null)
-            return inner;
-
-        Matcher conditionalMatcher = CONDITIONAL_BRANCH_PATTERN.matcher(UnparsedContent);
-
-        if (!conditionalMatcher.matches()) {
-            parseErrors.add(UnparsedContent);
-            parseErrors.add("^ Parse error. Tokens \"and\" or \"or\" expected here.");
-            return null;
-        }
-
-        boolean andCondition = conditionalMatcher.group(1).equals("and");
-        UnparsedContent = conditionalMatcher.group(2);
+        return new InternalNode(leftLeaf, rightLeaf, comparator.text());
+    }
 
-        if (andCondition) {
-            return new InternalNode(inner, recursiveParse(), "and");
-        } else {
-            return inner;
-        }
+    private static boolean isOperand(Token token) {
+        return switch (token.type()) {
+            case WORD, NUMBER, STRING, PARAMETER -> true;
+            default -> false;
+        };
     }
 
     private boolean isValidTree() {
@@ -235,6 +267,19 @@ public class WhereTree {
             if (!validChildren)
                 return false;
 
+            // a parameter takes the type of what it is compared to
+            if (internal.Left instanceof LeafNode lLeaf && internal.Right instanceof LeafNode rLeaf) {
+                if (lLeaf.isParameter() && rLeaf.isParameter()) {
+                    parseErrors.add(internal.toString());
+                    parseErrors.add("^   ^ Two parameters can't be compared to each other.");
+                    return false;
+                }
+                if (lLeaf.isParameter())
+                    lLeaf.ReturnType = rLeaf.ReturnType;
+                else if (rLeaf.isParameter())
+                    rLeaf.ReturnType = lLeaf.ReturnType;
+            }
+
             boolean matchingTypes = internal.Left.getReturnType().equals(internal.Right.getReturnType());
 
             if (!matchingTypes) {
@@ -259,48 +304,204 @@ public class WhereTree {
                 return false;
             }
 
-            if (internal.Left instanceof LeafNode lLeaf && lLeaf.Attribute == null  // left = constant & right = table attribute
-                    && internal.Right instanceof LeafNode rLeaf && rLeaf.TableName != null) {
-                createOptimization(rLeaf, internal);
-            }
-
-            if (internal.Left instanceof LeafNode lLeaf && lLeaf.TableName != null  // left = constant & right = table attribute
-                    && internal.Right instanceof LeafNode rLeaf && rLeaf.Attribute == null) {
-                createOptimization(lLeaf, internal);
-            }
-
             return true;
         }
         parseErrors.add("Something bad happened. A tree node was found that didn't match a Leaf or Internal node.");
         return false;
     }
 
-    private void createOptimization(LeafNode tableNode, InternalNode parentNode) {
-        try {
-            switch (Restrictions) {
-                case NONE -> {} // Explicitly do nothing
-                case NO_RESTRICTIONS -> {
-                    if (!TableOptimizations.containsKey(tableNode.TableName) ||
-                            (TableOptimizations.containsKey(tableNode.TableName) &&
-                                    Catalog.getRecordSchema(tableNode.TableName).getAttribute(tableNode.Attribute).isPrimaryKey())) {
-                        TableOptimizations.put(tableNode.TableName, new WhereTree(parentNode, Catalog, List.of(tableNode.TableName)));
-                    }
-                }
-                case ONLY_PKS -> {
-                    if (!TableOptimizations.containsKey(tableNode.TableName) &&
-                            Catalog.getRecordSchema(tableNode.TableName).getAttribute(tableNode.Attribute).isPrimaryKey()) {
-                        TableOptimizations.put(tableNode.TableName, new WhereTree(parentNode, Catalog, List.of(tableNode.TableName)));
-                    }
-                }
+    /**
+     * Pick the predicate each table should be filtered by before the tables are combined. Only comparisons between an
+     * attribute and a constant that every passing record must satisfy (not under an "or") are candidates, and the one
+     * estimated to pass the fewest records wins. Primary keys win ties
+     */
+    private void planOptimizations() {
+        if (Restrictions == NONE)
+            return;
+
+        List<InternalNode> conjuncts = new ArrayList<>();
+        collectConjuncts(tree, conjuncts);
+
+        for (InternalNode conjunct : conjuncts) {
+            LeafNode tableNode = getAttributeLeaf(conjunct);
+            if (tableNode == null)
+                continue;
+
+            boolean isPrimaryKey = Catalog.getRecordSchema(tableNode.TableName).getAttribute(tableNode.Attribute).isPrimaryKey();
+            if (Restrictions == ONLY_PKS && !isPrimaryKey)
+                continue;
+
+            double selectivity = estimateSelectivity(conjunct);
+            Double best = OptimizationSelectivity.get(tableNode.TableName);
+            if (best == null || selectivity < best || (selectivity == best && isPrimaryKey)) {
+                try {
+                    TableOptimizations.put(tableNode.TableName, new WhereTree(conjunct, Catalog, List.of(tableNode.TableName)));
+                    OptimizationSelectivity.put(tableNode.TableName, selectivity);
+                } catch (ExecutionFailure ignored) {} // By the time we get to here, we know the tree will be valid.
             }
-        } catch (ExecutionFailure ignored) {} // By the time we get to here, we know the tree will be valid.
+        }
+    }
+
+    private void collectConjuncts(InternalNode node, List<InternalNode> conjuncts) {
+        if (node.Comparator.equalsIgnoreCase("and")) {
+            collectConjuncts((InternalNode) node.Left, conjuncts);
+            collectConjuncts((InternalNode) node.Right, conjuncts);
+        } else if (!node.Comparator.equalsIgnoreCase("or")) {
+            conjuncts.add(node);
+        }
+    }
+
+    /**
+     * Get the attribute of a comparison between an attribute and a constant
+     *
+     * @param node Comparison node
+     * @return Leaf of the attribute, null if the node does not compare an attribute to a constant
+     */
+    private static LeafNode getAttributeLeaf(InternalNode node) {
+        if (node.Left instanceof LeafNode lLeaf && node.Right instanceof LeafNode rLeaf) {
+            if (lLeaf.Attribute == null && rLeaf.TableName != null)
+                return rLeaf;
+            if (lLeaf.TableName != null && rLeaf.Attribute == null)
+                return lLeaf;
+        }
+        return null;
+    }
+
+    /**
+     * Estimate the fraction of records that pass this tree using the statistics gathered by analyze, falling back
+     * to fixed guesses for attributes that were never analyzed
+     *
+     * @return Selectivity between 0 and 1
+     */
+    public double estimateSelectivity() {
+        return estimateSelectivity(tree);
+    }
+
+    /**
+     * Get the estimated selectivity of the predicate chosen to filter a table
+     *
+     * @param tableName Name of the table
+     * @return Selectivity between 0 and 1, 1 if the table is not filtered on its own
+     */
+    public double estimateSelectivity(String tableName) {
+        return OptimizationSelectivity.getOrDefault(tableName.toLowerCase(), 1.0);
+    }
+
+    /**
+     * Get the primary key a table can be looked up by, if the predicate chosen for the table is an equality on the
+     * primary key
+     *
+     * @param tableName Name of the table
+     * @return Primary key value, null if the table can't be looked up by its primary key
+     */
+    public DataType getPrimaryKeyLookup(String tableName) {
+        WhereTree optimization = TableOptimizations.get(tableName.toLowerCase());
+        if (optimization == null || !optimization.tree.Comparator.equals("="))
+            return null;
+
+        LeafNode tableNode = getAttributeLeaf(optimization.tree);
+        if (tableNode == null || !Catalog.getRecordSchema(tableNode.TableName).getAttribute(tableNode.Attribute).isPrimaryKey())
+            return null;
+
+        LeafNode constant = tableNode == optimization.tree.Left ? (LeafNode) optimization.tree.Right : (LeafNode) optimization.tree.Left;
+        return constant.Value;
+    }
+
+    private double estimateSelectivity(InternalNode node) {
+        if (node.Comparator.equalsIgnoreCase("and"))
+            return estimateSelectivity((InternalNode) node.Left) * estimateSelectivity((InternalNode) node.Right);
+        if (node.Comparator.equalsIgnoreCase("or")) {
+            double left = estimateSelectivity((InternalNode) node.Left);
+            double right = estimateSelectivity((InternalNode) node.Right);
+            return left + right - left * right;
+        }
+
+        LeafNode lLeaf = (LeafNode) node.Left;
+        LeafNode rLeaf = (LeafNode) node.Right;
+
+        // two constants, the answer is known
+        if (lLeaf.Value != null && rLeaf.Value != null)
+            return passesSubtree(node, null, null) ? 1 : 0;
+
+        // two attributes, guess from the number of distinct values
+        LeafNode tableNode = getAttributeLeaf(node);
+        if (tableNode == null) {
+            if (!node.Comparator.equals("=") && !node.Comparator.equals("!="))
+                return DEFAULT_RANGE_SELECTIVITY;
+            int distinct = Math.max(getDistinctCount(lLeaf), getDistinctCount(rLeaf));
+            double equal = distinct > 0 ? 1.0 / distinct : DEFAULT_EQ_SELECTIVITY;
+            return node.Comparator.equals("=") ? equal : 1 - equal;
+        }
+
+        // write the comparison as <attribute> <comparator> <constant>
+        String comparator = node.Comparator;
+        DataType value = tableNode == lLeaf ? rLeaf.Value : lLeaf.Value;
+        if (tableNode == rLeaf) {
+            comparator = switch (comparator) {
+                case ">" -> "<";
+                case ">=" -> "<=";
+                case "<" -> ">";
+                case "<=" -> ">=";
+                default -> comparator;
+            };
+        }
+
+        Table table = Catalog.getRecordSchema(tableNode.TableName);
+        ColumnStatistics stats = table.getColumnStatistics(tableNode.Attribute);
+        if (stats != null)
+            return stats.estimateSelectivity(comparator, value);
+
+        boolean isPrimaryKey = table.getAttribute(tableNode.Attribute).isPrimaryKey();
+        return switch (comparator) {
+            case "=" -> isPrimaryKey ? Math.min(DEFAULT_EQ_SELECTIVITY, 1.0 / Math.max(1, table.getStatistics().getRowCount())) : DEFAULT_EQ_SELECTIVITY;
+            case "!=" -> 1 - DEFAULT_EQ_SELECTIVITY;
+            default -> DEFAULT_RANGE_SELECTIVITY;
+        };
+    }
+
+    private int getDistinctCount(LeafNode leaf) {
+        if (leaf.Attribute == null)
+            return 0;
+        ColumnStatistics stats = Catalog.getRecordSchema(leaf.TableName).getColumnStatistics(leaf.Attribute);
+        return stats == null ? 0 : stats.getDistinctCount();
     }
 
     public boolean passesTree(List<DataType> record) {
-        return passesSubtree(tree, record);
+        return passesSubtree(tree, record, null);
+    }
+
+    /**
+     * Test a narrow record that only contains some of the table's columns
+     *
+     * @param record    Narrow record to test
+     * @param columnMap Map of schema index to index in the narrow record, null if the record is not narrow
+     * @return true if the record passes the tree, false otherwise
+     */
+    public boolean passesTree(List<DataType> record, int[] columnMap) {
+        return passesSubtree(tree, record, columnMap);
+    }
+
+    /**
+     * Get the attributes referenced by this tree
+     *
+     * @return Set of full attribute names in the form table.attribute
+     */
+    public Set<String> getReferencedAttributes() {
+        Set<String> attributes = new HashSet<>();
+        collectAttributes(tree, attributes);
+        return attributes;
+    }
+
+    private void collectAttributes(Node node, Set<String> attributes) {
+        if (node instanceof LeafNode leaf && leaf.Attribute != null)
+            attributes.add("%s.%s".formatted(leaf.TableName, leaf.Attribute));
+        else if (node instanceof InternalNode internal) {
+            collectAttributes(internal.Left, attributes);
+            collectAttributes(internal.Right, attributes);
+        }
     }
 
-    private boolean passesSubtree(Node node, List<DataType> record) {
+    private boolean passesSubtree(Node node, List<DataType> record, int[] columnMap) {
         if (!(node instanceof InternalNode iNode))
             return false; // This should never happen, the recursion should never pass in a leaf node here.
 
@@ -322,28 +523,38 @@ public class WhereTree {
             if (lLeaf.Value != null)
                 lValue = lLeaf.Value;
             else {
-                lValue = record.get(Catalog.getRecordSchema(lLeaf.TableName).getIndexOfAttribute(lLeaf.Attribute) +
-                        TableAttrOffsets.get(lLeaf.TableName));
+                lValue = record.get(getRecordIndex(lLeaf, columnMap));
             }
             DataType rValue;
             if (rLeaf.Value != null)
                 rValue = rLeaf.Value;
             else {
-                rValue = record.get(Catalog.getRecordSchema(rLeaf.TableName).getIndexOfAttribute(rLeaf.Attribute) +
-                        TableAttrOffsets.get(rLeaf.TableName));
+                rValue = record.get(getRecordIndex(rLeaf, columnMap));
             }
             return comparator.test(lValue.compareTo(rValue));
         }
 
         if (iNode.Comparator.equalsIgnoreCase("and"))
-            return passesSubtree(iNode.Left, record) && passesSubtree(iNode.Right, record);
+            return passesSubtree(iNode.Left, record, columnMap) && passesSubtree(iNode.Right, record, columnMap);
         else
-            return passesSubtree(iNode.Left, record) || passesSubtree(iNode.Right, record);
+            return passesSubtree(iNode.Left, record, columnMap) || passesSubtree(iNode.Right, record, columnMap);
+    }
+
+    private int getRecordIndex(LeafNode leaf, int[] columnMap) {
+        int index = RecordIndexes.computeIfAbsent(leaf, l ->
+                Catalog.getRecordSchema(l.TableName).getIndexOfAttribute(l.Attribute) + TableAttrOffsets.get(l.TableName));
+        return columnMap == null ? index : columnMap[index];
     }
 
     private LeafNode createLeaf(String value) {
         LeafNode node;
 
+        if (value.equals("?")) {
+            node = LeafNode.parameter(Parameters.size());
+            Parameters.add(node);
+            return node;
+        }
+
         Matcher leftTableMatcher = TABLE_ATTR_PATTERN.matcher(value);
         Matcher stringMatcher = QUOTED_STRING_PATTERN.matcher(value);
         Matcher doubleMatcher = DOUBLE_PATTERN.matcher(value);
@@ -373,6 +584,43 @@ public class WhereTree {
         return node;
     }
 
+    /**
+     * @return Number of ? placeholders in the tree
+     */
+    public int getParameterCount() {
+        return Parameters.size();
+    }
+
+    /**
+     * Set the values of the ? placeholders, replacing any values bound before
+     *
+     * @param values Values in the order the placeholders appear, written the same way as a constant in a where clause
+     * @throws ExecutionFailure The wrong number of values was given or a value does not match its placeholder's type
+     */
+    public void bind(List<String> values) throws ExecutionFailure {
+        if (values.size() != Parameters.size())
+            throw new ExecutionFailure("Expected %d parameters but %d were given.".formatted(Parameters.size(), values.size()));
+
+        for (int i = 0; i < values.size(); i++) {
+            String value = values.get(i).strip();
+            LeafNode parameter = Parameters.get(i);
+            LeafNode literal = value.equals("?") ? null : createLeaf(value);
+            parseErrors.clear();
+
+            if (literal == null || literal.Value == null)
+                throw new ExecutionFailure("The parameter '%s' is not a value.".formatted(value));
+
+            DataType bound = literal.Value;
+            if (literal.ReturnType != parameter.ReturnType) {
+                if (parameter.ReturnType == AttributeType.VARCHAR && literal.ReturnType == AttributeType.CHAR)
+                    bound = new DTVarchar(bound.stringValue());
+                else
+                    throw new ExecutionFailure("The parameter '%s' is not of type %s.".formatted(value, parameter.ReturnType.name()));
+            }
+            parameter.Value = bound;
+        }
+    }
+
     @Override
     public String toString() {
         return tree.toString();
@@ -0,0 +1,122 @@
+import mocks.MockCLI;
+import sm.LRUPolicy;
+import sm.ReplacementPolicy;
+import sm.StorageManager;
+import sm.TwoQueuePolicy;
+import util.StrBuilder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Random;
+import java.util.function.IntFunction;
+
+/**
+ * <b>File:</b> BufferBenchmarker.java
+ * <p>
+ * <b>Description:</b> Tester class for comparing the hit ratio of the page buffer replacement policies on a mix of
+ * point lookups, most of them on a small set of hot keys, and full table scans larger than the buffer
+ *
+ * @author Derek Garcia
+ */
+public class BufferBenchmarker {
+
+    private static final int ROUNDS = 20;
+    private static final int LOOKUPS_PER_SCAN = 50;
+    private static final double HOT_LOOKUPS = 0.8;      // share of lookups on the hot keys
+    private static final int HOT_KEYS = 50;
+    private static final long SEED = 421;
+
+    private static final Map<String, IntFunction<ReplacementPolicy>> POLICIES = Map.of(
+            "LRU", capacity -> new LRUPolicy(),
+            "2Q", TwoQueuePolicy::new
+    );
+
+    /**
+     * Remove previous database files
+     */
+    private static void cleanUp(String path) {
+        for (File file : Objects.requireNonNull(new File(path).listFiles()))
+            if (!file.isDirectory()) {
+                file.delete();
+            }
+    }
+
+    /**
+     * Build an insert of rows that fill about 8 times the buffer
+     */
+    private static String buildLoad(int rows) {
+        String name = "n".repeat(100);
+        StringBuilder sb = new StringBuilder("insert into big values ");
+        for (int x = 0; x < rows; x++)
+            sb.append("(%d \"%s\")".formatted(x, name)).append(x < rows - 1 ? ", " : ";");
+        return sb.toString();
+    }
+
+    /**
+     * Run the workload on a fresh database with a replacement policy
+     *
+     * @return Buffer hits and disk reads of the workload
+     */
+    private static long[] run(String dbRoot, int pageSize, int bufferSize, String load, int rows, ReplacementPolicy policy) throws IOException {
+        cleanUp(dbRoot);
+        MockCLI mockCLI = new MockCLI(dbRoot, pageSize, bufferSize, true);
+        mockCLI.mockInput("create table big( x integer primarykey, name varchar(100) );");
+        mockCLI.mockInput(load);
+        mockCLI.exit();
+
+        // start from an empty buffer
+        mockCLI = new MockCLI(dbRoot, pageSize, bufferSize, true);
+        StorageManager sm = mockCLI.getStorageManager();
+        sm.setReplacementPolicy(policy);
+        long hits = sm.getBufferHits();
+        long diskReads = sm.getDiskReads();
+
+        Random random = new Random(SEED);
+        for (int round = 0; round < ROUNDS; round++) {
+            for (int lookup = 0; lookup < LOOKUPS_PER_SCAN; lookup++) {
+                int x = random.nextDouble() < HOT_LOOKUPS ? random.nextInt(HOT_KEYS) : random.nextInt(rows);
+                mockCLI.mockInput("select * from big where x = %d;".formatted(x));
+            }
+            mockCLI.mockInput("select x from big where name = \"none\";");
+        }
+
+        long[] result = {sm.getBufferHits() - hits, sm.getDiskReads() - diskReads};
+        mockCLI.exit();
+        return result;
+    }
+
+    /**
+     * Run Benchmark Test
+     *
+     * @param args Test Database, page size, buffer size
+     * @throws IOException failed to write to the database
+     */
+    public static void main(String[] args) throws IOException {
+        String dbRoot = args[0];
+        int pageSize = Integer.parseInt(args[1]);
+        int bufferSize = Integer.parseInt(args[2]);
+
+        Files.createDirectories(Paths.get(dbRoot));
+
+        System.out.println(new StrBuilder()
+                .addLine("Running Buffer Benchmarker")
+                .addLine("\tBuffer Size: " + bufferSize)
+                .addLine("\tPage Size: " + pageSize)
+                .addLine("\tRounds of %d lookups and a scan: %d".formatted(LOOKUPS_PER_SCAN, ROUNDS))
+                .build());
+
+        int rows = 8 * bufferSize * pageSize / 110;
+        String load = buildLoad(rows);
+        for (String name : POLICIES.keySet().stream().sorted().toList()) {
+            long[] result = run(dbRoot, pageSize, bufferSize, load, rows, POLICIES.get(name).apply(bufferSize));
+            System.out.printf("%-4s %8d hits %8d disk reads %6.1f%% hit ratio%n",
+                    name, result[0], result[1], 100.0 * result[0] / (result[0] + result[1]));
+        }
+
+        cleanUp(dbRoot);
+    }
+}
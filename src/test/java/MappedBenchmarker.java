@@ -0,0 +1,106 @@
+import mocks.MockCLI;
+import util.StrBuilder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Objects;
+import java.util.Random;
+
+/**
+ * <b>File:</b> MappedBenchmarker.java
+ * <p>
+ * <b>Description:</b> Tester class for comparing reading table and index files through the page buffer with reading
+ * them through memory maps, on a read-mostly workload of full table scans and point lookups over a table larger than
+ * the buffer
+ *
+ * @author Derek Garcia
+ */
+public class MappedBenchmarker {
+
+    private static final int ROUNDS = 20;
+    private static final int LOOKUPS_PER_SCAN = 50;
+    private static final long SEED = 421;
+
+    /**
+     * Remove previous database files
+     */
+    private static void cleanUp(String path) {
+        for (File file : Objects.requireNonNull(new File(path).listFiles()))
+            if (!file.isDirectory()) {
+                file.delete();
+            }
+    }
+
+    /**
+     * Build an insert of rows that fill about 8 times the buffer
+     */
+    private static String buildLoad(int rows) {
+        String name = "n".repeat(100);
+        StringBuilder sb = new StringBuilder("insert into big values ");
+        for (int x = 0; x < rows; x++)
+            sb.append("(%d \"%s\")".formatted(x, name)).append(x < rows - 1 ? ", " : ";");
+        return sb.toString();
+    }
+
+    /**
+     * Run the workload on the loaded database
+     *
+     * @return Milliseconds the workload took
+     */
+    private static long run(String dbRoot, int pageSize, int bufferSize, int rows, boolean memoryMapped) throws IOException {
+        MockCLI mockCLI = new MockCLI(dbRoot, pageSize, bufferSize, true, memoryMapped);
+        Random random = new Random(SEED);
+
+        long startTime = System.nanoTime();
+        for (int round = 0; round < ROUNDS; round++) {
+            for (int lookup = 0; lookup < LOOKUPS_PER_SCAN; lookup++)
+                mockCLI.mockInput("select * from big where x = %d;".formatted(random.nextInt(rows)));
+            mockCLI.mockInput("select x from big where name = \"none\";");
+        }
+        long elapsed = (System.nanoTime() - startTime) / 1_000_000;
+
+        mockCLI.exit();
+        return elapsed;
+    }
+
+    /**
+     * Run Benchmark Test
+     *
+     * @param args Test Database, page size, buffer size
+     * @throws IOException failed to write to the database
+     */
+    public static void main(String[] args) throws IOException {
+        String dbRoot = args[0];
+        int pageSize = Integer.parseInt(args[1]);
+        int bufferSize = Integer.parseInt(args[2]);
+
+        Files.createDirectories(Paths.get(dbRoot));
+
+        System.out.println(new StrBuilder()
+                .addLine("Running Memory-Mapped Benchmarker")
+                .addLine("\tBuffer Size: " + bufferSize)
+                .addLine("\tPage Size: " + pageSize)
+                .addLine("\tRounds of %d lookups and a scan: %d".formatted(LOOKUPS_PER_SCAN, ROUNDS))
+                .build());
+
+        int rows = 8 * bufferSize * pageSize / 110;
+        cleanUp(dbRoot);
+        MockCLI mockCLI = new MockCLI(dbRoot, pageSize, bufferSize, true);
+        mockCLI.mockInput("create table big( x integer primarykey, name varchar(100) );");
+        mockCLI.mockInput(buildLoad(rows));
+        mockCLI.exit();
+
+        // warm up both paths and the OS page cache before timing
+        run(dbRoot, pageSize, bufferSize, rows, false);
+        run(dbRoot, pageSize, bufferSize, rows, true);
+
+        for (boolean memoryMapped : new boolean[]{false, true}) {
+            long elapsed = run(dbRoot, pageSize, bufferSize, rows, memoryMapped);
+            System.out.printf("%-12s %8d ms%n", memoryMapped ? "Mapped" : "Page buffer", elapsed);
+        }
+
+        cleanUp(dbRoot);
+    }
+}
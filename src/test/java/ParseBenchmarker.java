@@ -0,0 +1,153 @@
+import catalog.Attribute;
+import catalog.ColumnStatistics;
+import catalog.ICatalog;
+import catalog.Table;
+import cli.cmd.exception.ExecutionFailure;
+import dataTypes.AttributeType;
+import util.StrBuilder;
+import util.parse.InsertStatement;
+import util.parse.SelectStatement;
+import util.where.WhereTree;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * <b>File:</b> ParseBenchmarker.java
+ * <p>
+ * <b>Description:</b> Tester class for benchmarking how parse time grows with the length of a statement. Parsing is
+ * linear if the time per character stays flat as the statements get longer
+ *
+ * @author Derek Garcia
+ */
+public class ParseBenchmarker {
+
+    private static final int RUNS = 5;
+
+    private static final Table TABLE = new Table("foo", 1, List.of(
+            new Attribute("x", AttributeType.INTEGER),
+            new Attribute("name", AttributeType.VARCHAR, 20, false, true)));
+
+    private static final ICatalog CATALOG = new ICatalog() {
+        @Override
+        public Table getRecordSchema(String tableName) {
+            return TABLE;
+        }
+
+        @Override
+        public Attribute getTableAttribute(String tableName, String attrName) {
+            return TABLE.getAttribute(attrName);
+        }
+
+        @Override
+        public int getTableNumber(String name) {
+            return 1;
+        }
+
+        @Override
+        public int getPageSize() {
+            return 0;
+        }
+
+        @Override
+        public Set<String> getExistingTableNames() {
+            return Set.of("foo");
+        }
+
+        @Override
+        public void createTable(String name, List<Attribute> attributes) {
+        }
+
+        @Override
+        public void deleteTable(String name) {
+        }
+
+        @Override
+        public void addAttribute(String tableName, Attribute attribute) {
+        }
+
+        @Override
+        public void dropAttribute(String tableName, String attrName) {
+        }
+
+        @Override
+        public void setColumnStatistics(String tableName, Map<String, ColumnStatistics> columnStatistics) {
+        }
+    };
+
+    /**
+     * Build an insert with the given number of tuples
+     */
+    private static String buildInsert(int tuples) {
+        StringBuilder sb = new StringBuilder("insert into foo values ");
+        for (int i = 0; i < tuples; i++)
+            sb.append("(%d \"name %d\")".formatted(i, i)).append(i < tuples - 1 ? ", " : ";");
+        return sb.toString();
+    }
+
+    /**
+     * Build a select with the given number of conditions in its where clause
+     */
+    private static String buildSelect(int conditions) {
+        StringBuilder sb = new StringBuilder("select * from foo where ");
+        for (int i = 0; i < conditions; i++)
+            sb.append("x != %d".formatted(i)).append(i < conditions - 1 ? (i % 2 == 0 ? " and " : " or ") : ";");
+        return sb.toString();
+    }
+
+    /**
+     * Parse a select statement and its where clause
+     */
+    private static void parseSelect(String statement) throws ExecutionFailure {
+        SelectStatement select = SelectStatement.parse(statement);
+        new WhereTree(select.where(), CATALOG, select.tableNames(), WhereTree.NONE);
+    }
+
+    /**
+     * Time the fastest of a few parses of a statement
+     */
+    private static long time(String statement, boolean isSelect) throws ExecutionFailure {
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < RUNS; i++) {
+            long start = System.nanoTime();
+            if (isSelect)
+                parseSelect(statement);
+            else
+                InsertStatement.parse(statement);
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return best;
+    }
+
+    /**
+     * Run Benchmark Test
+     *
+     * @param args unused
+     * @throws ExecutionFailure failed to parse a where clause
+     */
+    public static void main(String[] args) throws ExecutionFailure {
+        System.out.println(new StrBuilder()
+                .addLine("Running Parse Benchmarker")
+                .addLine("\tRuns per statement: " + RUNS)
+                .build());
+
+        // warm up the JIT so the first sizes aren't slower than the rest
+        time(buildInsert(10_000), false);
+        time(buildSelect(2_000), true);
+
+        for (int tuples = 1_000; tuples <= 64_000; tuples *= 2) {
+            String insert = buildInsert(tuples);
+            long nanos = time(insert, false);
+            System.out.printf("insert %6d tuples %9d chars %8.3f ms %6.1f ns/char%n",
+                    tuples, insert.length(), nanos / 1_000_000.0, (double) nanos / insert.length());
+        }
+
+        for (int conditions = 250; conditions <= 8_000; conditions *= 2) {
+            String select = buildSelect(conditions);
+            long nanos = time(select, true);
+            System.out.printf("where  %6d conds  %9d chars %8.3f ms %6.1f ns/char%n",
+                    conditions, select.length(), nanos / 1_000_000.0, (double) nanos / select.length());
+        }
+    }
+}
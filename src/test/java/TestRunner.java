@@ -1,21 +1,33 @@
 import catalog.Attribute;
+import catalog.ColumnStatistics;
 import catalog.ICatalog;
 import catalog.Table;
 import cli.cmd.exception.ExecutionFailure;
 import dataTypes.*;
 import mocks.MockCLI;
+import sm.LRUPolicy;
+import sm.ReplacementPolicy;
+import sm.StorageManager;
+import sm.TwoQueuePolicy;
 import util.StrBuilder;
 import util.Tester;
 import util.where.WhereTree;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.PrintStream;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Scanner;
 import java.util.Set;
+import java.util.stream.Stream;
 
 
 /**
@@ -31,6 +43,31 @@ public class TestRunner {
     private static int PAGE_SIZE;
     private static int BUFFER_SIZE;
 
+    /**
+     * Find the segments of the write-ahead log of the database
+     *
+     * @return Segment files in log order, empty if there is no log
+     * @throws IOException Failed to list the database
+     */
+    private static List<Path> logSegments() throws IOException {
+        try (Stream<Path> files = Files.list(Paths.get(DB_ROOT))) {
+            return files.filter(file -> file.getFileName().toString().matches("wal\\.log\\.\\d+"))
+                    .sorted(Comparator.comparingLong(file -> Long.parseLong(file.getFileName().toString().substring("wal.log.".length()))))
+                    .toList();
+        }
+    }
+
+    /**
+     * @return Size of the write-ahead log of the database in bytes, 0 if there is no log
+     * @throws IOException Failed to read the size of a segment
+     */
+    private static long logSizeOnDisk() throws IOException {
+        long size = 0;
+        for (Path segment : logSegments())
+            size += Files.size(segment);
+        return size;
+    }
+
     /**
      * Create a new CLI with no database
      *
@@ -46,6 +83,7 @@ public class TestRunner {
      * Remove previous database files
      */
     private static void cleanUp() {
+        MockCLI.stopPageWriter();
         for (File file : Objects.requireNonNull(new File(DB_ROOT).listFiles()))
             if (!file.isDirectory()) {
                 file.delete();
@@ -595,6 +633,14 @@ public class TestRunner {
             @Override
             public void addAttribute(String tableName, Attribute attribute) {
             }
+
+            @Override
+            public void dropAttribute(String tableName, String attrName) {
+            }
+
+            @Override
+            public void setColumnStatistics(String tableName, Map<String, ColumnStatistics> columnStatistics) {
+            }
         };
 
         List<String> tests = List.of(
@@ -843,6 +889,14 @@ public class TestRunner {
             @Override
             public void addAttribute(String tableName, Attribute attribute) {
             }
+
+            @Override
+            public void dropAttribute(String tableName, String attrName) {
+            }
+
+            @Override
+            public void setColumnStatistics(String tableName, Map<String, ColumnStatistics> columnStatistics) {
+            }
         };
         List<String> expected = List.of("true",
                 "false",
@@ -1439,8 +1493,8 @@ public class TestRunner {
         // When
         String actual = mockCLI.mockInput("select * from foo;");
 
-        // Then
-        return tester.isEquals(command, expected, actual);
+        // Then, the record keeps its place in the page so an indexed table returns it in its original position
+        return tester.isUnorderedEquals(command, expected, actual);
     }
 
     private static int test_update_where_or_non_primary_key(boolean useIndex) {
@@ -1634,6 +1688,1819 @@ public class TestRunner {
         return tester.isEquals(command, expected, actual);
     }
 
+    private static int test_select_projection_where_on_unselected_column(boolean useIndex) {
+        String expected = new StrBuilder()
+                .addLine("-------")
+                .addLine("|  x  |")
+                .addLine("-------")
+                .addLine("|    2|")
+                .addLine("|    4|")
+                .build();
+        Tester tester = new Tester("select_projection_where_on_unselected_column", useIndex);
+
+        // Given
+        MockCLI mockCLI = buildMockCLI(useIndex);
+        mockCLI.mockInput("create table foo( x integer primarykey, name varchar(20), y double, code char(10) );");
+        mockCLI.mockInput("insert into foo values (1 \"one\" 2.1 \"a\"), (2 null 3.7 \"b\"), (3 \"three\" 2.1 null), (4 \"four\" 0.1 \"d\");");
+        String command = "select x from foo where y < 2.1 or code = \"b\";";
+
+        // When
+        String actual = mockCLI.mockInput(command);
+
+        // Then
+        return tester.isEquals(command, expected, actual);
+    }
+
+    /**
+     * Test ordering a result larger than the buffer, forcing sorted runs to spill to disk
+     *
+     * @param useIndex Use index
+     * @return 0 if pass, 1 if fail
+     */
+    private static int test_select_orderby_larger_than_buffer(boolean useIndex) {
+        int numRecords = 300;
+        StrBuilder expectedBuilder = new StrBuilder()
+                .addLine("-------------")
+                .addLine("|  x  |  y  |")
+                .addLine("-------------");
+        StringBuilder values = new StringBuilder();
+        for (int i = 0; i < numRecords; i++)
+            values.append("(%d %d)".formatted(i, (i * 7919) % numRecords)).append(i < numRecords - 1 ? ", " : "");
+        // 7919 is coprime to 300, so y is a permutation of 0..299
+        for (int y = 0; y < numRecords; y++) {
+            int x = 0;
+            while ((x * 7919) % numRecords != y)
+                x++;
+            expectedBuilder.addLine("|%5d|%5d|".formatted(x, y));
+        }
+        String expected = expectedBuilder.build();
+        Tester tester = new Tester("select_orderby_larger_than_buffer", useIndex);
+
+        // Given
+        cleanUp();
+        MockCLI mockCLI = new MockCLI(DB_ROOT, PAGE_SIZE, 2, useIndex);   // small buffer to force spilling
+        mockCLI.mockInput("create table foo( x integer primarykey, y integer );");
+        mockCLI.mockInput("insert into foo values %s;".formatted(values));
+        String command = "select * from foo orderby y;";
+
+        // When
+        String actual = mockCLI.mockInput(command);
+
+        // Then
+        File[] runFiles = new File(DB_ROOT).listFiles((dir, name) -> name.endsWith(".run"));
+        if (runFiles != null && runFiles.length > 0)
+            return tester.isEquals(command, "no sort run files", "%d sort run files".formatted(runFiles.length));
+        return tester.isEquals(command, expected, actual);
+    }
+
+    /**
+     * Test ordering by a non key attribute with a limit and offset
+     *
+     * @param useIndex Use index
+     * @return 0 if pass, 1 if fail
+     */
+    private static int test_select_orderby_limit_offset(boolean useIndex) {
+        String expected = new StrBuilder()
+                .addLine("-------------")
+                .addLine("|  x  |  y  |")
+                .addLine("-------------")
+                .addLine("|    4|   20|")
+                .addLine("|    1|   30|")
+                .build();
+        Tester tester = new Tester("select_orderby_limit_offset", useIndex);
+
+        // Given
+        MockCLI mockCLI = buildMockCLI(useIndex);
+        mockCLI.mockInput("create table foo( x integer primarykey, y integer );");
+        mockCLI.mockInput("insert into foo values (5 50), (3 10), (1 30), (4 20), (2 40);");
+        String command = "select * from foo orderby y limit 2 offset 1;";
+
+        // When
+        String actual = mockCLI.mockInput(command);
+
+        // Then
+        return tester.isEquals(command, expected, actual);
+    }
+
+    /**
+     * Test a limit without ordering
+     *
+     * @param useIndex Use index
+     * @return 0 if pass, 1 if fail
+     */
+    private static int test_select_where_limit(boolean useIndex) {
+        String expected = new StrBuilder()
+                .addLine("-------")
+                .addLine("|  x  |")
+                .addLine("-------")
+                .addLine("|    2|")
+                .addLine("|    4|")
+                .build();
+        Tester tester = new Tester("select_where_limit", useIndex);
+
+        // Given
+        MockCLI mockCLI = buildMockCLI(useIndex);
+        mockCLI.mockInput("create table foo( x integer primarykey, y integer );");
+        mockCLI.mockInput("insert into foo values (1 10), (2 20), (3 10), (4 20), (5 20);");
+        String command = "select x from foo where y = 20 limit 2;";
+
+        // When
+        String actual = mockCLI.mockInput(command);
+
+        // Then
+        return tester.isEquals(command, expected, actual);
+    }
+
+    /**
+     * Test single inserts into a table that splits its last page many times with a buffer of 3 pages, so index nodes
+     * are evicted and read back while the split records are repointed
+     *
+     * @param useIndex Use index
+     * @return 0 if pass, 1 if fail
+     */
+    private static int test_inserts_with_small_buffer(boolean useIndex) {
+        Tester tester = new Tester("inserts_with_small_buffer", useIndex);
+
+        // how the tree splits depends on the page size, one of these counts made node numbers repeat
+        for (int numRecords : List.of(PAGE_SIZE / 2, PAGE_SIZE)) {
+            StrBuilder expectedBuilder = new StrBuilder()
+                    .addLine("-------")
+                    .addLine("|  x  |")
+                    .addLine("-------");
+            for (int x = 0; x < numRecords; x++)
+                expectedBuilder.addLine("|%5d|".formatted(x));
+            String expected = expectedBuilder.build();
+
+            // Given
+            cleanUp();
+            MockCLI mockCLI = new MockCLI(DB_ROOT, PAGE_SIZE, 3, useIndex);   // small buffer to force evicting index nodes
+            mockCLI.mockInput("create table foo( x integer primarykey, y integer );");
+            for (int i = 0; i < numRecords; i++)
+                mockCLI.mockInput("insert into foo values (%d %d);".formatted((i * 7919) % numRecords, i));
+            String command = "select x from foo orderby x;";
+
+            // When
+            String actual = mockCLI.mockInput(command);
+
+            // Then
+            if (tester.isEquals("%d inserts, %s".formatted(numRecords, command), expected, actual) != 0)
+                return 1;
+        }
+        return 0;
+    }
+
+    /**
+     * Test single deletes with a buffer of 3 pages, so index nodes are evicted and read back while underflowing
+     * nodes merge and borrow, then insert the deleted records again to grow the shrunk tree
+     *
+     * @param useIndex Use index
+     * @return 0 if pass, 1 if fail
+     */
+    private static int test_deletes_with_small_buffer(boolean useIndex) {
+        Tester tester = new Tester("deletes_with_small_buffer", useIndex);
+        int numRecords = PAGE_SIZE;
+
+        StrBuilder expectedBuilder = new StrBuilder()
+                .addLine("-------")
+                .addLine("|  x  |")
+                .addLine("-------");
+        for (int x = 0; x < numRecords; x++)
+            expectedBuilder.addLine("|%5d|".formatted(x));
+        String expected = expectedBuilder.build();
+
+        // Given
+        cleanUp();
+        MockCLI mockCLI = new MockCLI(DB_ROOT, PAGE_SIZE, 3, useIndex);   // small buffer to force evicting index nodes
+        mockCLI.mockInput("create table foo( x integer primarykey, y integer );");
+        for (int i = 0; i < numRecords; i++)
+            mockCLI.mockInput("insert into foo values (%d %d);".formatted((i * 7919) % numRecords, i));
+        // keep every 50th record, so the tree shrinks back to a few nodes
+        for (int i = 0; i < numRecords; i++) {
+            int x = (i * 4999) % numRecords;
+            if (x % 50 != 0)
+                mockCLI.mockInput("delete from foo where x = %d;".formatted(x));
+        }
+        for (int x = 0; x < numRecords; x++) {
+            if (x % 50 != 0)
+                mockCLI.mockInput("insert into foo values (%d %d);".formatted(x, x));
+        }
+        String command = "select x from foo orderby x;";
+
+        // When
+        String actual = mockCLI.mockInput(command);
+
+        // Then
+        return tester.isEquals(command, expected, actual);
+    }
+
+    /**
+     * Test ordering by the primary key with a limit across many pages inserted out of order
+     *
+     * @param useIndex Use index
+     * @return 0 if pass, 1 if fail
+     */
+    private static int test_select_orderby_primarykey_limit(boolean useIndex) {
+        int numRecords = 300;
+        StrBuilder expectedBuilder = new StrBuilder()
+                .addLine("-------------")
+                .addLine("|  x  |  y  |")
+                .addLine("-------------");
+        StringBuilder values = new StringBuilder();
+        for (int i = 0; i < numRecords; i++)
+            values.append("(%d %d)".formatted((i * 7919) % numRecords, i)).append(i < numRecords - 1 ? ", " : "");
+        for (int x = 100; x < 103; x++) {
+            int y = 0;
+            while ((y * 7919) % numRecords != x)
+                y++;
+            expectedBuilder.addLine("|%5d|%5d|".formatted(x, y));
+        }
+        String expected = expectedBuilder.build();
+        Tester tester = new Tester("select_orderby_primarykey_limit", useIndex);
+
+        // Given
+        MockCLI mockCLI = buildMockCLI(useIndex);
+        mockCLI.mockInput("create table foo( x integer primarykey, y integer );");
+        mockCLI.mockInput("insert into foo values %s;".formatted(values));
+        String command = "select x, y from foo orderby x limit 3 offset 100;";
+
+        // When
+        String actual = mockCLI.mockInput(command);
+
+        // Then
+        return tester.isEquals(command, expected, actual);
+    }
+
+    /**
+     * Test aggregate functions with a groupby
+     *
+     * @param useIndex Use index
+     * @return 0 if pass, 1 if fail
+     */
+    private static int test_select_groupby_aggregates(boolean useIndex) {
+        String expected = new StrBuilder()
+                .addLine("-------------------------------------------------------------------------------------------")
+                .addLine("|    dept    | count(*) | count(salary) | sum(age) | avg(salary) | min(age) | max(salary) |")
+                .addLine("-------------------------------------------------------------------------------------------")
+                .addLine("|        NULL|         1|              1|        50|         10.0|        50|         10.0|")
+                .addLine("|         eng|         3|              2|        75|        90.25|        20|        100.5|")
+                .addLine("|         ops|         1|              1|        40|         50.0|        40|         50.0|")
+                .build();
+        Tester tester = new Tester("select_groupby_aggregates", useIndex);
+
+        // Given
+        MockCLI mockCLI = buildMockCLI(useIndex);
+        mockCLI.mockInput("create table emp( id integer primarykey, dept varchar(10), salary double, age integer );");
+        mockCLI.mockInput("insert into emp values (1 \"eng\" 100.5 30), (2 \"ops\" 50.0 40), (3 \"eng\" null 20), (4 \"eng\" 80.0 25), (5 null 10.0 50);");
+        String command = "select dept, count(*), count(salary), sum(age), avg(salary), min(age), max(salary) from emp groupby dept orderby dept;";
+
+        // When
+        String actual = mockCLI.mockInput(command);
+
+        // Then
+        return tester.isEquals(command, expected, actual);
+    }
+
+    /**
+     * Test aggregates over an empty selection still produce one row
+     *
+     * @param useIndex Use index
+     * @return 0 if pass, 1 if fail
+     */
+    private static int test_select_aggregates_no_records(boolean useIndex) {
+        String expected = new StrBuilder()
+                .addLine("------------------------")
+                .addLine("| count(*) | min(dept) |")
+                .addLine("------------------------")
+                .addLine("|         0|       NULL|")
+                .build();
+        Tester tester = new Tester("select_aggregates_no_records", useIndex);
+
+        // Given
+        MockCLI mockCLI = buildMockCLI(useIndex);
+        mockCLI.mockInput("create table emp( id integer primarykey, dept varchar(10), age integer );");
+        mockCLI.mockInput("insert into emp values (1 \"eng\" 30), (2 \"ops\" 40);");
+        String command = "select count(*), min(dept) from emp where age > 100;";
+
+        // When
+        String actual = mockCLI.mockInput(command);
+
+        // Then
+        return tester.isEquals(command, expected, actual);
+    }
+
+    /**
+     * Test count(*) of a table spanning many pages
+     *
+     * @param useIndex Use index
+     * @return 0 if pass, 1 if fail
+     */
+    private static int test_select_count_star(boolean useIndex) {
+        String expected = new StrBuilder()
+                .addLine("------------")
+                .addLine("| count(*) |")
+                .addLine("------------")
+                .addLine("|       300|")
+                .build();
+        StringBuilder values = new StringBuilder();
+        for (int i = 0; i < 300; i++)
+            values.append("(%d %d)".formatted(i, i % 7)).append(i < 299 ? ", " : "");
+        Tester tester = new Tester("select_count_star", useIndex);
+
+        // Given
+        MockCLI mockCLI = buildMockCLI(useIndex);
+        mockCLI.mockInput("create table foo( x integer primarykey, y integer );");
+        mockCLI.mockInput("insert into foo values %s;".formatted(values));
+        String command = "select count(*) from foo;";
+
+        // When
+        String actual = mockCLI.mockInput(command);
+
+        // Then
+        return tester.isEquals(command, expected, actual);
+    }
+
+    /**
+     * Test grouping more groups than fit in the buffer, forcing groups to spill to partitions
+     *
+     * @param useIndex Use index
+     * @return 0 if pass, 1 if fail
+     */
+    private static int test_select_groupby_larger_than_buffer(boolean useIndex) {
+        int numGroups = 150;
+        StrBuilder expectedBuilder = new StrBuilder()
+                .addLine("---------------------------")
+                .addLine("|  y  | count(*) | sum(x) |")
+                .addLine("---------------------------");
+        StringBuilder values = new StringBuilder();
+        for (int x = 0; x < numGroups * 2; x++)
+            values.append("(%d %d)".formatted(x, x % numGroups)).append(x < numGroups * 2 - 1 ? ", " : "");
+        // each group y holds x = y and x = y + numGroups
+        for (int y = 0; y < numGroups; y++)
+            expectedBuilder.addLine("|%5d|%10d|%8d|".formatted(y, 2, 2 * y + numGroups));
+        String expected = expectedBuilder.build();
+        Tester tester = new Tester("select_groupby_larger_than_buffer", useIndex);
+
+        // Given
+        cleanUp();
+        MockCLI mockCLI = new MockCLI(DB_ROOT, PAGE_SIZE, 2, useIndex);   // small buffer to force spilling
+        mockCLI.mockInput("create table foo( x integer primarykey, y integer );");
+        mockCLI.mockInput("insert into foo values %s;".formatted(values));
+        String command = "select y, count(*), sum(x) from foo groupby y orderby y;";
+
+        // When
+        String actual = mockCLI.mockInput(command);
+
+        // Then
+        File[] partitionFiles = new File(DB_ROOT).listFiles((dir, name) -> name.endsWith(".part"));
+        if (partitionFiles != null && partitionFiles.length > 0)
+            return tester.isEquals(command, "no partition files", "%d partition files".formatted(partitionFiles.length));
+        return tester.isEquals(command, expected, actual);
+    }
+
+    /**
+     * Test table statistics follow inserts and deletes, survive a restart, and are rebuilt if missing
+     *
+     * @param useIndex Use index
+     * @return 0 if pass, 1 if fail
+     */
+    private static int test_display_info_statistics(boolean useIndex) {
+        Tester tester = new Tester("display_info_statistics", useIndex);
+        StringBuilder values = new StringBuilder();
+        for (int i = 0; i < 300; i++)
+            values.append("(%d \"name%d\")".formatted(i, i)).append(i < 299 ? ", " : "");
+
+        // Given
+        MockCLI mockCLI = buildMockCLI(useIndex);
+        mockCLI.mockInput("create table foo( x integer primarykey, name varchar(20) );");
+        mockCLI.mockInput("insert into foo values %s;".formatted(values));
+        mockCLI.mockInput("delete from foo where x < 100;");
+        String command = "display info foo;";
+
+        // When
+        String beforeRestart = mockCLI.mockInput(command);
+        String afterRestart;
+        String afterRebuild;
+        try {
+            mockCLI.exit();
+            mockCLI = new MockCLI(DB_ROOT, PAGE_SIZE, BUFFER_SIZE, useIndex);
+            afterRestart = mockCLI.mockInput(command);
+
+            // remove the saved statistics so they have to be rebuilt
+            mockCLI.exit();
+            for (File file : Objects.requireNonNull(new File(DB_ROOT).listFiles((dir, name) -> name.startsWith(Integer.toString(Integer.MIN_VALUE + 2)))))
+                file.delete();
+            mockCLI = new MockCLI(DB_ROOT, PAGE_SIZE, BUFFER_SIZE, useIndex);
+            afterRebuild = mockCLI.mockInput(command);
+        } catch (IOException ioe) {
+            return tester.isEquals(command, beforeRestart, ioe.getMessage());
+        }
+
+        // Then
+        if (!beforeRestart.contains("Records: 200"))
+            return tester.isEquals(command, "Records: 200", beforeRestart);
+        if (!beforeRestart.equals(afterRestart))
+            return tester.isEquals(command, beforeRestart, afterRestart);
+        return tester.isEquals(command, beforeRestart, afterRebuild);
+    }
+
+    private static int test_analyze_column_statistics(boolean useIndex) {
+        Tester tester = new Tester("analyze_column_statistics", useIndex);
+        StringBuilder values = new StringBuilder();
+        for (int i = 0; i < 100; i++)
+            values.append("(%d %d)".formatted(i, i % 4)).append(i < 99 ? ", " : "");
+
+        String expectedAnalyze = new StrBuilder()
+                .addLine("x: distinct 100, nulls 0.00, min 0, max 99")
+                .addLine("grp: distinct 4, nulls 0.00, min 0, max 3")
+                .addLine("Sampled 100 of 100 records")
+                .addLine("SUCCESS")
+                .build();
+        String expectedLookup = new StrBuilder()
+                .addLine("-------------")
+                .addLine("|  x  | grp |")
+                .addLine("-------------")
+                .addLine("|   42|    2|")
+                .addLine("")
+                .build();
+
+        // Given
+        MockCLI mockCLI = buildMockCLI(useIndex);
+        mockCLI.mockInput("create table foo( x integer primarykey, grp integer );");
+        mockCLI.mockInput("insert into foo values %s;".formatted(values));
+        mockCLI.mockInput("create table bar( y integer primarykey );");
+
+        // When
+        mockCLI.mockInput("select * from foo where grp = 2;");
+        int cachedBefore = mockCLI.getCatalog().getPlanCache().size();
+        String analyze = mockCLI.mockInput("analyze foo;");
+        int cachedAfter = mockCLI.getCatalog().getPlanCache().size();
+        String beforeRestart = mockCLI.mockInput("display info foo;");
+        String afterRestart;
+        try {
+            mockCLI.exit();
+            mockCLI = new MockCLI(DB_ROOT, PAGE_SIZE, BUFFER_SIZE, useIndex);
+            afterRestart = mockCLI.mockInput("display info foo;");
+        } catch (IOException ioe) {
+            return tester.isEquals("display info foo;", beforeRestart, ioe.getMessage());
+        }
+        String lookup = mockCLI.mockInput("select * from foo where grp = 2 and x = 42;");
+        String emptyJoin = mockCLI.mockInput("select * from foo, bar where foo.x = 1;");
+
+        // Then
+        if (tester.isEquals("analyze foo;", expectedAnalyze, analyze) != 0)
+            return 1;
+        // plans cached before analyze were picked without the statistics
+        if (tester.isEquals("cached plans before analyze foo;", "1", Integer.toString(cachedBefore)) != 0)
+            return 1;
+        if (tester.isEquals("cached plans after analyze foo;", "0", Integer.toString(cachedAfter)) != 0)
+            return 1;
+        if (!beforeRestart.contains("     grp: distinct 4, nulls 0.00, min 0, max 3"))
+            return tester.isEquals("display info foo;", "     grp: distinct 4, nulls 0.00, min 0, max 3", beforeRestart);
+        if (tester.isEquals("display info foo;", beforeRestart, afterRestart) != 0)
+            return 1;
+        if (tester.isEquals("select * from foo where grp = 2 and x = 42;", expectedLookup, lookup) != 0)
+            return 1;
+        String expectedEmptyJoin = new StrBuilder()
+                .addLine("-------------------")
+                .addLine("|  x  | grp |  y  |")
+                .addLine("-------------------")
+                .addLine("")
+                .build();
+        return tester.isEquals("select * from foo, bar where foo.x = 1;", expectedEmptyJoin, emptyJoin);
+    }
+
+    private static int test_explain_select_update_delete(boolean useIndex) {
+        Tester tester = new Tester("explain_select_update_delete", useIndex);
+        StringBuilder values = new StringBuilder();
+        for (int i = 0; i < 100; i++)
+            values.append("(%d %d)".formatted(i, i % 4)).append(i < 99 ? ", " : "");
+
+        // Given
+        MockCLI mockCLI = buildMockCLI(useIndex);
+        mockCLI.mockInput("create table foo( x integer primarykey, grp integer );");
+        mockCLI.mockInput("insert into foo values %s;".formatted(values));
+        mockCLI.mockInput("analyze foo;");
+
+        // When
+        String explain = mockCLI.mockInput("explain select * from foo where grp = 2 orderby x limit 5;");
+        String explainAnalyze = mockCLI.mockInput("explain analyze select grp, count(*) from foo groupby grp orderby grp;");
+        String explainDelete = mockCLI.mockInput("explain delete from foo where x < 10;");
+        String explainAnalyzeUpdate = mockCLI.mockInput("explain analyze update foo set grp = 7 where x = 3;");
+
+        // Then
+        String expectedExplain = new StrBuilder()
+                .addLine("Limit 5 offset 0 (estimated rows=5)")
+                .addLine("  -> %s on foo filter: foo.grp = 2 (estimated rows=25)".formatted(useIndex ? "Index Scan" : "Seq Scan"))
+                .build();
+        if (tester.isEquals("explain select", expectedExplain, explain) != 0)
+            return 1;
+
+        // timings and page counts vary, only the rows are compared
+        String expectedAnalyze = new StrBuilder()
+                .addLine("Sort by foo.grp (estimated rows=4) (actual rows=4 ...)")
+                .addLine("  -> Hash Aggregate count(*) group by: foo.grp (estimated rows=4) (actual rows=4 ...)")
+                .addLine("      -> Seq Scan on foo (estimated rows=100) (actual rows=100 ...)")
+                .addLine("Execution time: ...")
+                .build();
+        if (tester.isEquals("explain analyze select", expectedAnalyze, maskMeasurements(explainAnalyze)) != 0)
+            return 1;
+
+        String expectedDelete = new StrBuilder()
+                .addLine("Delete on foo (estimated rows=10)")
+                .addLine("  -> Seq Scan on foo filter: foo.x < 10 (estimated rows=10)")
+                .build();
+        if (tester.isEquals("explain delete", expectedDelete, explainDelete) != 0)
+            return 1;
+
+        String expectedUpdate = new StrBuilder()
+                .addLine("SUCCESS: 1 Records Changed")
+                .addLine("Update on foo set grp (estimated rows=1) (actual rows=1 ...)")
+                .addLine("  -> Seq Scan on foo filter: foo.x = 3 (estimated rows=1) (actual rows=1 ...)")
+                .addLine("Execution time: ...")
+                .build();
+        return tester.isEquals("explain analyze update", expectedUpdate, maskMeasurements(explainAnalyzeUpdate));
+    }
+
+    private static String maskMeasurements(String plan) {
+        return plan.replaceAll(" time=[0-9.]+ ms pages hit=\\d+ read=\\d+ decoded=\\d+ bytes", " ...")
+                .replaceAll("Execution time: [0-9.]+ ms", "Execution time: ...");
+    }
+
+    private static int test_prepare_and_execute(boolean useIndex) {
+        Tester tester = new Tester("prepare_and_execute", useIndex);
+        StringBuilder values = new StringBuilder();
+        for (int i = 0; i < 50; i++)
+            values.append("(%d \"n%d\")".formatted(i, i)).append(i < 49 ? ", " : "");
+
+        // Given
+        MockCLI mockCLI = buildMockCLI(useIndex);
+        mockCLI.mockInput("create table foo( x integer primarykey, name varchar(10) );");
+        mockCLI.mockInput("insert into foo values %s;".formatted(values));
+
+        // When
+        String prepare = mockCLI.mockInput("prepare byx as select * from foo where x = ?;");
+        String first = mockCLI.mockInput("execute byx(7);");
+        String second = mockCLI.mockInput("execute byx( 42 );");
+        String byName = mockCLI.mockInput("prepare byname as select x from foo where name = ? or x < ?;")
+                + mockCLI.mockInput("execute byname(\"n3, n4\", 2);");
+        String wrongCount = mockCLI.mockInput("execute byx(1, 2);");
+        String wrongType = mockCLI.mockInput("execute byx(\"a\");");
+        String unprepared = mockCLI.mockInput("select * from foo where x = ?;");
+
+        // the cached select and the prepared statement must see the new schema
+        mockCLI.mockInput("select * from foo where x = 7;");
+        mockCLI.mockInput("drop table foo;");
+        mockCLI.mockInput("create table foo( x integer primarykey, y double );");
+        mockCLI.mockInput("insert into foo values (7 1.5);");
+        String cachedAfterDDL = mockCLI.mockInput("select * from foo where x = 7;");
+        String preparedAfterDDL = mockCLI.mockInput("execute byx(7);");
+
+        // Then
+        String expectedFirst = new StrBuilder()
+                .addLine("--------------------")
+                .addLine("|  x  |    name    |")
+                .addLine("--------------------")
+                .addLine("|    7|          n7|")
+                .addLine("")
+                .build();
+        String expectedSecond = expectedFirst.replace("|    7|          n7|", "|   42|         n42|");
+        String expectedByName = new StrBuilder()
+                .addLine("SUCCESS")
+                .addLine("-------")
+                .addLine("|  x  |")
+                .addLine("-------")
+                .addLine("|    0|")
+                .addLine("|    1|")
+                .addLine("")
+                .build();
+        String expectedAfterDDL = new StrBuilder()
+                .addLine("-------------")
+                .addLine("|  x  |  y  |")
+                .addLine("-------------")
+                .addLine("|    7|  1.5|")
+                .addLine("")
+                .build();
+
+        if (tester.isEquals("prepare byx ...", "SUCCESS\n", prepare) != 0)
+            return 1;
+        if (tester.isEquals("execute byx(7);", expectedFirst, first) != 0)
+            return 1;
+        if (tester.isEquals("execute byx( 42 );", expectedSecond, second) != 0)
+            return 1;
+        if (tester.isEquals("execute byname(\"n3, n4\", 2);", expectedByName, byName) != 0)
+            return 1;
+        if (tester.isEquals("execute byx(1, 2);", "Execution Failure: Expected 1 parameters but 2 were given.\n", wrongCount) != 0)
+            return 1;
+        if (tester.isEquals("execute byx(\"a\");", "Execution Failure: The parameter '\"a\"' is not of type INTEGER.\n", wrongType) != 0)
+            return 1;
+        if (tester.isEquals("select * from foo where x = ?;", "Invalid Usage (select * from foo where x = ?;): Parameters can only be used in a prepared statement.\n", unprepared) != 0)
+            return 1;
+        if (tester.isEquals("select * from foo where x = 7;", expectedAfterDDL, cachedAfterDDL) != 0)
+            return 1;
+        return tester.isEquals("execute byx(7);", expectedAfterDDL, preparedAfterDDL);
+    }
+
+    private static int test_long_insert_and_where(boolean useIndex) {
+        Tester tester = new Tester("long_insert_and_where", useIndex);
+        StringBuilder values = new StringBuilder();
+        for (int i = 0; i < 3000; i++)
+            values.append("(%d \"a, b\")".formatted(i)).append(i < 2999 ? ", " : "");
+
+        String expected = new StrBuilder()
+                .addLine("--------------------")
+                .addLine("|  x  |    name    |")
+                .addLine("--------------------")
+                .addLine("| 2998|        a, b|")
+                .addLine("| 2999|        a, b|")
+                .addLine("")
+                .build();
+
+        // Given
+        MockCLI mockCLI = buildMockCLI(useIndex);
+        mockCLI.mockInput("create table foo( x integer primarykey, name varchar(10) );");
+        String insert = mockCLI.mockInput("insert into foo values %s;".formatted(values));
+
+        // When
+        String command = "select x, name from foo where x > 2997 AND name = \"a, b\";";
+        String actual = mockCLI.mockInput(command);
+
+        // Then
+        if (tester.isEquals("insert into foo values ...;", "SUCCESS\n", insert) != 0)
+            return 1;
+        return tester.isEquals(command, expected, actual);
+    }
+
+    /**
+     * Test inserting batches that repeat each key already in the table, so the repeated key is the largest key of its
+     * page for some of them
+     *
+     * @param useIndex Use index
+     * @return 0 if pass, 1 if fail
+     */
+    private static int test_batch_insert_page_boundary_keys(boolean useIndex) {
+        Tester tester = new Tester("batch_insert_page_boundary_keys", useIndex);
+        int numRecords = PAGE_SIZE / 4;     // a few pages
+        StringBuilder values = new StringBuilder();
+        for (int i = 0; i < numRecords; i++)
+            values.append("(%d %d)".formatted((i * 7919) % numRecords, i)).append(i < numRecords - 1 ? ", " : ";");
+
+        // Given
+        MockCLI mockCLI = buildMockCLI(useIndex);
+        mockCLI.mockInput("create table foo( x integer primarykey, y integer );");
+        mockCLI.mockInput("insert into foo values " + values);
+
+        // When
+        for (int x = 0; x < numRecords; x++) {
+            String command = "insert into foo values (%d 0), (%d 0);".formatted(x, numRecords + x);
+            String actual = mockCLI.mockInput(command);
+
+            // Then
+            if (tester.isEquals(command, "Execution Failure: Duplicate primary key '%d'\n".formatted(x), actual) != 0)
+                return 1;
+        }
+        String command = "select count(*) from foo;";
+        String actual = mockCLI.mockInput(command);
+        if (!actual.contains("|%10d|".formatted(numRecords)))
+            return tester.isEquals(command, "|%10d|".formatted(numRecords), actual);
+        return 0;
+    }
+
+    /**
+     * Test batch inserts with 256 byte pages and a buffer of 3 pages, so each batch splits many pages and index nodes
+     *
+     * @param useIndex Use index
+     * @return 0 if pass, 1 if fail
+     */
+    private static int test_batch_insert_small_pages(boolean useIndex) {
+        Tester tester = new Tester("batch_insert_small_pages", useIndex);
+        // 7919 is coprime to 500, so the keys are a permutation of 0..499
+        StringBuilder evens = new StringBuilder();
+        StringBuilder odds = new StringBuilder();
+        for (int i = 0; i < 500; i++) {
+            int x = (i * 7919) % 500;
+            (x % 2 == 0 ? evens : odds).append("(%d %d), ".formatted(x, i));
+        }
+        StrBuilder expectedBuilder = new StrBuilder()
+                .addLine("-------")
+                .addLine("|  x  |")
+                .addLine("-------");
+        for (int x = 0; x < 500; x++)
+            expectedBuilder.addLine("|%5d|".formatted(x));
+        String expected = expectedBuilder.build();
+
+        // Given
+        cleanUp();
+        MockCLI mockCLI = new MockCLI(DB_ROOT, 256, 3, useIndex);
+        mockCLI.mockInput("create table foo( x integer primarykey, y integer );");
+        mockCLI.mockInput("insert into foo values %s;".formatted(evens.substring(0, evens.length() - 2)));
+        mockCLI.mockInput("insert into foo values %s;".formatted(odds.substring(0, odds.length() - 2)));
+        String command = "select x from foo orderby x;";
+
+        // When
+        String actual = mockCLI.mockInput(command);
+
+        // Then
+        return tester.isEquals(command, expected, actual);
+    }
+
+    private static int test_batch_insert(boolean useIndex) {
+        Tester tester = new Tester("batch_insert", useIndex);
+        // 7919 is coprime to 500, so the keys are a permutation of 0..499
+        StringBuilder evens = new StringBuilder();
+        StringBuilder odds = new StringBuilder();
+        for (int i = 0; i < 500; i++) {
+            int x = (i * 7919) % 500;
+            (x % 2 == 0 ? evens : odds).append("(%d %d), ".formatted(x, i));
+        }
+
+        // Given
+        MockCLI mockCLI = buildMockCLI(useIndex);
+        mockCLI.mockInput("create table foo( x integer primarykey, y integer );");
+
+        // When
+        String first = mockCLI.mockInput("insert into foo values %s;".formatted(evens.substring(0, evens.length() - 2)));
+        String second = mockCLI.mockInput("insert into foo values %s;".formatted(odds.substring(0, odds.length() - 2)));
+        String inBatch = mockCLI.mockInput("insert into foo values (1000 1), (1001 1), (1000 2);");
+        String inTable = mockCLI.mockInput("insert into foo values (1002 1), (250 1);");
+        String count = mockCLI.mockInput("select count(*) from foo;");
+        String ordered = mockCLI.mockInput("select x from foo orderby x;");
+
+        // Then
+        StrBuilder expectedOrdered = new StrBuilder()
+                .addLine("-------")
+                .addLine("|  x  |")
+                .addLine("-------");
+        for (int x = 0; x < 500; x++)
+            expectedOrdered.addLine("|%5d|".formatted(x));
+        expectedOrdered.addLine("");
+
+        if (tester.isEquals("insert into foo values <evens>;", "SUCCESS\n", first) != 0)
+            return 1;
+        if (tester.isEquals("insert into foo values <odds>;", "SUCCESS\n", second) != 0)
+            return 1;
+        if (tester.isEquals("insert into foo values (1000 1), (1001 1), (1000 2);", "Execution Failure: Duplicate primary key '1000'\n", inBatch) != 0)
+            return 1;
+        if (tester.isEquals("insert into foo values (1002 1), (250 1);", "Execution Failure: Duplicate primary key '250'\n", inTable) != 0)
+            return 1;
+        if (!count.contains("|       500|"))
+            return tester.isEquals("select count(*) from foo;", "|       500|", count);
+        return tester.isEquals("select x from foo orderby x;", expectedOrdered.build(), ordered);
+    }
+
+    private static int test_copy_from_file(boolean useIndex) throws IOException {
+        Tester tester = new Tester("copy_from_file", useIndex);
+        // 7919 is coprime to 2000, so the keys are a permutation of 0..1999
+        StringBuilder csv = new StringBuilder("x,name,y\n");
+        for (int i = 0; i < 2000; i++) {
+            int x = (i * 7919) % 2000;
+            csv.append(switch (x) {
+                case 0 -> "0,\"a,\"\"b\",0.5\n";
+                case 1 -> "1,n1,\n";
+                default -> "%d,n%d,%d.5\r\n".formatted(x, x, x);
+            });
+        }
+
+        // Given
+        cleanUp();
+        MockCLI mockCLI = new MockCLI(DB_ROOT, PAGE_SIZE, 2, useIndex);   // small buffer to force spilling
+        mockCLI.mockInput("create table foo( x integer primarykey, name varchar(10) unique, y double );");
+        Files.writeString(Paths.get(DB_ROOT, "foo.csv"), csv);
+        Files.writeString(Paths.get(DB_ROOT, "bad.csv"), "3000,z1,1.0\n3001,z2,1.0\n3002,z3,abc\n");
+        Files.writeString(Paths.get(DB_ROOT, "dup.tsv"), "3000\tz1\t1.0\n5\tz2\t1.0\n");
+        Files.writeString(Paths.get(DB_ROOT, "unique.tsv"), "3000\tz1\t1.0\n3001\tn7\t1.0\n");
+        Files.writeString(Paths.get(DB_ROOT, "more.tsv"), "3001\tz2\t\n3000\tz1\t1.0\n");
+        Files.writeString(Paths.get(DB_ROOT, "null.tsv"), "3002\t\t1.0\n");
+        Files.writeString(Paths.get(DB_ROOT, "nullAgain.tsv"), "3003\t\t1.0\n");
+
+        // When
+        String loaded = mockCLI.mockInput("copy foo from \"%s/foo.csv\";".formatted(DB_ROOT));
+        String badType = mockCLI.mockInput("copy foo from \"%s/bad.csv\";".formatted(DB_ROOT));
+        String duplicate = mockCLI.mockInput("copy foo from \"%s/dup.tsv\";".formatted(DB_ROOT));
+        String notUnique = mockCLI.mockInput("copy foo from \"%s/unique.tsv\";".formatted(DB_ROOT));
+        String more = mockCLI.mockInput("copy foo from \"%s/more.tsv\";".formatted(DB_ROOT));
+        String withNull = mockCLI.mockInput("copy foo from \"%s/null.tsv\";".formatted(DB_ROOT));
+        String nullAgain = mockCLI.mockInput("copy foo from \"%s/nullAgain.tsv\";".formatted(DB_ROOT));
+        String first = mockCLI.mockInput("select x, name from foo where x < 3;");
+        String ordered = mockCLI.mockInput("select x from foo;");
+
+        // Then
+        StrBuilder expectedFirst = new StrBuilder()
+                .addLine("--------------------")
+                .addLine("|  x  |    name    |")
+                .addLine("--------------------")
+                .addLine("|    0|        a,\"b|")
+                .addLine("|    1|          n1|")
+                .addLine("|    2|          n2|")
+                .addLine("");
+        StrBuilder expectedOrdered = new StrBuilder()
+                .addLine("-------")
+                .addLine("|  x  |")
+                .addLine("-------");
+        for (int x = 0; x < 2000; x++)
+            expectedOrdered.addLine("|%5d|".formatted(x));
+        expectedOrdered.addLine("|%5d|".formatted(3000));
+        expectedOrdered.addLine("|%5d|".formatted(3001));
+        expectedOrdered.addLine("|%5d|".formatted(3002));
+        expectedOrdered.addLine("");
+
+        if (tester.isEquals("copy foo from \"foo.csv\";", "Loaded 2000 records\nSUCCESS\n", loaded) != 0)
+            return 1;
+        if (tester.isEquals("copy foo from \"bad.csv\";", "Execution Failure: The value 'abc' for attribute 'y' on line 3 is not of type DOUBLE.\n", badType) != 0)
+            return 1;
+        if (tester.isEquals("copy foo from \"dup.tsv\";", "Execution Failure: Duplicate primary key '5'\n", duplicate) != 0)
+            return 1;
+        if (tester.isEquals("copy foo from \"unique.tsv\";", "Execution Failure: Attribute 'name' is unique, you violate this constraint with the value 'n7'\n", notUnique) != 0)
+            return 1;
+        if (tester.isEquals("copy foo from \"more.tsv\";", "Loaded 2 records\nSUCCESS\n", more) != 0)
+            return 1;
+        if (tester.isEquals("copy foo from \"null.tsv\";", "Loaded 1 records\nSUCCESS\n", withNull) != 0)
+            return 1;
+        if (tester.isEquals("copy foo from \"nullAgain.tsv\";", "Execution Failure: Attribute 'name' is unique, you violate this constraint with the value 'NULL'\n", nullAgain) != 0)
+            return 1;
+        if (tester.isEquals("select x, name from foo where x < 3;", expectedFirst.build(), first) != 0)
+            return 1;
+        File[] runFiles = new File(DB_ROOT).listFiles((dir, name) -> name.endsWith(".run"));
+        if (runFiles != null && runFiles.length > 0)
+            return tester.isEquals("run files removed", "0", Integer.toString(runFiles.length));
+        return tester.isEquals("select x from foo;", expectedOrdered.build(), ordered);
+    }
+
+    private static int test_failed_copy_keeps_row_count(boolean useIndex) throws IOException {
+        Tester tester = new Tester("failed_copy_keeps_row_count", useIndex);
+        String command = "select count(*) from foo;";
+
+        // Given
+        StringBuilder csv = new StringBuilder();
+        for (int x = 0; x < 30; x++)
+            csv.append("%d,n%d\n".formatted(x, x));
+        csv.append("5,again\n");
+
+        MockCLI mockCLI = buildMockCLI(useIndex);
+        mockCLI.mockInput("create table foo( x integer primarykey, name varchar(10) );");
+        Files.writeString(Paths.get(DB_ROOT, "dup.csv"), csv);
+        String before = mockCLI.mockInput(command);
+
+        // When
+        String failure = mockCLI.mockInput("copy foo from \"%s/dup.csv\";".formatted(DB_ROOT));
+        String after = mockCLI.mockInput(command);
+
+        // Then
+        if (tester.isEquals("copy foo from \"dup.csv\";", "Execution Failure: Duplicate primary key '5'\n", failure) != 0)
+            return 1;
+        return tester.isEquals(command, before, after);
+    }
+
+    private static int test_large_copy_spills_to_the_log(boolean useIndex) throws IOException {
+        Tester tester = new Tester("large_copy_spills_to_the_log", useIndex);
+        String command = "select * from foo;";
+
+        // Given
+        // each load is about 20 times the buffer
+        int rows = 20 * 3 * PAGE_SIZE / 30;
+        StringBuilder good = new StringBuilder();
+        StringBuilder bad = new StringBuilder();
+        for (int x = 0; x < rows; x++) {
+            good.append("%d,%s\n".formatted(x, "n".repeat(20)));
+            bad.append("%d,%s\n".formatted(rows + x, "m".repeat(20)));
+        }
+        bad.append("%d,again\n".formatted(2 * rows - 1));     // the largest key fails the load once the rest is in
+
+        cleanUp();
+        MockCLI mockCLI = new MockCLI(DB_ROOT, PAGE_SIZE, 3, useIndex);
+        StorageManager sm = mockCLI.getStorageManager();
+        mockCLI.mockInput("create table foo( x integer primarykey, name varchar(20) );");
+        Files.writeString(Paths.get(DB_ROOT, "good.csv"), good);
+        Files.writeString(Paths.get(DB_ROOT, "bad.csv"), bad);
+
+        // When
+        long spillWrites = sm.getSpillWrites();
+        String loaded = mockCLI.mockInput("copy foo from \"%s/good.csv\";".formatted(DB_ROOT));
+        spillWrites = sm.getSpillWrites() - spillWrites;
+        String before = mockCLI.mockInput(command);
+        String failure = mockCLI.mockInput("copy foo from \"%s/bad.csv\";".formatted(DB_ROOT));
+        String rolledBack = mockCLI.mockInput(command);
+
+        // the old buffer is dropped without writing it out, as if the process was killed
+        mockCLI = new MockCLI(DB_ROOT, PAGE_SIZE, 3, useIndex);
+        String recovered = mockCLI.mockInput(command);
+
+        // Then
+        if (tester.isEquals("copy foo from \"good.csv\";", "Loaded %d records\nSUCCESS\n".formatted(rows), loaded) != 0)
+            return 1;
+        // the indexed load appends its pages and index nodes to the files, the other one rebuilds the file through the
+        // swap file and has nothing to spill
+        if (useIndex && spillWrites == 0)
+            return tester.isEquals("spilled pages", "more than 0", "0");
+        if (tester.isEquals("copy foo from \"bad.csv\";", "Execution Failure: Duplicate primary key '%d'\n".formatted(2 * rows - 1), failure) != 0)
+            return 1;
+        if (tester.isEquals(command, before, rolledBack) != 0)
+            return 1;
+        return tester.isEquals(command, before, recovered);
+    }
+
+    private static int test_copy_to_file(boolean useIndex) throws IOException {
+        Tester tester = new Tester("copy_to_file", useIndex);
+
+        // Given
+        MockCLI mockCLI = buildMockCLI(useIndex);
+        mockCLI.mockInput("create table foo( x integer primarykey, name varchar(10), ok boolean );");
+        mockCLI.mockInput("create table bar( x integer primarykey, name varchar(10), ok boolean );");
+        StringBuilder values = new StringBuilder("(0 \"a,b\" true), (1 \"\" null), (2 null false)");
+        for (int x = 3; x < 300; x++)
+            values.append(", (%d \"n%d\" %s)".formatted(x, x, x % 2 == 0));
+        mockCLI.mockInput("insert into foo values %s;".formatted(values));
+
+        // When
+        String csv = mockCLI.mockInput("copy foo to \"%s/foo.csv\";".formatted(DB_ROOT));
+        String binary = mockCLI.mockInput("copy foo to \"%s/foo.bin\" format binary;".formatted(DB_ROOT));
+        String binaryFrom = mockCLI.mockInput("copy bar from \"%s/foo.bin\" format binary;".formatted(DB_ROOT));
+        String reloaded = mockCLI.mockInput("copy bar from \"%s/foo.csv\";".formatted(DB_ROOT));
+        String original = mockCLI.mockInput("select * from foo;");
+        String copied = mockCLI.mockInput("select * from bar;").replace("bar.", "foo.");
+        List<String> lines = Files.readAllLines(Paths.get(DB_ROOT, "foo.csv"));
+        byte[] pages = Files.readAllBytes(Paths.get(DB_ROOT, "foo.bin"));
+
+        // Then
+        if (tester.isEquals("copy foo to \"foo.csv\";", "Exported 300 records\nSUCCESS\n", csv) != 0)
+            return 1;
+        if (tester.isEquals("copy foo to \"foo.bin\" format binary;", "Exported 300 records\nSUCCESS\n", binary) != 0)
+            return 1;
+        if (tester.isEquals("copy bar from \"foo.bin\" format binary;",
+                "Invalid Usage (copy bar from \"%s/foo.bin\" format binary;): Only copy to can use the binary format.\n".formatted(DB_ROOT), binaryFrom) != 0)
+            return 1;
+        if (tester.isEquals("copy bar from \"foo.csv\";", "Loaded 300 records\nSUCCESS\n", reloaded) != 0)
+            return 1;
+        if (tester.isEquals("foo.csv header and first rows", "x,name,ok\n0,\"a,b\",true\n1,\"\",\n2,,false\n",
+                String.join("\n", lines.subList(0, 4)) + "\n") != 0)
+            return 1;
+        // page size, then the table file: its page count and every page
+        java.nio.ByteBuffer header = java.nio.ByteBuffer.wrap(pages);
+        int pageSize = header.getInt();
+        int pageCount = header.getInt();
+        if (tester.isEquals("foo.bin size", Integer.toString(2 * Integer.BYTES + pageCount * pageSize), Integer.toString(pages.length)) != 0)
+            return 1;
+        if (tester.isEquals("foo.bin page size", Integer.toString(PAGE_SIZE), Integer.toString(pageSize)) != 0)
+            return 1;
+        return tester.isEquals("select * from bar;", original, copied);
+    }
+
+    private static int test_update_in_place_and_relocate(boolean useIndex) {
+        Tester tester = new Tester("update_in_place_and_relocate", useIndex);
+        String longName = "n".repeat(90);
+        StringBuilder values = new StringBuilder("(0 \"n0\" 0)");
+        for (int x = 1; x < 200; x++)
+            values.append(", (%d \"n%d\" %d)".formatted(x, x, x));
+
+        // Given
+        MockCLI mockCLI = buildMockCLI(useIndex);
+        mockCLI.mockInput("create table foo( x integer primarykey, name varchar(100), tag integer unique );");
+        mockCLI.mockInput("insert into foo values %s;".formatted(values));
+
+        // When
+        String grown = mockCLI.mockInput("update foo set name = \"%s\" where x < 30;".formatted(longName));
+        String moved = mockCLI.mockInput("update foo set x = 1000 where x = 5;");
+        String duplicateKey = mockCLI.mockInput("update foo set x = 7 where x = 8;");
+        String duplicateTag = mockCLI.mockInput("update foo set tag = 3 where x = 4;");
+        String sameTag = mockCLI.mockInput("update foo set tag = 4 where x = 4;");
+        String grownCount = mockCLI.mockInput("select count(*) from foo where name = \"%s\";".formatted(longName));
+        String movedRecord = mockCLI.mockInput("select x, tag from foo where tag = 5 or x = 8;");
+        String ordered = mockCLI.mockInput("select x from foo orderby x;");
+
+        // Then
+        StrBuilder expectedMoved = new StrBuilder()
+                .addLine("-------------")
+                .addLine("|  x  | tag |")
+                .addLine("-------------")
+                .addLine("|    8|    8|")
+                .addLine("| 1000|    5|")
+                .addLine("");
+        StrBuilder expectedOrdered = new StrBuilder()
+                .addLine("-------")
+                .addLine("|  x  |")
+                .addLine("-------");
+        for (int x = 0; x < 200; x++) {
+            if (x != 5)
+                expectedOrdered.addLine("|%5d|".formatted(x));
+        }
+        expectedOrdered.addLine("| 1000|").addLine("");
+
+        if (tester.isEquals("update foo set name = <long> where x < 30;", "SUCCESS: 30 Records Changed\n", grown) != 0)
+            return 1;
+        if (tester.isEquals("update foo set x = 1000 where x = 5;", "SUCCESS: 1 Records Changed\n", moved) != 0)
+            return 1;
+        if (tester.isEquals("update foo set x = 7 where x = 8;", "Execution Failure: Duplicate primary key '7'\n", duplicateKey) != 0)
+            return 1;
+        if (tester.isEquals("update foo set tag = 3 where x = 4;", "Execution Failure: Attribute 'tag' is unique\n", duplicateTag) != 0)
+            return 1;
+        if (tester.isEquals("update foo set tag = 4 where x = 4;", "SUCCESS: 1 Records Changed\n", sameTag) != 0)
+            return 1;
+        if (!grownCount.contains("|        30|"))
+            return tester.isEquals("select count(*) from foo where name = <long>;", "|        30|", grownCount);
+        if (tester.isUnorderedEquals("select x, tag from foo where tag = 5 or x = 8;", expectedMoved.build(), movedRecord) != 0)
+            return 1;
+        return tester.isEquals("select x from foo orderby x;", expectedOrdered.build(), ordered);
+    }
+
+    /**
+     * Test an update that grows every record across many pages keeps every record, in order, and a later update of
+     * part of the table finds only the records it matches
+     *
+     * @param useIndex Use index
+     * @return 0 if pass, 1 if fail
+     */
+    private static int test_update_every_record_many_pages(boolean useIndex) {
+        Tester tester = new Tester("update_every_record_many_pages", useIndex);
+        String longName = "n".repeat(90);
+        StringBuilder values = new StringBuilder("(0 \"n0\" 0)");
+        for (int x = 1; x < 300; x++)
+            values.append(", (%d \"n%d\" %d)".formatted(x, x, x % 7));
+
+        // Given
+        MockCLI mockCLI = buildMockCLI(useIndex);
+        mockCLI.mockInput("create table foo( x integer primarykey, name varchar(100), tag integer );");
+        mockCLI.mockInput("insert into foo values %s;".formatted(values));
+
+        // When
+        String grown = mockCLI.mockInput("update foo set name = \"%s\";".formatted(longName));
+        String shrunk = mockCLI.mockInput("update foo set name = \"short\" where tag = 3;");
+        String longCount = mockCLI.mockInput("select count(*) from foo where name = \"%s\";".formatted(longName));
+        String shortCount = mockCLI.mockInput("select count(*) from foo where name = \"short\";");
+        String ordered = mockCLI.mockInput("select x from foo orderby x;");
+
+        // Then
+        StrBuilder expectedOrdered = new StrBuilder()
+                .addLine("-------")
+                .addLine("|  x  |")
+                .addLine("-------");
+        for (int x = 0; x < 300; x++)
+            expectedOrdered.addLine("|%5d|".formatted(x));
+        expectedOrdered.addLine("");
+
+        if (tester.isEquals("update foo set name = <long>;", "SUCCESS: 300 Records Changed\n", grown) != 0)
+            return 1;
+        if (tester.isEquals("update foo set name = \"short\" where tag = 3;", "SUCCESS: 43 Records Changed\n", shrunk) != 0)
+            return 1;
+        if (!longCount.contains("|       257|"))
+            return tester.isEquals("select count(*) from foo where name = <long>;", "|       257|", longCount);
+        if (!shortCount.contains("|        43|"))
+            return tester.isEquals("select count(*) from foo where name = \"short\";", "|        43|", shortCount);
+        return tester.isEquals("select x from foo orderby x;", expectedOrdered.build(), ordered);
+    }
+
+    /**
+     * Test a delete removes every matching record across many pages, drops emptied pages and leaves the table and its
+     * index usable
+     *
+     * @param useIndex Use index
+     * @return 0 if pass, 1 if fail
+     */
+    private static int test_delete_where_many_pages(boolean useIndex) {
+        Tester tester = new Tester("delete_where_many_pages", useIndex);
+        String longName = "n".repeat(90);
+        StringBuilder values = new StringBuilder("(0 \"%s\")".formatted(longName));
+        for (int x = 1; x < 300; x++)
+            values.append(", (%d \"%s\")".formatted(x, longName));
+
+        // Given
+        MockCLI mockCLI = buildMockCLI(useIndex);
+        mockCLI.mockInput("create table foo( x integer primarykey, name varchar(100) );");
+        mockCLI.mockInput("insert into foo values %s;".formatted(values));
+
+        // When
+        mockCLI.mockInput("delete from foo where x < 100;");
+        mockCLI.mockInput("delete from foo where x >= 150 and x < 180;");
+        mockCLI.mockInput("delete from foo where x > 250;");
+        String count = mockCLI.mockInput("select count(*) from foo;");
+        String ordered = mockCLI.mockInput("select x from foo orderby x;");
+        mockCLI.mockInput("insert into foo values (160 \"back\"), (5 \"front\");");
+        String lookup = mockCLI.mockInput("select x, name from foo where x = 160 or x = 5 or x = 250;");
+        mockCLI.mockInput("delete from foo;");
+        String emptied = mockCLI.mockInput("select count(*) from foo;");
+
+        // Then
+        StrBuilder expectedOrdered = new StrBuilder()
+                .addLine("-------")
+                .addLine("|  x  |")
+                .addLine("-------");
+        for (int x = 100; x <= 250; x++) {
+            if (x < 150 || x >= 180)
+                expectedOrdered.addLine("|%5d|".formatted(x));
+        }
+        expectedOrdered.addLine("");
+        StrBuilder expectedLookup = new StrBuilder()
+                .addLine("------------------------------------------------------------------------------------------------------------------")
+                .addLine("|  x  |                                                name                                                  |")
+                .addLine("------------------------------------------------------------------------------------------------------------------")
+                .addLine("|    5|                                                                                                 front|")
+                .addLine("|  160|                                                                                                  back|")
+                .addLine("|  250|%s|".formatted(" ".repeat(12) + longName))
+                .addLine("");
+
+        if (!count.contains("|       121|"))
+            return tester.isEquals("select count(*) from foo;", "|       121|", count);
+        if (tester.isEquals("select x from foo orderby x;", expectedOrdered.build(), ordered) != 0)
+            return 1;
+        if (tester.isUnorderedEquals("select x, name from foo where x = 160 or x = 5 or x = 250;", expectedLookup.build(), lookup) != 0)
+            return 1;
+        if (!emptied.contains("|         0|"))
+            return tester.isEquals("select count(*) from foo;", "|         0|", emptied);
+        return 0;
+    }
+
+    private static int test_alter_without_rewriting_records(boolean useIndex) {
+        Tester tester = new Tester("alter_without_rewriting_records", useIndex);
+        StringBuilder values = new StringBuilder();
+        for (int x = 0; x < 200; x++)
+            values.append("(%d \"name%d\" %d)".formatted(x, x, x * 2)).append(x < 199 ? ", " : "");
+        String command = "select x, score, flag, note from foo where x = 10 or x = 11 or x = 500;";
+
+        String expected = new StrBuilder()
+                .addLine("------------------------------")
+                .addLine("|  x  | score | flag | note  |")
+                .addLine("------------------------------")
+                .addLine("|   10|     20|     F|     hi|")
+                .addLine("|   11|     22|     T|     hi|")
+                .addLine("|  500|      7|     F|     hi|")
+                .addLine("")
+                .build();
+
+        // Given
+        MockCLI mockCLI = buildMockCLI(useIndex);
+        mockCLI.mockInput("create table foo( x integer primarykey, name varchar(20), score integer );");
+        mockCLI.mockInput("insert into foo values %s;".formatted(values));
+
+        // When
+        mockCLI.mockInput("alter table foo add flag boolean default true;");
+        mockCLI.mockInput("alter table foo drop name;");
+        mockCLI.mockInput("update foo set flag = false where x = 10;");
+        mockCLI.mockInput("delete from foo where x >= 100;");
+        mockCLI.mockInput("insert into foo values (500 7 false);");
+        mockCLI.mockInput("alter table foo add note varchar(5) default \"hi\";");
+        String beforeRestart = mockCLI.mockInput(command);
+        String afterRestart;
+        String count;
+        try {
+            mockCLI.exit();
+            mockCLI = new MockCLI(DB_ROOT, PAGE_SIZE, BUFFER_SIZE, useIndex);
+            afterRestart = mockCLI.mockInput(command);
+            count = mockCLI.mockInput("select count(*) from foo;");
+        } catch (IOException ioe) {
+            return tester.isEquals(command, expected, ioe.getMessage());
+        }
+
+        // Then
+        if (tester.isUnorderedEquals(command, expected, beforeRestart) != 0)
+            return 1;
+        if (!count.contains("|       101|"))
+            return tester.isEquals("select count(*) from foo;", "|       101|", count);
+        return tester.isUnorderedEquals(command, expected, afterRestart);
+    }
+
+    private static int test_recreate_altered_table_after_restart(boolean useIndex) {
+        Tester tester = new Tester("recreate_altered_table_after_restart", useIndex);
+        String command = "select * from foo;";
+
+        String expected = new StrBuilder()
+                .addLine("---------------")
+                .addLine("| id  |  tag  |")
+                .addLine("---------------")
+                .addLine("|    1|    one|")
+                .addLine("")
+                .build();
+
+        // Given
+        MockCLI mockCLI = buildMockCLI(useIndex);
+        mockCLI.mockInput("create table bar( a integer primarykey, b integer, c integer, d integer );");
+        mockCLI.mockInput("create table foo( x integer primarykey, y integer );");
+        mockCLI.mockInput("alter table foo drop y;");
+        mockCLI.mockInput("alter table foo add z integer;");
+
+        // When
+        mockCLI.mockInput("drop table foo;");
+        mockCLI.mockInput("create table foo( id integer primarykey, tag varchar(5) );");
+        mockCLI.mockInput("insert into foo values (1 \"one\");");
+        String actual;
+        try {
+            mockCLI.exit();
+            mockCLI = new MockCLI(DB_ROOT, PAGE_SIZE, BUFFER_SIZE, useIndex);
+            mockCLI.mockInput("alter table bar add e integer;");
+            actual = mockCLI.mockInput(command);
+            mockCLI.mockInput("insert into bar values (1 2 3 4 5);");
+        } catch (IOException ioe) {
+            return tester.isEquals(command, expected, ioe.getMessage());
+        }
+
+        // Then
+        String bar = mockCLI.mockInput("select e from bar;");
+        if (!bar.contains("|    5|"))
+            return tester.isEquals("select e from bar;", "|    5|", bar);
+        return tester.isEquals(command, expected, actual);
+    }
+
+    private static int test_restart_with_and_without_catalog_snapshot(boolean useIndex) {
+        Tester tester = new Tester("restart_with_and_without_catalog_snapshot", useIndex);
+        String command = "select * from foo;";
+
+        String expected = new StrBuilder()
+                .addLine("---------------------")
+                .addLine("|  x  |  z  |  tag  |")
+                .addLine("---------------------")
+                .addLine("|    1|    9|     hi|")
+                .addLine("|    2|    9|    bye|")
+                .addLine("")
+                .build();
+
+        // Given
+        MockCLI mockCLI = buildMockCLI(useIndex);
+        mockCLI.mockInput("create table foo( x integer primarykey, y integer, z integer );");
+        mockCLI.mockInput("insert into foo values (1 5 9);");
+        mockCLI.mockInput("alter table foo add tag varchar(5) default \"hi\";");
+        mockCLI.mockInput("alter table foo drop y;");
+        mockCLI.mockInput("insert into foo values (2 9 \"bye\");");
+
+        // When
+        String fromSnapshot;
+        String fromRelations;
+        boolean snapshotWritten;
+        boolean snapshotRemoved;
+        try {
+            mockCLI.exit();
+            snapshotWritten = Files.exists(Paths.get(DB_ROOT, "catalog.snap"));
+            mockCLI = new MockCLI(DB_ROOT, PAGE_SIZE, BUFFER_SIZE, useIndex);
+            snapshotRemoved = !Files.exists(Paths.get(DB_ROOT, "catalog.snap"));
+            fromSnapshot = mockCLI.mockInput(command);
+
+            // lose the snapshot like a crash would
+            mockCLI.exit();
+            Files.delete(Paths.get(DB_ROOT, "catalog.snap"));
+            mockCLI = new MockCLI(DB_ROOT, PAGE_SIZE, BUFFER_SIZE, useIndex);
+            fromRelations = mockCLI.mockInput(command);
+        } catch (IOException ioe) {
+            return tester.isEquals(command, expected, ioe.getMessage());
+        }
+
+        // Then
+        if (!snapshotWritten || !snapshotRemoved)
+            return tester.isEquals("catalog.snap", "written on exit and removed on load",
+                    "written: %s, removed: %s".formatted(snapshotWritten, snapshotRemoved));
+        if (tester.isEquals(command, expected, fromSnapshot) != 0)
+            return 1;
+        return tester.isEquals(command, expected, fromRelations);
+    }
+
+    private static int test_commits_are_logged_until_flush(boolean useIndex) {
+        Tester tester = new Tester("commits_are_logged_until_flush", useIndex);
+        String command = "insert into foo values (4 4 4);";
+
+        // Given
+        MockCLI mockCLI = buildMockCLI(useIndex);
+        mockCLI.mockInput("create table foo( x integer primarykey, y integer );");
+        mockCLI.mockInput("insert into foo values (1 1), (2 2), (3 3);");
+        mockCLI.mockInput("select * from foo;");
+        mockCLI.mockInput("alter table foo add z integer;");
+        boolean loggedBefore;
+        long logged;
+        boolean loggedAfterExit;
+        try {
+            loggedBefore = !logSegments().isEmpty();
+
+            // When
+            mockCLI.mockInput(command);
+            logged = logSizeOnDisk();
+            mockCLI.exit();
+            loggedAfterExit = !logSegments().isEmpty();
+        } catch (IOException ioe) {
+            return tester.isEquals(command, "logged", ioe.getMessage());
+        }
+
+        // Then
+        // alter table flushes the buffer and the select changes nothing, the insert is only in the log until exit
+        // writes the pages out
+        return tester.isEquals(command, "no log, insert logged, no log after exit",
+                "%s, %s, %s".formatted(
+                        loggedBefore ? "log" : "no log",
+                        logged > 0 ? "insert logged" : "insert not logged",
+                        loggedAfterExit ? "log after exit" : "no log after exit"));
+    }
+
+    private static int test_recover_committed_statements_after_crash(boolean useIndex) {
+        Tester tester = new Tester("recover_committed_statements_after_crash", useIndex);
+        String command = "select count(*) from foo;";
+
+        String expected = new StrBuilder()
+                .addLine("------------")
+                .addLine("| count(*) |")
+                .addLine("------------")
+                .addLine("|       300|")
+                .addLine("")
+                .build();
+
+        // Given
+        MockCLI mockCLI = buildMockCLI(useIndex);
+        mockCLI.mockInput("create table foo( x integer primarykey, name varchar(20) );");
+        long logSize = 0;
+        try {
+            for (int x = 0; x < 400; x++) {
+                mockCLI.mockInput("insert into foo values (%d \"name%d\");".formatted(x, x));
+                logSize = Math.max(logSize, logSizeOnDisk());
+            }
+        } catch (IOException ioe) {
+            return tester.isEquals(command, "log written", ioe.getMessage());
+        }
+        mockCLI.mockInput("delete from foo where x >= 300;");
+        mockCLI.mockInput("update foo set name = \"changed\" where x = 7;");
+
+        // When
+        // the old buffer is dropped without writing it out, as if the process was killed
+        try {
+            Files.write(logSegments().getLast(), new byte[]{1, 0, 0}, StandardOpenOption.APPEND);    // torn record
+        } catch (IOException ioe) {
+            return tester.isEquals(command, "log written", ioe.getMessage());
+        }
+        mockCLI = new MockCLI(DB_ROOT, PAGE_SIZE, BUFFER_SIZE, useIndex);
+        String count = mockCLI.mockInput(command);
+        String changed = mockCLI.mockInput("select name from foo where x = 7;");
+
+        // Then
+        // checkpoints keep the log to about two checkpoint intervals of 256 pages
+        if (logSize > 3L * 256 * PAGE_SIZE)
+            return tester.isEquals("wal.log", "at most %d bytes".formatted(3L * 256 * PAGE_SIZE), "%d bytes".formatted(logSize));
+        if (!changed.contains("changed"))
+            return tester.isEquals("select name from foo where x = 7;", "changed", changed);
+        return tester.isEquals(command, expected, count);
+    }
+
+    private static int test_stopping_background_writer_prints_nothing(boolean useIndex) {
+        Tester tester = new Tester("stopping_background_writer_prints_nothing", useIndex);
+
+        // Given
+        StringBuilder insert = new StringBuilder("insert into foo values ");
+        for (int x = 0; x < 4 * BUFFER_SIZE * PAGE_SIZE / 110; x++)
+            insert.append("(%d \"%s\"),".formatted(x, "n".repeat(100)));
+        insert.setCharAt(insert.length() - 1, ';');
+
+        // When
+        // each exit lands while the writer is busy with the pages the insert before it left dirty
+        PrintStream out = System.out;
+        ByteArrayOutputStream printed = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(printed));
+        try {
+            for (int round = 0; round < 10; round++) {
+                MockCLI mockCLI = buildMockCLI(useIndex);
+                mockCLI.mockInput("create table foo( x integer primarykey, name varchar(100) );");
+                mockCLI.mockInput(insert.toString());
+                mockCLI.exit();
+            }
+        } catch (IOException ioe) {
+            return tester.isEquals("exit;", "database written", ioe.getMessage());
+        } finally {
+            System.setOut(out);
+        }
+
+        // Then
+        String failures = printed.toString().lines()
+                .filter(line -> line.contains("Background page write failed"))
+                .findFirst().orElse("");
+        return tester.isEquals("exit;", "", failures);
+    }
+
+    private static int test_background_writer_cleans_buffer(boolean useIndex) {
+        Tester tester = new Tester("background_writer_cleans_buffer", useIndex);
+        String command = "select count(*) from foo;";
+
+        String expected = new StrBuilder()
+                .addLine("------------")
+                .addLine("| count(*) |")
+                .addLine("------------")
+                .addLine("|       300|")
+                .addLine("")
+                .build();
+
+        // Given
+        MockCLI mockCLI = buildMockCLI(useIndex);
+        StorageManager sm = mockCLI.getStorageManager();
+        mockCLI.mockInput("create table foo( x integer primarykey, name varchar(20) );");
+        for (int x = 0; x < 300; x++)
+            mockCLI.mockInput("insert into foo values (%d \"name%d\");".formatted(x, x));
+
+        // When
+        sm.stopPageWriter();    // restarted to clean the whole buffer
+        sm.startPageWriter(BUFFER_SIZE, BUFFER_SIZE, 1);
+        try {
+            for (int wait = 0; wait < 500 && sm.getDirtyPageCount() > 0; wait++)
+                Thread.sleep(10);
+        } catch (InterruptedException e) {
+            return tester.isEquals("page writer", "buffer written", e.getMessage());
+        }
+        int dirty = sm.getDirtyPageCount();
+        sm.stopPageWriter();
+        long evictionWrites = sm.getEvictionWrites();
+        mockCLI.mockInput(command);
+        long foregroundWrites = sm.getEvictionWrites() - evictionWrites;
+
+        // the old buffer is dropped without writing it out, as if the process was killed
+        mockCLI = new MockCLI(DB_ROOT, PAGE_SIZE, BUFFER_SIZE, useIndex);
+        String count = mockCLI.mockInput(command);
+
+        // Then
+        if (dirty > 0 || foregroundWrites > 0)
+            return tester.isEquals("page writer", "0 dirty pages, 0 eviction writes",
+                    "%d dirty pages, %d eviction writes".formatted(dirty, foregroundWrites));
+        return tester.isEquals(command, expected, count);
+    }
+
+    private static int test_failed_insert_is_rolled_back(boolean useIndex) {
+        Tester tester = new Tester("failed_insert_is_rolled_back", useIndex);
+
+        // Given
+        int n = PAGE_SIZE / 4;
+        StringBuilder evens = new StringBuilder("insert into foo values ");
+        StringBuilder odds = new StringBuilder("insert into foo values ");
+        for (int x = 0; x < n; x++) {
+            evens.append("(%d \"name%d\"),".formatted(2 * x, x));
+            odds.append("(%d \"name%d\"),".formatted(2 * x + 1, x));
+        }
+        evens.setCharAt(evens.length() - 1, ';');
+        odds.append("(%d \"again\");".formatted(2 * (n - 1)));   // the largest key is already in the table
+
+        MockCLI mockCLI = buildMockCLI(useIndex);
+        mockCLI.mockInput("create table foo( x integer primarykey, name varchar(20) );");
+        mockCLI.mockInput(evens.toString());
+        String before = mockCLI.mockInput("select * from foo;");
+
+        // When
+        String failure = mockCLI.mockInput(odds.toString());
+
+        // Then
+        // the odd keys fill every page past what it holds before the duplicate is found on the last one
+        String expectedFailure = "Execution Failure: Duplicate primary key '%d'\n".formatted(2 * (n - 1));
+        if (tester.isEquals(odds.toString(), expectedFailure, failure) != 0)
+            return 1;
+        return tester.isEquals("select * from foo;", before, mockCLI.mockInput("select * from foo;"));
+    }
+
+    private static int test_uncommitted_pages_are_not_evicted(boolean useIndex) {
+        Tester tester = new Tester("uncommitted_pages_are_not_evicted", useIndex);
+        String command = "select * from foo;";
+
+        // Given
+        int n = PAGE_SIZE / 4;
+        StringBuilder load = new StringBuilder("insert into foo values ");
+        for (int x = 0; x < n; x++)
+            load.append("(%d \"%s\"),".formatted(4 * x, "n".repeat(20)));
+        load.setCharAt(load.length() - 1, ';');
+
+        cleanUp();
+        MockCLI mockCLI = new MockCLI(DB_ROOT, PAGE_SIZE, 3, useIndex);
+        mockCLI.mockInput("create table foo( x integer primarykey, name varchar(20) );");
+        mockCLI.mockInput(load.toString());
+        // two records out of every 8 are deleted so each page has room for another one
+        for (int x = 0; x < n; x++) {
+            if (x % 8 == 2 || x % 8 == 6)
+                mockCLI.mockInput("delete from foo where x = %d;".formatted(4 * x));
+        }
+        String before = mockCLI.mockInput(command);
+
+        // a key in each group of 8 records fits in its page, the duplicate of the largest key fails on the last page
+        StringBuilder insert = new StringBuilder("insert into foo values ");
+        for (int x = 0; x < n; x += 8)
+            insert.append("(%d \"added\"), ".formatted(4 * x + 1));
+        insert.append("(%d \"again\");".formatted(4 * (n - 1)));
+
+        // When
+        mockCLI.mockInput(insert.toString());
+        String rolledBack = mockCLI.mockInput(command);
+        // the old buffer is dropped without writing it out, as if the process was killed
+        mockCLI = new MockCLI(DB_ROOT, PAGE_SIZE, 3, useIndex);
+        String recovered = mockCLI.mockInput(command);
+
+        // Then
+        // the pages the insert changed before it failed are more than the buffer holds, none of them reached the file
+        if (tester.isEquals(command, before, rolledBack) != 0)
+            return 1;
+        return tester.isEquals(command, before, recovered);
+    }
+
+    private static int test_failed_insert_keeps_row_count(boolean useIndex) {
+        Tester tester = new Tester("failed_insert_keeps_row_count", useIndex);
+        String command = "select count(*) from foo;";
+
+        // Given
+        int n = PAGE_SIZE / 4;
+        StringBuilder load = new StringBuilder("insert into foo values ");
+        for (int x = 0; x < n; x++)
+            load.append("(%d \"name%d\"),".formatted(2 * x, x));
+        load.setCharAt(load.length() - 1, ';');
+
+        MockCLI mockCLI = buildMockCLI(useIndex);
+        mockCLI.mockInput("create table foo( x integer primarykey, name varchar(20) );");
+        mockCLI.mockInput(load.toString());
+        String before = mockCLI.mockInput(command);
+
+        // When
+        // the first key is added to the first page before the duplicate of the largest key is found on the last one
+        mockCLI.mockInput("insert into foo values (1 \"a\"), (%d \"again\");".formatted(2 * (n - 1)));
+        String rolledBack = mockCLI.mockInput(command);
+        String reopened;
+        try {
+            mockCLI.exit();
+            mockCLI = new MockCLI(DB_ROOT, PAGE_SIZE, BUFFER_SIZE, useIndex);
+            reopened = mockCLI.mockInput(command);
+        } catch (IOException ioe) {
+            return tester.isEquals("exit;", "database written", ioe.getMessage());
+        }
+
+        // Then
+        // the saved statistics are the ones put back by the rollback
+        if (tester.isEquals(command, before, rolledBack) != 0)
+            return 1;
+        return tester.isEquals(command, before, reopened);
+    }
+
+    private static int test_sequential_scan_reads_ahead_without_evicting_hot_pages(boolean useIndex) {
+        Tester tester = new Tester("sequential_scan_reads_ahead_without_evicting_hot_pages", useIndex);
+        String command = "select x from big where name = \"none\";";
+
+        // Given
+        // twice as many pages as the buffer holds
+        String name = "n".repeat(100);
+        StringBuilder insert = new StringBuilder("insert into big values ");
+        for (int x = 0; x < 2 * BUFFER_SIZE * PAGE_SIZE / 100; x++)
+            insert.append("(%d \"%s\"),".formatted(x, name));
+        insert.setCharAt(insert.length() - 1, ';');
+
+        MockCLI mockCLI = buildMockCLI(useIndex);
+        mockCLI.mockInput("create table hot( x integer primarykey );");
+        mockCLI.mockInput("insert into hot values (1);");
+        mockCLI.mockInput("create table big( x integer primarykey, name varchar(100) );");
+        mockCLI.mockInput(insert.toString());
+        try {
+            mockCLI.exit();
+        } catch (IOException ioe) {
+            return tester.isEquals("exit;", "database written", ioe.getMessage());
+        }
+        mockCLI = new MockCLI(DB_ROOT, PAGE_SIZE, BUFFER_SIZE, useIndex);
+        StorageManager sm = mockCLI.getStorageManager();
+        mockCLI.mockInput("select * from hot;");
+
+        // When
+        long hits = sm.getBufferHits();
+        mockCLI.mockInput(command);
+        long scanHits = sm.getBufferHits() - hits;
+        long diskReads = sm.getDiskReads();
+        mockCLI.mockInput("select * from hot;");
+        long hotReads = sm.getDiskReads() - diskReads;
+
+        // Then
+        // a scan reads ahead at most a quarter of the buffer, a buffer of less than 8 pages reads one page at a time
+        String expected = BUFFER_SIZE / 4 > 1 ? "scan read ahead, hot page kept" : "scan read page by page, hot page kept";
+        return tester.isEquals(command, expected,
+                "%s, %s".formatted(scanHits > 0 ? "scan read ahead" : "scan read page by page",
+                        hotReads == 0 ? "hot page kept" : "hot page evicted"));
+    }
+
+    /**
+     * Run point lookups mixed with full scans on a table larger than the buffer, the lookups read more pages once than
+     * the buffer holds
+     *
+     * @param bufferSize Number of pages the buffer holds
+     * @return Pages read from disk by the workload
+     */
+    private static long runMixedWorkload(boolean useIndex, int bufferSize, ReplacementPolicy policy) throws IOException {
+        int rows = 4 * bufferSize * PAGE_SIZE / 110;
+        String name = "n".repeat(100);
+        StringBuilder insert = new StringBuilder("insert into big values ");
+        for (int x = 0; x < rows; x++)
+            insert.append("(%d \"%s\"),".formatted(x, name));
+        insert.setCharAt(insert.length() - 1, ';');
+
+        MockCLI mockCLI = buildMockCLI(useIndex);
+        mockCLI.mockInput("create table big( x integer primarykey, name varchar(100) );");
+        mockCLI.mockInput(insert.toString());
+        mockCLI.exit();
+
+        mockCLI = new MockCLI(DB_ROOT, PAGE_SIZE, bufferSize, useIndex);
+        StorageManager sm = mockCLI.getStorageManager();
+        sm.setReplacementPolicy(policy);
+        long diskReads = sm.getDiskReads();
+        for (int round = 0; round < 3; round++) {
+            // the same few keys, then twice a buffer of keys anywhere in the table that are read once
+            for (int lookup = 0; lookup < 5; lookup++)
+                mockCLI.mockInput("select * from big where x = %d;".formatted(lookup));
+            for (int lookup = 0; lookup < 2 * bufferSize; lookup++)
+                mockCLI.mockInput("select * from big where x = %d;".formatted((lookup * 7919 + round * 31) % rows));
+            mockCLI.mockInput("select x from big where name = \"none\";");
+        }
+        diskReads = sm.getDiskReads() - diskReads;
+        mockCLI.exit();
+        return diskReads;
+    }
+
+    private static int test_two_queue_policy_reads_no_more_than_lru(boolean useIndex) {
+        Tester tester = new Tester("two_queue_policy_reads_no_more_than_lru", useIndex);
+
+        // Given
+        // 2Q only pays off once the buffer holds the pages every lookup passes through next to the ones read once, a
+        // smaller configured buffer runs the workload at 16 pages
+        int bufferSize = Math.max(BUFFER_SIZE, 16);
+        long lruReads;
+        long twoQueueReads;
+
+        // When
+        try {
+            lruReads = runMixedWorkload(useIndex, bufferSize, new LRUPolicy());
+            twoQueueReads = runMixedWorkload(useIndex, bufferSize, new TwoQueuePolicy(bufferSize));
+        } catch (IOException ioe) {
+            return tester.isEquals("exit;", "database written", ioe.getMessage());
+        }
+
+        // Then
+        return tester.isEquals("mixed lookups and scans", "2Q reads no more than LRU",
+                twoQueueReads <= lruReads
+                        ? "2Q reads no more than LRU"
+                        : "2Q reads %d pages, LRU reads %d".formatted(twoQueueReads, lruReads));
+    }
+
+    private static int test_pinned_pages_survive_splits_in_a_full_buffer(boolean useIndex) {
+        Tester tester = new Tester("pinned_pages_survive_splits_in_a_full_buffer", useIndex);
+        String longName = "n".repeat(100);
+        String command = "select count(*) from big where name = \"%s\";".formatted(longName);
+
+        // Given
+        // twice as many pages as the buffer holds, even keys only
+        int rows = 2 * BUFFER_SIZE * PAGE_SIZE / 110;
+        StringBuilder insert = new StringBuilder("insert into big values ");
+        for (int x = 0; x < rows; x++)
+            insert.append("(%d \"n\"),".formatted(2 * x));
+        insert.setCharAt(insert.length() - 1, ';');
+
+        MockCLI mockCLI = buildMockCLI(useIndex);
+        mockCLI.mockInput("create table big( x integer primarykey, name varchar(100) );");
+        mockCLI.mockInput(insert.toString());
+        mockCLI.mockInput("select count(*) from big;");     // fill the buffer
+
+        // When
+        // records grow in the middle of full pages, every one of them splits a page while the buffer is full
+        for (int i = 0; i < 10; i++) {
+            mockCLI.mockInput("insert into big values (%d \"%s\");".formatted(2 * (i * rows / 10) + 1, longName));
+            mockCLI.mockInput("update big set name = \"%s\" where x = %d;".formatted(longName, 2 * (i * rows / 10 + rows / 20)));
+        }
+
+        String total;
+        String changed;
+        try {
+            mockCLI.exit();
+            mockCLI = new MockCLI(DB_ROOT, PAGE_SIZE, BUFFER_SIZE, useIndex);
+            total = mockCLI.mockInput("select count(*) from big;");
+            changed = mockCLI.mockInput(command);
+        } catch (IOException ioe) {
+            return tester.isEquals(command, "|        20|", ioe.getMessage());
+        }
+
+        // Then
+        if (!total.contains("|%10d|".formatted(rows + 10)))
+            return tester.isEquals("select count(*) from big;", "|%10d|".formatted(rows + 10), total);
+        if (!changed.contains("|        20|"))
+            return tester.isEquals(command, "|        20|", changed);
+        return 0;
+    }
+
+    private static int test_reused_frames_never_show_evicted_pages(boolean useIndex) {
+        Tester tester = new Tester("reused_frames_never_show_evicted_pages", useIndex);
+        String aName = "a".repeat(50);
+        String bName = "b".repeat(50);
+        String command = "select count(*) from a where name = \"%s\";".formatted(aName);
+
+        // Given
+        // each table fills the buffer on its own, reading one evicts the other
+        int rows = BUFFER_SIZE * PAGE_SIZE / 60;
+        StringBuilder insertA = new StringBuilder("insert into a values ");
+        StringBuilder insertB = new StringBuilder("insert into b values ");
+        for (int x = 0; x < rows; x++) {
+            insertA.append("(%d \"%s\"),".formatted(x, aName));
+            insertB.append("(%d \"%s\"),".formatted(x, bName));
+        }
+        insertA.setCharAt(insertA.length() - 1, ';');
+        insertB.setCharAt(insertB.length() - 1, ';');
+
+        MockCLI mockCLI = buildMockCLI(useIndex);
+        mockCLI.mockInput("create table a( x integer primarykey, name varchar(50) );");
+        mockCLI.mockInput(insertA.toString());
+        mockCLI.mockInput("create table b( x integer primarykey, name varchar(50) );");
+        mockCLI.mockInput(insertB.toString());
+
+        // When
+        String countA = null;
+        String countB = null;
+        for (int round = 0; round < 3; round++) {
+            countA = mockCLI.mockInput(command);
+            countB = mockCLI.mockInput("select count(*) from b where name = \"%s\";".formatted(bName));
+            mockCLI.mockInput("delete from b where x = %d;".formatted(round));
+        }
+
+        // Then
+        if (!countB.contains("|%10d|".formatted(rows - 2)))
+            return tester.isEquals("select count(*) from b where name = <b>;", "|%10d|".formatted(rows - 2), countB);
+        if (!countA.contains("|%10d|".formatted(rows)))
+            return tester.isEquals(command, "|%10d|".formatted(rows), countA);
+        return 0;
+    }
+
+    /**
+     * Run inserts, splits, updates and deletes on a table larger than the buffer, then read it back after a restart
+     * in the other I/O mode
+     *
+     * @return Output of the reads
+     */
+    private static String runReadWriteWorkload(boolean useIndex, boolean memoryMapped) throws IOException {
+        int rows = 2 * BUFFER_SIZE * PAGE_SIZE / 60;
+        StringBuilder insert = new StringBuilder("insert into foo values ");
+        for (int x = 0; x < rows; x++)
+            insert.append("(%d \"%s\"),".formatted(2 * x, "n".repeat(40)));
+        insert.setCharAt(insert.length() - 1, ';');
+
+        cleanUp();
+        MockCLI mockCLI = new MockCLI(DB_ROOT, PAGE_SIZE, BUFFER_SIZE, useIndex, memoryMapped);
+        mockCLI.mockInput("create table foo( x integer primarykey, name varchar(100) );");
+        mockCLI.mockInput(insert.toString());
+        for (int i = 0; i < 10; i++)
+            mockCLI.mockInput("insert into foo values (%d \"%s\");".formatted(2 * (i * rows / 10) + 1, "m".repeat(100)));
+        mockCLI.mockInput("update foo set name = \"changed\" where x < 20;");
+        mockCLI.mockInput("delete from foo where x > %d;".formatted(rows));
+        StringBuilder output = new StringBuilder(mockCLI.mockInput("select x, name from foo where x < 40 orderby x;"));
+        mockCLI.exit();
+
+        mockCLI = new MockCLI(DB_ROOT, PAGE_SIZE, BUFFER_SIZE, useIndex, !memoryMapped);
+        output.append(mockCLI.mockInput("select count(*) from foo;"));
+        output.append(mockCLI.mockInput("select x from foo orderby x;"));
+        mockCLI.exit();
+        return output.toString();
+    }
+
+    private static int test_failed_insert_leaves_mapped_files_unchanged(boolean useIndex) {
+        Tester tester = new Tester("failed_insert_leaves_mapped_files_unchanged", useIndex);
+        String command = "select * from foo;";
+
+        // Given
+        int n = PAGE_SIZE / 4;
+        StringBuilder evens = new StringBuilder("insert into foo values ");
+        StringBuilder odds = new StringBuilder("insert into foo values ");
+        for (int x = 0; x < n; x++) {
+            evens.append("(%d \"name%d\"),".formatted(2 * x, x));
+            odds.append("(%d \"name%d\"),".formatted(2 * x + 1, x));
+        }
+        evens.setCharAt(evens.length() - 1, ';');
+        odds.append("(%d \"again\");".formatted(2 * (n - 1)));   // the largest key is already in the table
+
+        String before;
+        String rolledBack;
+        String reopened;
+        try {
+            cleanUp();
+            MockCLI mockCLI = new MockCLI(DB_ROOT, PAGE_SIZE, BUFFER_SIZE, useIndex, true);
+            mockCLI.mockInput("create table foo( x integer primarykey, name varchar(20) );");
+            mockCLI.mockInput(evens.toString());
+            mockCLI.exit();
+            mockCLI = new MockCLI(DB_ROOT, PAGE_SIZE, BUFFER_SIZE, useIndex, true);
+            before = mockCLI.mockInput(command);
+
+            // When
+            mockCLI.mockInput(odds.toString());
+            rolledBack = mockCLI.mockInput(command);
+            mockCLI.exit();
+            mockCLI = new MockCLI(DB_ROOT, PAGE_SIZE, BUFFER_SIZE, useIndex, false);
+            reopened = mockCLI.mockInput(command);
+            mockCLI.exit();
+        } catch (IOException ioe) {
+            return tester.isEquals("exit;", "database written", ioe.getMessage());
+        }
+
+        // Then
+        // every page read through the map changed in a frame of its own, the files never got the odd keys
+        if (tester.isEquals(command, before, rolledBack) != 0)
+            return 1;
+        return tester.isEquals(command, before, reopened);
+    }
+
+    private static int test_memory_mapped_files_match_buffered_files(boolean useIndex) {
+        Tester tester = new Tester("memory_mapped_files_match_buffered_files", useIndex);
+
+        // Given
+        String buffered;
+        String mapped;
+
+        // When
+        try {
+            buffered = runReadWriteWorkload(useIndex, false);
+            mapped = runReadWriteWorkload(useIndex, true);
+        } catch (IOException ioe) {
+            return tester.isEquals("exit;", "database written", ioe.getMessage());
+        }
+
+        // Then
+        return tester.isEquals("inserts, updates and deletes through memory maps", buffered, mapped);
+    }
+
     /**
      * Run tests
      *
@@ -1709,6 +3576,48 @@ public class TestRunner {
             exitCode += test_update_when_attributeNamesAreCapitalized_then_workNormally(isIdxed);
             exitCode += test_update_when_tableNameHasWeirdCapitalization_then_workNormally(isIdxed);
             exitCode += test_update_when_primaryKeyIsNotInPositionZero_then_workNormally(isIdxed);
+            exitCode += test_select_projection_where_on_unselected_column(isIdxed);
+            exitCode += test_select_orderby_larger_than_buffer(isIdxed);
+            exitCode += test_select_orderby_limit_offset(isIdxed);
+            exitCode += test_select_where_limit(isIdxed);
+            exitCode += test_inserts_with_small_buffer(isIdxed);
+            exitCode += test_deletes_with_small_buffer(isIdxed);
+            exitCode += test_select_orderby_primarykey_limit(isIdxed);
+            exitCode += test_select_groupby_aggregates(isIdxed);
+            exitCode += test_select_aggregates_no_records(isIdxed);
+            exitCode += test_select_count_star(isIdxed);
+            exitCode += test_select_groupby_larger_than_buffer(isIdxed);
+            exitCode += test_display_info_statistics(isIdxed);
+            exitCode += test_analyze_column_statistics(isIdxed);
+            exitCode += test_explain_select_update_delete(isIdxed);
+            exitCode += test_prepare_and_execute(isIdxed);
+            exitCode += test_long_insert_and_where(isIdxed);
+            exitCode += test_batch_insert_page_boundary_keys(isIdxed);
+            exitCode += test_batch_insert_small_pages(isIdxed);
+            exitCode += test_batch_insert(isIdxed);
+            exitCode += test_copy_from_file(isIdxed);
+            exitCode += test_failed_copy_keeps_row_count(isIdxed);
+            exitCode += test_large_copy_spills_to_the_log(isIdxed);
+            exitCode += test_copy_to_file(isIdxed);
+            exitCode += test_update_in_place_and_relocate(isIdxed);
+            exitCode += test_update_every_record_many_pages(isIdxed);
+            exitCode += test_delete_where_many_pages(isIdxed);
+            exitCode += test_alter_without_rewriting_records(isIdxed);
+            exitCode += test_recreate_altered_table_after_restart(isIdxed);
+            exitCode += test_restart_with_and_without_catalog_snapshot(isIdxed);
+            exitCode += test_commits_are_logged_until_flush(isIdxed);
+            exitCode += test_recover_committed_statements_after_crash(isIdxed);
+            exitCode += test_background_writer_cleans_buffer(isIdxed);
+            exitCode += test_stopping_background_writer_prints_nothing(isIdxed);
+            exitCode += test_failed_insert_is_rolled_back(isIdxed);
+            exitCode += test_uncommitted_pages_are_not_evicted(isIdxed);
+            exitCode += test_failed_insert_keeps_row_count(isIdxed);
+            exitCode += test_sequential_scan_reads_ahead_without_evicting_hot_pages(isIdxed);
+            exitCode += test_two_queue_policy_reads_no_more_than_lru(isIdxed);
+            exitCode += test_pinned_pages_survive_splits_in_a_full_buffer(isIdxed);
+            exitCode += test_reused_frames_never_show_evicted_pages(isIdxed);
+            exitCode += test_memory_mapped_files_match_buffered_files(isIdxed);
+            exitCode += test_failed_insert_leaves_mapped_files_unchanged(isIdxed);
             long endTime = System.currentTimeMillis();
             elapsedTimes[i] = (endTime - startTime) / 1000.;
             i++;
@@ -8,6 +8,7 @@ import sm.StorageManager;
 import util.Console;
 
 import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.OutputStream;
 import java.io.PrintStream;
 
@@ -20,6 +21,7 @@ import java.io.PrintStream;
  */
 public class MockCLI {
 
+    private static MockCLI newest;     // only the newest database runs a page writer, like one process at a time
     private final PrintStream stdout = System.out;
     private final Catalog DBCatalog;
     private final StorageManager DBStorageManager;
@@ -33,11 +35,60 @@ public class MockCLI {
      * @param index      Boolean to determine whether to use an index or not
      */
     public MockCLI(String dbRoot, int pageSize, int bufferSize, boolean index) {
+        this(dbRoot, pageSize, bufferSize, index, false);
+    }
+
+    /**
+     * Mimicked Constructor of the actual CLI class
+     *
+     * @param dbRoot       Root path of database
+     * @param pageSize     Page size in bytes
+     * @param bufferSize   Number of pages buffer can hold
+     * @param index        Boolean to determine whether to use an index or not
+     * @param memoryMapped Boolean to determine whether to memory-map the table and index files
+     */
+    public MockCLI(String dbRoot, int pageSize, int bufferSize, boolean index, boolean memoryMapped) {
+        stopPageWriter();   // the database before this one is left as if its process was killed
         PrintStream stdout = System.out;
         System.setOut(new PrintStream(OutputStream.nullOutputStream()));    // temp suppress output
-        this.DBCatalog = new Catalog(pageSize, bufferSize, dbRoot, index);
+        this.DBCatalog = new Catalog(pageSize, bufferSize, dbRoot, index, memoryMapped);
         this.DBStorageManager = this.DBCatalog.StorageManager;
         System.setOut(stdout);
+
+        this.DBStorageManager.startPageWriter();     // runs until exit or until the next MockCLI is created
+        newest = this;
+    }
+
+    /**
+     * Stop the page writer of the newest MockCLI, so nothing writes to its files anymore. Not every test exits, this
+     * is done before its files are removed
+     */
+    public static void stopPageWriter() {
+        if (newest != null)
+            newest.DBStorageManager.stopPageWriter();
+    }
+
+    /**
+     * @return Storage manager of the database
+     */
+    public StorageManager getStorageManager() {
+        return this.DBStorageManager;
+    }
+
+    /**
+     * @return Catalog of the database
+     */
+    public Catalog getCatalog() {
+        return this.DBCatalog;
+    }
+
+    /**
+     * Mimic exiting the CLI, saving the catalog and writing out the buffer
+     *
+     * @throws IOException Failed to write to the database
+     */
+    public void exit() throws IOException {
+        this.DBCatalog.close();
     }
 
     /**
@@ -53,9 +104,17 @@ public class MockCLI {
         try {
             Command cmd = CommandFactory.buildCommand(stdin, this.DBCatalog, this.DBStorageManager);
             cmd.execute();
+            this.DBStorageManager.commit();
         } catch (CommandException e) {
-            // fail if error with command
+            // fail if error with command, what it changed is undone instead of logged
             Console.err(e.getMessage());
+            try {
+                this.DBStorageManager.rollback();
+            } catch (IOException ioe) {
+                Console.err("Failed to write to the log: " + ioe.getMessage());
+            }
+        } catch (IOException ioe) {
+            Console.err("Failed to write to the log: " + ioe.getMessage());
         }
 
         System.setOut(new PrintStream(this.stdout));    // reset output